@@ -0,0 +1,429 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.binary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import org.openapplication.graph.streaming.GraphReaderCallback;
+import org.openapplication.graph.streaming.GraphWriter;
+
+public class BinaryRDF implements GraphWriter {
+
+	public static final String MEDIA_TYPE = "application/x-openapp-graph";
+
+	public static final String MEDIA_TYPE_DEFLATE = MEDIA_TYPE
+			+ ";compression=deflate";
+
+	static final Charset CHARSET = Charset.forName("UTF-8");
+
+	static final byte[] MAGIC = { 'O', 'A', 'G', 'B' };
+
+	static final int VERSION = 1;
+
+	static final int BLOCK_DICTIONARY = 'D';
+
+	static final int BLOCK_TRIPLES = 'T';
+
+	static final int BLOCK_QUADS = 'Q';
+
+	static final int BLOCK_RESET = 'R';
+
+	static final int BLOCK_END = 'E';
+
+	static final int FLAG_DEFLATE = 1;
+
+	static final int TERM_IRI = 1;
+
+	static final int TERM_BLANK = 2;
+
+	static final int TERM_STRING = 3;
+
+	static final int TERM_LANGUAGE_STRING = 4;
+
+	static final int TERM_TYPED_LITERAL = 5;
+
+	private static final int BLOCK_STATEMENTS = 4096;
+
+	private static final int DICTIONARY_LIMIT = 1 << 20;
+
+	public static void parse(InputStream in, GraphReaderCallback callback)
+			throws IOException {
+		new BinaryRDFParser(in).parse(callback);
+	}
+
+	public static void parse(ReadableByteChannel in,
+			GraphReaderCallback callback) throws IOException {
+		new BinaryRDFParser(in).parse(callback);
+	}
+
+	public static void parse(ByteBuffer in, GraphReaderCallback callback)
+			throws IOException {
+		new BinaryRDFParser(in).parse(callback);
+	}
+
+	static final class Buffer {
+
+		byte[] bytes = new byte[8192];
+
+		int length;
+
+		void ensure(int count) {
+			if (length + count > bytes.length) {
+				byte[] newBytes = new byte[Math.max(bytes.length * 2, length
+						+ count)];
+				System.arraycopy(bytes, 0, newBytes, 0, length);
+				bytes = newBytes;
+			}
+		}
+
+		void writeByte(int b) {
+			ensure(1);
+			bytes[length++] = (byte) b;
+		}
+
+		void writeVarint(long value) {
+			ensure(10);
+			while ((value & ~0x7FL) != 0) {
+				bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[length++] = (byte) value;
+		}
+
+		void writeString(String value) {
+			byte[] encoded = value.getBytes(CHARSET);
+			writeVarint(encoded.length);
+			ensure(encoded.length);
+			System.arraycopy(encoded, 0, bytes, length, encoded.length);
+			length += encoded.length;
+		}
+
+	}
+
+	private final OutputStream out;
+
+	private final Deflater deflater;
+
+	private final Buffer header = new Buffer();
+
+	private final Buffer dictionary = new Buffer();
+
+	private final Buffer statements = new Buffer();
+
+	private final Buffer compressed;
+
+	private int dictionaryCount, statementCount;
+
+	private boolean quads;
+
+	private long nextTerm = 1;
+
+	private final Map<String, Long> resources = new HashMap<String, Long>();
+
+	private final Map<String, Long> strings = new HashMap<String, Long>();
+
+	private final Map<String, Map<String, Long>> languageStrings = new HashMap<String, Map<String, Long>>();
+
+	private final Map<String, Map<String, Long>> typedLiterals = new HashMap<String, Map<String, Long>>();
+
+	private String currentGraph, currentSubject, currentPredicate;
+
+	private final Deque<String[]> definitions = new ArrayDeque<String[]>();
+
+	private int nextDefinition;
+
+	public BinaryRDF(OutputStream out) throws IOException {
+		this(out, false);
+	}
+
+	public BinaryRDF(OutputStream out, boolean deflate) throws IOException {
+		this.out = out;
+		if (deflate) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			compressed = new Buffer();
+		} else {
+			deflater = null;
+			compressed = null;
+		}
+		out.write(MAGIC);
+		out.write(VERSION);
+	}
+
+	private long encodeResource(String resource) {
+		Long id = resources.get(resource);
+		if (id != null)
+			return id;
+		if (resource.startsWith("_:")) {
+			dictionary.writeByte(TERM_BLANK);
+			dictionary.writeString(resource.substring(2));
+		} else {
+			dictionary.writeByte(TERM_IRI);
+			dictionary.writeString(resource);
+		}
+		dictionaryCount++;
+		resources.put(resource, id = nextTerm++);
+		return id;
+	}
+
+	private long encodeLiteral(String literal, String language,
+			String dataType) {
+		Map<String, Long> literals;
+		if (language != null) {
+			literals = languageStrings.get(language);
+			if (literals == null)
+				languageStrings.put(language,
+						literals = new HashMap<String, Long>());
+		} else if (dataType != null) {
+			literals = typedLiterals.get(dataType);
+			if (literals == null)
+				typedLiterals.put(dataType,
+						literals = new HashMap<String, Long>());
+		} else
+			literals = strings;
+		Long id = literals.get(literal);
+		if (id != null)
+			return id;
+		if (language != null) {
+			dictionary.writeByte(TERM_LANGUAGE_STRING);
+			dictionary.writeString(literal);
+			dictionary.writeString(language);
+		} else if (dataType != null) {
+			// Data types are IRIs, so they are defined as terms of their own
+			long dataTypeId = encodeResource(dataType);
+			dictionary.writeByte(TERM_TYPED_LITERAL);
+			dictionary.writeString(literal);
+			dictionary.writeVarint(dataTypeId);
+		} else {
+			dictionary.writeByte(TERM_STRING);
+			dictionary.writeString(literal);
+		}
+		dictionaryCount++;
+		literals.put(literal, id = nextTerm++);
+		return id;
+	}
+
+	private void writeIds(long graph, long subject, long predicate, long object)
+			throws IOException {
+		if (quads)
+			statements.writeVarint(graph);
+		statements.writeVarint(subject);
+		statements.writeVarint(predicate);
+		statements.writeVarint(object);
+		if (++statementCount == BLOCK_STATEMENTS)
+			writeBlocks();
+	}
+
+	private void writeBlocks() throws IOException {
+		// Terms must be defined before the statements that refer to them
+		if (dictionaryCount > 0) {
+			writeBlock(BLOCK_DICTIONARY, dictionaryCount, dictionary);
+			dictionaryCount = 0;
+		}
+		if (statementCount > 0) {
+			writeBlock(quads ? BLOCK_QUADS : BLOCK_TRIPLES, statementCount,
+					statements);
+			statementCount = 0;
+		}
+		if (nextTerm > DICTIONARY_LIMIT) {
+			// Keep the dictionary bounded on both sides for long streams
+			writeBlock(BLOCK_RESET, 0, null);
+			resources.clear();
+			strings.clear();
+			languageStrings.clear();
+			typedLiterals.clear();
+			nextTerm = 1;
+		}
+	}
+
+	private void writeBlock(int type, int count, Buffer payload)
+			throws IOException {
+		header.length = 0;
+		header.writeByte(type);
+		if (payload == null) {
+			header.writeByte(0);
+			header.writeVarint(0);
+			header.writeVarint(0);
+			out.write(header.bytes, 0, header.length);
+			return;
+		}
+		Buffer stored = payload;
+		if (deflater != null) {
+			deflater.reset();
+			deflater.setInput(payload.bytes, 0, payload.length);
+			deflater.finish();
+			compressed.length = 0;
+			while (!deflater.finished()) {
+				compressed.ensure(4096);
+				compressed.length += deflater.deflate(compressed.bytes,
+						compressed.length, compressed.bytes.length
+								- compressed.length);
+			}
+			if (compressed.length < payload.length)
+				stored = compressed;
+		}
+		header.writeByte(stored == payload ? 0 : FLAG_DEFLATE);
+		header.writeVarint(count);
+		header.writeVarint(stored.length);
+		if (stored != payload)
+			header.writeVarint(payload.length);
+		out.write(header.bytes, 0, header.length);
+		out.write(stored.bytes, 0, stored.length);
+		payload.length = 0;
+	}
+
+	// Labels of anonymous definitions start with "_:#", so document labels
+	// that do are stored with another '#' to keep the two apart
+	private static String escape(String resource) {
+		return resource != null && resource.startsWith("_:#") ? "_:#"
+				+ resource.substring(2) : resource;
+	}
+
+	@Override
+	public void writeStatement(String graph, String subject, String predicate,
+			String object, String literal, String language, String dataType)
+			throws IOException {
+		statement(escape(graph), escape(subject), escape(predicate),
+				escape(object), literal, language, dataType);
+	}
+
+	private void statement(String graph, String subject, String predicate,
+			String object, String literal, String language, String dataType)
+			throws IOException {
+		if (object == null && literal == null) {
+			currentGraph = graph;
+			currentSubject = subject;
+			currentPredicate = predicate;
+			return;
+		}
+		// Switching between triples and quads ends the block, which may
+		// reset the dictionary, so that happens before any term is encoded
+		if (quads != (graph != null)) {
+			writeBlocks();
+			quads = graph != null;
+		}
+		long g = graph == null ? 0 : encodeResource(graph);
+		long s = encodeResource(subject);
+		long p = encodeResource(predicate);
+		long o = object != null ? encodeResource(object) : encodeLiteral(
+				literal, language, dataType);
+		writeIds(g, s, p, o);
+	}
+
+	@Override
+	public void collapse() throws IOException {
+	}
+
+	@Override
+	public void collapse(boolean closeGraph) throws IOException {
+	}
+
+	@Override
+	public void trim(int maxStripes) throws IOException {
+	}
+
+	@Override
+	public int getMaxStripes() {
+		return 0;
+	}
+
+	@Override
+	public void setMaxStripes(int count) {
+		if (count < 0)
+			throw new IllegalArgumentException();
+	}
+
+	@Override
+	public void writeStartStatement(String subject, String predicate)
+			throws IOException {
+		currentGraph = null;
+		currentSubject = escape(subject);
+		currentPredicate = escape(predicate);
+	}
+
+	@Override
+	public void writeEndStatement() throws IOException {
+		currentSubject = null;
+		currentPredicate = null;
+	}
+
+	@Override
+	public void writeStartDefinition(String subject) throws IOException {
+		subject = subject == null ? "_:#d" + nextDefinition++ : escape(subject);
+		// A definition outside any statement only opens a subject
+		if (currentSubject != null && currentPredicate != null)
+			statement(currentGraph, currentSubject, currentPredicate, subject,
+					null, null, null);
+		definitions.push(new String[] { currentSubject, currentPredicate });
+		currentSubject = subject;
+		currentPredicate = null;
+	}
+
+	@Override
+	public void writeEndDefinition() throws IOException {
+		String[] definition = definitions.pop();
+		currentSubject = definition[0];
+		currentPredicate = definition[1];
+	}
+
+	@Override
+	public void writeStartPredicate(String predicate) throws IOException {
+		currentPredicate = escape(predicate);
+	}
+
+	@Override
+	public void writeEndPredicate() throws IOException {
+		currentPredicate = null;
+	}
+
+	@Override
+	public void writeLiteral(String literal, String language, String dataType)
+			throws IOException {
+		statement(currentGraph, currentSubject, currentPredicate, null,
+				literal, language, dataType);
+	}
+
+	@Override
+	public void writeIRI(String object) throws IOException {
+		statement(currentGraph, currentSubject, currentPredicate,
+				escape(object), null, null, null);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writeBlocks();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writeBlocks();
+		writeBlock(BLOCK_END, 0, null);
+		if (deflater != null)
+			deflater.end();
+		out.close();
+	}
+
+}
@@ -0,0 +1,456 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.binary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.openapplication.graph.streaming.BatchGraphReaderCallback;
+import org.openapplication.graph.streaming.CharSequenceGraphReaderCallback;
+import org.openapplication.graph.streaming.EncodedGraphReaderCallback;
+import org.openapplication.graph.streaming.GraphReaderCallback;
+import org.openapplication.graph.streaming.StatementBatch;
+import org.openapplication.graph.streaming.Utf8Sequence;
+
+final class BinaryRDFParser {
+
+	private final ReadableByteChannel channel;
+
+	private ByteBuffer in;
+
+	private Inflater inflater;
+
+	private byte[] compressed = new byte[0], inflated = new byte[0];
+
+	// Term text is kept as UTF-8 and only turned into strings on demand
+	private byte[] termBytes = new byte[65536];
+
+	private int termBytesLength;
+
+	private byte[] kinds = new byte[1024];
+
+	private int[] offsets = new int[1024], lengths = new int[1024];
+
+	// Language tag offsets and lengths, or data type term ids
+	private int[] qualifierOffsets = new int[1024],
+			qualifierLengths = new int[1024];
+
+	private String[] values = new String[1024], qualifiers = new String[1024];
+
+	// Blank nodes by label for the whole stream, since a label is defined
+	// again after each dictionary reset
+	private final Map<String, String> blankNodes = new HashMap<String, String>();
+
+	private long[] ids;
+
+	private int termCount;
+
+	private final Utf8Sequence subjectView = new Utf8Sequence(),
+			predicateView = new Utf8Sequence(),
+			objectView = new Utf8Sequence(),
+			qualifierView = new Utf8Sequence();
+
+	private String currentGraph;
+
+	private BatchGraphReaderCallback batches;
+
+	private StatementBatch batch;
+
+	BinaryRDFParser(InputStream in) {
+		this(Channels.newChannel(in));
+	}
+
+	BinaryRDFParser(ReadableByteChannel channel) {
+		this.channel = channel;
+		in = ByteBuffer.allocate(65536);
+		in.flip();
+	}
+
+	BinaryRDFParser(ByteBuffer in) {
+		// Blocks are read straight out of the buffer, which may be direct or
+		// memory-mapped; only term text and compressed blocks are copied
+		this.channel = null;
+		this.in = in;
+	}
+
+	private void ensure(int count) throws IOException {
+		if (in.remaining() >= count)
+			return;
+		if (channel == null)
+			throw new EOFException();
+		if (count > in.capacity()) {
+			ByteBuffer buffer = ByteBuffer.allocate(Math.max(count,
+					in.capacity() * 2));
+			buffer.put(in);
+			buffer.flip();
+			in = buffer;
+		}
+		in.compact();
+		while (in.position() < count)
+			if (channel.read(in) < 0) {
+				in.flip();
+				throw new EOFException();
+			}
+		in.flip();
+	}
+
+	private int readByte() throws IOException {
+		ensure(1);
+		return in.get() & 0xFF;
+	}
+
+	private long readVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed binary graph number");
+	}
+
+	// A length or count, which must fit in an int
+	private int readLength() throws IOException {
+		long value = readVarint();
+		if (value < 0 || value > Integer.MAX_VALUE)
+			throw new IOException("Malformed binary graph length: " + value);
+		return (int) value;
+	}
+
+	private static int readByte(ByteBuffer payload) throws IOException {
+		if (!payload.hasRemaining())
+			throw new IOException("Truncated binary graph block");
+		return payload.get();
+	}
+
+	private static long readVarint(ByteBuffer payload) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte(payload);
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IOException("Malformed binary graph number");
+	}
+
+	// A reference to a term that has been defined
+	private int readTerm(ByteBuffer payload) throws IOException {
+		long id = readVarint(payload);
+		if (id < 1 || id > termCount)
+			throw new IOException("Undefined binary graph term: " + id);
+		return (int) id;
+	}
+
+	private int readBytes(ByteBuffer payload) throws IOException {
+		long value = readVarint(payload);
+		if (value < 0 || value > payload.remaining())
+			throw new IOException("Truncated binary graph block");
+		int length = (int) value;
+		if (termBytesLength + length > termBytes.length) {
+			byte[] newBytes = new byte[Math.max(termBytes.length * 2,
+					termBytesLength + length)];
+			System.arraycopy(termBytes, 0, newBytes, 0, termBytesLength);
+			termBytes = newBytes;
+		}
+		payload.get(termBytes, termBytesLength, length);
+		termBytesLength += length;
+		return length;
+	}
+
+	private CharSequence term(int id, Utf8Sequence view) {
+		String value = values[id];
+		return value != null ? value : view.set(termBytes, offsets[id],
+				lengths[id]);
+	}
+
+	private String string(int id) {
+		String value = values[id];
+		if (value == null)
+			values[id] = value = new String(termBytes, offsets[id],
+					lengths[id], BinaryRDF.CHARSET);
+		return value;
+	}
+
+	private CharSequence qualifier(int id, Utf8Sequence view) {
+		if (kinds[id] == BinaryRDF.TERM_TYPED_LITERAL)
+			return term(qualifierOffsets[id], view);
+		return view.set(termBytes, qualifierOffsets[id], qualifierLengths[id]);
+	}
+
+	private String qualifierString(int id) {
+		if (kinds[id] == BinaryRDF.TERM_TYPED_LITERAL)
+			return string(qualifierOffsets[id]);
+		String qualifier = qualifiers[id];
+		if (qualifier == null)
+			qualifiers[id] = qualifier = new String(termBytes,
+					qualifierOffsets[id], qualifierLengths[id],
+					BinaryRDF.CHARSET);
+		return qualifier;
+	}
+
+	void parse(GraphReaderCallback callback) throws IOException {
+		EncodedGraphReaderCallback encoded = callback instanceof EncodedGraphReaderCallback ? (EncodedGraphReaderCallback) callback
+				: null;
+		CharSequenceGraphReaderCallback sequences = callback instanceof CharSequenceGraphReaderCallback ? (CharSequenceGraphReaderCallback) callback
+				: null;
+		if (encoded != null)
+			ids = new long[values.length];
+		if (callback instanceof BatchGraphReaderCallback) {
+			batches = (BatchGraphReaderCallback) callback;
+			batch = new StatementBatch();
+		}
+
+		ensure(BinaryRDF.MAGIC.length + 1);
+		for (byte b : BinaryRDF.MAGIC)
+			if (in.get() != b)
+				throw new IOException("Not an OpenApp binary graph");
+		int version = in.get();
+		if (version != BinaryRDF.VERSION)
+			throw new IOException("Unsupported binary graph version: "
+					+ version);
+
+		for (;;) {
+			int type = readByte();
+			int flags = readByte();
+			int count = readLength();
+			int length = readLength();
+			int rawLength = (flags & BinaryRDF.FLAG_DEFLATE) != 0 ? readLength()
+					: length;
+			ensure(length);
+			ByteBuffer payload = in.slice();
+			payload.limit(length);
+			in.position(in.position() + length);
+			if ((flags & BinaryRDF.FLAG_DEFLATE) != 0)
+				payload = inflate(payload, rawLength);
+
+			switch (type) {
+			case BinaryRDF.BLOCK_DICTIONARY:
+				readDictionary(payload, count, callback, encoded);
+				break;
+			case BinaryRDF.BLOCK_TRIPLES:
+			case BinaryRDF.BLOCK_QUADS:
+				readStatements(payload, count,
+						type == BinaryRDF.BLOCK_QUADS, callback, encoded,
+						sequences);
+				break;
+			case BinaryRDF.BLOCK_RESET:
+				termCount = 0;
+				termBytesLength = 0;
+				break;
+			case BinaryRDF.BLOCK_END:
+				flush();
+				if (currentGraph != null)
+					callback.endGraph(currentGraph);
+				currentGraph = null;
+				return;
+			default:
+				throw new IOException("Unknown binary graph block: " + type);
+			}
+		}
+	}
+
+	private void flush() {
+		if (batch != null && !batch.isEmpty()) {
+			batches.triples(batch);
+			batch.clear();
+		}
+	}
+
+	private ByteBuffer inflate(ByteBuffer payload, int rawLength)
+			throws IOException {
+		int length = payload.remaining();
+		if (compressed.length < length)
+			compressed = new byte[length];
+		payload.get(compressed, 0, length);
+		if (inflated.length < rawLength)
+			inflated = new byte[rawLength];
+		if (inflater == null)
+			inflater = new Inflater();
+		else
+			inflater.reset();
+		inflater.setInput(compressed, 0, length);
+		try {
+			int offset = 0;
+			while (offset < rawLength && !inflater.finished()) {
+				int n = inflater.inflate(inflated, offset, rawLength - offset);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				offset += n;
+			}
+			if (offset != rawLength)
+				throw new IOException("Truncated binary graph block");
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		}
+		return ByteBuffer.wrap(inflated, 0, rawLength);
+	}
+
+	private void readDictionary(ByteBuffer payload, int count,
+			GraphReaderCallback callback, EncodedGraphReaderCallback encoded)
+			throws IOException {
+		for (int i = 0; i < count; i++) {
+			int id = ++termCount;
+			if (id == kinds.length)
+				grow();
+			int kind = readByte(payload);
+			kinds[id] = (byte) kind;
+			offsets[id] = termBytesLength;
+			lengths[id] = readBytes(payload);
+			values[id] = null;
+			qualifiers[id] = null;
+			switch (kind) {
+			case BinaryRDF.TERM_IRI:
+			case BinaryRDF.TERM_STRING:
+				break;
+			case BinaryRDF.TERM_BLANK:
+				// Blank node labels are only meaningful within the stream
+				String label = "_:" + string(id);
+				String node = blankNodes.get(label);
+				if (node == null)
+					blankNodes.put(label,
+							node = callback.generateBlankNode(label));
+				values[id] = node;
+				break;
+			case BinaryRDF.TERM_LANGUAGE_STRING:
+				qualifierOffsets[id] = termBytesLength;
+				qualifierLengths[id] = readBytes(payload);
+				break;
+			case BinaryRDF.TERM_TYPED_LITERAL:
+				// Data types are defined as IRIs before the literals using them
+				long dataType = readVarint(payload);
+				if (dataType < 1 || dataType >= id
+						|| kinds[(int) dataType] != BinaryRDF.TERM_IRI)
+					throw new IOException("Malformed binary graph data type");
+				qualifierOffsets[id] = (int) dataType;
+				break;
+			default:
+				throw new IOException("Unknown binary graph term: " + kind);
+			}
+			if (encoded != null)
+				ids[id] = kind == BinaryRDF.TERM_IRI
+						|| kind == BinaryRDF.TERM_BLANK ? encoded
+						.encodeResource(term(id, objectView)) : encoded
+						.encodeLiteral(
+								term(id, objectView),
+								kind == BinaryRDF.TERM_LANGUAGE_STRING ? qualifier(
+										id, qualifierView) : null,
+								kind == BinaryRDF.TERM_TYPED_LITERAL ? qualifier(
+										id, qualifierView) : null);
+		}
+	}
+
+	private void grow() {
+		int capacity = kinds.length * 2;
+		byte[] newKinds = new byte[capacity];
+		System.arraycopy(kinds, 0, newKinds, 0, kinds.length);
+		kinds = newKinds;
+		offsets = grow(offsets, capacity);
+		lengths = grow(lengths, capacity);
+		qualifierOffsets = grow(qualifierOffsets, capacity);
+		qualifierLengths = grow(qualifierLengths, capacity);
+		String[] newValues = new String[capacity];
+		System.arraycopy(values, 0, newValues, 0, values.length);
+		values = newValues;
+		String[] newQualifiers = new String[capacity];
+		System.arraycopy(qualifiers, 0, newQualifiers, 0, qualifiers.length);
+		qualifiers = newQualifiers;
+		if (ids != null) {
+			long[] newIds = new long[capacity];
+			System.arraycopy(ids, 0, newIds, 0, ids.length);
+			ids = newIds;
+		}
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		int[] newArray = new int[capacity];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+
+	private void readStatements(ByteBuffer payload, int count, boolean quads,
+			GraphReaderCallback callback, EncodedGraphReaderCallback encoded,
+			CharSequenceGraphReaderCallback sequences) throws IOException {
+		for (int i = 0; i < count; i++) {
+			String graph = quads ? string(readTerm(payload)) : null;
+			if (graph != currentGraph
+					&& (graph == null || !graph.equals(currentGraph))) {
+				flush();
+				if (currentGraph != null)
+					callback.endGraph(currentGraph);
+				if (graph != null)
+					callback.startGraph(graph);
+				currentGraph = graph;
+			}
+			int s = readTerm(payload);
+			int p = readTerm(payload);
+			int o = readTerm(payload);
+			int kind = kinds[o];
+			if (batch != null) {
+				boolean full;
+				if (encoded != null)
+					full = batch.add(ids[s], ids[p], ids[o]);
+				else if (kind == BinaryRDF.TERM_IRI
+						|| kind == BinaryRDF.TERM_BLANK)
+					full = batch.add(string(s), string(p), string(o));
+				else
+					full = batch
+							.add(string(s),
+									string(p),
+									string(o),
+									kind == BinaryRDF.TERM_LANGUAGE_STRING ? qualifierString(o)
+											: null,
+									kind == BinaryRDF.TERM_TYPED_LITERAL ? qualifierString(o)
+											: null);
+				if (full)
+					flush();
+			} else if (encoded != null)
+				encoded.triple(ids[s], ids[p], ids[o]);
+			else if (sequences != null) {
+				if (kind == BinaryRDF.TERM_IRI || kind == BinaryRDF.TERM_BLANK)
+					sequences.triple(term(s, subjectView),
+							term(p, predicateView), term(o, objectView));
+				else
+					sequences
+							.triple(term(s, subjectView),
+									term(p, predicateView),
+									term(o, objectView),
+									kind == BinaryRDF.TERM_LANGUAGE_STRING ? qualifier(
+											o, qualifierView) : null,
+									kind == BinaryRDF.TERM_TYPED_LITERAL ? qualifier(
+											o, qualifierView) : null);
+			} else if (kind == BinaryRDF.TERM_IRI
+					|| kind == BinaryRDF.TERM_BLANK)
+				callback.triple(string(s), string(p), string(o));
+			else
+				callback.triple(string(s), string(p), string(o),
+						kind == BinaryRDF.TERM_LANGUAGE_STRING ? qualifierString(o)
+								: null,
+						kind == BinaryRDF.TERM_TYPED_LITERAL ? qualifierString(o)
+								: null);
+		}
+	}
+
+}
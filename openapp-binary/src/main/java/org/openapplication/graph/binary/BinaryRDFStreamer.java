@@ -0,0 +1,73 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.binary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.openapplication.graph.streaming.GraphChannelReader;
+import org.openapplication.graph.streaming.GraphReaderCallback;
+import org.openapplication.graph.streaming.GraphStreamer;
+import org.openapplication.graph.streaming.GraphWriter;
+
+public final class BinaryRDFStreamer implements GraphStreamer,
+		GraphChannelReader {
+
+	private static final Collection<String> MEDIA_TYPES = Collections
+			.unmodifiableList(Arrays.asList(BinaryRDF.MEDIA_TYPE,
+					BinaryRDF.MEDIA_TYPE_DEFLATE));
+
+	@Override
+	public void read(InputStream in, String mediaType,
+			GraphReaderCallback callback) throws IOException {
+		BinaryRDF.parse(in, callback);
+	}
+
+	@Override
+	public void read(ReadableByteChannel in, String mediaType,
+			GraphReaderCallback callback) throws IOException {
+		BinaryRDF.parse(in, callback);
+	}
+
+	@Override
+	public void read(ByteBuffer in, String mediaType,
+			GraphReaderCallback callback) throws IOException {
+		BinaryRDF.parse(in, callback);
+	}
+
+	@Override
+	public GraphWriter createWriter(OutputStream out, String mediaType)
+			throws IOException {
+		return new BinaryRDF(out, BinaryRDF.MEDIA_TYPE_DEFLATE.equals(mediaType));
+	}
+
+	@Override
+	public Collection<String> getReadMediaTypes() {
+		return MEDIA_TYPES;
+	}
+
+	@Override
+	public Collection<String> getWriteMediaTypes() {
+		return MEDIA_TYPES;
+	}
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.binary.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.openapplication.graph.binary.BinaryRDF;
+import org.openapplication.graph.binary.BinaryRDFStreamer;
+import org.openapplication.graph.streaming.GraphReaderCallback;
+import org.openapplication.graph.streaming.GraphWriter;
+
+public class BinaryRDFStreamerTest {
+
+	private static final String EX = "http://example.com/";
+
+	private final BinaryRDFStreamer streamer = new BinaryRDFStreamer();
+
+	private byte[] write(String mediaType, int count) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GraphWriter writer = streamer.createWriter(out, mediaType);
+		for (int i = 0; i < count; i++)
+			writer.writeStatement(null, EX + "s" + i % 100, EX + "p", null,
+					"value " + i, null, null);
+		writer.close();
+		return out.toByteArray();
+	}
+
+	private static final class Collector implements GraphReaderCallback {
+
+		final List<String> literals = new ArrayList<String>();
+
+		@Override
+		public void triple(String subject, String predicate, String object) {
+			fail();
+		}
+
+		@Override
+		public void triple(String subject, String predicate, String literal,
+				String language, String dataType) {
+			literals.add(literal);
+		}
+
+		@Override
+		public String generateBlankNode(String node) {
+			return node;
+		}
+
+		@Override
+		public void startGraph(String graph) {
+		}
+
+		@Override
+		public void endGraph(String graph) {
+		}
+
+		@Override
+		public void startDefinition(String node) {
+		}
+
+		@Override
+		public void endDefinition(String node) {
+		}
+
+	}
+
+	// Hands out at most a few bytes per read, as sockets may
+	private static final class TricklingChannel implements
+			ReadableByteChannel {
+
+		private final ByteBuffer bytes;
+
+		private boolean open = true;
+
+		TricklingChannel(byte[] bytes) {
+			this.bytes = ByteBuffer.wrap(bytes);
+		}
+
+		@Override
+		public int read(ByteBuffer dst) {
+			if (!bytes.hasRemaining())
+				return -1;
+			int count = Math.min(Math.min(dst.remaining(), 3),
+					bytes.remaining());
+			for (int i = 0; i < count; i++)
+				dst.put(bytes.get());
+			return count;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+
+	}
+
+	@Test
+	public void testChannel() throws IOException {
+		for (String mediaType : streamer.getReadMediaTypes()) {
+			Collector collector = new Collector();
+			streamer.read(new TricklingChannel(write(mediaType, 10000)),
+					mediaType, collector);
+			assertEquals(10000, collector.literals.size());
+			assertEquals("value 9999", collector.literals.get(9999));
+		}
+	}
+
+	@Test
+	public void testDirectBuffer() throws IOException {
+		byte[] bytes = write(BinaryRDF.MEDIA_TYPE_DEFLATE, 10000);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes);
+		buffer.flip();
+		Collector collector = new Collector();
+		streamer.read(buffer, BinaryRDF.MEDIA_TYPE_DEFLATE, collector);
+		assertEquals(10000, collector.literals.size());
+		assertEquals("value 0", collector.literals.get(0));
+	}
+
+}
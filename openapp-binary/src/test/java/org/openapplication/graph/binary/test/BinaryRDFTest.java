@@ -0,0 +1,257 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.binary.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.openapplication.graph.binary.BinaryRDF;
+import org.openapplication.graph.streaming.GraphReaderCallback;
+
+public class BinaryRDFTest {
+
+	private static final String EX = "http://example.com/";
+
+	private static final class Collector implements GraphReaderCallback {
+
+		final List<String> statements = new ArrayList<String>();
+
+		private String graph;
+
+		// Labels blank nodes afresh, as readers into a graph do, when not
+		// negative
+		private int nextBlankNode = -1;
+
+		@Override
+		public void triple(String subject, String predicate, String object) {
+			statements.add(graph + " " + subject + " " + predicate + " "
+					+ object);
+		}
+
+		@Override
+		public void triple(String subject, String predicate, String literal,
+				String language, String dataType) {
+			statements.add(graph + " " + subject + " " + predicate + " \""
+					+ literal + "\"@" + language + "^^" + dataType);
+		}
+
+		@Override
+		public String generateBlankNode(String node) {
+			return nextBlankNode < 0 ? node : "_:g" + nextBlankNode++;
+		}
+
+		@Override
+		public void startGraph(String graph) {
+			this.graph = graph;
+		}
+
+		@Override
+		public void endGraph(String graph) {
+			this.graph = null;
+		}
+
+		@Override
+		public void startDefinition(String node) {
+		}
+
+		@Override
+		public void endDefinition(String node) {
+		}
+
+	}
+
+	private static byte[] write(boolean deflate, String[]... statements)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryRDF writer = new BinaryRDF(out, deflate);
+		for (String[] statement : statements)
+			writer.writeStatement(statement[0], statement[1], statement[2],
+					statement[3], statement[4], statement[5], statement[6]);
+		writer.close();
+		return out.toByteArray();
+	}
+
+	private static List<String> read(byte[] bytes) throws IOException {
+		Collector collector = new Collector();
+		BinaryRDF.parse(new ByteArrayInputStream(bytes), collector);
+		return collector.statements;
+	}
+
+	private static final String[][] STATEMENTS = {
+			{ null, EX + "s", EX + "p", EX + "o", null, null, null },
+			{ null, EX + "s", EX + "p", null, "plain", null, null },
+			{ null, EX + "s", EX + "p", null, "hej", "sv", null },
+			{ null, "_:b1", EX + "p", null, "1", null, EX + "int" },
+			{ EX + "g", EX + "s", EX + "p", "_:b1", null, null, null },
+			{ null, EX + "s", EX + "p", EX + "o", null, null, null } };
+
+	private static final List<String> EXPECTED = Arrays.asList(
+			"null http://example.com/s http://example.com/p http://example.com/o",
+			"null http://example.com/s http://example.com/p \"plain\"@null^^null",
+			"null http://example.com/s http://example.com/p \"hej\"@sv^^null",
+			"null _:b1 http://example.com/p \"1\"@null^^http://example.com/int",
+			"http://example.com/g http://example.com/s http://example.com/p _:b1",
+			"null http://example.com/s http://example.com/p http://example.com/o");
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		assertEquals(EXPECTED, read(write(false, STATEMENTS)));
+	}
+
+	@Test
+	public void testDeflateRoundTrip() throws IOException {
+		assertEquals(EXPECTED, read(write(true, STATEMENTS)));
+	}
+
+	@Test
+	public void testByteBuffer() throws IOException {
+		Collector collector = new Collector();
+		BinaryRDF.parse(ByteBuffer.wrap(write(false, STATEMENTS)), collector);
+		assertEquals(EXPECTED, collector.statements);
+	}
+
+	@Test
+	public void testTopLevelDefinition() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryRDF writer = new BinaryRDF(out);
+		writer.writeStartDefinition(null);
+		writer.writeStartPredicate(EX + "p");
+		writer.writeIRI(EX + "o");
+		writer.writeEndPredicate();
+		writer.writeEndDefinition();
+		writer.close();
+		assertEquals(Arrays.asList("null _:#d0 http://example.com/p "
+				+ "http://example.com/o"), read(out.toByteArray()));
+	}
+
+	@Test
+	public void testDefinitionLabelsKeptApart() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryRDF writer = new BinaryRDF(out);
+		// Neither label of the document may be taken for the definition's
+		writer.writeStatement(null, "_:d0", EX + "p", EX + "o", null, null,
+				null);
+		writer.writeStatement(null, "_:#d0", EX + "p", EX + "o", null, null,
+				null);
+		writer.writeStartDefinition(null);
+		writer.writeStartPredicate(EX + "p");
+		writer.writeIRI(EX + "o");
+		writer.writeEndPredicate();
+		writer.writeEndDefinition();
+		writer.close();
+		Collector collector = new Collector();
+		collector.nextBlankNode = 0;
+		BinaryRDF.parse(new ByteArrayInputStream(out.toByteArray()),
+				collector);
+		assertEquals(Arrays.asList(
+				"null _:g0 http://example.com/p http://example.com/o",
+				"null _:g1 http://example.com/p http://example.com/o",
+				"null _:g2 http://example.com/p http://example.com/o"),
+				collector.statements);
+	}
+
+	@Test
+	public void testBlankNodeAcrossReset() throws IOException {
+		// Enough terms for the writer to reset its dictionary and define
+		// the blank node again
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryRDF writer = new BinaryRDF(out);
+		int count = (1 << 20) + 4096;
+		for (int i = 0; i < count; i++)
+			writer.writeStatement(null, "_:x", EX + "p", null, "v" + i, null,
+					null);
+		writer.close();
+		Collector collector = new Collector();
+		collector.nextBlankNode = 0;
+		BinaryRDF.parse(new ByteArrayInputStream(out.toByteArray()),
+				collector);
+		assertEquals(count, collector.statements.size());
+		Set<String> subjects = new HashSet<String>();
+		for (String statement : collector.statements)
+			subjects.add(statement.split(" ")[1]);
+		assertEquals(Collections.singleton("_:g0"), subjects);
+	}
+
+	@Test
+	public void testDictionaryResetOnSwitch() throws IOException {
+		// Fills the dictionary up to its limit within one block, so that the
+		// quad passes the limit and switching back to triples resets it
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryRDF writer = new BinaryRDF(out);
+		int count = (1 << 19) - 1;
+		for (int i = 0; i < count; i++)
+			writer.writeStatement(null, EX + "s" + i, EX + "p", null, "v" + i,
+					null, null);
+		writer.writeStatement(EX + "g", EX + "s", EX + "p", EX + "o", null,
+				null, null);
+		writer.writeStatement(null, EX + "s", EX + "p", null, "v0", null, null);
+		writer.close();
+		List<String> statements = read(out.toByteArray());
+		assertEquals(count + 2, statements.size());
+		assertEquals("http://example.com/g http://example.com/s "
+				+ "http://example.com/p http://example.com/o",
+				statements.get(count));
+		assertEquals("null http://example.com/s http://example.com/p "
+				+ "\"v0\"@null^^null", statements.get(count + 1));
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotBinaryGraph() throws IOException {
+		read("@prefix".getBytes("UTF-8"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncated() throws IOException {
+		byte[] bytes = write(false, STATEMENTS);
+		read(Arrays.copyOf(bytes, bytes.length - 5));
+	}
+
+	@Test
+	public void testCorruptBlocks() throws IOException {
+		byte[] bytes = write(false, STATEMENTS);
+		// Every single corrupted byte either parses or fails as I/O
+		for (int i = 5; i < bytes.length; i++)
+			for (int value : new int[] { 0, 0x7F, 0xFF }) {
+				byte[] corrupt = bytes.clone();
+				corrupt[i] = (byte) value;
+				try {
+					read(corrupt);
+				} catch (IOException e) {
+				}
+			}
+	}
+
+	@Test(expected = IOException.class)
+	public void testUndefinedTerm() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[] { 'O', 'A', 'G', 'B', 1 });
+		// A triples block referring to terms that were never defined
+		out.write(new byte[] { 'T', 0, 1, 3, 1, 2, 3 });
+		read(out.toByteArray());
+	}
+
+}
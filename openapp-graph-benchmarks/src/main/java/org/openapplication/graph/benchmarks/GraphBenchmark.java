@@ -0,0 +1,111 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openapplication.graph.Triple;
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+import org.openapplication.graph.store.Graph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GraphBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int size;
+
+	private SyntheticData data;
+
+	private Graph graph;
+
+	private Triple[] properties;
+
+	private Value renamed;
+
+	private int next;
+
+	@Setup
+	public void setUp() {
+		data = new SyntheticData(SyntheticData.DEFAULT_SEED, size);
+		graph = new Graph();
+		graph.add(data.getTriples());
+		Triple first = data.getTriples().get(0), last = data.getTriples()
+				.get(size - 1);
+		properties = new Triple[] {
+				Values.triple(null, first.getPredicate(), first.getObject()),
+				Values.triple(null, last.getPredicate(), last.getObject()) };
+		renamed = Values.iri("http://example.org/renamed");
+	}
+
+	@Benchmark
+	public Graph add() {
+		Graph graph = new Graph();
+		graph.add(data.getTriples());
+		return graph;
+	}
+
+	@Benchmark
+	public void find(Blackhole blackhole) {
+		for (Triple triple : graph.find(data.getSubject(next++), null, null))
+			blackhole.consume(triple);
+	}
+
+	@Benchmark
+	public void findByObject(Blackhole blackhole) {
+		Value object = data.getTriples().get(next++ % size).getObject();
+		for (Triple triple : graph.find(null, null, object))
+			blackhole.consume(triple);
+	}
+
+	@Benchmark
+	public void describe(Blackhole blackhole) {
+		for (Triple triple : graph.describe(data.getSubject(next++)))
+			blackhole.consume(triple);
+	}
+
+	@Benchmark
+	public void project(Blackhole blackhole) {
+		for (Value value : graph.project(properties))
+			blackhole.consume(value);
+	}
+
+	@Benchmark
+	public void rename() {
+		// Renaming back and forth leaves the graph as it was
+		Value subject = data.getSubject(next++);
+		graph.rename(subject, renamed);
+		graph.rename(renamed, subject);
+	}
+
+}
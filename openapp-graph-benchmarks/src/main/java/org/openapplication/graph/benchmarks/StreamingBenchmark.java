@@ -0,0 +1,162 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openapplication.graph.jsonld.JSONLD;
+import org.openapplication.graph.store.Graph;
+import org.openapplication.graph.streaming.GraphReaderCallback;
+import org.openapplication.graph.turtle.Turtle;
+import org.openapplication.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamingBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int size;
+
+	private SyntheticData data;
+
+	private byte[] jsonld;
+
+	private Graph graph;
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	@Setup
+	public void setUp() throws IOException, JSONException {
+		data = new SyntheticData(SyntheticData.DEFAULT_SEED, size);
+		jsonld = data.toJSONLD();
+		graph = new Graph();
+		JSONLD.parse(new ByteArrayInputStream(jsonld), graph.toReader());
+	}
+
+	private static final class Consumer implements GraphReaderCallback {
+
+		private final Blackhole blackhole;
+
+		private int nextBlankNode;
+
+		Consumer(Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		public void triple(String subject, String predicate, String object) {
+			blackhole.consume(subject);
+			blackhole.consume(predicate);
+			blackhole.consume(object);
+		}
+
+		@Override
+		public void triple(String subject, String predicate, String literal,
+				String language, String dataType) {
+			blackhole.consume(subject);
+			blackhole.consume(predicate);
+			blackhole.consume(literal);
+		}
+
+		@Override
+		public String generateBlankNode(String node) {
+			return "_:b" + nextBlankNode++;
+		}
+
+		@Override
+		public void startGraph(String graph) {
+		}
+
+		@Override
+		public void endGraph(String graph) {
+		}
+
+		@Override
+		public void startDefinition(String node) {
+		}
+
+		@Override
+		public void endDefinition(String node) {
+		}
+
+	}
+
+	@Benchmark
+	public void parseJSONLD(Blackhole blackhole) throws IOException,
+			JSONException {
+		JSONLD.parse(new ByteArrayInputStream(jsonld), new Consumer(blackhole));
+	}
+
+	@Benchmark
+	public int writeJSONLD() throws IOException {
+		out.reset();
+		JSONLD writer = new JSONLD(out);
+		data.writeTo(writer);
+		writer.close();
+		return out.size();
+	}
+
+	@Benchmark
+	public int writeTurtle() throws IOException {
+		out.reset();
+		Turtle writer = new Turtle(out, new HashMap<String, String>());
+		data.writeTo(writer);
+		writer.close();
+		return out.size();
+	}
+
+	@Benchmark
+	public int writeGraphToTurtle() throws IOException {
+		out.reset();
+		Turtle writer = new Turtle(out, new HashMap<String, String>());
+		graph.writeTo(writer);
+		writer.close();
+		return out.size();
+	}
+
+	@Benchmark
+	public int pipeline() throws IOException, JSONException {
+		// JSON-LD document into a new graph and out again as Turtle
+		Graph graph = new Graph();
+		JSONLD.parse(new ByteArrayInputStream(jsonld), graph.toReader());
+		out.reset();
+		Turtle writer = new Turtle(out, new HashMap<String, String>());
+		graph.writeTo(writer);
+		writer.close();
+		return out.size();
+	}
+
+}
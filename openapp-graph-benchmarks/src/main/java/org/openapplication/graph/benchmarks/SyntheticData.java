@@ -0,0 +1,120 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openapplication.graph.Triple;
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+import org.openapplication.graph.jsonld.JSONLD;
+import org.openapplication.graph.streaming.GraphWriter;
+
+public final class SyntheticData {
+
+	public static final long DEFAULT_SEED = 0x6f70656e617070L;
+
+	private static final String BASE = "http://example.org/";
+
+	private static final String[] LANGUAGES = { "en", "sv", "de", "fr" };
+
+	private static final String[] DATA_TYPES = {
+			"http://www.w3.org/2001/XMLSchema#integer",
+			"http://www.w3.org/2001/XMLSchema#dateTime" };
+
+	private final List<Triple> triples;
+
+	private final Value[] subjects, predicates;
+
+	// The same seed and size always produce the same statements, in the
+	// same order, so results from different runs can be compared
+	public SyntheticData(long seed, int size) {
+		Random random = new Random(seed);
+		subjects = new Value[Math.max(1, size / 8)];
+		for (int i = 0; i < subjects.length; i++)
+			subjects[i] = i % 16 == 15 ? Values.blank("n" + i) : Values
+					.iri(BASE + "resource/" + i);
+		predicates = new Value[24];
+		for (int i = 0; i < predicates.length; i++)
+			predicates[i] = Values.iri(BASE + "vocabulary#p" + i);
+		triples = new ArrayList<Triple>(size);
+		for (int i = 0; i < size; i++) {
+			// Statements about a subject arrive together, as in most
+			// documents, and a few predicates are much more common
+			Value subject = subjects[i * subjects.length / size];
+			Value predicate = predicates[(int) (predicates.length * Math.pow(
+					random.nextDouble(), 3))];
+			Value object;
+			int kind = random.nextInt(10);
+			if (kind < 3)
+				object = subjects[random.nextInt(subjects.length)];
+			else if (kind < 6)
+				object = Values.string("value " + random.nextInt(size));
+			else if (kind < 8)
+				object = Values.string("text " + random.nextInt(size),
+						LANGUAGES[random.nextInt(LANGUAGES.length)]);
+			else
+				object = Values.literal(
+						Integer.toString(random.nextInt(1000000)),
+						DATA_TYPES[random.nextInt(DATA_TYPES.length)]);
+			triples.add(Values.triple(subject, predicate, object));
+		}
+	}
+
+	public List<Triple> getTriples() {
+		return triples;
+	}
+
+	public Value getSubject(int i) {
+		return subjects[i % subjects.length];
+	}
+
+	public Value getPredicate(int i) {
+		return predicates[i % predicates.length];
+	}
+
+	public void writeTo(GraphWriter writer) throws IOException {
+		for (Triple triple : triples)
+			write(writer, triple);
+	}
+
+	static void write(GraphWriter writer, Triple triple) throws IOException {
+		Value object = triple.getObject();
+		String resource = toResource(object);
+		writer.writeStatement(null, toResource(triple.getSubject()), triple
+				.getPredicate().toIri(), resource, resource == null ? object
+				.getString() : null, object.getLanguage(), object.getType());
+	}
+
+	private static String toResource(Value value) {
+		if (value.isIri())
+			return value.toIri();
+		return value.getId() != null ? "_:" + value.getId() : null;
+	}
+
+	public byte[] toJSONLD() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JSONLD writer = new JSONLD(out);
+		writeTo(writer);
+		writer.close();
+		return out.toByteArray();
+	}
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openapplication.graph.Triple;
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValuesBenchmark {
+
+	private Value[] values, copies;
+
+	@Setup
+	public void setUp() {
+		SyntheticData data = new SyntheticData(SyntheticData.DEFAULT_SEED,
+				1024);
+		values = new Value[data.getTriples().size()];
+		copies = new Value[values.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = data.getTriples().get(i).getObject();
+			copies[i] = copy(values[i]);
+		}
+	}
+
+	private static Value copy(Value value) {
+		if (value.isIri())
+			return Values.iri(value.toIri());
+		if (value.getId() != null)
+			return Values.blank(value.getId());
+		if (value.getLanguage() != null)
+			return Values.string(value.getString(), value.getLanguage());
+		if (value.getType() != null)
+			return Values.literal(value.getString(), value.getType());
+		return Values.string(value.getString());
+	}
+
+	@Benchmark
+	public void hashCodes(Blackhole blackhole) {
+		for (Value value : values)
+			blackhole.consume(value.hashCode());
+	}
+
+	@Benchmark
+	public void equalValues(Blackhole blackhole) {
+		for (int i = 0; i < values.length; i++)
+			blackhole.consume(values[i].equals(copies[i]));
+	}
+
+	@Benchmark
+	public void differentValues(Blackhole blackhole) {
+		for (int i = 1; i < values.length; i++)
+			blackhole.consume(values[i].equals(copies[i - 1]));
+	}
+
+	@Benchmark
+	public void tripleHashCodes(Blackhole blackhole) {
+		for (int i = 0; i < values.length; i++) {
+			Triple triple = Values.triple(values[i], values[i], copies[i]);
+			blackhole.consume(triple.hashCode());
+		}
+	}
+
+}
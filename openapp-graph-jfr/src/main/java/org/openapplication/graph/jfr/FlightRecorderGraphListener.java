@@ -0,0 +1,125 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.jfr;
+
+import org.openapplication.graph.management.GraphListener;
+import org.openapplication.graph.management.GraphMetrics;
+import org.openapplication.graph.management.GraphOperation;
+
+public final class FlightRecorderGraphListener implements GraphListener {
+
+	public static FlightRecorderGraphListener install() {
+		FlightRecorderGraphListener listener = //
+		new FlightRecorderGraphListener();
+		GraphMetrics.addListener(listener);
+		return listener;
+	}
+
+	// Events begin when a phase starts and end with it, so they line up with
+	// the rest of the recording; the threshold of each event type, 10 ms
+	// unless the recording settings say otherwise, decides which are kept
+
+	@Override
+	public Phase startOperation(GraphOperation operation, final Object detail) {
+		final OperationEvent event = new OperationEvent();
+		if (!event.isEnabled())
+			return null;
+		event.operation = operation.toString();
+		event.begin();
+		return new Phase() {
+			@Override
+			public void end(long count, long bytes) {
+				event.end();
+				if (!event.shouldCommit())
+					return;
+				event.query = detail != null ? detail.toString() : null;
+				event.results = count;
+				event.commit();
+			}
+		};
+	}
+
+	@Override
+	public Phase startRead(String mediaType, String document) {
+		return stream("read", mediaType, document);
+	}
+
+	@Override
+	public Phase startWrite(String mediaType) {
+		return stream("write", mediaType, null);
+	}
+
+	private Phase stream(String direction, String mediaType, String document) {
+		final StreamEvent event = new StreamEvent();
+		if (!event.isEnabled())
+			return null;
+		event.direction = direction;
+		event.mediaType = mediaType;
+		event.document = document;
+		event.begin();
+		return new Phase() {
+			@Override
+			public void end(long count, long bytes) {
+				event.end();
+				if (!event.shouldCommit())
+					return;
+				event.statements = count;
+				event.bytes = bytes;
+				event.commit();
+			}
+		};
+	}
+
+	@Override
+	public Phase startContext(String document) {
+		final ContextEvent event = new ContextEvent();
+		if (!event.isEnabled())
+			return null;
+		event.document = document;
+		event.begin();
+		return new Phase() {
+			@Override
+			public void end(long count, long bytes) {
+				event.end();
+				if (!event.shouldCommit())
+					return;
+				event.terms = count;
+				event.commit();
+			}
+		};
+	}
+
+	// Phases are recorded as they happen, so the reports at their end carry
+	// nothing new
+
+	@Override
+	public void operation(GraphOperation operation, long results, long nanos) {
+	}
+
+	@Override
+	public void read(String mediaType, long statements, long bytes, long nanos) {
+	}
+
+	@Override
+	public void write(String mediaType, long statements, long bytes,
+			long nanos) {
+	}
+
+	@Override
+	public void context(long terms, long nanos) {
+	}
+
+}
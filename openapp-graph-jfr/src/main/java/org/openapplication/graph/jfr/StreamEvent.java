@@ -0,0 +1,47 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("org.openapplication.graph.Stream")
+@Label("Graph Stream")
+@Category({ "OpenApp", "Graph" })
+@Threshold("10 ms")
+final class StreamEvent extends Event {
+
+	@Label("Direction")
+	String direction;
+
+	@Label("Media Type")
+	String mediaType;
+
+	@Label("Document")
+	String document;
+
+	@Label("Statements")
+	long statements;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.jfr.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openapplication.graph.jfr.FlightRecorderGraphListener;
+import org.openapplication.graph.management.GraphListener;
+import org.openapplication.graph.management.GraphMetrics;
+import org.openapplication.graph.management.GraphOperation;
+
+public class FlightRecorderGraphListenerTest {
+
+	private static final String OPERATION = "org.openapplication.graph.Operation",
+			STREAM = "org.openapplication.graph.Stream";
+
+	private Recording recording;
+
+	private FlightRecorderGraphListener listener;
+
+	@Before
+	public void install() {
+		recording = new Recording();
+		listener = FlightRecorderGraphListener.install();
+	}
+
+	@After
+	public void uninstall() {
+		GraphMetrics.removeListener(listener);
+		recording.close();
+	}
+
+	private List<RecordedEvent> stop() throws IOException {
+		recording.stop();
+		File file = File.createTempFile("graph", ".jfr");
+		try {
+			recording.dump(file.toPath());
+			return RecordingFile.readAllEvents(file.toPath());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testOperation() throws Exception {
+		recording.enable(OPERATION).withThreshold(Duration.ZERO);
+		recording.start();
+		GraphListener.Phase phase = GraphMetrics.getListener()
+				.startOperation(GraphOperation.QUERY, "SELECT * WHERE {}");
+		Thread.sleep(5);
+		phase.end(42, 0);
+		List<RecordedEvent> events = stop();
+		assertEquals(1, events.size());
+		RecordedEvent event = events.get(0);
+		assertEquals("query", event.getString("operation"));
+		assertEquals("SELECT * WHERE {}", event.getString("query"));
+		assertEquals(42, event.getLong("results"));
+		assertTrue(event.getDuration().toMillis() >= 5);
+	}
+
+	@Test
+	public void testStream() throws Exception {
+		recording.enable(STREAM).withThreshold(Duration.ZERO);
+		recording.start();
+		GraphListener.Phase phase = GraphMetrics.getListener().startRead(
+				"text/turtle", "data.ttl");
+		phase.end(3, 100);
+		List<RecordedEvent> events = stop();
+		assertEquals(1, events.size());
+		RecordedEvent event = events.get(0);
+		assertEquals("read", event.getString("direction"));
+		assertEquals("text/turtle", event.getString("mediaType"));
+		assertEquals("data.ttl", event.getString("document"));
+		assertEquals(3, event.getLong("statements"));
+		assertEquals(100, event.getLong("bytes"));
+	}
+
+	@Test
+	public void testDefaultThreshold() throws Exception {
+		recording.enable(OPERATION);
+		recording.start();
+		GraphMetrics.getListener().startOperation(GraphOperation.FIND, null)
+				.end(1, 0);
+		GraphListener.Phase phase = GraphMetrics.getListener()
+				.startOperation(GraphOperation.ADD, null);
+		Thread.sleep(20);
+		phase.end(2, 0);
+		List<RecordedEvent> events = stop();
+		assertEquals(1, events.size());
+		assertEquals("add", events.get(0).getString("operation"));
+	}
+
+	@Test
+	public void testDisabled() {
+		assertNull(GraphMetrics.getListener().startOperation(
+				GraphOperation.FIND, null));
+	}
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+public final class Cancellation {
+
+	private volatile boolean cancelled;
+
+	private final boolean timed;
+
+	private final long deadline;
+
+	public Cancellation() {
+		timed = false;
+		deadline = 0;
+	}
+
+	private Cancellation(long deadline) {
+		timed = true;
+		this.deadline = deadline;
+	}
+
+	public static Cancellation withTimeout(long timeout, TimeUnit unit) {
+		return new Cancellation(System.nanoTime() + unit.toNanos(timeout));
+	}
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		if (!cancelled && timed && System.nanoTime() - deadline >= 0)
+			cancelled = true;
+		return cancelled;
+	}
+
+	public void check() {
+		if (isCancelled())
+			throw new CancellationException();
+	}
+
+}
@@ -0,0 +1,659 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+import org.openapplication.graph.streaming.GraphReaderCallback;
+
+// Labels blank nodes independently of how a document named them, so that
+// isomorphic graphs, named graphs included, serialize and hash alike.
+// Blank nodes are colored by refining a hash of their surroundings until
+// the coloring stops splitting. Tied blank nodes next to ground terms only
+// are interchangeable and told apart at once; for other ties each node of
+// the tie is individualized in turn, and the labeling with the least
+// sorted statements is kept. Two labelings with the same statements give
+// an automorphism of the graph, which shows that the branches it maps
+// onto each other end alike, so only one of them is searched.
+public final class Canonicalizer {
+
+	private static final int THRESHOLD = 1024;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final ForkJoinPool pool;
+
+	public Canonicalizer() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public Canonicalizer(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	// SHA-256 of the sorted canonical N-Triples of the graph
+	public byte[] digest(Graph graph) {
+		return digest(graph, Collections.<Value, Graph> emptyMap());
+	}
+
+	// SHA-256 of the sorted canonical N-Quads of the graph and its named
+	// graphs, which must share its terms as those read along with it do
+	public byte[] digest(Graph graph, Map<? extends Value, Graph> namedGraphs) {
+		return new Labeling(graph, namedGraphs).digest();
+	}
+
+	// The canonical blank node for every blank node of the graph
+	public Map<Value, Value> canonicalize(Graph graph) {
+		return canonicalize(graph, Collections.<Value, Graph> emptyMap());
+	}
+
+	public Map<Value, Value> canonicalize(Graph graph,
+			Map<? extends Value, Graph> namedGraphs) {
+		return new Labeling(graph, namedGraphs).labels();
+	}
+
+	public Reader newReader() {
+		return new Reader();
+	}
+
+	// Collects a parsed document for hashing
+	public final class Reader implements GraphReaderCallback {
+
+		private final Graph graph = new Graph();
+
+		private final Map<Value, Graph> namedGraphs = new LinkedHashMap<Value, Graph>();
+
+		private final GraphReaderCallback reader = graph
+				.toReader(new GraphCallback() {
+					@Override
+					public void triple(Value subject, Value predicate,
+							Value object) {
+					}
+
+					@Override
+					public void node(Value node) {
+					}
+
+					// A graph named twice in a document is one graph
+					@Override
+					public void graph(Value name, Graph graph) {
+						Graph existing = namedGraphs.get(name);
+						if (existing != null)
+							existing.add(graph.find(null, null, null));
+						else
+							namedGraphs.put(name, graph);
+					}
+				});
+
+		private Reader() {
+		}
+
+		public Graph getGraph() {
+			return graph;
+		}
+
+		public Map<Value, Graph> getNamedGraphs() {
+			return namedGraphs;
+		}
+
+		public byte[] digest() {
+			return Canonicalizer.this.digest(graph, namedGraphs);
+		}
+
+		@Override
+		public void triple(String subject, String predicate, String object) {
+			reader.triple(subject, predicate, object);
+		}
+
+		@Override
+		public void triple(String subject, String predicate, String literal,
+				String language, String dataType) {
+			reader.triple(subject, predicate, literal, language, dataType);
+		}
+
+		@Override
+		public String generateBlankNode(String node) {
+			return reader.generateBlankNode(node);
+		}
+
+		@Override
+		public void startGraph(String graph) {
+			reader.startGraph(graph);
+		}
+
+		@Override
+		public void endGraph(String graph) {
+			reader.endGraph(graph);
+		}
+
+		@Override
+		public void startDefinition(String node) {
+			reader.startDefinition(node);
+		}
+
+		@Override
+		public void endDefinition(String node) {
+			reader.endDefinition(node);
+		}
+
+	}
+
+	private interface Range {
+
+		void run(int start, int end);
+
+	}
+
+	private static final class Split extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Range range;
+
+		private final int start, end;
+
+		Split(Range range, int start, int end) {
+			this.range = range;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= THRESHOLD)
+				range.run(start, end);
+			else {
+				int middle = (start + end) >>> 1;
+				invokeAll(new Split(range, start, middle), new Split(range,
+						middle, end));
+			}
+		}
+
+	}
+
+	private final class Labeling {
+
+		private final Graph graph;
+
+		// The statements, with the name of the graph holding each, or zero
+		// for the default graph
+		private long[] subjects = new long[64], predicates = new long[64],
+				objects = new long[64], names = new long[64];
+
+		private int size;
+
+		// Blank nodes by id, and the term and hash of every other id
+		private final Map<Long, Integer> blanks = new HashMap<Long, Integer>();
+
+		private final Map<Long, String> terms = new HashMap<Long, String>();
+
+		private final Map<Long, Long> hashes = new HashMap<Long, Long>();
+
+		// Negative ids for the graph names that are not terms of the graph
+		private final Map<Value, Long> unknownNames = new HashMap<Value, Long>();
+
+		private Value[] blankValues = new Value[16];
+
+		private long[] blankIds = new long[16];
+
+		// The statements each blank node occurs in, by blank node
+		private int[] offsets, incidences;
+
+		// Blank nodes whose statements hold no other blank node
+		private boolean[] leaves;
+
+		// The labeling found so far with the least sorted statements, and
+		// the blank nodes individualized to reach it
+		private int[] labels, path;
+
+		private String[] lines;
+
+		// The same for the first labeling found
+		private int[] firstLabels, firstPath;
+
+		private String[] firstLines;
+
+		// Blank node to blank node, for each automorphism found
+		private final List<int[]> automorphisms = new ArrayList<int[]>();
+
+		Labeling(Graph graph, Map<? extends Value, Graph> namedGraphs) {
+			this.graph = graph;
+			read(graph, 0);
+			for (Map.Entry<? extends Value, Graph> namedGraph : namedGraphs
+					.entrySet()) {
+				if (!graph.sharesTerms(namedGraph.getValue()))
+					throw new IllegalArgumentException("Graph "
+							+ namedGraph.getKey()
+							+ " does not share the terms of the graph");
+				read(namedGraph.getValue(), name(namedGraph.getKey()));
+			}
+			int count = blanks.size();
+			offsets = new int[count + 1];
+			for (int i = 0; i < size; i++)
+				for (long id : new long[] { subjects[i], predicates[i],
+						objects[i], names[i] }) {
+					Integer blank = blanks.get(id);
+					if (blank != null)
+						offsets[blank + 1]++;
+				}
+			for (int i = 0; i < count; i++)
+				offsets[i + 1] += offsets[i];
+			incidences = new int[offsets[count]];
+			int[] next = Arrays.copyOf(offsets, count);
+			for (int i = 0; i < size; i++)
+				for (long id : new long[] { subjects[i], predicates[i],
+						objects[i], names[i] }) {
+					Integer blank = blanks.get(id);
+					if (blank != null)
+						incidences[next[blank]++] = i;
+				}
+			leaves = new boolean[count];
+			for (int blank = 0; blank < count; blank++) {
+				leaves[blank] = true;
+				for (int k = offsets[blank]; k < offsets[blank + 1]; k++) {
+					int i = incidences[k];
+					for (long id : new long[] { subjects[i], predicates[i],
+							objects[i], names[i] })
+						if (id != blankIds[blank] && blanks.containsKey(id))
+							leaves[blank] = false;
+				}
+			}
+		}
+
+		private void read(Graph statements, long name) {
+			for (TripleCursor triples = statements.scan(0, 0, 0, null); triples
+					.next();) {
+				if (size == subjects.length) {
+					subjects = Arrays.copyOf(subjects, size * 2);
+					predicates = Arrays.copyOf(predicates, size * 2);
+					objects = Arrays.copyOf(objects, size * 2);
+					names = Arrays.copyOf(names, size * 2);
+				}
+				subjects[size] = classify(triples.getSubject());
+				predicates[size] = classify(triples.getPredicate());
+				objects[size] = classify(triples.getObject());
+				names[size++] = name;
+			}
+		}
+
+		private long name(Value name) {
+			long id = graph.getId(name);
+			if (id != 0)
+				return classify(id);
+			Long unknown = unknownNames.get(name);
+			if (unknown == null)
+				unknownNames.put(name, unknown = -1L - unknownNames.size());
+			return classify(unknown, name);
+		}
+
+		private long classify(long id) {
+			if (blanks.containsKey(id) || terms.containsKey(id))
+				return id;
+			return classify(id, graph.getValue(id));
+		}
+
+		private long classify(long id, Value value) {
+			if (blanks.containsKey(id) || terms.containsKey(id))
+				return id;
+			if (value.getId() != null) {
+				int blank = blanks.size();
+				if (blank == blankIds.length) {
+					blankIds = Arrays.copyOf(blankIds, blank * 2);
+					blankValues = Arrays.copyOf(blankValues, blank * 2);
+				}
+				blankIds[blank] = id;
+				blankValues[blank] = value;
+				blanks.put(id, blank);
+			} else {
+				String term = toTerm(value);
+				terms.put(id, term);
+				long hash = 0xCBF29CE484222325L;
+				for (int i = 0; i < term.length(); i++)
+					hash = (hash ^ term.charAt(i)) * 0x100000001B3L;
+				hashes.put(id, mix(hash));
+			}
+			return id;
+		}
+
+		Map<Value, Value> labels() {
+			int[] labels = label();
+			Map<Value, Value> result = new HashMap<Value, Value>();
+			for (int i = 0; i < labels.length; i++)
+				result.put(blankValues[i], Values.blank("c" + labels[i]));
+			return result;
+		}
+
+		byte[] digest() {
+			label();
+			MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+			for (String line : lines)
+				digest.update(line.getBytes(UTF_8));
+			return digest.digest();
+		}
+
+		// The sorted N-Quads of the statements under the given labels
+		private String[] lines(final int[] labels) {
+			final String[] lines = new String[size];
+			pool.invoke(new Split(new Range() {
+				@Override
+				public void run(int start, int end) {
+					for (int i = start; i < end; i++)
+						lines[i] = term(subjects[i], labels) + " "
+								+ term(predicates[i], labels) + " "
+								+ term(objects[i], labels)
+								+ (names[i] != 0 ? " " + term(names[i], labels)
+										: "") + " .\n";
+				}
+			}, 0, size));
+			Arrays.sort(lines);
+			return lines;
+		}
+
+		private String term(long id, int[] labels) {
+			Integer blank = blanks.get(id);
+			return blank != null ? "_:c" + labels[blank] : terms.get(id);
+		}
+
+		// The canonical number of every blank node
+		private int[] label() {
+			if (labels == null)
+				search(refine(new long[blanks.size()]), new int[0]);
+			return labels;
+		}
+
+		// Returns the depth to go on from, which is less than that of the
+		// path when an automorphism showed the rest of a branch to repeat
+		// one searched already
+		private int search(long[] colors, int[] path) {
+			int count = colors.length;
+			for (;;) {
+				int[] order = order(colors);
+				long[] individualized = colors.clone();
+				int tieStart = -1, tieEnd = -1;
+				boolean changed = false;
+				for (int start = 0, end; start < count; start = end) {
+					for (end = start + 1; end < count
+							&& colors[order[end]] == colors[order[start]]; end++)
+						;
+					if (end - start == 1)
+						continue;
+					// Tied blank nodes next to ground terms only can be
+					// swapped without changing the graph, so they are told
+					// apart all at once
+					boolean leaf = true;
+					for (int i = start; i < end; i++)
+						leaf &= leaves[order[i]];
+					if (leaf) {
+						for (int i = start; i < end; i++)
+							individualized[order[i]] = mix(colors[order[i]]
+									+ i - start + 1);
+						changed = true;
+					} else if (tieStart < 0) {
+						tieStart = start;
+						tieEnd = end;
+					}
+				}
+				if (changed) {
+					colors = refine(individualized);
+					continue;
+				}
+				if (tieStart < 0)
+					return leaf(order, path);
+				// Which of the other tied blank nodes comes first decides
+				// the labels, so each is tried unless an automorphism takes
+				// it to one tried already
+				int[] tried = new int[tieEnd - tieStart];
+				int triedCount = 0;
+				for (int i = tieStart; i < tieEnd; i++) {
+					int node = order[i];
+					if (symmetric(node, tried, triedCount, path))
+						continue;
+					tried[triedCount++] = node;
+					long[] branch = colors.clone();
+					branch[node] = mix(colors[node] + 1);
+					int[] deeper = Arrays.copyOf(path, path.length + 1);
+					deeper[path.length] = node;
+					int depth = search(refine(branch), deeper);
+					if (depth < path.length)
+						return depth;
+				}
+				return Integer.MAX_VALUE;
+			}
+		}
+
+		private int leaf(int[] order, int[] path) {
+			int[] labels = new int[order.length];
+			for (int i = 0; i < order.length; i++)
+				labels[order[i]] = i;
+			String[] lines = lines(labels);
+			if (firstLines == null) {
+				firstLabels = this.labels = labels;
+				firstLines = this.lines = lines;
+				firstPath = this.path = path;
+				return Integer.MAX_VALUE;
+			}
+			if (compare(lines, firstLines) == 0)
+				return automorphism(labels, firstLabels, path, firstPath);
+			int compared = compare(lines, this.lines);
+			if (compared == 0)
+				return automorphism(labels, this.labels, path, this.path);
+			if (compared < 0) {
+				this.labels = labels;
+				this.lines = lines;
+				this.path = path;
+			}
+			return Integer.MAX_VALUE;
+		}
+
+		// Keeps the automorphism that takes a labeling to another one with
+		// the same statements. It takes the path of the one to that of the
+		// other, so below the depth where they part, the branch of the
+		// first ends like that of the other.
+		private int automorphism(int[] labels, int[] other, int[] path,
+				int[] otherPath) {
+			int[] inverse = new int[other.length];
+			for (int i = 0; i < other.length; i++)
+				inverse[other[i]] = i;
+			int[] mapping = new int[labels.length];
+			for (int i = 0; i < labels.length; i++)
+				mapping[i] = inverse[labels[i]];
+			automorphisms.add(mapping);
+			int depth = 0;
+			while (depth < path.length && depth < otherPath.length
+					&& path[depth] == otherPath[depth])
+				depth++;
+			return depth;
+		}
+
+		// Whether the automorphisms that fix the path put the node in the
+		// same orbit as one tried already at this depth
+		private boolean symmetric(int node, int[] tried, int triedCount,
+				int[] path) {
+			if (triedCount == 0 || automorphisms.isEmpty())
+				return false;
+			int[] parents = new int[blanks.size()];
+			for (int i = 0; i < parents.length; i++)
+				parents[i] = i;
+			for (int[] mapping : automorphisms) {
+				boolean fixes = true;
+				for (int fixed : path)
+					if (mapping[fixed] != fixed) {
+						fixes = false;
+						break;
+					}
+				if (fixes)
+					for (int i = 0; i < mapping.length; i++)
+						parents[root(parents, i)] = root(parents, mapping[i]);
+			}
+			int orbit = root(parents, node);
+			for (int k = 0; k < triedCount; k++)
+				if (root(parents, tried[k]) == orbit)
+					return true;
+			return false;
+		}
+
+		private int root(int[] parents, int node) {
+			while (parents[node] != node)
+				node = parents[node] = parents[parents[node]];
+			return node;
+		}
+
+		// Blank nodes by color, and by order of appearance among equals
+		private int[] order(long[] colors) {
+			long[][] keys = new long[colors.length][];
+			for (int i = 0; i < colors.length; i++)
+				keys[i] = new long[] { colors[i], i };
+			Arrays.sort(keys, new Comparator<long[]>() {
+				@Override
+				public int compare(long[] a, long[] b) {
+					if (a[0] != b[0])
+						return a[0] < b[0] ? -1 : 1;
+					return a[1] < b[1] ? -1 : a[1] == b[1] ? 0 : 1;
+				}
+			});
+			int[] order = new int[colors.length];
+			for (int i = 0; i < order.length; i++)
+				order[i] = (int) keys[i][1];
+			return order;
+		}
+
+		private long[] refine(long[] colors) {
+			for (int distinct = distinct(colors);;) {
+				final long[] current = colors, next = new long[colors.length];
+				pool.invoke(new Split(new Range() {
+					@Override
+					public void run(int start, int end) {
+						for (int i = start; i < end; i++)
+							next[i] = recolor(i, current);
+					}
+				}, 0, colors.length));
+				int refined = distinct(next);
+				if (refined <= distinct)
+					return colors;
+				colors = next;
+				distinct = refined;
+			}
+		}
+
+		// Mixes the color of a blank node with the sorted hashes of the
+		// statements it occurs in, each telling where it occurs
+		private long recolor(int blank, long[] colors) {
+			long id = blankIds[blank];
+			long[] neighbours = new long[offsets[blank + 1] - offsets[blank]];
+			for (int k = 0; k < neighbours.length; k++) {
+				int i = incidences[offsets[blank] + k];
+				long role = (subjects[i] == id ? 1 : 0)
+						| (predicates[i] == id ? 2 : 0)
+						| (objects[i] == id ? 4 : 0)
+						| (names[i] == id ? 8 : 0);
+				neighbours[k] = mix(mix(mix(mix(role
+						+ color(subjects[i], colors))
+						+ color(predicates[i], colors))
+						+ color(objects[i], colors))
+						+ color(names[i], colors));
+			}
+			Arrays.sort(neighbours);
+			long color = colors[blank];
+			for (long neighbour : neighbours)
+				color = mix(color * 0x9E3779B97F4A7C15L + neighbour);
+			return color;
+		}
+
+		private long color(long id, long[] colors) {
+			if (id == 0)
+				return 0;
+			Integer blank = blanks.get(id);
+			return blank != null ? colors[blank] : hashes.get(id);
+		}
+
+		private int distinct(long[] colors) {
+			Set<Long> distinct = new HashSet<Long>();
+			for (long color : colors)
+				distinct.add(color);
+			return distinct.size();
+		}
+
+	}
+
+	private static int compare(String[] a, String[] b) {
+		for (int i = 0; i < a.length; i++) {
+			int compared = a[i].compareTo(b[i]);
+			if (compared != 0)
+				return compared;
+		}
+		return 0;
+	}
+
+	private static long mix(long hash) {
+		hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+		return hash ^ (hash >>> 31);
+	}
+
+	private static String toTerm(Value value) {
+		if (value.isIri())
+			return "<" + value.toIri() + ">";
+		StringBuilder term = new StringBuilder("\"");
+		String string = value.getString();
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			switch (c) {
+			case '"':
+				term.append("\\\"");
+				break;
+			case '\\':
+				term.append("\\\\");
+				break;
+			case '\n':
+				term.append("\\n");
+				break;
+			case '\r':
+				term.append("\\r");
+				break;
+			default:
+				term.append(c);
+			}
+		}
+		term.append('"');
+		if (value.getLanguage() != null)
+			term.append('@').append(value.getLanguage());
+		else if (value.getType() != null)
+			term.append("^^<").append(value.getType()).append('>');
+		return term.toString();
+	}
+
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openapplication.graph.Value;
+
+// An ordered log of the statements added to and removed from a graph and
+// of the terms it renamed. Changes are grouped into one batch per call
+// that mutated the graph, and batches are numbered from 1 without gaps.
+// The last batches are kept so subscribers can start from an earlier
+// sequence number. Once the log is full, a writer waits for the slowest
+// subscriber before dropping a batch it has not read, but only up to a
+// timeout; subscribers still behind then skip the batches they missed,
+// and are not waited for again until they have read all there is.
+public final class ChangeFeed {
+
+	public enum Kind {
+		ADDED, REMOVED, RENAMED
+	}
+
+	// For RENAMED changes the subject id is that of the renamed term, the
+	// subject its old name and the object its new one
+	public static final class Change {
+
+		private final Kind kind;
+
+		private final long subjectId, predicateId, objectId;
+
+		private final Value subject, predicate, object;
+
+		Change(Kind kind, long subjectId, long predicateId, long objectId,
+				Value subject, Value predicate, Value object) {
+			this.kind = kind;
+			this.subjectId = subjectId;
+			this.predicateId = predicateId;
+			this.objectId = objectId;
+			this.subject = subject;
+			this.predicate = predicate;
+			this.object = object;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		public long getSubjectId() {
+			return subjectId;
+		}
+
+		public long getPredicateId() {
+			return predicateId;
+		}
+
+		public long getObjectId() {
+			return objectId;
+		}
+
+		public Value getSubject() {
+			return subject;
+		}
+
+		public Value getPredicate() {
+			return predicate;
+		}
+
+		public Value getObject() {
+			return object;
+		}
+
+		@Override
+		public String toString() {
+			return kind + " " + subject + " " + predicate + " " + object;
+		}
+
+	}
+
+	public static final class Batch {
+
+		private final long sequence;
+
+		private final List<Change> changes;
+
+		Batch(long sequence, List<Change> changes) {
+			this.sequence = sequence;
+			this.changes = Collections.unmodifiableList(changes);
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public List<Change> getChanges() {
+			return changes;
+		}
+
+	}
+
+	public final class Subscription {
+
+		private long position, missed;
+
+		// Set once batches were dropped before this subscriber read them
+		private boolean lagging;
+
+		private Subscription(long position) {
+			this.position = position;
+		}
+
+		// The sequence number of the next batch to be returned
+		public long getPosition() {
+			synchronized (ChangeFeed.this) {
+				return position;
+			}
+		}
+
+		// The number of batches dropped before this subscriber read them
+		public long getMissed() {
+			synchronized (ChangeFeed.this) {
+				return missed;
+			}
+		}
+
+		public Batch poll() {
+			synchronized (ChangeFeed.this) {
+				return next();
+			}
+		}
+
+		public Batch poll(long timeout, TimeUnit unit)
+				throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			synchronized (ChangeFeed.this) {
+				for (;;) {
+					Batch batch = next();
+					if (batch != null)
+						return batch;
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0 || !subscriptions.contains(this))
+						return null;
+					TimeUnit.NANOSECONDS.timedWait(ChangeFeed.this, remaining);
+				}
+			}
+		}
+
+		public void close() {
+			synchronized (ChangeFeed.this) {
+				subscriptions.remove(this);
+				ChangeFeed.this.notifyAll();
+			}
+		}
+
+		private Batch next() {
+			Batch batch = null;
+			if (position < sequence) {
+				batch = log[(int) (position % log.length)];
+				position++;
+				ChangeFeed.this.notifyAll();
+			}
+			if (position == sequence)
+				lagging = false;
+			return batch;
+		}
+
+	}
+
+	private final Batch[] log;
+
+	private final List<Subscription> subscriptions = new ArrayList<Subscription>();
+
+	private final long timeout;
+
+	// The sequence number the next batch will get
+	private long sequence = 1;
+
+	public ChangeFeed() {
+		this(1024);
+	}
+
+	public ChangeFeed(int capacity) {
+		this(capacity, 1, TimeUnit.SECONDS);
+	}
+
+	// The timeout bounds how long a writer waits for a slow subscriber
+	public ChangeFeed(int capacity, long timeout, TimeUnit unit) {
+		if (capacity <= 0 || timeout < 0)
+			throw new IllegalArgumentException();
+		log = new Batch[capacity];
+		this.timeout = unit.toNanos(timeout);
+	}
+
+	public synchronized long getSequence() {
+		return sequence - 1;
+	}
+
+	public synchronized long getOldestSequence() {
+		return Math.max(1, sequence - log.length);
+	}
+
+	// Starts after the batches already published
+	public synchronized Subscription subscribe() {
+		return subscribe(sequence);
+	}
+
+	// Starts from the given batch, which must still be in the log
+	public synchronized Subscription subscribe(long from) {
+		if (from < getOldestSequence() || from > sequence)
+			throw new IllegalArgumentException("Batch " + from
+					+ " is not in the log");
+		Subscription subscription = new Subscription(from);
+		subscriptions.add(subscription);
+		return subscription;
+	}
+
+	// Publishes the changes of one call as a batch
+	synchronized void publish(List<Change> changes) {
+		if (changes.isEmpty())
+			return;
+		boolean interrupted = false;
+		// The batch about to be overwritten should have been read by
+		// everyone, but a subscriber that stopped reading cannot hold up
+		// writers for longer than the timeout, and only once
+		long deadline = System.nanoTime() + timeout;
+		while (sequence > log.length && behind(sequence - log.length)) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				break;
+			try {
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			} catch (InterruptedException e) {
+				// Writers are not interruptible, so the slow subscriber is
+				// moved past the batch like after a timeout
+				interrupted = true;
+				break;
+			}
+		}
+		log[(int) (sequence % log.length)] = new Batch(sequence, changes);
+		sequence++;
+		for (Subscription subscription : subscriptions)
+			if (subscription.position < sequence - log.length) {
+				subscription.missed += sequence - log.length
+						- subscription.position;
+				subscription.position = sequence - log.length;
+				subscription.lagging = true;
+			}
+		notifyAll();
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private boolean behind(long oldest) {
+		for (Subscription subscription : subscriptions)
+			if (!subscription.lagging && subscription.position <= oldest)
+				return true;
+		return false;
+	}
+
+}
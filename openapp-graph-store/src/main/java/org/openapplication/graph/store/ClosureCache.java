@@ -0,0 +1,136 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Transitive closures by predicate and start node, holding at most a given
+// number of node ids in total and evicting the least recently used
+// closures beyond that. Predicates walked backwards are keyed by their
+// negated id.
+final class ClosureCache {
+
+	private static final class Key {
+
+		final long predicate, start;
+
+		Key(long predicate, long start) {
+			this.predicate = predicate;
+			this.start = start;
+		}
+
+		@Override
+		public int hashCode() {
+			long h = predicate * 31 + start;
+			return (int) (h ^ (h >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key key = (Key) obj;
+			return predicate == key.predicate && start == key.start;
+		}
+
+	}
+
+	private final long capacity;
+
+	private long size;
+
+	private final LinkedHashMap<Key, long[]> closures = new LinkedHashMap<Key, long[]>(
+			16, 0.75f, true);
+
+	private final Map<Long, Set<Key>> byPredicate = new HashMap<Long, Set<Key>>();
+
+	// Changes when a predicate is invalidated or the cache is cleared, so
+	// that a closure computed during a write to its predicate is not
+	// stored afterwards
+	private final Map<Long, Long> versions = new HashMap<Long, Long>();
+
+	private long counter, cleared;
+
+	ClosureCache(long capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException();
+		this.capacity = capacity;
+	}
+
+	synchronized long version(long predicate) {
+		Long version = versions.get(predicate);
+		return version == null ? cleared : version;
+	}
+
+	synchronized long[] get(long predicate, long start) {
+		return closures.get(new Key(predicate, start));
+	}
+
+	synchronized void put(long predicate, long start, long[] closure,
+			long version) {
+		// Each closure also counts one for its entry
+		long weight = closure.length + 1;
+		if (weight > capacity || version != version(predicate))
+			return;
+		Key key = new Key(predicate, start);
+		long[] replaced = closures.put(key, closure);
+		if (replaced != null)
+			size -= replaced.length + 1;
+		else {
+			Set<Key> keys = byPredicate.get(predicate);
+			if (keys == null)
+				byPredicate.put(predicate, keys = new HashSet<Key>());
+			keys.add(key);
+		}
+		size += weight;
+		for (Iterator<Map.Entry<Key, long[]>> eldest = closures.entrySet()
+				.iterator(); size > capacity;) {
+			Map.Entry<Key, long[]> entry = eldest.next();
+			size -= entry.getValue().length + 1;
+			Set<Key> keys = byPredicate.get(entry.getKey().predicate);
+			keys.remove(entry.getKey());
+			if (keys.isEmpty())
+				byPredicate.remove(entry.getKey().predicate);
+			eldest.remove();
+		}
+	}
+
+	synchronized void invalidate(long predicate) {
+		versions.put(predicate, ++counter);
+		Set<Key> keys = byPredicate.remove(predicate);
+		if (keys != null)
+			for (Key key : keys)
+				size -= closures.remove(key).length + 1;
+	}
+
+	synchronized void clear() {
+		cleared = ++counter;
+		versions.clear();
+		closures.clear();
+		byPredicate.clear();
+		size = 0;
+	}
+
+	synchronized long size() {
+		return size;
+	}
+
+}
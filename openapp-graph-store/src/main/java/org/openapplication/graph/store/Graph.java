@@ -15,22 +15,55 @@
  */
 package org.openapplication.graph.store;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.openapplication.encoding.Id;
 import org.openapplication.graph.Triple;
 import org.openapplication.graph.Value;
 import org.openapplication.graph.ValueFactory;
 import org.openapplication.graph.Values;
+import org.openapplication.graph.management.GraphListener;
+import org.openapplication.graph.management.GraphMetrics;
+import org.openapplication.graph.management.GraphOperation;
+import org.openapplication.graph.management.GraphStatisticsMXBean;
+import org.openapplication.graph.management.MeasuredIterable;
+import org.openapplication.graph.streaming.BatchGraphReaderCallback;
+import org.openapplication.graph.streaming.CharSequenceGraphReaderCallback;
+import org.openapplication.graph.streaming.EncodedGraphReaderCallback;
 import org.openapplication.graph.streaming.GraphReaderCallback;
+import org.openapplication.graph.streaming.GraphWriter;
+import org.openapplication.graph.streaming.GraphWriterFactory;
+import org.openapplication.graph.streaming.StatementBatch;
 import org.openapplication.store.Definition;
 import org.openapplication.store.Entry;
 import org.openapplication.store.EntryConverter;
@@ -157,16 +190,63 @@ public final class Graph {
 		}
 	};
 
-	private final Map<Value, Long> entityToId = new ConcurrentHashMap<Value, Long>();
+	private final ConcurrentMap<Value, Long> entityToId = new ConcurrentHashMap<Value, Long>();
 
-	private final Map<Long, Value> idToEntity = new ConcurrentHashMap<Long, Value>();
+	private final ConcurrentMap<Long, Value> idToEntity = new ConcurrentHashMap<Long, Value>();
+
+	private final TermTable terms = new TermTable(idToEntity);
 
 	private final Store store = new StoreClient(new StoreImpl(new Definition[] {
 			S_P_O, P_O_S }));
 
-	private long index = 1;
+	private final AtomicLong index = new AtomicLong(1);
+
+	// Blank nodes minted while reading take their ids from a reserved
+	// range, and only enter the dictionary once their value is needed
+	private static final long BLANK_NODES = 1L << 62;
+
+	private final AtomicLong nextBlankNode = new AtomicLong(),
+			labelledBlankNodes = new AtomicLong();
+
+	// Kept up to date as terms and statements are added, so that the
+	// footprint can be reported without walking the dictionary or indexes
+	private final AtomicLong termStrings = new AtomicLong(),
+			termChars = new AtomicLong(), statements = new AtomicLong();
+
+	private final ConcurrentMap<Long, AtomicLong> predicates = new ConcurrentHashMap<Long, AtomicLong>();
+
+	// Node ids held by the closure cache when enabled without a capacity
+	private static final long DEFAULT_CLOSURE_CACHE = 1 << 20;
+
+	// Statements a reader adds before publishing them without waiting for
+	// the end of a definition
+	private static final int READER_BATCH = 1024;
+
+	// Subject ids written as one chunk by the parallel writeTo
+	private static final long CHUNK_IDS = 1 << 16;
+
+	// Null unless caching is enabled
+	private volatile ClosureCache closures;
+
+	// Every change to the store, the reasoner's upkeep included, is made
+	// under this lock. It is not the store itself, so that reads of the
+	// store, such as those of the reasoner's parallel rounds, go on while
+	// a write holds it.
+	final Object writes = new Object();
+
+	// Guarded by writes
+	private Reasoner.Maintenance maintenance;
+
+	// The changes not yet published to the feed, guarded by writes. Every
+	// call that mutates the graph publishes its own before letting go of
+	// the lock, so a batch never mixes the changes of concurrent calls.
+	private List<ChangeFeed.Change> changes = new ArrayList<ChangeFeed.Change>();
+
+	private volatile TextIndex textIndex;
+
+	private volatile ChangeFeed changeFeed;
 
-	private int nextBlankNode = 0;
+	private final ConcurrentMap<Long, RangeIndex> rangeIndexes = new ConcurrentHashMap<Long, RangeIndex>();
 
 	private final Graph context;
 
@@ -190,57 +270,290 @@ public final class Graph {
 	private Long toId(Value entity) {
 		if (entity == null)
 			return 0L;
-		Long id = context.entityToId.get(entity);
+		Long id = lookup(entity);
 		if (id != null)
 			return id;
-		context.entityToId.put(entity, id = context.index++);
+		// Concurrent loaders may race to add the same entity, in which case
+		// the id of the loser is left unused
+		id = context.index.getAndIncrement();
 		context.idToEntity.put(id, entity);
+		Long existingId = context.entityToId.putIfAbsent(entity, id);
+		if (existingId != null) {
+			context.idToEntity.remove(id);
+			return existingId;
+		}
+		account(entity, 1);
+		TextIndex textIndex = context.textIndex;
+		if (textIndex != null)
+			textIndex.add(id, entity);
+		return id;
+	}
+
+	long intern(Value entity) {
+		return toId(entity);
+	}
+
+	// Generated labels stand for the blank node the graph itself has for
+	// them, as in statements
+	Value toResource(String uri) {
+		long id = toBlankNodeId(uri);
+		if (id != 0)
+			return toEntity(id);
+		return uri.startsWith("_:") ? valueFactory.createBlank(uri
+				.substring(2)) : valueFactory.createIRI(uri);
+	}
+
+	// Whether the ids of both graphs stand for the same terms
+	boolean sharesTerms(Graph graph) {
+		return graph.context == context;
+	}
+
+	Triple toTriple(long subject, long predicate, long object) {
+		return valueFactory.createTriple(toEntity(subject),
+				toEntity(predicate), toEntity(object));
+	}
+
+	private void account(Value entity, int sign) {
+		for (String string : new String[] { entity.toIri(), entity.getId(),
+				entity.getString(), entity.getLanguage(), entity.getType() })
+			if (string != null) {
+				context.termStrings.addAndGet(sign);
+				context.termChars.addAndGet(sign * string.length());
+			}
+	}
+
+	TermTable newTermTable() {
+		return new TermTable(context.idToEntity);
+	}
+
+	// The labels handed to parsers start with a character that no parsed
+	// blank node label can hold, so they never clash with a document's own
+	String generateBlankNode() {
+		return "_:#" + context.nextBlankNode.getAndIncrement();
+	}
+
+	// The reserved id of a label generated above, or zero for any other
+	private long toBlankNodeId(CharSequence label) {
+		int length = label.length();
+		if (length < 4 || length > 21 || label.charAt(0) != '_'
+				|| label.charAt(1) != ':' || label.charAt(2) != '#')
+			return 0;
+		long number = 0;
+		for (int i = 3; i < length; i++) {
+			char c = label.charAt(i);
+			if (c < '0' || c > '9')
+				return 0;
+			number = number * 10 + c - '0';
+		}
+		return number < context.nextBlankNode.get() ? BLANK_NODES + number : 0;
+	}
+
+	// A blank node gets its value on first use, labelled with one that the
+	// dictionary does not hold yet
+	private Value toBlankNode(long id) {
+		synchronized (context.labelledBlankNodes) {
+			Value entity = context.idToEntity.get(id);
+			if (entity != null)
+				return entity;
+			String label = "b" + (id - BLANK_NODES);
+			entity = valueFactory.createBlank(label);
+			for (int i = 1; context.entityToId.putIfAbsent(entity, id) != null;
+					i++)
+				entity = valueFactory.createBlank(label + "_" + i);
+			context.idToEntity.put(id, entity);
+			context.labelledBlankNodes.incrementAndGet();
+			account(entity, 1);
+			return entity;
+		}
+	}
+
+	// Blank nodes generated while reading but not labelled yet
+	private long unlabelledBlankNodes() {
+		return context.nextBlankNode.get() - context.labelledBlankNodes.get();
+	}
+
+	private long toId(TermTable terms, int kind, CharSequence text,
+			CharSequence qualifier) {
+		long id = kind == TermTable.RESOURCE ? toBlankNodeId(text) : 0;
+		if (id != 0)
+			return id;
+		id = terms.get(kind, text, qualifier);
+		if (id != 0)
+			return id;
+		// Only terms that have not been seen before are turned into values
+		String string = text.toString();
+		Value entity;
+		switch (kind) {
+		case TermTable.RESOURCE:
+			entity = string.startsWith("_:") ? valueFactory.createBlank(string
+					.substring(2)) : valueFactory.createIRI(string);
+			break;
+		case TermTable.LANGUAGE_STRING:
+			entity = valueFactory.createString(string, qualifier.toString());
+			break;
+		case TermTable.TYPED_LITERAL:
+			entity = valueFactory.createLiteral(string, qualifier.toString());
+			break;
+		default:
+			entity = valueFactory.createString(string);
+		}
+		id = toId(entity);
+		terms.put(id, kind, text, qualifier);
 		return id;
 	}
 
+	private long encodeResource(TermTable terms, CharSequence resource) {
+		return toId(terms, TermTable.RESOURCE, resource, null);
+	}
+
+	private long encodeLiteral(TermTable terms, CharSequence literal,
+			CharSequence language, CharSequence dataType) {
+		if (language != null)
+			return toId(terms, TermTable.LANGUAGE_STRING, literal, language);
+		else if (dataType != null)
+			return toId(terms, TermTable.TYPED_LITERAL, literal, dataType);
+		else
+			return toId(terms, TermTable.STRING, literal, null);
+	}
+
+	void encode(StatementBatch batch, TermTable terms, long[] subjectIds,
+			long[] predicateIds, long[] objectIds) {
+		String[] subjects = batch.getSubjects(), predicates = batch
+				.getPredicates(), objects = batch.getObjects(), literals = batch
+				.getLiterals(), languages = batch.getLanguages(), dataTypes = batch
+				.getDataTypes();
+		// Consecutive statements usually share subject and predicate
+		String lastSubject = null, lastPredicate = null;
+		long subjectId = 0, predicateId = 0;
+		for (int i = 0, size = batch.size(); i < size; i++) {
+			if (batch.isEncoded(i)) {
+				subjectIds[i] = batch.getSubjectIds()[i];
+				predicateIds[i] = batch.getPredicateIds()[i];
+				objectIds[i] = batch.getObjectIds()[i];
+				lastSubject = lastPredicate = null;
+				continue;
+			}
+			if (!subjects[i].equals(lastSubject))
+				subjectId = encodeResource(terms, lastSubject = subjects[i]);
+			if (!predicates[i].equals(lastPredicate))
+				predicateId = encodeResource(terms,
+						lastPredicate = predicates[i]);
+			subjectIds[i] = subjectId;
+			predicateIds[i] = predicateId;
+			objectIds[i] = objects[i] != null ? encodeResource(terms,
+					objects[i]) : encodeLiteral(terms, literals[i],
+					languages[i], dataTypes[i]);
+		}
+	}
+
 	private Value toEntity(Long id) {
 		if (id == 0L)
 			return null;
-		return context.idToEntity.get(id);
+		Value entity = context.idToEntity.get(id);
+		if (entity == null && id >= BLANK_NODES)
+			entity = toBlankNode(id);
+		return entity;
 	}
 
 	public void rename(Value oldName, Value newName) {
 		if (newName == null) // if (oldName == null || newName == null)
 			throw new NullPointerException();
-		Long id = toId(oldName);
-		context.idToEntity.put(id, newName);
-		context.entityToId.put(newName, id);
-		Long newId = context.entityToId.get(newName);
-		if (newId != null)
-			for (Entry entry : store.iterate(LongField.SUBJECT,
-					LongField.PREDICATE, LongField.OBJECT)) {
-				Long newSubject = null, newPredicate = null, newObject = null;
-				Long subject = entry.get(LongField.SUBJECT), predicate = entry
-						.get(LongField.PREDICATE), object = entry
-						.get(LongField.OBJECT);
-				if (newId.equals(subject))
-					newSubject = id;
-				if (newId.equals(predicate))
-					newPredicate = id;
-				if (newId.equals(object))
-					newObject = id;
-				if (newSubject != null || newPredicate != null
-						|| newObject != null) {
-					store.remove(LongField.SUBJECT.value(subject),
-							LongField.PREDICATE.value(predicate),
-							LongField.OBJECT.value(object));
-					store.remove(LongField.PREDICATE.value(predicate),
-							LongField.OBJECT.value(object),
-							LongField.SUBJECT.value(subject));
-					store.put(LongField.SUBJECT
-							.value(newSubject == null ? subject : newSubject),
-							LongField.PREDICATE
-									.value(newPredicate == null ? predicate
-											: newPredicate), LongField.OBJECT
-									.value(newObject == null ? object
-											: newObject));
-				}
+		GraphListener listener = GraphMetrics.getListener();
+		long start = listener != null ? System.nanoTime() : 0;
+		GraphListener.Phase phase = start(listener, GraphOperation.RENAME,
+				oldName, newName);
+		synchronized (writes) {
+			Long id = toId(oldName);
+			// Looked up before the new name is given the id, as the new name
+			// may have an id of its own whose statements then move over
+			Long newId = lookup(newName);
+			if (newId != null && newId.equals(id))
+				newId = null;
+			context.terms.clear();
+			ClosureCache closures = this.closures;
+			if (closures != null)
+				closures.clear();
+			Value replaced = context.idToEntity.put(id, newName);
+			if (replaced != null) {
+				account(replaced, -1);
+				context.entityToId.remove(replaced, id);
+			}
+			account(newName, 1);
+			TextIndex textIndex = context.textIndex;
+			if (textIndex != null) {
+				if (replaced != null)
+					textIndex.remove(id, replaced);
+				textIndex.add(id, newName);
+			}
+			// The new name now stands for the renamed id, while its old id
+			// keeps the value for graphs that share the dictionary
+			context.entityToId.put(newName, id);
+			// Only statements with the renamed term as object move within a
+			// range index, and the P_O_S prefix of each indexed predicate
+			// finds them
+			for (Map.Entry<Long, RangeIndex> range : rangeIndexes.entrySet()) {
+				if (replaced != null)
+					for (Entry entry : match(0, range.getKey(), id, null)) {
+						long subject = entry.get(LongField.SUBJECT);
+						range.getValue().remove(subject, id, replaced);
+						range.getValue().add(subject, id, newName);
+					}
+				if (newId != null)
+					for (Entry entry : match(0, range.getKey(), newId, null)) {
+						long subject = entry.get(LongField.SUBJECT);
+						range.getValue().remove(subject, newId, newName);
+						range.getValue().add(subject, id, newName);
+					}
+			}
+			// Merging the statements of the old id takes a scan of the
+			// whole store
+			if (newId != null)
+				merge(newId, id);
+			if (changeFeed != null)
+				changes.add(new ChangeFeed.Change(ChangeFeed.Kind.RENAMED, id,
+						0, 0, replaced, null, newName));
+			publish();
+		}
+		if (listener != null)
+			listener.operation(GraphOperation.RENAME, 1, System.nanoTime()
+					- start);
+		if (phase != null)
+			phase.end(1, 0);
+	}
+
+	// Rewrites the statements that use one id to use another
+	private void merge(long from, long to) {
+		List<long[]> merged = new ArrayList<long[]>();
+		for (Entry entry : store.iterate(LongField.SUBJECT,
+				LongField.PREDICATE, LongField.OBJECT)) {
+			long subject = entry.get(LongField.SUBJECT), predicate = entry
+					.get(LongField.PREDICATE), object = entry
+					.get(LongField.OBJECT);
+			if (subject == from || predicate == from || object == from)
+				merged.add(new long[] { subject, predicate, object });
+		}
+		for (long[] statement : merged) {
+			long subject = statement[0], predicate = statement[1], //
+			object = statement[2];
+			store.remove(LongField.SUBJECT.value(subject),
+					LongField.PREDICATE.value(predicate),
+					LongField.OBJECT.value(object));
+			store.remove(LongField.PREDICATE.value(predicate),
+					LongField.OBJECT.value(object),
+					LongField.SUBJECT.value(subject));
+			count(predicate, -1);
+			subject = subject == from ? to : subject;
+			predicate = predicate == from ? to : predicate;
+			object = object == from ? to : object;
+			if (contains(subject, predicate, object))
+				statements.decrementAndGet();
+			else {
+				count(predicate, 1);
+				store.put(LongField.SUBJECT.value(subject),
+						LongField.PREDICATE.value(predicate),
+						LongField.OBJECT.value(object));
 			}
+		}
 	}
 
 	public void add(Iterable<Triple> statements) {
@@ -248,28 +561,443 @@ public final class Graph {
 	}
 
 	public void add(Iterator<Triple> statements) {
-		while (statements.hasNext()) {
-			Triple statement = statements.next();
-			store.put(LongField.SUBJECT.value(toId(statement.getSubject())),
-					LongField.PREDICATE.value(toId(statement.getPredicate())),
-					LongField.OBJECT.value(toId(statement.getObject())));
+		GraphListener listener = GraphMetrics.getListener();
+		long start = listener != null ? System.nanoTime() : 0, count = 0;
+		GraphListener.Phase phase = start(listener, GraphOperation.ADD, null);
+		synchronized (writes) {
+			while (statements.hasNext()) {
+				Triple statement = statements.next();
+				add(toId(statement.getSubject()),
+						toId(statement.getPredicate()),
+						toId(statement.getObject()));
+				count++;
+			}
+			publish();
 		}
+		if (listener != null)
+			listener.operation(GraphOperation.ADD, count, System.nanoTime()
+					- start);
+		if (phase != null)
+			phase.end(count, 0);
 	}
 
 	public void add(Triple statement) {
-		store.put(LongField.SUBJECT.value(toId(statement.getSubject())),
-				LongField.PREDICATE.value(toId(statement.getPredicate())),
-				LongField.OBJECT.value(toId(statement.getObject())));
+		GraphListener listener = GraphMetrics.getListener();
+		long start = listener != null ? System.nanoTime() : 0;
+		GraphListener.Phase phase = start(listener, GraphOperation.ADD,
+				statement);
+		synchronized (writes) {
+			add(toId(statement.getSubject()), toId(statement.getPredicate()),
+					toId(statement.getObject()));
+			publish();
+		}
+		if (listener != null)
+			listener.operation(GraphOperation.ADD, 1, System.nanoTime()
+					- start);
+		if (phase != null)
+			phase.end(1, 0);
+	}
+
+	boolean contains(long subject, long predicate, long object) {
+		return store
+				.iterate(LongField.SUBJECT.value(subject),
+						LongField.PREDICATE.value(predicate),
+						LongField.OBJECT.value(object)).iterator().hasNext();
+	}
+
+	private void add(long subject, long predicate, long object) {
+		synchronized (writes) {
+			if (maintenance != null)
+				maintenance.add(new long[] { subject },
+						new long[] { predicate }, new long[] { object }, 1);
+			else
+				insert(subject, predicate, object);
+		}
+	}
+
+	// Adds a statement without running inference, telling whether it was
+	// not there before
+	boolean insert(long subject, long predicate, long object) {
+		// The store ignores duplicates without saying so, so they are looked
+		// for first to keep the statement count exact, under the lock that
+		// every change to the store takes
+		synchronized (writes) {
+			if (contains(subject, predicate, object))
+				return false;
+			store.put(LongField.SUBJECT.value(subject),
+					LongField.PREDICATE.value(predicate),
+					LongField.OBJECT.value(object));
+			record(ChangeFeed.Kind.ADDED, subject, predicate, object);
+		}
+		statements.incrementAndGet();
+		count(predicate, 1);
+		invalidate(predicate);
+		RangeIndex range = rangeIndexes.get(predicate);
+		if (range != null)
+			range.add(subject, object, toEntity(object));
+		return true;
+	}
+
+	boolean delete(long subject, long predicate, long object) {
+		synchronized (writes) {
+			if (!contains(subject, predicate, object))
+				return false;
+			store.remove(LongField.SUBJECT.value(subject),
+					LongField.PREDICATE.value(predicate),
+					LongField.OBJECT.value(object));
+			store.remove(LongField.PREDICATE.value(predicate),
+					LongField.OBJECT.value(object),
+					LongField.SUBJECT.value(subject));
+			record(ChangeFeed.Kind.REMOVED, subject, predicate, object);
+		}
+		statements.decrementAndGet();
+		count(predicate, -1);
+		invalidate(predicate);
+		RangeIndex range = rangeIndexes.get(predicate);
+		if (range != null)
+			range.remove(subject, object, toEntity(object));
+		return true;
+	}
+
+	// Called under writes
+	private void record(ChangeFeed.Kind kind, long subject, long predicate,
+			long object) {
+		if (changeFeed != null)
+			changes.add(new ChangeFeed.Change(kind, subject, predicate,
+					object, toEntity(subject), toEntity(predicate),
+					toEntity(object)));
+	}
+
+	// Publishes the changes recorded so far as one batch; called under
+	// writes by the call that made them
+	void publish() {
+		publish(1);
+	}
+
+	private void publish(int threshold) {
+		synchronized (writes) {
+			if (changes.size() < threshold || changes.isEmpty())
+				return;
+			List<ChangeFeed.Change> batch = changes;
+			changes = new ArrayList<ChangeFeed.Change>();
+			ChangeFeed changeFeed = this.changeFeed;
+			if (changeFeed != null)
+				changeFeed.publish(batch);
+		}
+	}
+
+	// Publishes every later change to the feed, or stops with null
+	public void setChangeFeed(ChangeFeed changeFeed) {
+		synchronized (writes) {
+			publish();
+			this.changeFeed = changeFeed;
+		}
+	}
+
+	// Publishes the statements a reader added since its last batch. Readers
+	// publish one batch per definition, per named graph or per
+	// READER_BATCH statements, and the rest when the graph is next changed
+	// or flushed.
+	public void flush() {
+		publish();
+	}
+
+	public ChangeFeed getChangeFeed() {
+		return changeFeed;
+	}
+
+	private void invalidate(long predicate) {
+		ClosureCache closures = this.closures;
+		if (closures != null) {
+			closures.invalidate(predicate);
+			closures.invalidate(-predicate);
+		}
+	}
+
+	public void remove(Triple statement) {
+		remove(Collections.singleton(statement));
+	}
+
+	public void remove(Iterable<Triple> statements) {
+		GraphListener listener = GraphMetrics.getListener();
+		long start = listener != null ? System.nanoTime() : 0;
+		GraphListener.Phase phase = start(listener, GraphOperation.REMOVE,
+				null);
+		long[] subjects = new long[16], predicates = new long[16];
+		long[] objects = new long[16];
+		int count = 0;
+		for (Triple statement : statements) {
+			Long subject = lookup(statement.getSubject());
+			Long predicate = lookup(statement.getPredicate());
+			Long object = lookup(statement.getObject());
+			// Statements with terms outside the dictionary cannot be there
+			if (subject == null || predicate == null || object == null)
+				continue;
+			if (count == subjects.length) {
+				subjects = Arrays.copyOf(subjects, count * 2);
+				predicates = Arrays.copyOf(predicates, count * 2);
+				objects = Arrays.copyOf(objects, count * 2);
+			}
+			subjects[count] = subject;
+			predicates[count] = predicate;
+			objects[count++] = object;
+		}
+		synchronized (writes) {
+			if (maintenance != null)
+				maintenance.remove(subjects, predicates, objects, count);
+			else
+				for (int i = 0; i < count; i++)
+					delete(subjects[i], predicates[i], objects[i]);
+			publish();
+		}
+		if (listener != null)
+			listener.operation(GraphOperation.REMOVE, count, System.nanoTime()
+					- start);
+		if (phase != null)
+			phase.end(count, 0);
+	}
+
+	// Keeps the statements entailed by the reasoner up to date as
+	// statements are added and removed; inferences already made stay in
+	// the graph when the reasoner is taken away with null
+	public void setReasoner(Reasoner reasoner) {
+		synchronized (writes) {
+			maintenance = reasoner == null ? null : new Reasoner.Maintenance(
+					reasoner, this);
+		}
+	}
+
+	Graph newGraph() {
+		return new Graph(context);
+	}
+
+	private void count(long predicate, int delta) {
+		AtomicLong count = predicates.get(predicate);
+		if (count == null) {
+			AtomicLong existing = predicates.putIfAbsent(predicate,
+					count = new AtomicLong());
+			if (existing != null)
+				count = existing;
+		}
+		count.addAndGet(delta);
+	}
+
+	public long cardinality(long predicate) {
+		AtomicLong count = predicates.get(predicate);
+		return count == null ? 0 : count.get();
+	}
+
+	long[] predicateIds() {
+		long[] ids = new long[predicates.size()];
+		int size = 0;
+		for (Map.Entry<Long, AtomicLong> entry : predicates.entrySet())
+			if (entry.getValue().get() > 0 && size < ids.length)
+				ids[size++] = entry.getKey();
+		ids = Arrays.copyOf(ids, size);
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	void add(long[] subjects, long[] predicates, long[] objects, int count) {
+		GraphListener listener = GraphMetrics.getListener();
+		long start = listener != null ? System.nanoTime() : 0;
+		GraphListener.Phase phase = start(listener, GraphOperation.ADD, null);
+		// Inserting in index order keeps the store's access pattern local
+		TripleArrays.sort(subjects, predicates, objects, 0, count);
+		synchronized (writes) {
+			if (maintenance != null)
+				maintenance.add(subjects, predicates, objects, count);
+			else
+				for (int i = 0; i < count; i++)
+					if (i == 0
+							|| !TripleArrays.equals(subjects, predicates,
+									objects, i, i - 1))
+						insert(subjects[i], predicates[i], objects[i]);
+			publish();
+		}
+		if (listener != null)
+			listener.operation(GraphOperation.ADD, count, System.nanoTime()
+					- start);
+		if (phase != null)
+			phase.end(count, 0);
+	}
+
+	// The arguments are passed through as they are and only wrapped in a
+	// detail once a listener is known to be set
+	private static GraphListener.Phase start(GraphListener listener,
+			GraphOperation operation, Object argument) {
+		return listener != null ? listener.startOperation(operation,
+				detail(argument)) : null;
+	}
+
+	private static GraphListener.Phase start(GraphListener listener,
+			GraphOperation operation, Object first, Object second) {
+		return listener != null ? listener.startOperation(operation,
+				detail(first, second)) : null;
+	}
+
+	private static <T> Iterable<T> measure(GraphOperation operation,
+			Iterable<T> results, Object argument) {
+		GraphListener listener = GraphMetrics.getListener();
+		return listener == null ? results : new MeasuredIterable<T>(results,
+				operation, detail(argument), listener);
+	}
+
+	private static <T> Iterable<T> measure(GraphOperation operation,
+			Iterable<T> results, Object first, Object second) {
+		GraphListener listener = GraphMetrics.getListener();
+		return listener == null ? results : new MeasuredIterable<T>(results,
+				operation, detail(first, second), listener);
+	}
+
+	private static <T> Iterable<T> measure(GraphOperation operation,
+			Iterable<T> results, Object first, Object second, Object third) {
+		GraphListener listener = GraphMetrics.getListener();
+		return listener == null ? results : new MeasuredIterable<T>(results,
+				operation, detail(first, second, third), listener);
+	}
+
+	private static <T> Iterable<T> measure(GraphOperation operation,
+			Iterable<T> results, Object[] arguments) {
+		GraphListener listener = GraphMetrics.getListener();
+		return listener == null ? results : new MeasuredIterable<T>(results,
+				operation, detail(arguments), listener);
+	}
+
+	// Describes the arguments of an operation, but only when asked to
+	private static Object detail(final Object... arguments) {
+		return new Object() {
+			@Override
+			public String toString() {
+				StringBuilder builder = new StringBuilder();
+				for (Object argument : arguments) {
+					if (builder.length() != 0)
+						builder.append(' ');
+					append(builder, argument);
+				}
+				return builder.toString();
+			}
+		};
+	}
+
+	private static void append(StringBuilder builder, Object argument) {
+		if (argument instanceof Triple) {
+			Triple triple = (Triple) argument;
+			builder.append('(');
+			append(builder, triple.getSubject());
+			builder.append(' ');
+			append(builder, triple.getPredicate());
+			builder.append(' ');
+			append(builder, triple.getObject());
+			builder.append(')');
+			return;
+		}
+		if (!(argument instanceof Value)) {
+			builder.append(argument != null ? argument : "?");
+			return;
+		}
+		Value value = (Value) argument;
+		if (value.isIri())
+			builder.append('<').append(value.toIri()).append('>');
+		else if (value.getId() != null)
+			builder.append("_:").append(value.getId());
+		else {
+			builder.append('"').append(value.getString()).append('"');
+			if (value.getLanguage() != null)
+				builder.append('@').append(value.getLanguage());
+			else if (value.getType() != null)
+				builder.append("^^<").append(value.getType()).append('>');
+		}
 	}
 
 	public Iterable<Triple> describe(Value subject) {
-		return new EntryConverter<Triple>(store.iterate(
-				LongField.SUBJECT.value(toId(subject)), LongField.PREDICATE,
-				LongField.OBJECT), ENTRY_TO_STATEMENT);
+		return measure(GraphOperation.DESCRIBE, new EntryConverter<Triple>(
+				store.iterate(LongField.SUBJECT.value(toId(subject)),
+						LongField.PREDICATE, LongField.OBJECT),
+				ENTRY_TO_STATEMENT), subject);
 	}
 
+	// Blank nodes generated while reading are labelled as they come up
 	public Iterable<Value> entities() {
-		return entityToId.keySet();
+		return new Iterable<Value>() {
+			@Override
+			public Iterator<Value> iterator() {
+				final Iterator<Map.Entry<Long, Value>> labelled = context.idToEntity
+						.entrySet().iterator();
+				final long end = BLANK_NODES + context.nextBlankNode.get();
+				return new Iterator<Value>() {
+					private Value next;
+
+					private long blankNode = BLANK_NODES;
+
+					@Override
+					public boolean hasNext() {
+						// Those labelled already come with the rest
+						while (next == null && labelled.hasNext()) {
+							Map.Entry<Long, Value> entry = labelled.next();
+							if (entry.getKey() < BLANK_NODES)
+								next = entry.getValue();
+						}
+						if (next == null && blankNode < end)
+							next = toEntity(blankNode++);
+						return next != null;
+					}
+
+					@Override
+					public Value next() {
+						if (!hasNext())
+							throw new NoSuchElementException();
+						Value value = next;
+						next = null;
+						return value;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	public GraphFootprint getFootprint() {
+		return getFootprint(Collections.<Value, Graph> emptyMap());
+	}
+
+	// Includes the named graphs read along with this one, such as those
+	// handed to a GraphCallback
+	public GraphFootprint getFootprint(Map<? extends Value, Graph> namedGraphs) {
+		Map<String, GraphFootprint> footprints =
+				new LinkedHashMap<String, GraphFootprint>();
+		for (Map.Entry<? extends Value, Graph> namedGraph : namedGraphs
+				.entrySet()) {
+			Value name = namedGraph.getKey();
+			footprints.put(name.isIri() ? name.toIri() : "_:" + name.getId(),
+					namedGraph.getValue().getFootprint());
+		}
+		return new GraphFootprint(context != this, getTerms(),
+				context.termStrings.get(), context.termChars.get(),
+				context.terms.bytes(), statements.get(), footprints);
+	}
+
+	public GraphStatisticsMXBean getStatistics() {
+		return new GraphStatisticsMXBean() {
+			@Override
+			public long getTerms() {
+				return Graph.this.getTerms();
+			}
+
+			@Override
+			public long getStatements() {
+				return statements.get();
+			}
+
+			@Override
+			public long getEstimatedHeapBytes() {
+				return getFootprint().getTotalBytes();
+			}
+		};
 	}
 
 	public Iterable<Value> properties(Value subject) {
@@ -296,35 +1024,24 @@ public final class Graph {
 	}
 
 	public Iterable<Triple> find(Value subject, Value predicate, Value object) {
-		final Long subjectId = subject == null ? null : entityToId.get(subject);
-		if (subject != null && subjectId == null)
-			return Collections.emptyList();
-		final Long predicateId = predicate == null ? null : entityToId
-				.get(predicate);
-		if (predicate != null && predicateId == null)
-			return Collections.emptyList();
-		final Long objectId = object == null ? null : entityToId.get(object);
-		if (object != null && objectId == null)
-			return Collections.emptyList();
-		return new EntryConverter<Triple>(new EntryFilter(
-				Collections.singleton(store.iterate(LongField.SUBJECT,
-						LongField.PREDICATE, LongField.OBJECT)),
-				new EntryFilter.Evaluate() {
-					@Override
-					public Evaluation evaluate(Entry entry) {
-						if (subjectId != null
-								&& subjectId != entry.get(LongField.SUBJECT))
-							return Evaluation.REJECT;
-						if (predicateId != null
-								&& predicateId != entry
-										.get(LongField.PREDICATE))
-							return Evaluation.REJECT;
-						if (objectId != null
-								&& objectId != entry.get(LongField.OBJECT))
-							return Evaluation.REJECT;
-						return Evaluation.ACCEPT;
-					}
-				}), ENTRY_TO_STATEMENT);
+		return find(subject, predicate, object, 0, Long.MAX_VALUE, null);
+	}
+
+	public Iterable<Triple> find(Value subject, Value predicate, Value object,
+			long offset, long limit, Cancellation cancellation) {
+		if (offset < 0 || limit < 0)
+			throw new IllegalArgumentException();
+		Long subjectId = lookup(subject), predicateId = lookup(predicate), //
+		objectId = lookup(object);
+		if (subjectId == null || predicateId == null || objectId == null)
+			return measure(GraphOperation.FIND,
+					Collections.<Triple> emptyList(),
+					subject, predicate, object);
+		Iterable<Triple> results = new EntryConverter<Triple>(limit(
+				match(subjectId, predicateId, objectId, cancellation), offset,
+				limit, cancellation), ENTRY_TO_STATEMENT);
+		return measure(GraphOperation.FIND, results,
+				subject, predicate, object);
 	}
 
 	public Value first(Value subject, Value predicate) {
@@ -338,119 +1055,144 @@ public final class Graph {
 	}
 
 	public Iterable<Value> project(Value predicate) {
-		final Long predicateId = entityToId.get(predicate);
-		if (predicateId == null)
-			return Collections.emptyList();
-		return new EntryConverter<Value>(new EntryFilter(
-				Collections.singleton(store.iterate(LongField.PREDICATE,
-						LongField.OBJECT, LongField.SUBJECT)),
-				new EntryFilter.Evaluate() {
-					@Override
-					public Evaluation evaluate(Entry entry) {
-						if (predicateId != entry.get(LongField.PREDICATE))
-							return Evaluation.REJECT;
-						return Evaluation.ACCEPT;
-					}
-				}), ENTRY_TO_SUBJECT);
+		return project(predicate, null, 0, Long.MAX_VALUE, null);
 	}
 
 	public Iterable<Value> project(Value predicate, Value object) {
-		final Long predicateId = entityToId.get(predicate);
-		if (predicateId == null)
-			return Collections.emptyList();
-		final Long objectId = entityToId.get(object);
-		if (objectId == null)
-			return Collections.emptyList();
-		return new EntryConverter<Value>(new EntryFilter(
-				Collections.singleton(store.iterate(LongField.PREDICATE,
-						LongField.OBJECT, LongField.SUBJECT)),
-				new EntryFilter.Evaluate() {
-					@Override
-					public Evaluation evaluate(Entry entry) {
-						if (predicateId != entry.get(LongField.PREDICATE))
-							return Evaluation.REJECT;
-						if (objectId != entry.get(LongField.OBJECT))
-							return Evaluation.REJECT;
-						return Evaluation.ACCEPT;
-					}
-				}), ENTRY_TO_SUBJECT);
+		if (object == null)
+			throw new NullPointerException();
+		return project(predicate, object, 0, Long.MAX_VALUE, null);
 	}
 
-	public Iterable<Value> project(final Triple... properties) {
-		if (properties.length == 0)
+	public Iterable<Value> project(Value predicate, Value object, long offset,
+			long limit, Cancellation cancellation) {
+		if (predicate == null)
+			throw new NullPointerException();
+		if (offset < 0 || limit < 0)
 			throw new IllegalArgumentException();
-		return new Iterable<Value>() {
-			@Override
-			public Iterator<Value> iterator() {
-				return new Iterator<Value>() {
+		Long predicateId = lookup(predicate), objectId = lookup(object);
+		if (predicateId == null || objectId == null)
+			return measure(GraphOperation.PROJECT,
+					Collections.<Value> emptyList(), predicate, object);
+		Iterable<Value> results = new EntryConverter<Value>(limit(
+				match(0, predicateId, objectId, cancellation), offset, limit,
+				cancellation), ENTRY_TO_SUBJECT);
+		return measure(GraphOperation.PROJECT, results,
+				predicate, object);
+	}
 
-					@SuppressWarnings("unchecked")
-					private Iterator<Entry>[] iterators = //
-					(Iterator<Entry>[]) new Iterator<?>[properties.length];
-					{
-						for (int i = 0; i < properties.length; i++) {
-							Triple property = properties[i];
-							iterators[i] = store.iterate(
-									LongField.PREDICATE.value(toId(property
-											.getPredicate())),
-									LongField.OBJECT.value(toId(property
-											.getObject())), LongField.SUBJECT)
-									.iterator();
-						}
-					}
+	// The index covers the literals of the dictionary, which is shared
+	// with the named graphs read along with this one
+	public synchronized void setTextIndexing(boolean enabled) {
+		if (!enabled)
+			context.textIndex = null;
+		else if (context.textIndex == null)
+			context.textIndex = new TextIndex(context.idToEntity);
+	}
 
-					private boolean endOfIteration = false;
-
-					private long current[] = new long[iterators.length];
-					{
-						for (int i = 0; i < iterators.length; i++) {
-							if (!iterators[i].hasNext()) {
-								endOfIteration = true;
-								break;
-							}
-							current[i] = iterators[i].next().get(
-									LongField.SUBJECT);
-						}
-					}
+	public TextIndex getTextIndex() {
+		return context.textIndex;
+	}
 
-					private long candidate = Long.MIN_VALUE;
+	public Iterable<Value> search(String query) {
+		return search(null, query, null);
+	}
 
-					private boolean hasNext = false;
+	// Subjects with a literal holding every token of the query, optionally
+	// only through the given predicate and in the given language
+	public Iterable<Value> search(Value predicate, String query,
+			String language) {
+		TextIndex textIndex = context.textIndex;
+		if (textIndex == null)
+			throw new IllegalStateException("Text indexing is not enabled");
+		Long predicateId = lookup(predicate);
+		if (predicateId == null)
+			return measure(GraphOperation.SEARCH,
+					Collections.<Value> emptyList(),
+					predicate, query, language);
+		Set<Long> subjects = new LinkedHashSet<Long>();
+		for (long literal : textIndex.match(query, language)) {
+			if (language != null) {
+				String tag = toEntity(literal).getLanguage();
+				if (tag == null
+						|| !(tag.equalsIgnoreCase(language) || tag
+								.toLowerCase(Locale.ROOT).startsWith(
+										language.toLowerCase(Locale.ROOT)
+												+ "-")))
+					continue;
+			}
+			for (Entry entry : match(0, predicateId, literal, null))
+				subjects.add(entry.get(LongField.SUBJECT));
+		}
+		List<Value> results = new ArrayList<Value>(subjects.size());
+		for (Long subject : subjects)
+			results.add(toEntity(subject));
+		return measure(GraphOperation.SEARCH, results,
+				predicate, query, language);
+	}
 
-					private boolean check() {
-						if (endOfIteration)
-							return false;
-						int score = 0;
-						while (score < iterators.length) {
-							score = 0;
-							for (int i = 0; i < iterators.length; i++) {
-								while (current[i] < candidate) {
-									if (!iterators[i].hasNext()) {
-										endOfIteration = true;
-										return false;
-									}
-									current[i] = iterators[i].next().get(
-											LongField.SUBJECT);
-								}
-								if (current[i] == candidate)
-									score++;
-								else if (current[i] > candidate)
-									candidate = current[i];
-							}
-						}
-						return true;
-					}
+	// Orders the numeric and temporal literal objects of the predicate by
+	// value for range scans
+	public void addRangeIndex(Value predicate) {
+		long id = toId(predicate);
+		if (!rangeIndexes.containsKey(id))
+			rangeIndexes.putIfAbsent(id, newRangeIndex(id));
+	}
+
+	public void removeRangeIndex(Value predicate) {
+		Long id = lookup(predicate);
+		if (id != null)
+			rangeIndexes.remove(id);
+	}
+
+	public boolean hasRangeIndex(long predicate) {
+		return rangeIndexes.containsKey(predicate);
+	}
+
+	private RangeIndex newRangeIndex(long predicate) {
+		RangeIndex range = new RangeIndex();
+		for (Entry entry : match(0, predicate, 0, null))
+			range.add(entry.get(LongField.SUBJECT),
+					entry.get(LongField.OBJECT),
+					toEntity(entry.get(LongField.OBJECT)));
+		return range;
+	}
+
+	// Subjects in order of their values; a null bound is open
+	public Iterable<Value> range(Value predicate, Value min, Value max) {
+		return range(predicate, min, true, max, true);
+	}
+
+	public Iterable<Value> range(final Value predicate, final Value min,
+			final boolean minInclusive, final Value max,
+			final boolean maxInclusive) {
+		return measure(GraphOperation.RANGE, new Iterable<Value>() {
+			@Override
+			public Iterator<Value> iterator() {
+				Long id = lookup(predicate);
+				final TripleCursor triples = scanRange(id == null ? 0 : id,
+						min, minInclusive, max, maxInclusive, null);
+				return new Iterator<Value>() {
+
+					private final Set<Long> seen = new HashSet<Long>();
+
+					private Value next;
 
 					@Override
 					public boolean hasNext() {
-						return hasNext ? true : check();
+						while (next == null && triples.next())
+							if (seen.add(triples.getSubject()))
+								next = toEntity(triples.getSubject());
+						return next != null;
 					}
 
 					@Override
 					public Value next() {
-						Value result = toEntity(candidate);
-						candidate++;
-						return result;
+						if (!hasNext())
+							throw new NoSuchElementException();
+						Value value = next;
+						next = null;
+						return value;
 					}
 
 					@Override
@@ -460,91 +1202,808 @@ public final class Graph {
 
 				};
 			}
-		};
+		}, predicate, min, max);
 	}
 
-	private GraphReaderCallback graphReaderCallback;
+	// Statements of an indexed predicate with objects in the range, in
+	// order of value
+	public TripleCursor scanRange(final long predicate, Value min,
+			boolean minInclusive, Value max, boolean maxInclusive,
+			final Cancellation cancellation) {
+		RangeIndex range = rangeIndexes.get(predicate);
+		if (range == null)
+			throw new IllegalStateException("No range index for predicate "
+					+ toEntity(predicate));
+		final Iterator<RangeIndex.Key> keys = range.range(min, minInclusive,
+				max, maxInclusive).iterator();
+		return new TripleCursor() {
+
+			private RangeIndex.Key key;
 
-	public GraphReaderCallback toReader() {
-		if (graphReaderCallback != null)
-			return graphReaderCallback;
-		return graphReaderCallback = toReader(new GraphCallback() {
 			@Override
-			public void triple(Value subject, Value predicate, Value object) {
+			public boolean next() {
+				if (cancellation != null)
+					cancellation.check();
+				key = keys.hasNext() ? keys.next() : null;
+				return key != null;
 			}
 
 			@Override
-			public void node(Value node) {
+			public long getSubject() {
+				return key.subject;
 			}
 
 			@Override
-			public void graph(Value name, Graph graph) {
+			public long getPredicate() {
+				return predicate;
 			}
-		});
+
+			@Override
+			public long getObject() {
+				return key.object;
+			}
+
+		};
 	}
 
-	public GraphReaderCallback toReader(final GraphCallback callback) {
-		return new GraphReaderCallback() {
-			Deque<Graph> graphs = new ArrayDeque<Graph>();
+	public void setClosureCaching(boolean enabled) {
+		setClosureCaching(enabled ? DEFAULT_CLOSURE_CACHE : 0);
+	}
 
-			{
-				graphs.push(Graph.this);
-			}
+	// The capacity counts the node ids of all cached closures together;
+	// zero disables caching
+	public void setClosureCaching(long capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException();
+		closures = capacity == 0 ? null : new ClosureCache(capacity);
+	}
 
-			@Override
-			public String generateBlankNode(String node) {
-				return "_:t" + nextBlankNode++;
+	public long getClosureCacheSize() {
+		ClosureCache closures = this.closures;
+		return closures == null ? 0 : closures.size();
+	}
+
+	public Iterable<Value> follow(Value subject, PropertyPath path) {
+		Long id = lookup(subject);
+		if (id == null || id == 0)
+			return measure(GraphOperation.FOLLOW,
+					isNullable(path) ? Collections.singletonList(subject)
+							: Collections.<Value> emptyList(),
+					subject, path);
+		List<Value> results = new ArrayList<Value>();
+		for (Long node : follow(Collections.singleton(id), path))
+			results.add(toEntity(node));
+		return measure(GraphOperation.FOLLOW, results, subject, path);
+	}
+
+	public boolean connects(Value subject, PropertyPath path, Value object) {
+		Long subjectId = lookup(subject), objectId = lookup(object);
+		if (subjectId == null || subjectId == 0 || objectId == null
+				|| objectId == 0)
+			return subject.equals(object) && isNullable(path);
+		return follow(Collections.singleton(subjectId), path).contains(
+				objectId);
+	}
+
+	private static boolean isNullable(PropertyPath path) {
+		switch (path.kind) {
+		case ZERO_OR_ONE:
+		case ZERO_OR_MORE:
+			return true;
+		case SEQUENCE:
+			for (PropertyPath step : path.paths)
+				if (!isNullable(step))
+					return false;
+			return true;
+		case ALTERNATIVE:
+			for (PropertyPath step : path.paths)
+				if (isNullable(step))
+					return true;
+			return false;
+		default:
+			return false;
+		}
+	}
+
+	private Set<Long> follow(Set<Long> nodes, PropertyPath path) {
+		switch (path.kind) {
+		case PREDICATE:
+		case INVERSE:
+			Long predicate = lookup(path.predicate);
+			if (predicate == null)
+				return Collections.emptySet();
+			Set<Long> results = new LinkedHashSet<Long>();
+			for (Long node : nodes)
+				step(node, predicate, path.kind == PropertyPath.Kind.INVERSE,
+						results);
+			return results;
+		case SEQUENCE:
+			for (PropertyPath step : path.paths)
+				if ((nodes = follow(nodes, step)).isEmpty())
+					break;
+			return nodes;
+		case ALTERNATIVE:
+			results = new LinkedHashSet<Long>();
+			for (PropertyPath step : path.paths)
+				results.addAll(follow(nodes, step));
+			return results;
+		case ZERO_OR_ONE:
+			results = new LinkedHashSet<Long>(nodes);
+			results.addAll(follow(nodes, path.paths[0]));
+			return results;
+		default:
+			results = new LinkedHashSet<Long>();
+			if (path.kind == PropertyPath.Kind.ZERO_OR_MORE)
+				results.addAll(nodes);
+			PropertyPath step = path.paths[0];
+			ClosureCache closures = this.closures;
+			if (closures != null && step.predicate != null) {
+				for (Long node : nodes)
+					for (long reached : closure(node, step, closures))
+						results.add(reached);
+				return results;
 			}
+			// Each node is expanded once, which also stops at cycles
+			Set<Long> expanded = new HashSet<Long>(nodes);
+			for (Set<Long> frontier = nodes; !frontier.isEmpty();) {
+				Set<Long> next = new LinkedHashSet<Long>();
+				for (Long node : follow(frontier, step)) {
+					results.add(node);
+					if (expanded.add(node))
+						next.add(node);
+				}
+				frontier = next;
+			}
+			return results;
+		}
+	}
+
+	private void step(long node, long predicate, boolean inverse,
+			Collection<Long> results) {
+		for (Entry entry : inverse ? match(0, predicate, node, null) : match(
+				node, predicate, 0, null))
+			results.add(entry.get(inverse ? LongField.SUBJECT
+					: LongField.OBJECT));
+	}
 
-			private Value toEntity(String uri) {
-				return uri.startsWith("_:") ? valueFactory.createBlank(uri
-						.substring(2)) : valueFactory.createIRI(uri);
+	// Nodes reachable in one or more steps, reusing the closures of nodes
+	// already cached rather than walking past them again
+	private long[] closure(long start, PropertyPath step,
+			ClosureCache closures) {
+		Long predicate = lookup(step.predicate);
+		if (predicate == null)
+			return new long[0];
+		boolean inverse = step.kind == PropertyPath.Kind.INVERSE;
+		long key = inverse ? -predicate : predicate;
+		long version = closures.version(key);
+		long[] closure = closures.get(key, start);
+		if (closure != null)
+			return closure;
+		Set<Long> reached = new LinkedHashSet<Long>();
+		Set<Long> expanded = new HashSet<Long>();
+		List<Long> pending = new ArrayList<Long>();
+		pending.add(start);
+		expanded.add(start);
+		while (!pending.isEmpty()) {
+			List<Long> next = new ArrayList<Long>();
+			step(pending.remove(pending.size() - 1), predicate, inverse, next);
+			for (Long node : next) {
+				reached.add(node);
+				long[] known = closures.get(key, node);
+				if (known != null) {
+					for (long id : known)
+						if (reached.add(id))
+							expanded.add(id);
+				} else if (expanded.add(node))
+					pending.add(node);
 			}
+		}
+		closure = new long[reached.size()];
+		int i = 0;
+		for (Long node : reached)
+			closure[i++] = node;
+		closures.put(key, start, closure, version);
+		return closure;
+	}
+
+	public long size() {
+		return statements.get();
+	}
+
+	public long getTerms() {
+		return context.idToEntity.size() + unlabelledBlankNodes();
+	}
+
+	public long getId(Value entity) {
+		Long id = lookup(entity);
+		return id == null ? 0 : id;
+	}
+
+	public Value getValue(long id) {
+		return toEntity(id);
+	}
+
+	// Ids of zero are unbound; with a bound predicate and object and an
+	// unbound subject, subjects come in ascending order
+	public TripleCursor scan(long subject, long predicate, long object,
+			Cancellation cancellation) {
+		final Iterator<Entry> entries = match(subject, predicate, object,
+				cancellation).iterator();
+		final Cancellation check = cancellation;
+		return new TripleCursor() {
+
+			private Entry entry;
 
 			@Override
-			public void triple(String subject, String predicate,
-					String literal, String language, String dataType) {
-				Value s = toEntity(subject);
-				Value p = toEntity(predicate);
-				Value o;
-				if (language != null)
-					o = valueFactory.createString(literal, language);
-				else if (dataType != null)
-					o = valueFactory.createLiteral(literal, dataType);
-				else
-					o = valueFactory.createString(literal);
-				graphs.peek().add(valueFactory.createTriple(s, p, o));
-				callback.triple(s, p, o);
+			public boolean next() {
+				if (check != null)
+					check.check();
+				if (!entries.hasNext()) {
+					entry = null;
+					return false;
+				}
+				entry = entries.next();
+				return true;
 			}
 
 			@Override
-			public void triple(String subject, String predicate, String object) {
-				Value s = toEntity(subject);
-				Value p = toEntity(predicate);
-				Value o = toEntity(object);
-				graphs.peek().add(valueFactory.createTriple(s, p, o));
-				callback.triple(s, p, o);
+			public long getSubject() {
+				return entry.get(LongField.SUBJECT);
 			}
 
 			@Override
-			public void startGraph(String graph) {
-				graphs.push(new Graph(context));
+			public long getPredicate() {
+				return entry.get(LongField.PREDICATE);
 			}
 
 			@Override
-			public void endGraph(String graph) {
-				callback.graph(toEntity(graph), graphs.pop());
+			public long getObject() {
+				return entry.get(LongField.OBJECT);
 			}
 
+		};
+	}
+
+	// Zero for an unbound term and null for a term that is not in the
+	// dictionary, which nothing can match
+	private Long lookup(Value entity) {
+		return entity == null ? Long.valueOf(0) : context.entityToId
+				.get(entity);
+	}
+
+	private Iterable<Entry> match(long subject, long predicate,
+			final long object, final Cancellation cancellation) {
+		// Bound terms become a prefix of S_P_O or P_O_S, so only matching
+		// entries are scanned
+		if (subject != 0 && predicate != 0 && object != 0)
+			return store.iterate(LongField.SUBJECT.value(subject),
+					LongField.PREDICATE.value(predicate),
+					LongField.OBJECT.value(object));
+		if (subject != 0 && predicate != 0)
+			return store.iterate(LongField.SUBJECT.value(subject),
+					LongField.PREDICATE.value(predicate), LongField.OBJECT);
+		if (subject != 0 && object != 0)
+			return new EntryFilter(Collections.singleton(store.iterate(
+					LongField.SUBJECT.value(subject), LongField.PREDICATE,
+					LongField.OBJECT)), new EntryFilter.Evaluate() {
+				@Override
+				public Evaluation evaluate(Entry entry) {
+					if (cancellation != null)
+						cancellation.check();
+					return entry.get(LongField.OBJECT) == object ? Evaluation.ACCEPT
+							: Evaluation.REJECT;
+				}
+			});
+		if (subject != 0)
+			return store.iterate(LongField.SUBJECT.value(subject),
+					LongField.PREDICATE, LongField.OBJECT);
+		if (predicate != 0 && object != 0)
+			return store.iterate(LongField.PREDICATE.value(predicate),
+					LongField.OBJECT.value(object), LongField.SUBJECT);
+		if (predicate != 0)
+			return store.iterate(LongField.PREDICATE.value(predicate),
+					LongField.OBJECT, LongField.SUBJECT);
+		if (object != 0) {
+			// There is no object index, but there are few predicates, so
+			// each of them is looked up together with the object instead
+			List<Iterable<Entry>> ranges = new ArrayList<Iterable<Entry>>();
+			for (long id : predicateIds())
+				ranges.add(store.iterate(LongField.PREDICATE.value(id),
+						LongField.OBJECT.value(object), LongField.SUBJECT));
+			return new EntryFilter(ranges, new EntryFilter.Evaluate() {
+				@Override
+				public Evaluation evaluate(Entry entry) {
+					if (cancellation != null)
+						cancellation.check();
+					return Evaluation.ACCEPT;
+				}
+			});
+		}
+		return store.iterate(LongField.SUBJECT, LongField.PREDICATE,
+				LongField.OBJECT);
+	}
+
+	// The store seeks by key rather than by position, so the offset is
+	// skipped over the raw entries before any of them is converted
+	private static Iterable<Entry> limit(final Iterable<Entry> entries,
+			final long offset, final long limit,
+			final Cancellation cancellation) {
+		if (offset == 0 && limit == Long.MAX_VALUE && cancellation == null)
+			return entries;
+		return new Iterable<Entry>() {
 			@Override
-			public void startDefinition(String node) {
+			public Iterator<Entry> iterator() {
+				final Iterator<Entry> iterator = entries.iterator();
+				return new Iterator<Entry>() {
+
+					private long skipped, returned;
+
+					@Override
+					public boolean hasNext() {
+						if (returned >= limit)
+							return false;
+						if (cancellation != null)
+							cancellation.check();
+						for (; skipped < offset && iterator.hasNext(); skipped++) {
+							iterator.next();
+							if (cancellation != null)
+								cancellation.check();
+						}
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Entry next() {
+						if (!hasNext())
+							throw new NoSuchElementException();
+						returned++;
+						return iterator.next();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+
+				};
 			}
+		};
+	}
+
+	public Iterable<Value> project(Triple... properties) {
+		return project(properties, 0, Long.MAX_VALUE, null);
+	}
+
+	// Subjects having all of the properties
+	public Iterable<Value> project(Triple[] properties, long offset,
+			long limit, Cancellation cancellation) {
+		if (properties.length == 0)
+			throw new IllegalArgumentException();
+		if (offset < 0 || limit < 0)
+			throw new IllegalArgumentException();
+		long[] predicates = new long[properties.length], //
+		objects = new long[properties.length];
+		for (int i = 0; i < properties.length; i++) {
+			Long predicate = lookup(properties[i].getPredicate()), //
+			object = lookup(properties[i].getObject());
+			if (predicate == null || object == null)
+				return measure(GraphOperation.PROJECT,
+						Collections.<Value> emptyList(),
+						(Object[]) properties);
+			predicates[i] = predicate;
+			objects[i] = object;
+		}
+		Iterable<Value> results = new EntryConverter<Value>(limit(
+				join(predicates, objects, cancellation), offset, limit,
+				cancellation), ENTRY_TO_SUBJECT);
+		return measure(GraphOperation.PROJECT, results, (Object[]) properties);
+	}
 
+	// Merges the P_O_S ranges of the properties, which are each ordered by
+	// subject, into the subjects found in all of them
+	private Iterable<Entry> join(final long[] predicates,
+			final long[] objects, final Cancellation cancellation) {
+		return new Iterable<Entry>() {
 			@Override
-			public void endDefinition(String node) {
-				callback.node(toEntity(node));
+			public Iterator<Entry> iterator() {
+				@SuppressWarnings("unchecked")
+				final Iterator<Entry>[] iterators = //
+				(Iterator<Entry>[]) new Iterator<?>[predicates.length];
+				for (int i = 0; i < iterators.length; i++)
+					iterators[i] = store.iterate(
+							LongField.PREDICATE.value(predicates[i]),
+							LongField.OBJECT.value(objects[i]),
+							LongField.SUBJECT).iterator();
+				return new Iterator<Entry>() {
+
+					private final Entry[] current = new Entry[iterators.length];
+
+					private boolean started, ended;
+
+					private Entry next;
+
+					private boolean advance(int i) {
+						if (!iterators[i].hasNext()) {
+							ended = true;
+							return false;
+						}
+						current[i] = iterators[i].next();
+						return true;
+					}
+
+					private long subject(int i) {
+						return current[i].get(LongField.SUBJECT);
+					}
+
+					@Override
+					public boolean hasNext() {
+						if (next != null)
+							return true;
+						if (ended)
+							return false;
+						if (!started) {
+							started = true;
+							for (int i = 0; i < iterators.length; i++)
+								if (!advance(i))
+									return false;
+						} else if (!advance(0))
+							return false;
+						// Goes round the ranges until as many in a row agree
+						// on the subject as there are ranges
+						long candidate = subject(0);
+						int agreed = 1, i = 0;
+						while (agreed < iterators.length) {
+							i = (i + 1) % iterators.length;
+							if (cancellation != null)
+								cancellation.check();
+							while (subject(i) < candidate)
+								if (!advance(i))
+									return false;
+							if (subject(i) > candidate) {
+								candidate = subject(i);
+								agreed = 1;
+							} else
+								agreed++;
+						}
+						next = current[0];
+						return true;
+					}
+
+					@Override
+					public Entry next() {
+						if (!hasNext())
+							throw new NoSuchElementException();
+						Entry entry = next;
+						next = null;
+						return entry;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+
+				};
 			}
 		};
 	}
 
-}
+	public void writeTo(GraphWriter writer) throws IOException {
+		writeTo(writer, null, store.iterate(LongField.SUBJECT,
+				LongField.PREDICATE, LongField.OBJECT));
+	}
+
+	public void writeTo(GraphWriter writer, String graph) throws IOException {
+		writeTo(writer, graph, store.iterate(LongField.SUBJECT,
+				LongField.PREDICATE, LongField.OBJECT));
+	}
+
+	public void writeTo(final GraphWriterFactory writers,
+			final String mediaType, OutputStream out, int threads)
+			throws IOException {
+		if (threads <= 0)
+			throw new IllegalArgumentException();
+		// Each chunk is written as a document of its own, so this only suits
+		// formats whose documents can be concatenated, such as Turtle. What
+		// a writer puts out before any statement, such as Turtle's prefixes,
+		// is written once and left out of the chunks.
+		Chunk header = new Chunk();
+		GraphWriter headerWriter = writers.createWriter(header, mediaType);
+		headerWriter.flush();
+		final byte[] prefix = header.toByteArray();
+		headerWriter.close();
+		out.write(prefix);
+		// Blank nodes generated while reading have ids of their own, above
+		// those of the dictionary, and are split into chunks the same way
+		List<long[]> ranges = new ArrayList<long[]>();
+		split(ranges, 1, context.index.get(), threads * 4);
+		split(ranges, BLANK_NODES, BLANK_NODES + context.nextBlankNode.get(),
+				threads * 4);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			// Chunks are written out in order as they are done, with a
+			// bounded number rendered ahead of the one being written
+			Deque<Future<Chunk>> results = new ArrayDeque<Future<Chunk>>();
+			for (long[] range : ranges) {
+				if (results.size() == threads * 2)
+					results.poll().get().writeTo(out, prefix);
+				final long from = range[0], to = range[1];
+				results.add(executor.submit(new Callable<Chunk>() {
+					@Override
+					public Chunk call() throws IOException {
+						Chunk chunk = new Chunk();
+						GraphWriter writer = writers.createWriter(chunk,
+								mediaType);
+						writeTo(writer, null, subjects(from, to));
+						writer.close();
+						return chunk;
+					}
+				}));
+			}
+			while (!results.isEmpty())
+				results.poll().get().writeTo(out, prefix);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable t = e.getCause();
+			if (t instanceof IOException)
+				throw (IOException) t;
+			if (t instanceof RuntimeException)
+				throw (RuntimeException) t;
+			if (t instanceof Error)
+				throw (Error) t;
+			throw new IOException(t);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static final class Chunk extends ByteArrayOutputStream {
+
+		void writeTo(OutputStream out, byte[] prefix) throws IOException {
+			int start = 0;
+			if (count >= prefix.length) {
+				start = prefix.length;
+				for (int i = 0; i < prefix.length && start > 0; i++)
+					if (buf[i] != prefix[i])
+						start = 0;
+			}
+			out.write(buf, start, count - start);
+		}
+
+	}
+
+	// Ranges of ids, each no wider than CHUNK_IDS so that a chunk stays
+	// small however large the graph
+	private static void split(List<long[]> ranges, long start, long end,
+			int chunks) {
+		long step = Math.max(1,
+				Math.min(CHUNK_IDS, (end - start + chunks - 1) / chunks));
+		for (long min = start; min < end; min += step)
+			ranges.add(new long[] { min, Math.min(end, min + step) });
+	}
+
+	private Iterable<Entry> subjects(final long from, final long to) {
+		return new EntryFilter(Collections.singleton(store.iterate(
+				LongField.SUBJECT.range(from, to), LongField.PREDICATE,
+				LongField.OBJECT)), new EntryFilter.Evaluate() {
+			@Override
+			public Evaluation evaluate(Entry entry) {
+				long subject = entry.get(LongField.SUBJECT);
+				return subject >= from && subject < to ? Evaluation.ACCEPT
+						: Evaluation.REJECT;
+			}
+		});
+	}
+
+	private void writeTo(GraphWriter writer, String graph,
+			Iterable<Entry> entries) throws IOException {
+		Map<Long, String> blankNodes = new HashMap<Long, String>();
+		long lastSubject = 0, lastPredicate = 0;
+		String subject = null, predicate = null;
+		for (Entry entry : entries) {
+			long subjectId = entry.get(LongField.SUBJECT), predicateId = entry
+					.get(LongField.PREDICATE), objectId = entry
+					.get(LongField.OBJECT);
+			Value value = toEntity(objectId);
+			String object = toResource(objectId, value, blankNodes);
+			if (object == null && value.getString() == null)
+				continue;
+			// Subjects and predicates are decoded once per run in S_P_O order
+			boolean newSubject = subjectId != lastSubject, newPredicate = newSubject
+					|| predicateId != lastPredicate;
+			if (newSubject)
+				subject = toResource(subjectId, toEntity(subjectId),
+						blankNodes);
+			if (newPredicate)
+				predicate = toEntity(predicateId).toIri();
+			if (graph != null) {
+				if (object != null)
+					writer.writeStatement(graph, subject, predicate, object,
+							null, null, null);
+				else
+					writer.writeStatement(graph, subject, predicate, null,
+							value.getString(), value.getLanguage(),
+							value.getType());
+				lastSubject = subjectId;
+				lastPredicate = predicateId;
+				continue;
+			}
+			if (newSubject) {
+				if (lastSubject != 0) {
+					writer.writeEndPredicate();
+					writer.writeEndStatement();
+				}
+				writer.writeStartStatement(subject, predicate);
+			} else if (newPredicate) {
+				writer.writeEndPredicate();
+				writer.writeStartPredicate(predicate);
+			}
+			if (object != null)
+				writer.writeIRI(object);
+			else
+				writer.writeLiteral(value.getString(), value.getLanguage(),
+						value.getType());
+			lastSubject = subjectId;
+			lastPredicate = predicateId;
+		}
+		if (graph == null && lastSubject != 0) {
+			writer.writeEndPredicate();
+			writer.writeEndStatement();
+		}
+	}
+
+	private static String toResource(long id, Value value,
+			Map<Long, String> blankNodes) {
+		if (value.isIri())
+			return value.toIri();
+		if (value.getId() == null)
+			return null;
+		String label = blankNodes.get(id);
+		if (label == null)
+			blankNodes.put(id, label = "_:" + value.getId());
+		return label;
+	}
+
+	private static final GraphCallback NO_CALLBACK = new GraphCallback() {
+		@Override
+		public void triple(Value subject, Value predicate, Value object) {
+		}
+
+		@Override
+		public void node(Value node) {
+		}
+
+		@Override
+		public void graph(Value name, Graph graph) {
+		}
+	};
+
+	private GraphReaderCallback graphReaderCallback;
+
+	public GraphReaderCallback toReader() {
+		if (graphReaderCallback != null)
+			return graphReaderCallback;
+		return graphReaderCallback = toReader(NO_CALLBACK);
+	}
+
+	public GraphReaderCallback toReader(final GraphCallback callback) {
+		return new Reader(callback);
+	}
+
+	private final class Reader implements EncodedGraphReaderCallback,
+			CharSequenceGraphReaderCallback, BatchGraphReaderCallback {
+
+		private final GraphCallback callback;
+
+		private final Deque<Graph> graphs = new ArrayDeque<Graph>();
+
+		private long[] subjectIds = new long[0], predicateIds = new long[0],
+				objectIds = new long[0];
+
+		Reader(GraphCallback callback) {
+			this.callback = callback;
+			graphs.push(Graph.this);
+		}
+
+		@Override
+		public String generateBlankNode(String node) {
+			return Graph.this.generateBlankNode();
+		}
+
+		@Override
+		public long encodeResource(CharSequence resource) {
+			return Graph.this.encodeResource(context.terms, resource);
+		}
+
+		@Override
+		public long encodeLiteral(CharSequence literal, CharSequence language,
+				CharSequence dataType) {
+			return Graph.this.encodeLiteral(context.terms, literal, language,
+					dataType);
+		}
+
+		@Override
+		public void triple(long subject, long predicate, long object) {
+			Graph graph = graphs.peek();
+			// A batch per parsed statement would cost subscribers more than
+			// the statements themselves
+			synchronized (graph.writes) {
+				graph.add(subject, predicate, object);
+				graph.publish(READER_BATCH);
+			}
+			if (callback != NO_CALLBACK)
+				callback.triple(toEntity(subject), toEntity(predicate),
+						toEntity(object));
+		}
+
+		@Override
+		public void triples(StatementBatch batch) {
+			int size = batch.size();
+			if (subjectIds.length < size) {
+				subjectIds = new long[batch.capacity()];
+				predicateIds = new long[batch.capacity()];
+				objectIds = new long[batch.capacity()];
+			}
+			encode(batch, context.terms, subjectIds, predicateIds, objectIds);
+			graphs.peek().add(subjectIds, predicateIds, objectIds, size);
+			if (callback != NO_CALLBACK)
+				for (int i = 0; i < size; i++)
+					callback.triple(toEntity(subjectIds[i]),
+							toEntity(predicateIds[i]), toEntity(objectIds[i]));
+		}
+
+		@Override
+		public void triple(CharSequence subject, CharSequence predicate,
+				CharSequence literal, CharSequence language,
+				CharSequence dataType) {
+			triple(encodeResource(subject), encodeResource(predicate),
+					encodeLiteral(literal, language, dataType));
+		}
+
+		@Override
+		public void triple(CharSequence subject, CharSequence predicate,
+				CharSequence object) {
+			triple(encodeResource(subject), encodeResource(predicate),
+					encodeResource(object));
+		}
+
+		@Override
+		public void triple(String subject, String predicate, String literal,
+				String language, String dataType) {
+			triple((CharSequence) subject, (CharSequence) predicate,
+					(CharSequence) literal, (CharSequence) language,
+					(CharSequence) dataType);
+		}
+
+		@Override
+		public void triple(String subject, String predicate, String object) {
+			triple((CharSequence) subject, (CharSequence) predicate,
+					(CharSequence) object);
+		}
+
+		@Override
+		public void startGraph(String graph) {
+			graphs.push(new Graph(context));
+		}
+
+		@Override
+		public void endGraph(String graph) {
+			Graph named = graphs.pop();
+			named.publish();
+			callback.graph(toResource(graph), named);
+		}
+
+		@Override
+		public void startDefinition(String node) {
+		}
+
+		@Override
+		public void endDefinition(String node) {
+			graphs.peek().publish();
+			callback.node(toResource(node));
+		}
+
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,214 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store;
+
+import java.util.Collections;
+import java.util.Map;
+
+// An estimate rather than a measurement: the counts are exact, but the bytes
+// come from assumed sizes of the structures that hold them. Sizes assume a
+// 64-bit JVM with compressed references and two bytes per character, which
+// is what Java 8 uses and an upper bound for later JVMs.
+public final class GraphFootprint {
+
+	// A String with its character array
+	static final int STRING_BYTES = 40;
+
+	// The fixed part of a graph: its fields, counters and empty maps, and
+	// the roots of its two store indexes
+	static final int GRAPH_BYTES = 512;
+
+	public enum DictionaryLayout {
+
+		// Two concurrent hash maps with boxed ids, as Graph uses today: per
+		// term, two 32 byte map nodes with their 8 byte table slots, two
+		// 16 byte Long boxes and a 24 byte value
+		HASH_MAPS(136, true),
+
+		// Values in an array indexed by id, found through open addressing
+		VALUE_ARRAY(48, true),
+
+		// Term text as UTF-8 in one byte arena, with offsets by id
+		UTF8_ARENA(24, false);
+
+		private final int entryBytes;
+
+		private final boolean strings;
+
+		private DictionaryLayout(int entryBytes, boolean strings) {
+			this.entryBytes = entryBytes;
+			this.strings = strings;
+		}
+
+	}
+
+	public enum IndexLayout {
+
+		// One store entry per statement and index, as Graph uses today,
+		// assuming a tree node of three references over a key of three longs
+		STORE_ENTRIES(64),
+
+		// Three parallel sorted long arrays per index
+		SORTED_ARRAYS(24),
+
+		// Sorted runs with delta and variable length encoded ids
+		DELTA_ENCODED(8);
+
+		private final int entryBytes;
+
+		private IndexLayout(int entryBytes) {
+			this.entryBytes = entryBytes;
+		}
+
+	}
+
+	private static final String[] INDEXES = { "S_P_O", "P_O_S" };
+
+	private final boolean sharedDictionary;
+
+	private final long terms, termStrings, termChars, termTableBytes,
+			statements;
+
+	private final Map<String, GraphFootprint> namedGraphs;
+
+	GraphFootprint(boolean sharedDictionary, long terms, long termStrings,
+			long termChars, long termTableBytes, long statements,
+			Map<String, GraphFootprint> namedGraphs) {
+		this.sharedDictionary = sharedDictionary;
+		this.terms = terms;
+		this.termStrings = termStrings;
+		this.termChars = termChars;
+		this.termTableBytes = termTableBytes;
+		this.statements = statements;
+		this.namedGraphs = Collections.unmodifiableMap(namedGraphs);
+	}
+
+	public boolean isSharedDictionary() {
+		return sharedDictionary;
+	}
+
+	public long getTerms() {
+		return terms;
+	}
+
+	public long getTermStringBytes() {
+		return termStrings * STRING_BYTES + 2 * termChars;
+	}
+
+	public long getDictionaryBytes() {
+		return dictionaryBytes(DictionaryLayout.HASH_MAPS);
+	}
+
+	public long getStatements() {
+		return statements;
+	}
+
+	public String[] getIndexes() {
+		return INDEXES.clone();
+	}
+
+	// The store puts every statement in both indexes and removes it from
+	// both, so each holds one entry per statement
+	public long getIndexEntries(int index) {
+		if (index < 0 || index >= INDEXES.length)
+			throw new IndexOutOfBoundsException();
+		return statements;
+	}
+
+	public long getIndexBytes(int index) {
+		return getIndexEntries(index) * IndexLayout.STORE_ENTRIES.entryBytes;
+	}
+
+	public long getGraphBytes() {
+		return GRAPH_BYTES;
+	}
+
+	// Footprints of the named graphs given to Graph.getFootprint, by name
+	public Map<String, GraphFootprint> getNamedGraphs() {
+		return namedGraphs;
+	}
+
+	// A named graph shares the dictionary of the graph it belongs to, which
+	// is counted there and not again for each named graph
+	public long getTotalBytes() {
+		return estimate(DictionaryLayout.HASH_MAPS, IndexLayout.STORE_ENTRIES,
+				INDEXES.length);
+	}
+
+	public double getBytesPerStatement() {
+		long statements = this.statements;
+		for (GraphFootprint namedGraph : namedGraphs.values())
+			statements += namedGraph.statements;
+		return statements == 0 ? 0 : (double) getTotalBytes() / statements;
+	}
+
+	public long estimate(DictionaryLayout dictionary, IndexLayout index,
+			int indexes) {
+		if (indexes <= 0)
+			throw new IllegalArgumentException();
+		long bytes = GRAPH_BYTES + indexes * indexBytes(index);
+		for (GraphFootprint namedGraph : namedGraphs.values())
+			bytes += namedGraph.estimate(dictionary, index, indexes);
+		return sharedDictionary ? bytes : bytes + dictionaryBytes(dictionary);
+	}
+
+	// The term lookup table used while reading is the same for all layouts
+	private long dictionaryBytes(DictionaryLayout layout) {
+		return terms * layout.entryBytes
+				+ (layout.strings ? getTermStringBytes() : termChars)
+				+ termTableBytes;
+	}
+
+	private long indexBytes(IndexLayout layout) {
+		return statements * layout.entryBytes;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("estimated footprint\n");
+		builder.append("terms: ").append(terms);
+		builder.append(sharedDictionary ? " (shared)" : "").append('\n');
+		builder.append("term strings: ").append(getTermStringBytes())
+				.append(" bytes\n");
+		builder.append("dictionary: ").append(getDictionaryBytes())
+				.append(" bytes\n");
+		builder.append("statements: ").append(statements).append('\n');
+		for (int i = 0; i < INDEXES.length; i++)
+			builder.append("index ").append(INDEXES[i]).append(": ")
+					.append(getIndexEntries(i)).append(" entries, ")
+					.append(getIndexBytes(i)).append(" bytes\n");
+		builder.append("graph: ").append(GRAPH_BYTES).append(" bytes\n");
+		for (Map.Entry<String, GraphFootprint> namedGraph : namedGraphs
+				.entrySet())
+			builder.append("named graph ").append(namedGraph.getKey())
+					.append(": ").append(namedGraph.getValue().statements)
+					.append(" statements, ")
+					.append(namedGraph.getValue().getTotalBytes())
+					.append(" bytes\n");
+		builder.append("total: ").append(getTotalBytes()).append(" bytes, ")
+				.append(Math.round(getBytesPerStatement()))
+				.append(" bytes per statement\n");
+		for (DictionaryLayout dictionary : DictionaryLayout.values())
+			for (IndexLayout index : IndexLayout.values())
+				builder.append("with ").append(dictionary).append(" and ")
+						.append(index).append(": ")
+						.append(estimate(dictionary, index, INDEXES.length))
+						.append(" bytes\n");
+		return builder.toString();
+	}
+
+}
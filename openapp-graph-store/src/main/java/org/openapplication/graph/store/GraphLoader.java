@@ -0,0 +1,456 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.openapplication.graph.Value;
+import org.openapplication.graph.streaming.GraphReader;
+import org.openapplication.graph.streaming.GraphReaderCallback;
+import org.openapplication.graph.streaming.RingBuffer;
+import org.openapplication.graph.streaming.StatementBatch;
+
+public final class GraphLoader {
+
+	private static final StatementBatch END = new StatementBatch(1);
+
+	private final GraphReader reader;
+
+	private final int loaders;
+
+	private final int batchSize;
+
+	private final int capacity;
+
+	public GraphLoader(GraphReader reader) {
+		this(reader, Math.max(1,
+				Runtime.getRuntime().availableProcessors() - 1),
+				StatementBatch.DEFAULT_CAPACITY, 16);
+	}
+
+	public GraphLoader(GraphReader reader, int loaders, int batchSize,
+			int capacity) {
+		if (loaders <= 0 || batchSize <= 0 || capacity <= 0)
+			throw new IllegalArgumentException();
+		this.reader = reader;
+		this.loaders = loaders;
+		this.batchSize = batchSize;
+		this.capacity = capacity;
+	}
+
+	private static final class Interrupted extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+	}
+
+	private static final class NamedGraph extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+	}
+
+	private final class Pipeline implements GraphReaderCallback {
+
+		private final Graph graph;
+
+		private final GraphCallback callback;
+
+		// Batches travel from the parser to the loaders and back, so at most
+		// capacity batches are ever in flight
+		private final RingBuffer<StatementBatch> filled, empty;
+
+		private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		private StatementBatch batch;
+
+		// Named graphs are read into child graphs on the parser thread, as
+		// with Graph.toReader(GraphCallback)
+		private final Deque<Graph> graphs = new ArrayDeque<Graph>();
+
+		private final Deque<StatementBatch> graphBatches = new ArrayDeque<StatementBatch>();
+
+		private TermTable graphTerms;
+
+		private long[] subjects, predicates, objects;
+
+		Pipeline(Graph graph, GraphCallback callback) {
+			this.graph = graph;
+			this.callback = callback;
+			filled = new RingBuffer<StatementBatch>(capacity + loaders);
+			empty = new RingBuffer<StatementBatch>(capacity);
+			for (int i = 1; i < capacity; i++)
+				empty.offer(new StatementBatch(batchSize));
+			batch = new StatementBatch(batchSize);
+		}
+
+		void load() {
+			TermTable terms = graph.newTermTable();
+			long[] subjects = new long[batchSize], predicates = new long[batchSize], objects = new long[batchSize];
+			try {
+				for (;;) {
+					StatementBatch batch = filled.take();
+					if (batch == END)
+						return;
+					if (failure.get() == null)
+						try {
+							graph.encode(batch, terms, subjects, predicates,
+									objects);
+							graph.add(subjects, predicates, objects,
+									batch.size());
+						} catch (Throwable t) {
+							failure.compareAndSet(null, t);
+						}
+					batch.clear();
+					empty.put(batch);
+				}
+			} catch (InterruptedException e) {
+				failure.compareAndSet(null, e);
+			}
+		}
+
+		private void publish() {
+			Throwable t = failure.get();
+			if (t != null)
+				throw t instanceof RuntimeException ? (RuntimeException) t
+						: new IllegalStateException(t);
+			try {
+				filled.put(batch);
+				batch = empty.take();
+			} catch (InterruptedException e) {
+				throw new Interrupted();
+			}
+		}
+
+		void finish() throws InterruptedException {
+			if (!batch.isEmpty())
+				filled.put(batch);
+			for (int i = 0; i < loaders; i++)
+				filled.put(END);
+		}
+
+		private void flushGraph() {
+			StatementBatch batch = graphBatches.peek();
+			if (batch.isEmpty())
+				return;
+			graph.encode(batch, graphTerms, subjects, predicates, objects);
+			graphs.peek().add(subjects, predicates, objects, batch.size());
+			batch.clear();
+		}
+
+		@Override
+		public void triple(String subject, String predicate, String object) {
+			if (graphs.isEmpty()) {
+				if (batch.add(subject, predicate, object))
+					publish();
+			} else if (graphBatches.peek().add(subject, predicate, object))
+				flushGraph();
+		}
+
+		@Override
+		public void triple(String subject, String predicate, String literal,
+				String language, String dataType) {
+			if (graphs.isEmpty()) {
+				if (batch.add(subject, predicate, literal, language, dataType))
+					publish();
+			} else if (graphBatches.peek().add(subject, predicate, literal,
+					language, dataType))
+				flushGraph();
+		}
+
+		@Override
+		public String generateBlankNode(String node) {
+			return graph.generateBlankNode();
+		}
+
+		@Override
+		public void startGraph(String graph) {
+			if (callback == null)
+				throw new NamedGraph();
+			if (graphTerms == null) {
+				graphTerms = this.graph.newTermTable();
+				subjects = new long[batchSize];
+				predicates = new long[batchSize];
+				objects = new long[batchSize];
+			}
+			graphs.push(this.graph.newGraph());
+			graphBatches.push(new StatementBatch(batchSize));
+		}
+
+		@Override
+		public void endGraph(String graph) {
+			flushGraph();
+			graphBatches.pop();
+			callback.graph(this.graph.toResource(graph), graphs.pop());
+		}
+
+		@Override
+		public void startDefinition(String node) {
+		}
+
+		@Override
+		public void endDefinition(String node) {
+		}
+
+	}
+
+	// Parses one document at a time and adds its statements in batches;
+	// blank node labels are only meaningful within their document
+	private final class DocumentLoader implements GraphReaderCallback {
+
+		private final GraphCallback callback;
+
+		private final TermTable terms;
+
+		private final long[] subjects = new long[batchSize],
+				predicates = new long[batchSize], objects = new long[batchSize];
+
+		private final Map<String, String> blankNodes = new HashMap<String, String>();
+
+		// The graph being read and its batch, with named graphs read into
+		// child graphs on top, as with Graph.toReader(GraphCallback)
+		private final Deque<Graph> graphs = new ArrayDeque<Graph>();
+
+		private final Deque<StatementBatch> batches = new ArrayDeque<StatementBatch>();
+
+		DocumentLoader(Graph graph, GraphCallback callback) {
+			this.callback = callback;
+			terms = graph.newTermTable();
+			graphs.push(graph);
+			batches.push(new StatementBatch(batchSize));
+		}
+
+		void load(Supplier<? extends InputStream> document, String mediaType)
+				throws IOException {
+			InputStream in;
+			try {
+				in = document.get();
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			try {
+				reader.read(in, mediaType, this);
+				flush();
+			} finally {
+				blankNodes.clear();
+				while (graphs.size() > 1) {
+					graphs.pop();
+					batches.pop();
+				}
+				batches.peek().clear();
+				in.close();
+			}
+		}
+
+		private void flush() {
+			StatementBatch batch = batches.peek();
+			if (batch.isEmpty())
+				return;
+			Graph graph = graphs.peek();
+			graph.encode(batch, terms, subjects, predicates, objects);
+			graph.add(subjects, predicates, objects, batch.size());
+			batch.clear();
+		}
+
+		private String scope(String node) {
+			if (!node.startsWith("_:"))
+				return node;
+			String scoped = blankNodes.get(node);
+			if (scoped == null)
+				blankNodes.put(node, scoped = generateBlankNode(node));
+			return scoped;
+		}
+
+		@Override
+		public void triple(String subject, String predicate, String object) {
+			if (batches.peek().add(scope(subject), predicate, scope(object)))
+				flush();
+		}
+
+		@Override
+		public void triple(String subject, String predicate, String literal,
+				String language, String dataType) {
+			if (batches.peek().add(scope(subject), predicate, literal,
+					language, dataType))
+				flush();
+		}
+
+		@Override
+		public String generateBlankNode(String node) {
+			String generated = graphs.getLast().generateBlankNode();
+			// Labels handed out here come back in triples and stay as they are
+			blankNodes.put(generated, generated);
+			return generated;
+		}
+
+		@Override
+		public void startGraph(String graph) {
+			if (callback == null)
+				throw new NamedGraph();
+			graphs.push(graphs.getLast().newGraph());
+			batches.push(new StatementBatch(batchSize));
+		}
+
+		@Override
+		public void endGraph(String graph) {
+			flush();
+			batches.pop();
+			Graph named = graphs.pop();
+			Value name = graphs.getLast().toResource(scope(graph));
+			// Documents on other threads report their graphs too
+			synchronized (callback) {
+				callback.graph(name, named);
+			}
+		}
+
+		@Override
+		public void startDefinition(String node) {
+		}
+
+		@Override
+		public void endDefinition(String node) {
+		}
+
+	}
+
+	// Named graphs are rejected, as there is nowhere to put them
+	public void load(InputStream in, String mediaType, Graph graph)
+			throws IOException {
+		load(in, mediaType, graph, null);
+	}
+
+	public void load(InputStream in, String mediaType, Graph graph,
+			GraphCallback callback) throws IOException {
+		final Pipeline pipeline = new Pipeline(graph, callback);
+		Thread[] threads = new Thread[loaders];
+		for (int i = 0; i < loaders; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					pipeline.load();
+				}
+			}, "GraphLoader-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		boolean finished = false;
+		try {
+			reader.read(in, mediaType, pipeline);
+			pipeline.finish();
+			for (Thread thread : threads)
+				thread.join();
+			finished = true;
+		} catch (Interrupted e) {
+			throw new InterruptedIOException();
+		} catch (NamedGraph e) {
+			throw new IOException("Named graphs require a GraphCallback");
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} finally {
+			if (!finished)
+				for (Thread thread : threads)
+					thread.interrupt();
+		}
+		Throwable t = pipeline.failure.get();
+		if (t instanceof IOException)
+			throw (IOException) t;
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		if (t != null)
+			throw new IOException(t);
+	}
+
+	// Parses the documents concurrently, one per loader thread at a time,
+	// and adds them all to the graph. Suppliers that cannot open a document
+	// throw UncheckedIOException, and named graphs are rejected.
+	public void loadAll(
+			Collection<? extends Supplier<? extends InputStream>> documents,
+			String mediaType, Graph graph) throws IOException {
+		loadAll(documents, mediaType, graph, null);
+	}
+
+	// Named graphs go to the callback, one call at a time
+	public void loadAll(
+			Collection<? extends Supplier<? extends InputStream>> documents,
+			final String mediaType, final Graph graph,
+			final GraphCallback callback) throws IOException {
+		final List<Supplier<? extends InputStream>> queue = new ArrayList<Supplier<? extends InputStream>>(
+				documents);
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[Math.min(loaders, queue.size())];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					DocumentLoader loader = new DocumentLoader(graph,
+							callback);
+					for (int document; failure.get() == null
+							&& (document = next.getAndIncrement()) < queue
+									.size();)
+						try {
+							loader.load(queue.get(document), mediaType);
+						} catch (Throwable t) {
+							failure.compareAndSet(null, t);
+						}
+				}
+			}, "GraphLoader-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		boolean finished = false;
+		try {
+			for (Thread thread : threads)
+				thread.join();
+			finished = true;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} finally {
+			if (!finished) {
+				failure.compareAndSet(null, new InterruptedIOException());
+				for (Thread thread : threads)
+					thread.interrupt();
+			}
+		}
+		Throwable t = failure.get();
+		if (t instanceof NamedGraph)
+			throw new IOException("Named graphs require a GraphCallback");
+		if (t instanceof IOException)
+			throw (IOException) t;
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		if (t != null)
+			throw new IOException(t);
+	}
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store;
+
+import java.util.Arrays;
+
+import org.openapplication.graph.Value;
+
+// Inverses are pushed down to single predicates as paths are built, so a
+// graph only ever walks predicates forwards or backwards
+public final class PropertyPath {
+
+	enum Kind {
+		PREDICATE, INVERSE, SEQUENCE, ALTERNATIVE, ZERO_OR_ONE, ZERO_OR_MORE,
+		ONE_OR_MORE
+	}
+
+	final Kind kind;
+
+	final Value predicate;
+
+	final PropertyPath[] paths;
+
+	private PropertyPath(Kind kind, Value predicate, PropertyPath... paths) {
+		this.kind = kind;
+		this.predicate = predicate;
+		this.paths = paths;
+	}
+
+	public static PropertyPath predicate(Value predicate) {
+		if (predicate == null)
+			throw new NullPointerException();
+		return new PropertyPath(Kind.PREDICATE, predicate);
+	}
+
+	public static PropertyPath inverse(Value predicate) {
+		return inverse(predicate(predicate));
+	}
+
+	public static PropertyPath inverse(PropertyPath path) {
+		return path.inverse();
+	}
+
+	public static PropertyPath sequence(PropertyPath... paths) {
+		return paths.length == 1 ? paths[0] : new PropertyPath(
+				Kind.SEQUENCE, null, check(paths));
+	}
+
+	public static PropertyPath alternative(PropertyPath... paths) {
+		return paths.length == 1 ? paths[0] : new PropertyPath(
+				Kind.ALTERNATIVE, null, check(paths));
+	}
+
+	public static PropertyPath zeroOrOne(PropertyPath path) {
+		return new PropertyPath(Kind.ZERO_OR_ONE, null, check(path));
+	}
+
+	public static PropertyPath zeroOrMore(PropertyPath path) {
+		return new PropertyPath(Kind.ZERO_OR_MORE, null, check(path));
+	}
+
+	public static PropertyPath oneOrMore(PropertyPath path) {
+		return new PropertyPath(Kind.ONE_OR_MORE, null, check(path));
+	}
+
+	private static PropertyPath[] check(PropertyPath... paths) {
+		if (paths.length == 0)
+			throw new IllegalArgumentException("No paths");
+		for (PropertyPath path : paths)
+			if (path == null)
+				throw new NullPointerException();
+		return paths.clone();
+	}
+
+	public PropertyPath inverse() {
+		switch (kind) {
+		case PREDICATE:
+			return new PropertyPath(Kind.INVERSE, predicate);
+		case INVERSE:
+			return new PropertyPath(Kind.PREDICATE, predicate);
+		default:
+			PropertyPath[] inverses = new PropertyPath[paths.length];
+			// A sequence is walked backwards when inverted
+			for (int i = 0; i < paths.length; i++)
+				inverses[kind == Kind.SEQUENCE ? paths.length - 1 - i : i] = //
+				paths[i].inverse();
+			return new PropertyPath(kind, null, inverses);
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return kind.hashCode() * 31
+				+ (predicate != null ? predicate.hashCode()
+						: Arrays.hashCode(paths));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof PropertyPath))
+			return false;
+		PropertyPath other = (PropertyPath) obj;
+		return kind == other.kind
+				&& (predicate != null ? predicate.equals(other.predicate)
+						: Arrays.equals(paths, other.paths));
+	}
+
+	@Override
+	public String toString() {
+		switch (kind) {
+		case PREDICATE:
+			return "<" + predicate.toIri() + ">";
+		case INVERSE:
+			return "^<" + predicate.toIri() + ">";
+		case ZERO_OR_ONE:
+			return group(paths[0]) + "?";
+		case ZERO_OR_MORE:
+			return group(paths[0]) + "*";
+		case ONE_OR_MORE:
+			return group(paths[0]) + "+";
+		default:
+			StringBuilder builder = new StringBuilder();
+			String separator = kind == Kind.SEQUENCE ? "/" : "|";
+			for (PropertyPath path : paths)
+				builder.append(builder.length() == 0 ? "" : separator).append(
+						group(path));
+			return builder.toString();
+		}
+	}
+
+	private static String group(PropertyPath path) {
+		return path.paths.length > 1 ? "(" + path + ")" : path.toString();
+	}
+
+}
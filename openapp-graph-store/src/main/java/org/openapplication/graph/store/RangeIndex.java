@@ -0,0 +1,184 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.regex.Pattern;
+
+import org.openapplication.graph.Value;
+
+// The statements of one predicate whose objects are numbers or points in
+// time, ordered by value
+final class RangeIndex {
+
+	private static final String XSD = "http://www.w3.org/2001/XMLSchema#";
+
+	private static final int NUMBER = 0, TIME = 1;
+
+	static final class Key implements Comparable<Key> {
+
+		final int kind;
+
+		final BigDecimal value;
+
+		// Below or above every value of the kind when not zero
+		final int edge;
+
+		final long subject, object;
+
+		Key(int kind, BigDecimal value, int edge, long subject, long object) {
+			this.kind = kind;
+			this.value = value;
+			this.edge = edge;
+			this.subject = subject;
+			this.object = object;
+		}
+
+		@Override
+		public int compareTo(Key other) {
+			if (kind != other.kind)
+				return kind < other.kind ? -1 : 1;
+			if (edge != 0 || other.edge != 0)
+				return edge == other.edge ? 0 : edge < other.edge ? -1 : 1;
+			int comparison = value.compareTo(other.value);
+			if (comparison != 0)
+				return comparison;
+			if (subject != other.subject)
+				return subject < other.subject ? -1 : 1;
+			return object < other.object ? -1 : object > other.object ? 1 : 0;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && compareTo((Key) obj) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (subject * 31 + object);
+		}
+
+	}
+
+	private static final Pattern ZONE = Pattern
+			.compile("(Z|[+-]\\d\\d:\\d\\d)$");
+
+	private final ConcurrentSkipListSet<Key> keys = new ConcurrentSkipListSet<Key>();
+
+	private static int kind(String type) {
+		if (type == null || !type.startsWith(XSD))
+			return -1;
+		String name = type.substring(XSD.length());
+		if (name.equals("dateTime") || name.equals("dateTimeStamp")
+				|| name.equals("date"))
+			return TIME;
+		if (name.equals("decimal") || name.equals("double")
+				|| name.equals("float") || name.endsWith("nteger")
+				|| name.equals("long") || name.equals("int")
+				|| name.equals("short") || name.equals("byte")
+				|| name.startsWith("unsigned"))
+			return NUMBER;
+		return -1;
+	}
+
+	// Numbers as they are and times as seconds since the epoch, taking
+	// times without a zone to be in UTC; null for anything else
+	static BigDecimal toNumber(Value value) {
+		if (value == null || value.isIri() || value.getId() != null
+				|| value.getString() == null)
+			return null;
+		String string = value.getString().trim();
+		try {
+			switch (kind(value.getType())) {
+			case NUMBER:
+				return new BigDecimal(string.startsWith("+") ? string
+						.substring(1) : string);
+			case TIME:
+				Instant instant;
+				if (value.getType().endsWith("#date"))
+					instant = LocalDate.parse(
+							string.substring(0, Math.min(10, string.length())))
+							.atStartOfDay(ZoneOffset.UTC).toInstant();
+				else if (ZONE.matcher(string).find())
+					instant = OffsetDateTime.parse(string).toInstant();
+				else
+					instant = LocalDateTime.parse(string).toInstant(
+							ZoneOffset.UTC);
+				return BigDecimal.valueOf(instant.getEpochSecond()).add(
+						BigDecimal.valueOf(instant.getNano(), 9));
+			default:
+				return null;
+			}
+		} catch (RuntimeException e) {
+			// Malformed lexical forms, INF and NaN are left out
+			return null;
+		}
+	}
+
+	static Key key(Value value, long subject, long object) {
+		BigDecimal number = toNumber(value);
+		return number == null ? null : new Key(kind(value.getType()),
+				number, 0, subject, object);
+	}
+
+	void add(long subject, long object, Value value) {
+		Key key = key(value, subject, object);
+		if (key != null)
+			keys.add(key);
+	}
+
+	void remove(long subject, long object, Value value) {
+		Key key = key(value, subject, object);
+		if (key != null)
+			keys.remove(key);
+	}
+
+	long size() {
+		return keys.size();
+	}
+
+	// Null bounds are open; bounds of different kinds match nothing
+	NavigableSet<Key> range(Value min, boolean minInclusive, Value max,
+			boolean maxInclusive) {
+		BigDecimal low = toNumber(min), high = toNumber(max);
+		if ((min != null && low == null) || (max != null && high == null))
+			throw new IllegalArgumentException(
+					"Range bounds must be numeric or temporal literals");
+		if (min == null && max == null)
+			return keys;
+		int kind = kind((min != null ? min : max).getType());
+		if (min != null && max != null && kind(max.getType()) != kind)
+			return Collections.<Key> emptyNavigableSet();
+		Key from = min == null ? new Key(kind, null, -1, 0, 0) : new Key(
+				kind, low, 0, minInclusive ? Long.MIN_VALUE : Long.MAX_VALUE,
+				minInclusive ? Long.MIN_VALUE : Long.MAX_VALUE);
+		Key to = max == null ? new Key(kind, null, 1, 0, 0) : new Key(kind,
+				high, 0, maxInclusive ? Long.MAX_VALUE : Long.MIN_VALUE,
+				maxInclusive ? Long.MAX_VALUE : Long.MIN_VALUE);
+		if (from.compareTo(to) > 0)
+			return Collections.<Key> emptyNavigableSet();
+		return keys.subSet(from, true, to, true);
+	}
+
+}
@@ -0,0 +1,509 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+
+// Materializes the RDFS entailment rules that derive new statements
+// (rdfs2, 3, 5, 7, 9 and 11) and, for OWL_RL, the property, equality and
+// equivalence rules prp-symp, prp-trp, prp-inv, eq-sym, eq-trans,
+// eq-rep-s, eq-rep-o, scm-eqc and scm-eqp. Evaluation is semi-naive: each
+// round joins only the statements derived by the previous round against
+// the whole graph, and the round is split across a fork-join pool.
+public final class Reasoner {
+
+	public enum Profile {
+		RDFS, OWL_RL
+	}
+
+	private static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+	private static final String RDFS = "http://www.w3.org/2000/01/rdf-schema#";
+
+	private static final String OWL = "http://www.w3.org/2002/07/owl#";
+
+	private static final int THRESHOLD = 1024;
+
+	private final Profile profile;
+
+	private final ForkJoinPool pool;
+
+	public Reasoner() {
+		this(Profile.OWL_RL, ForkJoinPool.commonPool());
+	}
+
+	public Reasoner(Profile profile, ForkJoinPool pool) {
+		this.profile = profile;
+		this.pool = pool;
+	}
+
+	// Returns the number of statements added
+	public long materialize(Graph graph) {
+		// The graph's writes lock is held throughout, so the inferences
+		// reach its change feed as one batch
+		synchronized (graph.writes) {
+			long added = propagate(graph, all(graph), null);
+			graph.publish();
+			return added;
+		}
+	}
+
+	private static Triples all(Graph graph) {
+		Triples triples = new Triples();
+		for (TripleCursor t = graph.scan(0, 0, 0, null); t.next();)
+			triples.add(t.getSubject(), t.getPredicate(), t.getObject());
+		return triples;
+	}
+
+	// The vocabulary is looked up again each round, since its terms may
+	// have entered the graph since the last one
+	private Triples derive(Graph graph, Triples delta) {
+		if (delta.size == 0)
+			return delta;
+		return pool.invoke(new Round(new Schema(graph, new Vocabulary(graph,
+				profile)), delta, 0, delta.size));
+	}
+
+	// Adds everything that follows from the delta, also recording it in the
+	// graph of inferences when there is one
+	private long propagate(Graph graph, Triples delta, Graph inferred) {
+		long added = 0;
+		while (delta.size != 0) {
+			delta = derive(graph, delta).distinct(graph);
+			for (int i = 0; i < delta.size; i++) {
+				graph.insert(delta.subjects[i], delta.predicates[i],
+						delta.objects[i]);
+				if (inferred != null)
+					inferred.insert(delta.subjects[i],
+							delta.predicates[i], delta.objects[i]);
+			}
+			added += delta.size;
+		}
+		return added;
+	}
+
+	// Incremental upkeep of the inferences of one graph. Additions derive
+	// from the new statements only. Removals use delete and rederive:
+	// everything inferred through a removed statement is taken out, and
+	// what still follows from the statements around it is put back.
+	static final class Maintenance {
+
+		private final Reasoner reasoner;
+
+		private final Graph graph;
+
+		// The statements that are only there because they were inferred
+		private final Graph inferred;
+
+		Maintenance(Reasoner reasoner, Graph graph) {
+			this.reasoner = reasoner;
+			this.graph = graph;
+			inferred = graph.newGraph();
+			reasoner.propagate(graph, all(graph), inferred);
+		}
+
+		// Called under the graph's write lock, like every other change
+		void add(long[] subjects, long[] predicates,
+				long[] objects, int count) {
+			Triples delta = new Triples();
+			for (int i = 0; i < count; i++)
+				if (graph.insert(subjects[i], predicates[i], objects[i]))
+					delta.add(subjects[i], predicates[i], objects[i]);
+				else
+					// An inferred statement that is now stated explicitly
+					inferred.delete(subjects[i], predicates[i], objects[i]);
+			reasoner.propagate(graph, delta, inferred);
+		}
+
+		void remove(long[] subjects, long[] predicates,
+				long[] objects, int count) {
+			Triples removed = new Triples();
+			Graph candidates = graph.newGraph();
+			for (int i = 0; i < count; i++)
+				if (graph.contains(subjects[i], predicates[i], objects[i])
+						&& !inferred.contains(subjects[i], predicates[i],
+								objects[i])
+						&& candidates.insert(subjects[i], predicates[i],
+								objects[i]))
+					removed.add(subjects[i], predicates[i], objects[i]);
+			if (removed.size == 0)
+				return;
+			// Overdelete while the removed statements are still in place, so
+			// that every derivation through them is found
+			Triples deleted = new Triples().addAll(removed);
+			for (Triples delta = removed; delta.size != 0;) {
+				Triples derived = reasoner.derive(graph, delta);
+				delta = new Triples();
+				for (int i = 0; i < derived.size; i++)
+					if (inferred.contains(derived.subjects[i],
+							derived.predicates[i], derived.objects[i])
+							&& candidates.insert(derived.subjects[i],
+									derived.predicates[i],
+									derived.objects[i]))
+						delta.add(derived.subjects[i], derived.predicates[i],
+								derived.objects[i]);
+				deleted.addAll(delta);
+			}
+			Set<Long> affected = new HashSet<Long>();
+			for (int i = 0; i < deleted.size; i++) {
+				graph.delete(deleted.subjects[i], deleted.predicates[i],
+						deleted.objects[i]);
+				inferred.delete(deleted.subjects[i],
+						deleted.predicates[i], deleted.objects[i]);
+				affected.add(deleted.subjects[i]);
+			}
+			// Every rule has a body statement with the subject of its head
+			// as subject or object, so one round over the statements around
+			// the affected subjects finds each remaining derivation
+			Triples neighbours = new Triples();
+			for (long node : affected) {
+				for (TripleCursor t = graph.scan(node, 0, 0, null); t.next();)
+					neighbours.add(t.getSubject(), t.getPredicate(),
+							t.getObject());
+				for (TripleCursor t = graph.scan(0, 0, node, null); t.next();)
+					neighbours.add(t.getSubject(), t.getPredicate(),
+							t.getObject());
+			}
+			Triples derived = reasoner.derive(graph, neighbours).distinct(
+					graph);
+			Triples rederived = new Triples();
+			for (int i = 0; i < derived.size; i++)
+				if (candidates.contains(derived.subjects[i],
+						derived.predicates[i], derived.objects[i]))
+					rederived.add(derived.subjects[i], derived.predicates[i],
+							derived.objects[i]);
+			for (int i = 0; i < rederived.size; i++) {
+				graph.insert(rederived.subjects[i],
+						rederived.predicates[i], rederived.objects[i]);
+				inferred.insert(rederived.subjects[i],
+						rederived.predicates[i], rederived.objects[i]);
+			}
+			reasoner.propagate(graph, rederived, inferred);
+		}
+
+	}
+
+	// Ids of the vocabulary terms, or 0 for those not in the graph, which
+	// no statement can then use. Terms are only added to the graph when a
+	// rule derives statements with them from terms that are already there.
+	private static final class Vocabulary {
+
+		final boolean owl;
+
+		final long type, domain, range, subPropertyOf, subClassOf,
+				symmetric, transitive, inverseOf, sameAs, equivalentClass,
+				equivalentProperty;
+
+		Vocabulary(Graph graph, Profile profile) {
+			owl = profile == Profile.OWL_RL;
+			domain = graph.getId(Values.iri(RDFS + "domain"));
+			range = graph.getId(Values.iri(RDFS + "range"));
+			symmetric = graph.getId(Values.iri(OWL + "SymmetricProperty"));
+			transitive = graph.getId(Values.iri(OWL + "TransitiveProperty"));
+			inverseOf = graph.getId(Values.iri(OWL + "inverseOf"));
+			sameAs = graph.getId(Values.iri(OWL + "sameAs"));
+			equivalentClass = graph.getId(Values
+					.iri(OWL + "equivalentClass"));
+			equivalentProperty = graph.getId(Values.iri(OWL
+					+ "equivalentProperty"));
+			long subClassOf = graph.getId(Values.iri(RDFS + "subClassOf"));
+			if (subClassOf == 0 && owl && equivalentClass != 0)
+				subClassOf = graph.intern(Values.iri(RDFS + "subClassOf"));
+			this.subClassOf = subClassOf;
+			long subPropertyOf = graph.getId(Values.iri(RDFS
+					+ "subPropertyOf"));
+			if (subPropertyOf == 0 && owl && equivalentProperty != 0)
+				subPropertyOf = graph.intern(Values.iri(RDFS
+						+ "subPropertyOf"));
+			this.subPropertyOf = subPropertyOf;
+			long type = graph.getId(Values.iri(RDF + "type"));
+			if (type == 0 && (domain != 0 || range != 0 || subClassOf != 0))
+				type = graph.intern(Values.iri(RDF + "type"));
+			this.type = type;
+		}
+
+	}
+
+	// The schema statements of the graph as it stands at the start of a
+	// round, read by all tasks of the round without locking
+	private static final class Schema {
+
+		final Graph graph;
+
+		final Vocabulary vocabulary;
+
+		final Map<Long, long[]> domains, ranges, superProperties,
+				superClasses, inverses, sameAs;
+
+		final Set<Long> symmetric, transitive;
+
+		Schema(Graph graph, Vocabulary vocabulary) {
+			this.graph = graph;
+			this.vocabulary = vocabulary;
+			domains = objects(vocabulary.domain);
+			ranges = objects(vocabulary.range);
+			superProperties = objects(vocabulary.subPropertyOf);
+			superClasses = objects(vocabulary.subClassOf);
+			if (vocabulary.owl) {
+				inverses = objects(vocabulary.inverseOf);
+				// Inverse properties apply in both directions
+				for (Map.Entry<Long, long[]> entry : objects(
+						vocabulary.inverseOf).entrySet())
+					for (long property : entry.getValue())
+						inverses.put(property, append(inverses.get(property),
+								entry.getKey()));
+				sameAs = objects(vocabulary.sameAs);
+				symmetric = subjects(vocabulary.symmetric);
+				transitive = subjects(vocabulary.transitive);
+			} else {
+				inverses = sameAs = new HashMap<Long, long[]>();
+				symmetric = transitive = new HashSet<Long>();
+			}
+		}
+
+		private Map<Long, long[]> objects(long predicate) {
+			Map<Long, long[]> objects = new HashMap<Long, long[]>();
+			if (predicate == 0)
+				return objects;
+			for (TripleCursor t = graph.scan(0, predicate, 0, null); t.next();)
+				objects.put(t.getSubject(),
+						append(objects.get(t.getSubject()), t.getObject()));
+			return objects;
+		}
+
+		private Set<Long> subjects(long type) {
+			Set<Long> subjects = new HashSet<Long>();
+			if (type == 0 || vocabulary.type == 0)
+				return subjects;
+			for (TripleCursor triples = graph.scan(0, vocabulary.type, type,
+					null); triples.next();)
+				subjects.add(triples.getSubject());
+			return subjects;
+		}
+
+		private static long[] append(long[] values, long value) {
+			if (values == null)
+				return new long[] { value };
+			values = Arrays.copyOf(values, values.length + 1);
+			values[values.length - 1] = value;
+			return values;
+		}
+
+		boolean isLiteral(long id) {
+			Value value = graph.getValue(id);
+			return value != null && !value.isIri() && value.getId() == null;
+		}
+
+	}
+
+	private static final class Round extends RecursiveTask<Triples> {
+
+		private static final long serialVersionUID = 1L;
+
+		private static final long[] NONE = new long[0];
+
+		private final Schema schema;
+
+		private final Triples delta;
+
+		private final int from, to;
+
+		Round(Schema schema, Triples delta, int from, int to) {
+			this.schema = schema;
+			this.delta = delta;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Triples compute() {
+			if (to - from > THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				Round left = new Round(schema, delta, from, middle);
+				left.fork();
+				Triples right = new Round(schema, delta, middle, to)
+						.compute();
+				Triples joined = left.join();
+				return joined.size >= right.size ? joined.addAll(right)
+						: right.addAll(joined);
+			}
+			Triples derived = new Triples();
+			for (int i = from; i < to; i++)
+				derive(delta.subjects[i], delta.predicates[i],
+						delta.objects[i], derived);
+			return derived;
+		}
+
+		private static long[] get(Map<Long, long[]> map, long key) {
+			long[] values = map.get(key);
+			return values != null ? values : NONE;
+		}
+
+		// Each rule is applied with the new statement in every body position
+		// it can take, and the other body atom read from the whole graph
+		private void derive(long s, long p, long o, Triples derived) {
+			Vocabulary v = schema.vocabulary;
+			Graph graph = schema.graph;
+			// rdfs2 and rdfs3
+			for (long c : get(schema.domains, p))
+				derived.add(s, v.type, c);
+			if (!schema.ranges.isEmpty())
+				for (long c : get(schema.ranges, p))
+					if (!schema.isLiteral(o))
+						derived.add(o, v.type, c);
+			if (p == v.domain || p == v.range)
+				for (TripleCursor t = graph.scan(0, s, 0, null); t.next();)
+					if (p == v.domain)
+						derived.add(t.getSubject(), v.type, o);
+					else if (!schema.isLiteral(t.getObject()))
+						derived.add(t.getObject(), v.type, o);
+			// rdfs7 and rdfs5
+			for (long q : get(schema.superProperties, p))
+				derived.add(s, q, o);
+			if (p == v.subPropertyOf) {
+				for (TripleCursor t = graph.scan(0, s, 0, null); t.next();)
+					derived.add(t.getSubject(), o, t.getObject());
+				for (long r : get(schema.superProperties, o))
+					derived.add(s, v.subPropertyOf, r);
+				for (TripleCursor t = graph.scan(0, v.subPropertyOf, s, null); t
+						.next();)
+					derived.add(t.getSubject(), v.subPropertyOf, o);
+			}
+			// rdfs9 and rdfs11
+			if (p == v.type)
+				for (long d : get(schema.superClasses, o))
+					derived.add(s, v.type, d);
+			if (p == v.subClassOf) {
+				for (TripleCursor t = graph.scan(0, v.type, s, null); t.next();)
+					derived.add(t.getSubject(), v.type, o);
+				for (long e : get(schema.superClasses, o))
+					derived.add(s, v.subClassOf, e);
+				for (TripleCursor t = graph.scan(0, v.subClassOf, s, null); t
+						.next();)
+					derived.add(t.getSubject(), v.subClassOf, o);
+			}
+			if (!v.owl)
+				return;
+			// scm-eqc and scm-eqp
+			if (p == v.equivalentClass) {
+				derived.add(s, v.subClassOf, o);
+				derived.add(o, v.subClassOf, s);
+			}
+			if (p == v.equivalentProperty) {
+				derived.add(s, v.subPropertyOf, o);
+				derived.add(o, v.subPropertyOf, s);
+			}
+			// prp-symp
+			if (schema.symmetric.contains(p) && !schema.isLiteral(o))
+				derived.add(o, p, s);
+			if (p == v.type && o == v.symmetric)
+				for (TripleCursor t = graph.scan(0, s, 0, null); t.next();)
+					if (!schema.isLiteral(t.getObject()))
+						derived.add(t.getObject(), s, t.getSubject());
+			// prp-trp
+			if (schema.transitive.contains(p)) {
+				for (TripleCursor t = graph.scan(o, p, 0, null); t.next();)
+					derived.add(s, p, t.getObject());
+				for (TripleCursor t = graph.scan(0, p, s, null); t.next();)
+					derived.add(t.getSubject(), p, o);
+			}
+			if (p == v.type && o == v.transitive)
+				for (TripleCursor t = graph.scan(0, s, 0, null); t.next();)
+					for (TripleCursor u = graph.scan(t.getObject(), s, 0,
+							null); u.next();)
+						derived.add(t.getSubject(), s, u.getObject());
+			// prp-inv1 and prp-inv2
+			if (!schema.isLiteral(o))
+				for (long q : get(schema.inverses, p))
+					derived.add(o, q, s);
+			if (p == v.inverseOf) {
+				for (TripleCursor t = graph.scan(0, s, 0, null); t.next();)
+					if (!schema.isLiteral(t.getObject()))
+						derived.add(t.getObject(), o, t.getSubject());
+				for (TripleCursor t = graph.scan(0, o, 0, null); t.next();)
+					if (!schema.isLiteral(t.getObject()))
+						derived.add(t.getObject(), s, t.getSubject());
+			}
+			// eq-sym, eq-trans, eq-rep-s and eq-rep-o
+			if (p == v.sameAs) {
+				derived.add(o, v.sameAs, s);
+				for (long z : get(schema.sameAs, o))
+					derived.add(s, v.sameAs, z);
+				for (TripleCursor t = graph.scan(s, 0, 0, null); t.next();)
+					derived.add(o, t.getPredicate(), t.getObject());
+				for (TripleCursor t = graph.scan(0, 0, s, null); t.next();)
+					derived.add(t.getSubject(), t.getPredicate(), o);
+			} else {
+				for (long same : get(schema.sameAs, s))
+					derived.add(same, p, o);
+				for (long same : get(schema.sameAs, o))
+					derived.add(s, p, same);
+			}
+		}
+
+	}
+
+	private static final class Triples {
+
+		long[] subjects = new long[16], predicates = new long[16],
+				objects = new long[16];
+
+		int size;
+
+		void add(long subject, long predicate, long object) {
+			if (size == subjects.length) {
+				subjects = Arrays.copyOf(subjects, size * 2);
+				predicates = Arrays.copyOf(predicates, size * 2);
+				objects = Arrays.copyOf(objects, size * 2);
+			}
+			subjects[size] = subject;
+			predicates[size] = predicate;
+			objects[size] = object;
+			size++;
+		}
+
+		Triples addAll(Triples triples) {
+			for (int i = 0; i < triples.size; i++)
+				add(triples.subjects[i], triples.predicates[i],
+						triples.objects[i]);
+			return this;
+		}
+
+		// Sorts and drops duplicates and statements already in the graph
+		Triples distinct(Graph graph) {
+			TripleArrays.sort(subjects, predicates, objects, 0, size);
+			Triples distinct = new Triples();
+			for (int i = 0; i < size; i++)
+				if ((i == 0 || !TripleArrays.equals(subjects, predicates,
+						objects, i, i - 1))
+						&& !graph.contains(subjects[i], predicates[i],
+								objects[i]))
+					distinct.add(subjects[i], predicates[i], objects[i]);
+			return distinct;
+		}
+
+	}
+
+}
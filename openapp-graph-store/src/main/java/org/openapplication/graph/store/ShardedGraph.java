@@ -0,0 +1,398 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.openapplication.graph.Triple;
+import org.openapplication.graph.Value;
+
+// Statements are spread over graphs that share one dictionary, by a hash
+// of the subject id, so each shard holds every statement about its
+// subjects. Lookups by subject go to one shard; all others read blocks
+// from every shard in parallel on the pool and merge them lazily back
+// into index order.
+public final class ShardedGraph {
+
+	// Matches are read in blocks of at most this many statements per shard
+	private static final int BLOCK = 1024;
+
+	private final Graph[] shards;
+
+	private final ForkJoinPool pool;
+
+	public ShardedGraph(int shards) {
+		this(shards, ForkJoinPool.commonPool());
+	}
+
+	public ShardedGraph(int shards, ForkJoinPool pool) {
+		if (shards <= 0)
+			throw new IllegalArgumentException();
+		this.shards = new Graph[shards];
+		this.shards[0] = new Graph();
+		for (int i = 1; i < shards; i++)
+			this.shards[i] = this.shards[0].newGraph();
+		this.pool = pool;
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	// Shards may be written to directly, from one thread each, as long as
+	// statements go to the shard of their subject
+	public Graph getShard(int shard) {
+		return shards[shard];
+	}
+
+	// Null for a subject that is not in the dictionary, which no shard
+	// has statements about
+	public Graph getShard(Value subject) {
+		long id = shards[0].getId(subject);
+		return id == 0 ? null : shards[shard(id)];
+	}
+
+	private int shard(long subject) {
+		long hash = subject * 0x9E3779B97F4A7C15L;
+		return (int) ((hash >>> 32) % shards.length);
+	}
+
+	public void add(Triple statement) {
+		shards[shard(shards[0].intern(statement.getSubject()))]
+				.add(statement);
+	}
+
+	public void add(Iterable<Triple> statements) {
+		final Graph dictionary = shards[0];
+		final long[][] subjects = new long[shards.length][16], predicates = new long[shards.length][16], objects = new long[shards.length][16];
+		final int[] counts = new int[shards.length];
+		for (Triple statement : statements) {
+			long subject = dictionary.intern(statement.getSubject());
+			int shard = shard(subject), count = counts[shard];
+			if (count == subjects[shard].length) {
+				subjects[shard] = Arrays.copyOf(subjects[shard], count * 2);
+				predicates[shard] = Arrays.copyOf(predicates[shard], count * 2);
+				objects[shard] = Arrays.copyOf(objects[shard], count * 2);
+			}
+			subjects[shard][count] = subject;
+			predicates[shard][count] = dictionary.intern(statement
+					.getPredicate());
+			objects[shard][count] = dictionary.intern(statement.getObject());
+			counts[shard]++;
+		}
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+		for (int i = 0; i < shards.length; i++) {
+			if (counts[i] == 0)
+				continue;
+			final int shard = i;
+			tasks.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					shards[shard].add(subjects[shard], predicates[shard],
+							objects[shard], counts[shard]);
+				}
+			}));
+		}
+		for (ForkJoinTask<?> task : tasks)
+			task.join();
+	}
+
+	public void remove(Iterable<Triple> statements) {
+		List<List<Triple>> removed = new ArrayList<List<Triple>>(
+				shards.length);
+		for (int i = 0; i < shards.length; i++)
+			removed.add(new ArrayList<Triple>());
+		for (Triple statement : statements) {
+			long subject = shards[0].getId(statement.getSubject());
+			if (subject != 0)
+				removed.get(shard(subject)).add(statement);
+		}
+		for (int i = 0; i < shards.length; i++)
+			if (!removed.get(i).isEmpty())
+				shards[i].remove(removed.get(i));
+	}
+
+	public long size() {
+		long size = 0;
+		for (Graph shard : shards)
+			size += shard.size();
+		return size;
+	}
+
+	public long getTerms() {
+		return shards[0].getTerms();
+	}
+
+	public Iterable<Triple> describe(Value subject) {
+		Graph shard = getShard(subject);
+		return shard == null ? new ArrayList<Triple>(0) : shard
+				.describe(subject);
+	}
+
+	public Iterable<Value> values(Value subject, Value predicate) {
+		Graph shard = getShard(subject);
+		return shard == null ? new ArrayList<Value>(0) : shard.values(
+				subject, predicate);
+	}
+
+	public Iterable<Triple> find(Value subject, Value predicate, Value object) {
+		return find(subject, predicate, object, 0, Long.MAX_VALUE, null);
+	}
+
+	public Iterable<Triple> find(Value subject, Value predicate,
+			Value object, final long offset, final long limit,
+			final Cancellation cancellation) {
+		if (offset < 0 || limit < 0)
+			throw new IllegalArgumentException();
+		if (subject != null) {
+			Graph shard = getShard(subject);
+			return shard == null ? new ArrayList<Triple>(0) : shard.find(
+					subject, predicate, object, offset, limit, cancellation);
+		}
+		final Graph dictionary = shards[0];
+		final long predicateId = id(predicate), objectId = id(object);
+		if (predicateId < 0 || objectId < 0)
+			return new ArrayList<Triple>(0);
+		return new Iterable<Triple>() {
+			@Override
+			public Iterator<Triple> iterator() {
+				final Merge merge = new Merge(0, predicateId, objectId,
+						offset, limit, cancellation);
+				return new Iterator<Triple>() {
+
+					@Override
+					public boolean hasNext() {
+						return merge.hasNext();
+					}
+
+					@Override
+					public Triple next() {
+						Run run = merge.next();
+						return dictionary.toTriple(run.subject,
+								run.predicate, run.object);
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+
+				};
+			}
+		};
+	}
+
+	public Iterable<Value> project(Value predicate) {
+		return project(predicate, null);
+	}
+
+	public Iterable<Value> project(Value predicate, Value object) {
+		final Graph dictionary = shards[0];
+		final long predicateId = id(predicate), objectId = id(object);
+		if (predicateId < 0 || objectId < 0)
+			return new ArrayList<Value>(0);
+		return new Iterable<Value>() {
+			@Override
+			public Iterator<Value> iterator() {
+				final Merge merge = new Merge(0, predicateId, objectId, 0,
+						Long.MAX_VALUE, null);
+				return new Iterator<Value>() {
+
+					@Override
+					public boolean hasNext() {
+						return merge.hasNext();
+					}
+
+					@Override
+					public Value next() {
+						return dictionary.getValue(merge.next().subject);
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+
+				};
+			}
+		};
+	}
+
+	// Zero for an unbound term and -1 for one that is not in the dictionary
+	private long id(Value value) {
+		if (value == null)
+			return 0;
+		long id = shards[0].getId(value);
+		return id == 0 ? -1 : id;
+	}
+
+	// Merges the matches of every shard in the order of the index that
+	// answered: S_P_O without bound terms and P_O_S otherwise. The first
+	// blocks are gathered in parallel, and each shard reads its next block
+	// on the pool while the current one is merged, so no more than two
+	// blocks are held per shard. A block is no larger than the offset and
+	// limit need.
+	private final class Merge {
+
+		private final PriorityQueue<Run> runs;
+
+		private final Cancellation cancellation;
+
+		private long skip, remaining;
+
+		// Taken out of the queue by the last call to next, and moved on
+		// before the following one
+		private Run current;
+
+		Merge(long subject, long predicate, long object, long offset,
+				long limit, Cancellation cancellation) {
+			boolean bySubject = predicate == 0 && object == 0;
+			int block = (int) Math.max(1, Math.min(BLOCK,
+					limit > Long.MAX_VALUE - offset ? Long.MAX_VALUE
+							: offset + limit));
+			List<Run> started = new ArrayList<Run>(shards.length);
+			for (Graph shard : shards)
+				started.add(new Run(shard.scan(subject, predicate, object,
+						cancellation), bySubject, pool, block));
+			runs = new PriorityQueue<Run>(shards.length);
+			for (Run run : started)
+				if (run.advance())
+					runs.add(run);
+			this.cancellation = cancellation;
+			skip = offset;
+			remaining = limit;
+		}
+
+		private void requeue() {
+			if (current != null && current.advance())
+				runs.add(current);
+			current = null;
+		}
+
+		// Checked here as well, as the blocks may already hold every match
+		boolean hasNext() {
+			if (cancellation != null)
+				cancellation.check();
+			requeue();
+			while (skip > 0 && !runs.isEmpty()) {
+				current = runs.poll();
+				requeue();
+				skip--;
+			}
+			return remaining > 0 && !runs.isEmpty();
+		}
+
+		Run next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			remaining--;
+			return current = runs.poll();
+		}
+
+	}
+
+	private static final class Run implements Comparable<Run> {
+
+		private final TripleCursor cursor;
+
+		private final boolean bySubject;
+
+		private final ForkJoinPool pool;
+
+		private final int block;
+
+		// Subject, predicate and object of each statement of the block
+		private long[] triples = new long[0];
+
+		private int position;
+
+		// Null once a block has come back short, which ends the cursor
+		private ForkJoinTask<long[]> pending;
+
+		long subject, predicate, object;
+
+		Run(TripleCursor cursor, boolean bySubject, ForkJoinPool pool,
+				int block) {
+			this.cursor = cursor;
+			this.bySubject = bySubject;
+			this.pool = pool;
+			this.block = block;
+			pending = fetch();
+		}
+
+		// Only one block of a cursor is read at a time, and joining it
+		// hands the cursor back to the merging thread
+		private ForkJoinTask<long[]> fetch() {
+			return pool.submit(new Callable<long[]>() {
+				@Override
+				public long[] call() {
+					long[] triples = new long[block * 3];
+					int count = 0;
+					while (count < triples.length && cursor.next()) {
+						triples[count++] = cursor.getSubject();
+						triples[count++] = cursor.getPredicate();
+						triples[count++] = cursor.getObject();
+					}
+					return count == triples.length ? triples : Arrays
+							.copyOf(triples, count);
+				}
+			});
+		}
+
+		boolean advance() {
+			if (position == triples.length) {
+				if (pending == null)
+					return false;
+				triples = pending.join();
+				position = 0;
+				pending = triples.length == block * 3 ? fetch() : null;
+				if (triples.length == 0)
+					return false;
+			}
+			subject = triples[position++];
+			predicate = triples[position++];
+			object = triples[position++];
+			return true;
+		}
+
+		private static int compare(long a, long b) {
+			return a < b ? -1 : a > b ? 1 : 0;
+		}
+
+		@Override
+		public int compareTo(Run other) {
+			int comparison = compare(bySubject ? subject : predicate,
+					bySubject ? other.subject : other.predicate);
+			if (comparison == 0)
+				comparison = compare(bySubject ? predicate : object,
+						bySubject ? other.predicate : other.object);
+			if (comparison == 0)
+				comparison = compare(bySubject ? object : subject,
+						bySubject ? other.object : other.subject);
+			return comparison;
+		}
+
+	}
+
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store;
+
+import java.util.Map;
+
+import org.openapplication.graph.Value;
+
+final class TermTable {
+
+	static final int RESOURCE = 1;
+
+	static final int STRING = 2;
+
+	static final int LANGUAGE_STRING = 3;
+
+	static final int TYPED_LITERAL = 4;
+
+	private final Map<Long, Value> idToEntity;
+
+	// Open addressing; the terms themselves are not stored but compared
+	// against the dictionary entries that the ids refer to
+	private long[] ids = new long[1024];
+
+	private int[] hashes = new int[1024];
+
+	private int size;
+
+	TermTable(Map<Long, Value> idToEntity) {
+		this.idToEntity = idToEntity;
+	}
+
+	private static int hash(CharSequence text) {
+		if (text == null)
+			return 0;
+		if (text instanceof String)
+			return text.hashCode();
+		int h = 0;
+		for (int i = 0, length = text.length(); i < length; i++)
+			h = 31 * h + text.charAt(i);
+		return h;
+	}
+
+	private static int hash(int kind, CharSequence text,
+			CharSequence qualifier) {
+		int h = (31 * hash(text) + hash(qualifier)) * 31 + kind;
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean equals(String string, CharSequence text, int start) {
+		if (string == null || string.length() != text.length() - start)
+			return false;
+		if (text instanceof String && start == 0)
+			return string.equals(text);
+		for (int i = 0, length = string.length(); i < length; i++)
+			if (string.charAt(i) != text.charAt(start + i))
+				return false;
+		return true;
+	}
+
+	private static boolean isBlank(CharSequence text) {
+		return text.length() > 1 && text.charAt(0) == '_'
+				&& text.charAt(1) == ':';
+	}
+
+	private static boolean matches(Value value, int kind, CharSequence text,
+			CharSequence qualifier) {
+		switch (kind) {
+		case RESOURCE:
+			return isBlank(text) ? value.toIri() == null
+					&& equals(value.getId(), text, 2) : equals(value.toIri(),
+					text, 0);
+		case STRING:
+			return value.getLanguage() == null && value.getType() == null
+					&& equals(value.getString(), text, 0);
+		case LANGUAGE_STRING:
+			return equals(value.getLanguage(), qualifier, 0)
+					&& equals(value.getString(), text, 0);
+		case TYPED_LITERAL:
+			return value.getLanguage() == null
+					&& equals(value.getType(), qualifier, 0)
+					&& equals(value.getString(), text, 0);
+		default:
+			return false;
+		}
+	}
+
+	long get(int kind, CharSequence text, CharSequence qualifier) {
+		int h = hash(kind, text, qualifier);
+		int mask = ids.length - 1;
+		for (int i = h & mask; ids[i] != 0; i = (i + 1) & mask)
+			if (hashes[i] == h) {
+				Value value = idToEntity.get(ids[i]);
+				if (value != null && matches(value, kind, text, qualifier))
+					return ids[i];
+			}
+		return 0;
+	}
+
+	void put(long id, int kind, CharSequence text, CharSequence qualifier) {
+		if (size * 2 >= ids.length)
+			resize();
+		int h = hash(kind, text, qualifier);
+		int mask = ids.length - 1;
+		int i = h & mask;
+		while (ids[i] != 0)
+			i = (i + 1) & mask;
+		ids[i] = id;
+		hashes[i] = h;
+		size++;
+	}
+
+	private void resize() {
+		long[] oldIds = ids;
+		int[] oldHashes = hashes;
+		ids = new long[oldIds.length * 2];
+		hashes = new int[oldIds.length * 2];
+		int mask = ids.length - 1;
+		for (int j = 0; j < oldIds.length; j++)
+			if (oldIds[j] != 0) {
+				int i = oldHashes[j] & mask;
+				while (ids[i] != 0)
+					i = (i + 1) & mask;
+				ids[i] = oldIds[j];
+				hashes[i] = oldHashes[j];
+			}
+	}
+
+	void clear() {
+		ids = new long[1024];
+		hashes = new int[1024];
+		size = 0;
+	}
+
+	long bytes() {
+		return 64 + 8L * ids.length + 4L * hashes.length;
+	}
+
+}
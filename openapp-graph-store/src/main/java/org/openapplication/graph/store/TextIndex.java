@@ -0,0 +1,212 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import org.openapplication.graph.Value;
+
+// Posting lists of literal term ids by token. Ids are handed out in
+// increasing order, so postings almost always grow at the end.
+public final class TextIndex {
+
+	public interface Analyzer {
+
+		List<String> tokens(String text, String language);
+
+	}
+
+	private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+	// Folds case by the rules of the language and drops diacritics, then
+	// splits at everything that is not a letter or a digit
+	public static final Analyzer DEFAULT = new Analyzer() {
+		@Override
+		public List<String> tokens(String text, String language) {
+			Locale locale = language != null ? Locale.forLanguageTag(language)
+					: Locale.ROOT;
+			String folded = MARKS.matcher(
+					Normalizer.normalize(text.toLowerCase(locale),
+							Normalizer.Form.NFKD)).replaceAll("");
+			List<String> tokens = new ArrayList<String>();
+			int start = -1;
+			for (int i = 0; i <= folded.length(); i++) {
+				boolean word = i < folded.length()
+						&& Character.isLetterOrDigit(folded.charAt(i));
+				if (word && start < 0)
+					start = i;
+				else if (!word && start >= 0) {
+					tokens.add(folded.substring(start, i));
+					start = -1;
+				}
+			}
+			return tokens;
+		}
+	};
+
+	private static final class Postings {
+
+		private long[] ids = new long[4];
+
+		private int size;
+
+		synchronized void add(long id) {
+			int index = size;
+			while (index > 0 && ids[index - 1] >= id)
+				if (ids[--index] == id)
+					return;
+			if (size == ids.length)
+				ids = Arrays.copyOf(ids, size * 2);
+			System.arraycopy(ids, index, ids, index + 1, size - index);
+			ids[index] = id;
+			size++;
+		}
+
+		synchronized void remove(long id) {
+			int index = Arrays.binarySearch(ids, 0, size, id);
+			if (index < 0)
+				return;
+			System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+			size--;
+		}
+
+		synchronized long[] toArray() {
+			return Arrays.copyOf(ids, size);
+		}
+
+	}
+
+	private final ConcurrentMap<String, Postings> postings = new ConcurrentHashMap<String, Postings>();
+
+	private final ConcurrentMap<String, Analyzer> analyzers = new ConcurrentHashMap<String, Analyzer>();
+
+	TextIndex(Map<Long, Value> terms) {
+		for (Map.Entry<Long, Value> term : terms.entrySet())
+			add(term.getKey(), term.getValue());
+	}
+
+	// Analyzers are picked by primary language subtag, such as "en"
+	public void setAnalyzer(String language, Analyzer analyzer) {
+		if (analyzer == null)
+			analyzers.remove(primary(language));
+		else
+			analyzers.put(primary(language), analyzer);
+	}
+
+	private static String primary(String language) {
+		int dash = language.indexOf('-');
+		return (dash < 0 ? language : language.substring(0, dash))
+				.toLowerCase(Locale.ROOT);
+	}
+
+	private Analyzer analyzer(String language) {
+		Analyzer analyzer = language != null ? analyzers
+				.get(primary(language)) : null;
+		return analyzer != null ? analyzer : DEFAULT;
+	}
+
+	static boolean isLiteral(Value value) {
+		return value != null && !value.isIri() && value.getId() == null
+				&& value.getString() != null;
+	}
+
+	void add(long id, Value value) {
+		if (!isLiteral(value))
+			return;
+		for (String token : new LinkedHashSet<String>(analyzer(
+				value.getLanguage()).tokens(value.getString(),
+				value.getLanguage()))) {
+			Postings list = postings.get(token);
+			if (list == null) {
+				Postings existing = postings.putIfAbsent(token,
+						list = new Postings());
+				if (existing != null)
+					list = existing;
+			}
+			list.add(id);
+		}
+	}
+
+	void remove(long id, Value value) {
+		if (!isLiteral(value))
+			return;
+		for (String token : analyzer(value.getLanguage()).tokens(
+				value.getString(), value.getLanguage())) {
+			Postings list = postings.get(token);
+			if (list != null)
+				list.remove(id);
+		}
+	}
+
+	// Ids of the literals holding every token of the query, in id order
+	long[] match(String query, String language) {
+		Set<String> tokens = new LinkedHashSet<String>(analyzer(language)
+				.tokens(query, language));
+		if (tokens.isEmpty())
+			return new long[0];
+		List<long[]> lists = new ArrayList<long[]>(tokens.size());
+		for (String token : tokens) {
+			Postings list = postings.get(token);
+			if (list == null)
+				return new long[0];
+			lists.add(list.toArray());
+		}
+		// Intersecting from the shortest list keeps every step small
+		Collections.sort(lists, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				return a.length - b.length;
+			}
+		});
+		long[] ids = lists.get(0);
+		for (int i = 1; i < lists.size() && ids.length != 0; i++)
+			ids = intersect(ids, lists.get(i));
+		return ids;
+	}
+
+	private static long[] intersect(long[] a, long[] b) {
+		long[] result = new long[Math.min(a.length, b.length)];
+		int size = 0;
+		for (int i = 0, j = 0; i < a.length && j < b.length;)
+			if (a[i] < b[j])
+				i++;
+			else if (a[i] > b[j])
+				j++;
+			else {
+				result[size++] = a[i];
+				i++;
+				j++;
+			}
+		return Arrays.copyOf(result, size);
+	}
+
+	public long getTokens() {
+		return postings.size();
+	}
+
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store;
+
+final class TripleArrays {
+
+	private TripleArrays() {
+	}
+
+	private static int compare(long[] s, long[] p, long[] o, int i,
+			long subject, long predicate, long object) {
+		if (s[i] != subject)
+			return s[i] < subject ? -1 : 1;
+		if (p[i] != predicate)
+			return p[i] < predicate ? -1 : 1;
+		if (o[i] != object)
+			return o[i] < object ? -1 : 1;
+		return 0;
+	}
+
+	private static void swap(long[] s, long[] p, long[] o, int i, int j) {
+		long t = s[i];
+		s[i] = s[j];
+		s[j] = t;
+		t = p[i];
+		p[i] = p[j];
+		p[j] = t;
+		t = o[i];
+		o[i] = o[j];
+		o[j] = t;
+	}
+
+	// Sorts the rows from (inclusive) to (exclusive) in subject, predicate,
+	// object order
+	static void sort(long[] s, long[] p, long[] o, int from, int to) {
+		while (to - from > 12) {
+			int mid = (from + to) >>> 1;
+			long subject = s[mid], predicate = p[mid], object = o[mid];
+			int i = from, j = to - 1;
+			while (i <= j) {
+				while (compare(s, p, o, i, subject, predicate, object) < 0)
+					i++;
+				while (compare(s, p, o, j, subject, predicate, object) > 0)
+					j--;
+				if (i <= j)
+					swap(s, p, o, i++, j--);
+			}
+			// Recurse into the smaller part to bound the stack depth
+			if (j - from < to - i) {
+				sort(s, p, o, from, j + 1);
+				from = i;
+			} else {
+				sort(s, p, o, i, to);
+				to = j + 1;
+			}
+		}
+		for (int i = from + 1; i < to; i++)
+			for (int j = i; j > from
+					&& compare(s, p, o, j - 1, s[j], p[j], o[j]) > 0; j--)
+				swap(s, p, o, j - 1, j);
+	}
+
+	static boolean equals(long[] s, long[] p, long[] o, int i, int j) {
+		return s[i] == s[j] && p[i] == p[j] && o[i] == o[j];
+	}
+
+}
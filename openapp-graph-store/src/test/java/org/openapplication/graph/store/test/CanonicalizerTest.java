@@ -0,0 +1,171 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+import org.openapplication.graph.store.Canonicalizer;
+import org.openapplication.graph.store.Graph;
+
+public class CanonicalizerTest {
+
+	private static final String EX = "http://example.com/";
+
+	private final Canonicalizer canonicalizer = new Canonicalizer();
+
+	// Statements as subject, predicate and object labels, read in order
+	private static Graph graph(String... statements) {
+		Graph graph = new Graph();
+		for (int i = 0; i < statements.length; i += 3)
+			graph.add(Values.triple(term(statements[i]),
+					term(statements[i + 1]), term(statements[i + 2])));
+		return graph;
+	}
+
+	private static Value term(String term) {
+		return term.startsWith("_:") ? Values.blank(term.substring(2))
+				: Values.iri(EX + term);
+	}
+
+	@Test
+	public void testRelabelled() {
+		byte[] digest = canonicalizer.digest(graph("_:a", "p", "_:b", "_:b",
+				"q", "o", "_:a", "q", "o"));
+		assertArrayEquals(digest, canonicalizer.digest(graph("_:y", "q", "o",
+				"_:x", "p", "_:y", "_:x", "q", "o")));
+		assertFalse(Arrays.equals(digest, canonicalizer.digest(graph("_:a",
+				"p", "_:b", "_:b", "q", "o", "_:a", "q", "o2"))));
+	}
+
+	@Test
+	public void testLeaves() {
+		Map<Value, Value> labels = canonicalizer.canonicalize(graph("s", "p",
+				"_:a", "s", "p", "_:b", "_:a", "q", "o", "_:b", "q", "o"));
+		assertEquals(2, labels.size());
+		assertEquals(new HashSet<Value>(Arrays.asList(Values.blank("c0"),
+				Values.blank("c1"))), new HashSet<Value>(labels.values()));
+	}
+
+	// Every blank node of a cycle of three and a cycle of six looks the
+	// same to color refinement, but which one is individualized first
+	// decides the labels
+	@Test
+	public void testTiesThatAreNotInterchangeable() {
+		String[] triangle = { "_:a", "p", "_:b", "_:b", "p", "_:c", "_:c",
+				"p", "_:a" };
+		String[] hexagon = { "_:d", "p", "_:e", "_:e", "p", "_:f", "_:f",
+				"p", "_:g", "_:g", "p", "_:h", "_:h", "p", "_:i", "_:i", "p",
+				"_:d" };
+		String[] first = new String[triangle.length + hexagon.length];
+		System.arraycopy(triangle, 0, first, 0, triangle.length);
+		System.arraycopy(hexagon, 0, first, triangle.length, hexagon.length);
+		String[] second = new String[first.length];
+		System.arraycopy(hexagon, 0, second, 0, hexagon.length);
+		System.arraycopy(triangle, 0, second, hexagon.length, triangle.length);
+		assertArrayEquals(canonicalizer.digest(graph(first)),
+				canonicalizer.digest(graph(second)));
+		Set<Value> labels = new HashSet<Value>(canonicalizer.canonicalize(
+				graph(second)).values());
+		assertEquals(9, labels.size());
+	}
+
+	// Each component is one tie, and trying every order of them would take
+	// factorial time
+	@Test(timeout = 10000)
+	public void testIdenticalComponents() {
+		int components = 12;
+		String[] statements = new String[components * 6], //
+		reversed = new String[components * 6];
+		for (int i = 0; i < components; i++) {
+			int j = components - 1 - i;
+			System.arraycopy(new String[] { "_:o" + i, "p", "_:i" + i,
+					"_:i" + i, "q", "v" }, 0, statements, i * 6, 6);
+			System.arraycopy(new String[] { "_:x" + j, "q", "v", "_:y" + j,
+					"p", "_:x" + j }, 0, reversed, i * 6, 6);
+		}
+		Map<Value, Value> labels = canonicalizer
+				.canonicalize(graph(statements));
+		assertEquals(components * 2, new HashSet<Value>(labels.values())
+				.size());
+		byte[] digest = canonicalizer.digest(graph(statements));
+		assertArrayEquals(digest, canonicalizer.digest(graph(reversed)));
+		statements[statements.length - 1] = "w";
+		assertFalse(Arrays.equals(digest,
+				canonicalizer.digest(graph(statements))));
+	}
+
+	@Test
+	public void testNamedGraphs() {
+		Canonicalizer.Reader first = canonicalizer.newReader();
+		first.triple("_:a", EX + "p", EX + "o");
+		first.startGraph(EX + "g");
+		first.triple("_:a", EX + "q", "_:b");
+		first.endGraph(EX + "g");
+		Canonicalizer.Reader second = canonicalizer.newReader();
+		second.startGraph(EX + "g");
+		second.triple("_:x", EX + "q", "_:y");
+		second.endGraph(EX + "g");
+		second.triple("_:x", EX + "p", EX + "o");
+		assertEquals(1, first.getNamedGraphs().size());
+		assertArrayEquals(first.digest(), second.digest());
+		// The same statements in the default graph are another dataset
+		Canonicalizer.Reader merged = canonicalizer.newReader();
+		merged.triple("_:a", EX + "p", EX + "o");
+		merged.triple("_:a", EX + "q", "_:b");
+		assertFalse(Arrays.equals(first.digest(), merged.digest()));
+		// As are statements in a graph of another name
+		Canonicalizer.Reader renamed = canonicalizer.newReader();
+		renamed.triple("_:a", EX + "p", EX + "o");
+		renamed.startGraph(EX + "h");
+		renamed.triple("_:a", EX + "q", "_:b");
+		renamed.endGraph(EX + "h");
+		assertFalse(Arrays.equals(first.digest(), renamed.digest()));
+	}
+
+	@Test
+	public void testBlankGraphNames() {
+		Canonicalizer.Reader first = canonicalizer.newReader();
+		first.triple("_:g", EX + "p", EX + "o");
+		first.startGraph("_:g");
+		first.triple(EX + "s", EX + "q", EX + "o");
+		first.endGraph("_:g");
+		Canonicalizer.Reader second = canonicalizer.newReader();
+		second.startGraph("_:n");
+		second.triple(EX + "s", EX + "q", EX + "o");
+		second.endGraph("_:n");
+		second.triple("_:n", EX + "p", EX + "o");
+		assertArrayEquals(first.digest(), second.digest());
+		Map<Value, Value> labels = canonicalizer.canonicalize(
+				first.getGraph(), first.getNamedGraphs());
+		assertEquals(1, labels.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNamedGraphWithOtherTerms() {
+		canonicalizer.digest(graph("s", "p", "o"),
+				Collections.singletonMap(term("g"), graph("s", "p", "o")));
+	}
+
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openapplication.graph.Triple;
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+import org.openapplication.graph.store.ChangeFeed;
+import org.openapplication.graph.store.Graph;
+import org.openapplication.graph.streaming.GraphReaderCallback;
+
+public class ChangeFeedTest {
+
+	private static final String EX = "http://example.com/";
+
+	private static Value ex(String name) {
+		return Values.iri(EX + name);
+	}
+
+	private static List<ChangeFeed.Batch> drain(
+			ChangeFeed.Subscription subscription) {
+		List<ChangeFeed.Batch> batches = new ArrayList<ChangeFeed.Batch>();
+		for (ChangeFeed.Batch batch; (batch = subscription.poll()) != null;)
+			batches.add(batch);
+		return batches;
+	}
+
+	@Test
+	public void testBatchPerCall() {
+		Graph graph = new Graph();
+		ChangeFeed feed = new ChangeFeed();
+		graph.setChangeFeed(feed);
+		ChangeFeed.Subscription subscription = feed.subscribe();
+		List<Triple> statements = new ArrayList<Triple>();
+		for (int i = 0; i < 3; i++)
+			statements.add(Values.triple(ex("s"), ex("p"), ex("o" + i)));
+		graph.add(statements);
+		graph.remove(statements.get(0));
+		graph.rename(ex("s"), ex("t"));
+		List<ChangeFeed.Batch> batches = drain(subscription);
+		assertEquals(3, batches.size());
+		assertEquals(1, batches.get(0).getSequence());
+		assertEquals(3, batches.get(0).getChanges().size());
+		assertEquals(ChangeFeed.Kind.REMOVED, batches.get(1).getChanges()
+				.get(0).getKind());
+		ChangeFeed.Change renamed = batches.get(2).getChanges().get(0);
+		assertEquals(ChangeFeed.Kind.RENAMED, renamed.getKind());
+		assertEquals(EX + "t", renamed.getObject().toIri());
+	}
+
+	@Test
+	public void testConcurrentCallsDoNotMix() throws InterruptedException {
+		final Graph graph = new Graph();
+		ChangeFeed feed = new ChangeFeed(4096);
+		graph.setChangeFeed(feed);
+		ChangeFeed.Subscription subscription = feed.subscribe();
+		final int threads = 4, calls = 50, size = 5;
+		Thread[] writers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			writers[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int c = 0; c < calls; c++) {
+						List<Triple> statements = new ArrayList<Triple>();
+						for (int i = 0; i < size; i++)
+							statements.add(Values.triple(ex("s" + thread),
+									ex("p"), ex(c + "-" + i)));
+						graph.add(statements);
+					}
+				}
+			};
+			writers[t].start();
+		}
+		for (Thread writer : writers)
+			writer.join();
+		List<ChangeFeed.Batch> batches = drain(subscription);
+		assertEquals(threads * calls, batches.size());
+		for (ChangeFeed.Batch batch : batches) {
+			assertEquals(size, batch.getChanges().size());
+			Value subject = batch.getChanges().get(0).getSubject();
+			for (ChangeFeed.Change change : batch.getChanges())
+				assertEquals(subject.toIri(), change.getSubject().toIri());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testIdleSubscriberIsSkipped() {
+		Graph graph = new Graph();
+		ChangeFeed feed = new ChangeFeed(2, 10, TimeUnit.MILLISECONDS);
+		graph.setChangeFeed(feed);
+		ChangeFeed.Subscription idle = feed.subscribe();
+		for (int i = 0; i < 5; i++)
+			graph.add(Values.triple(ex("s"), ex("p"), ex("o" + i)));
+		assertEquals(3, idle.getMissed());
+		List<ChangeFeed.Batch> batches = drain(idle);
+		assertEquals(2, batches.size());
+		assertEquals(4, batches.get(0).getSequence());
+		idle.close();
+	}
+
+	@Test(timeout = 10000)
+	public void testAbandonedSubscriberIsWaitedForOnce() {
+		Graph graph = new Graph();
+		ChangeFeed feed = new ChangeFeed(2, 500, TimeUnit.MILLISECONDS);
+		graph.setChangeFeed(feed);
+		ChangeFeed.Subscription abandoned = feed.subscribe();
+		long start = System.nanoTime();
+		for (int i = 0; i < 20; i++)
+			graph.add(Values.triple(ex("s"), ex("p"), ex("o" + i)));
+		// Only the first dropped batch waits for the timeout
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS
+				.toNanos(2500));
+		assertEquals(18, abandoned.getMissed());
+		assertEquals(2, drain(abandoned).size());
+		abandoned.close();
+	}
+
+	@Test
+	public void testReaderPublishesPerDefinition() {
+		Graph graph = new Graph();
+		ChangeFeed feed = new ChangeFeed();
+		graph.setChangeFeed(feed);
+		ChangeFeed.Subscription subscription = feed.subscribe();
+		GraphReaderCallback reader = graph.toReader();
+		reader.startDefinition(EX + "a");
+		reader.triple(EX + "a", EX + "p", EX + "b");
+		reader.triple(EX + "a", EX + "p", EX + "c");
+		reader.endDefinition(EX + "a");
+		reader.triple(EX + "b", EX + "p", EX + "c");
+		reader.triple(EX + "c", EX + "p", EX + "d");
+		assertEquals(1, drain(subscription).size());
+		graph.flush();
+		List<ChangeFeed.Batch> batches = drain(subscription);
+		assertEquals(1, batches.size());
+		assertEquals(2, batches.get(0).getChanges().size());
+	}
+
+}
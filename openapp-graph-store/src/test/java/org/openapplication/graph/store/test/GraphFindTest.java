@@ -0,0 +1,191 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openapplication.graph.Triple;
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+import org.openapplication.graph.store.Cancellation;
+import org.openapplication.graph.store.Graph;
+
+public class GraphFindTest {
+
+	private static final String EX = "http://example.com/";
+
+	private static final Value P = Values.iri(EX + "p"),
+			Q = Values.iri(EX + "q"), O = Values.iri(EX + "o");
+
+	private Graph graph;
+
+	private static <T> List<T> list(Iterable<T> iterable) {
+		List<T> list = new ArrayList<T>();
+		for (T item : iterable)
+			list.add(item);
+		return list;
+	}
+
+	private static List<String> keys(Iterable<Triple> triples) {
+		List<String> keys = new ArrayList<String>();
+		for (Triple triple : triples)
+			keys.add(GraphReaderTest.key(triple.getSubject()) + " "
+					+ GraphReaderTest.key(triple.getPredicate()));
+		return keys;
+	}
+
+	@Before
+	public void setUp() {
+		graph = new Graph();
+		List<Triple> triples = new ArrayList<Triple>();
+		for (int i = 0; i < 10; i++) {
+			Value subject = Values.iri(EX + "s" + i);
+			triples.add(Values.triple(subject, P, O));
+			triples.add(Values.triple(subject, Q, O));
+			triples.add(Values.triple(subject, Q, Values.string("v" + i)));
+		}
+		graph.add(triples);
+	}
+
+	@Test
+	public void testLimit() {
+		assertEquals(3, list(graph.find(null, null, O, 0, 3, null)).size());
+		assertEquals(2, list(graph.find(null, P, O, 0, 2, null)).size());
+		assertEquals(0, list(graph.find(null, null, null, 0, 0, null))
+				.size());
+		assertEquals(5, list(graph.project(P, O, 0, 5, null)).size());
+	}
+
+	@Test
+	public void testOffset() {
+		List<String> all = keys(graph.find(null, null, O));
+		assertEquals(20, all.size());
+		assertEquals(all.subList(5, 8),
+				keys(graph.find(null, null, O, 5, 3, null)));
+		assertEquals(all.subList(18, 20),
+				keys(graph.find(null, null, O, 18, 10, null)));
+		assertTrue(list(graph.find(null, null, O, 25, 10, null)).isEmpty());
+
+		List<Value> subjects = list(graph.project(P, O));
+		assertEquals(subjects.subList(9, 10),
+				list(graph.project(P, O, 9, Long.MAX_VALUE, null)));
+	}
+
+	@Test
+	public void testProjectProperties() {
+		Triple p = Values.triple(null, P, O), q = Values.triple(null, Q, O), //
+		v = Values.triple(null, Q, Values.string("v3"));
+		List<Value> subjects = list(graph.project(p, q));
+		assertEquals(10, subjects.size());
+		assertEquals(subjects.subList(4, 6),
+				list(graph.project(new Triple[] { p, q }, 4, 2, null)));
+		assertEquals(Collections.singletonList(Values.iri(EX + "s3")),
+				list(graph.project(p, v, q)));
+		assertTrue(list(graph.project(new Triple[] { p, v }, 1, 10, null))
+				.isEmpty());
+	}
+
+	@Test
+	public void testRenameMerges() {
+		Value s1 = Values.iri(EX + "s1"), s2 = Values.iri(EX + "s2");
+		long id = graph.getId(s1), size = graph.size();
+		graph.rename(s1, s2);
+		assertEquals(0, graph.getId(s1));
+		assertEquals(id, graph.getId(s2));
+		assertTrue(list(graph.find(s1, null, null)).isEmpty());
+		// Both subjects had the same three statements but for one value
+		assertEquals(4, list(graph.find(s2, null, null)).size());
+		assertEquals(size - 2, graph.size());
+		assertEquals(9, list(graph.project(P, O)).size());
+	}
+
+	@Test
+	public void testBoundObject() {
+		for (Triple triple : graph.find(null, null, O))
+			assertEquals(O, triple.getObject());
+		Value subject = Values.iri(EX + "s4");
+		List<Triple> triples = list(graph.find(subject, null, O));
+		assertEquals(2, triples.size());
+		for (Triple triple : triples)
+			assertEquals(subject, triple.getSubject());
+	}
+
+	@Test
+	public void testUnknownTerm() {
+		assertTrue(list(
+				graph.find(null, null, Values.iri(EX + "unknown"), 0, 10,
+						null)).isEmpty());
+		assertTrue(list(
+				graph.project(Values.iri(EX + "unknown"), null, 0, 10, null))
+				.isEmpty());
+		long terms = graph.getTerms();
+		assertTrue(list(
+				graph.project(Values.triple(null, P, O),
+						Values.triple(null, Q, Values.string("unknown"))))
+				.isEmpty());
+		assertEquals(terms, graph.getTerms());
+	}
+
+	@Test
+	public void testCancel() {
+		Cancellation cancellation = new Cancellation();
+		Iterator<Triple> iterator = graph.find(null, null, null, 0,
+				Long.MAX_VALUE, cancellation).iterator();
+		assertTrue(iterator.hasNext());
+		iterator.next();
+		cancellation.cancel();
+		try {
+			iterator.hasNext();
+			fail();
+		} catch (CancellationException e) {
+		}
+	}
+
+	@Test
+	public void testDeadline() throws InterruptedException {
+		Cancellation cancellation = Cancellation.withTimeout(1,
+				TimeUnit.MILLISECONDS);
+		Thread.sleep(5);
+		assertTrue(cancellation.isCancelled());
+		try {
+			list(graph.project(Q, null, 0, Long.MAX_VALUE, cancellation));
+			fail();
+		} catch (CancellationException e) {
+		}
+		assertFalse(Cancellation.withTimeout(1, TimeUnit.HOURS)
+				.isCancelled());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeOffset() {
+		graph.find(null, null, null, -1, 10, null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeLimit() {
+		graph.project(P, null, 0, -1, null);
+	}
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+import org.openapplication.graph.store.Graph;
+import org.openapplication.graph.store.GraphFootprint;
+
+public class GraphFootprintTest {
+
+	private static final String EX = "http://example.com/";
+
+	@Test
+	public void testConcurrentAdd() throws Exception {
+		final Graph graph = new Graph();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < 4; t++)
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						// Every thread adds the same statements, so each is
+						// counted only by the thread that stores it
+						for (int i = 0; i < 500; i++)
+							graph.add(Values.triple(Values.iri(EX + "s" + i),
+									Values.iri(EX + "p"), Values.string("v")));
+						return null;
+					}
+				}));
+			for (Future<Void> future : futures)
+				future.get();
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(500, graph.size());
+		assertEquals(500, graph.getFootprint().getStatements());
+	}
+
+	@Test
+	public void testNamedGraphs() {
+		Graph graph = new Graph();
+		graph.add(Values.triple(Values.iri(EX + "s"), Values.iri(EX + "p"),
+				Values.iri(EX + "o")));
+		Graph named = new Graph();
+		for (int i = 0; i < 3; i++)
+			named.add(Values.triple(Values.iri(EX + "s" + i),
+					Values.iri(EX + "p"), Values.string("v" + i)));
+
+		GraphFootprint footprint = graph.getFootprint(Collections
+				.<Value, Graph> singletonMap(Values.iri(EX + "g"), named));
+		assertEquals(1, footprint.getStatements());
+		assertEquals(1, footprint.getNamedGraphs().size());
+		GraphFootprint namedFootprint = footprint.getNamedGraphs().get(
+				EX + "g");
+		assertEquals(3, namedFootprint.getStatements());
+		assertEquals(1, footprint.getIndexEntries(0));
+		assertEquals(3, namedFootprint.getIndexEntries(1));
+		assertEquals(graph.getFootprint().getTotalBytes()
+				+ namedFootprint.getTotalBytes(), footprint.getTotalBytes());
+		assertTrue(footprint.toString().startsWith("estimated"));
+		assertTrue(footprint.toString().contains("named graph " + EX + "g"));
+	}
+
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store.test;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+import org.openapplication.graph.Triple;
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+import org.openapplication.graph.store.Graph;
+import org.openapplication.graph.store.GraphCallback;
+import org.openapplication.graph.store.GraphLoader;
+import org.openapplication.graph.streaming.GraphReader;
+import org.openapplication.graph.streaming.GraphReaderCallback;
+
+public class GraphLoaderTest {
+
+	private static final String EX = "http://example.com/";
+
+	// One statement per line; "{ name" and "}" delimit a named graph
+	private static final GraphReader READER = new GraphReader() {
+		@Override
+		public void read(InputStream in, String mediaType,
+				GraphReaderCallback callback) throws IOException {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					in, "UTF-8"));
+			Deque<String> graphs = new ArrayDeque<String>();
+			for (String line; (line = reader.readLine()) != null;) {
+				String[] terms = line.trim().split(" ");
+				if (terms[0].equals("{")) {
+					graphs.push(terms[1]);
+					callback.startGraph(terms[1]);
+				} else if (terms[0].equals("}"))
+					callback.endGraph(graphs.pop());
+				else if (terms[2].startsWith("\""))
+					callback.triple(terms[0], terms[1], terms[2].substring(1),
+							null, null);
+				else
+					callback.triple(terms[0], terms[1], terms[2]);
+			}
+		}
+
+		@Override
+		public Collection<String> getReadMediaTypes() {
+			return Collections.singleton("text/plain");
+		}
+	};
+
+	private static InputStream document(String... lines) throws IOException {
+		StringBuilder document = new StringBuilder();
+		for (String line : lines)
+			document.append(line).append('\n');
+		return new ByteArrayInputStream(document.toString().getBytes("UTF-8"));
+	}
+
+	private static Supplier<InputStream> supplier(final String... lines) {
+		return new Supplier<InputStream>() {
+			@Override
+			public InputStream get() {
+				try {
+					return document(lines);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
+	}
+
+	private static String[] statements(int count) {
+		String[] lines = new String[count];
+		for (int i = 0; i < count; i++)
+			lines[i] = EX + "s" + i / 10 + " " + EX + "p " + EX + "o" + i;
+		return lines;
+	}
+
+	@Test
+	public void testLoad() throws IOException {
+		Graph graph = new Graph();
+		new GraphLoader(READER, 3, 16, 4).load(document(statements(1000)),
+				"text/plain", graph);
+		assertEquals(1000, graph.size());
+		assertEquals(10, GraphReaderTest.statements(
+				graph.find(Values.iri(EX + "s7"), null, null)).size());
+	}
+
+	@Test
+	public void testNamedGraphs() throws IOException {
+		final Map<String, Graph> graphs = new HashMap<String, Graph>();
+		Graph graph = new Graph();
+		new GraphLoader(READER, 2, 4, 2).load(
+				document(EX + "a " + EX + "p " + EX + "b", "{ " + EX + "g",
+						EX + "c " + EX + "p \"x", "{ " + EX + "h",
+						EX + "d " + EX + "p " + EX + "e", "}",
+						EX + "c " + EX + "p " + EX + "f", "}",
+						EX + "b " + EX + "p " + EX + "a"), "text/plain",
+				graph, new GraphCallback() {
+					@Override
+					public void triple(Value subject, Value predicate,
+							Value object) {
+					}
+
+					@Override
+					public void graph(Value name, Graph graph) {
+						graphs.put(name.toIri(), graph);
+					}
+
+					@Override
+					public void node(Value node) {
+					}
+				});
+		assertEquals(2, graph.size());
+		assertEquals(2, graphs.size());
+		Graph g = graphs.get(EX + "g"), h = graphs.get(EX + "h");
+		assertEquals(2, g.size());
+		assertTrue(GraphReaderTest.statements(g.find(null, null, null)).contains(
+				"<" + EX + "c> <" + EX + "p> \"x\""));
+		assertEquals(1, h.size());
+		for (Triple triple : h.find(null, null, null))
+			assertEquals(EX + "e", triple.getObject().toIri());
+	}
+
+	@Test(expected = IOException.class)
+	public void testNamedGraphsRejected() throws IOException {
+		new GraphLoader(READER, 2, 4, 2).load(
+				document(EX + "a " + EX + "p " + EX + "b", "{ " + EX + "g",
+						EX + "c " + EX + "p " + EX + "d", "}"), "text/plain",
+				new Graph());
+	}
+
+	@Test
+	public void testLoadAll() throws IOException {
+		List<Supplier<InputStream>> documents = new ArrayList<Supplier<InputStream>>();
+		for (int i = 0; i < 20; i++)
+			documents.add(supplier("_:x " + EX + "p " + EX + "o" + i, "_:x "
+					+ EX + "q " + EX + "o"));
+		Graph graph = new Graph();
+		new GraphLoader(READER, 4, 4, 2).loadAll(documents, "text/plain",
+				graph);
+		assertEquals(40, graph.size());
+		// Each document has a blank node of its own
+		Set<Value> subjects = new HashSet<Value>();
+		for (Triple triple : graph.find(null, Values.iri(EX + "q"), null))
+			subjects.add(triple.getSubject());
+		assertEquals(20, subjects.size());
+	}
+
+	@Test
+	public void testLoadAllNamedGraphs() throws IOException {
+		List<Supplier<InputStream>> documents = new ArrayList<Supplier<InputStream>>();
+		for (int i = 0; i < 10; i++)
+			documents.add(supplier(EX + "a " + EX + "p " + EX + "b" + i, "{ "
+					+ EX + "g" + i, "_:x " + EX + "p " + EX + "c", "_:x "
+					+ EX + "q \"" + i, "}"));
+		final Map<String, Graph> graphs = new HashMap<String, Graph>();
+		Graph graph = new Graph();
+		new GraphLoader(READER, 3, 4, 2).loadAll(documents, "text/plain",
+				graph, new GraphCallback() {
+					@Override
+					public void triple(Value subject, Value predicate,
+							Value object) {
+					}
+
+					@Override
+					public void graph(Value name, Graph graph) {
+						graphs.put(name.toIri(), graph);
+					}
+
+					@Override
+					public void node(Value node) {
+					}
+				});
+		assertEquals(10, graph.size());
+		assertEquals(10, graphs.size());
+		Graph g = graphs.get(EX + "g3");
+		assertEquals(2, g.size());
+		assertTrue(GraphReaderTest.statements(g.find(null, null, null))
+				.contains("_: <" + EX + "q> \"3\""));
+	}
+
+	@Test(expected = IOException.class)
+	public void testLoadAllNamedGraphsRejected() throws IOException {
+		new GraphLoader(READER, 2, 4, 2).loadAll(Collections
+				.singleton(supplier(EX + "a " + EX + "p " + EX + "b", "{ "
+						+ EX + "g", EX + "c " + EX + "p " + EX + "d", "}")),
+				"text/plain", new Graph());
+	}
+
+	@Test(expected = IOException.class)
+	public void testLoadAllUnreadable() throws IOException {
+		new GraphLoader(READER, 2, 4, 2).loadAll(Collections
+				.singleton(new Supplier<InputStream>() {
+					@Override
+					public InputStream get() {
+						throw new UncheckedIOException(new IOException());
+					}
+				}), "text/plain", new Graph());
+	}
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store.test;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.openapplication.graph.Triple;
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+import org.openapplication.graph.store.Graph;
+import org.openapplication.graph.streaming.BatchGraphReaderCallback;
+import org.openapplication.graph.streaming.CharSequenceGraphReaderCallback;
+import org.openapplication.graph.streaming.GraphReaderCallback;
+import org.openapplication.graph.streaming.StatementBatch;
+
+public class GraphReaderTest {
+
+	private static final String EX = "http://example.com/";
+
+	static String key(Value value) {
+		if (value.isIri())
+			return "<" + value.toIri() + ">";
+		if (value.getId() != null)
+			return "_:";
+		return "\"" + value.getString() + "\""
+				+ (value.getLanguage() != null ? "@" + value.getLanguage() : "")
+				+ (value.getType() != null ? "^^" + value.getType() : "");
+	}
+
+	static Set<String> statements(Iterable<Triple> triples) {
+		Set<String> statements = new HashSet<String>();
+		for (Triple triple : triples)
+			statements.add(key(triple.getSubject()) + " "
+					+ key(triple.getPredicate()) + " "
+					+ key(triple.getObject()));
+		return statements;
+	}
+
+	@Test
+	public void testCharSequenceTerms() {
+		Graph graph = new Graph();
+		GraphReaderCallback reader = graph.toReader();
+		assertTrue(reader instanceof CharSequenceGraphReaderCallback);
+		CharSequenceGraphReaderCallback sequences = (CharSequenceGraphReaderCallback) reader;
+		// The same builders are reused for every statement, as parsers do
+		StringBuilder subject = new StringBuilder(), predicate = new StringBuilder(), object = new StringBuilder(), qualifier = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			subject.setLength(0);
+			subject.append(EX).append('s').append(i % 10);
+			predicate.setLength(0);
+			predicate.append(EX).append('p');
+			object.setLength(0);
+			object.append("v").append(i % 5);
+			qualifier.setLength(0);
+			qualifier.append("en");
+			sequences.triple(subject, predicate, object, qualifier, null);
+			object.setLength(0);
+			object.append(EX).append('o');
+			sequences.triple(subject, predicate, object);
+		}
+		assertEquals(10 + 1 + 5 + 1, graph.getTerms());
+		Set<String> statements = statements(graph.find(null, null, null));
+		assertEquals(20, statements.size());
+		assertTrue(statements.contains("<" + EX + "s3> <" + EX + "p> \"v3\"@en"));
+		assertTrue(statements.contains("<" + EX + "s3> <" + EX + "p> <" + EX
+				+ "o>"));
+	}
+
+	@Test
+	public void testGeneratedBlankNodes() {
+		Graph graph = new Graph();
+		GraphReaderCallback reader = graph.toReader();
+		String first = reader.generateBlankNode(null), second = reader
+				.generateBlankNode(null);
+		reader.triple(first, EX + "p", second);
+		// Labels of the document's own cannot be taken for generated ones
+		reader.triple("_:t0", EX + "p", "_:b0");
+		reader.triple("_:b1", EX + "p", first);
+		assertEquals(3, graph.size());
+		assertEquals(1 + 2 + 3, graph.getTerms());
+		Set<Value> entities = new HashSet<Value>();
+		for (Value entity : graph.entities())
+			entities.add(entity);
+		assertEquals(6, entities.size());
+		assertEquals(6, graph.getTerms());
+		Set<String> labels = new HashSet<String>();
+		for (Value entity : entities)
+			if (entity.getId() != null)
+				labels.add(entity.getId());
+		assertEquals(5, labels.size());
+		assertTrue(labels.contains("t0"));
+		assertTrue(labels.contains("b0"));
+		assertTrue(labels.contains("b1"));
+	}
+
+	@Test
+	public void testLiteralKindsAreDistinct() {
+		Graph graph = new Graph();
+		GraphReaderCallback reader = graph.toReader();
+		reader.triple(EX + "s", EX + "p", "1", null, null);
+		reader.triple(EX + "s", EX + "p", "1", "en", null);
+		reader.triple(EX + "s", EX + "p", "1", null, EX + "int");
+		reader.triple(EX + "s", EX + "p", "1");
+		assertEquals(4, graph.size());
+		assertEquals(
+				Values.string("1", "en").getLanguage(),
+				graph.find(null, null, Values.string("1", "en")).iterator()
+						.next().getObject().getLanguage());
+	}
+
+	@Test
+	public void testBatches() {
+		Graph graph = new Graph();
+		GraphReaderCallback reader = graph.toReader();
+		assertTrue(reader instanceof BatchGraphReaderCallback);
+		StatementBatch batch = new StatementBatch(8);
+		for (int i = 0; i < 8; i++)
+			batch.add(EX + "s" + i % 3, EX + "p", EX + "o" + i % 2);
+		((BatchGraphReaderCallback) reader).triples(batch);
+		// Duplicates within the batch are only stored once
+		assertEquals(6, graph.size());
+		assertEquals(2, statements(graph.find(Values.iri(EX + "s1"), null,
+				null)).size());
+	}
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.openapplication.graph.Triple;
+import org.openapplication.graph.Values;
+import org.openapplication.graph.store.Graph;
+import org.openapplication.graph.streaming.GraphReaderCallback;
+
+public class GraphWriteTest {
+
+	private static final String EX = "http://example.com/";
+
+	private static List<String> lines(ByteArrayOutputStream out)
+			throws IOException {
+		List<String> lines = new ArrayList<String>(Arrays.asList(out
+				.toString("UTF-8").split("\n")));
+		lines.remove("");
+		return lines;
+	}
+
+	private static List<String> write(Graph graph) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		LineWriter writer = new LineWriter(out);
+		graph.writeTo(writer);
+		writer.close();
+		return lines(out);
+	}
+
+	private static List<String> write(Graph graph, int threads)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		graph.writeTo(LineWriter.FACTORY, "text/plain", out, threads);
+		return lines(out);
+	}
+
+	private static Graph graph(int subjects) {
+		List<Triple> triples = new ArrayList<Triple>();
+		for (int i = 0; i < subjects; i++) {
+			triples.add(Values.triple(Values.iri(EX + "s" + i),
+					Values.iri(EX + "p"), Values.iri(EX + "o" + i % 7)));
+			triples.add(Values.triple(Values.iri(EX + "s" + i),
+					Values.iri(EX + "q"), Values.string("v" + i)));
+		}
+		Graph graph = new Graph();
+		graph.add(triples);
+		return graph;
+	}
+
+	@Test
+	public void testWrite() throws IOException {
+		List<String> lines = write(graph(3));
+		assertEquals(6, lines.size());
+		assertTrue(lines.contains(EX + "s1 " + EX + "q \"v1\""));
+		assertTrue(lines.contains(EX + "s2 " + EX + "p " + EX + "o2"));
+	}
+
+	@Test
+	public void testParallelWrite() throws IOException {
+		Graph graph = graph(500);
+		List<String> expected = write(graph);
+		for (int threads : new int[] { 1, 3, 8 }) {
+			List<String> lines = write(graph, threads);
+			assertEquals(expected.size(), lines.size());
+			Collections.sort(lines);
+			List<String> sorted = new ArrayList<String>(expected);
+			Collections.sort(sorted);
+			assertEquals(sorted, lines);
+		}
+	}
+
+	@Test
+	public void testParallelWriteBlankSubjects() throws IOException {
+		Graph graph = new Graph();
+		GraphReaderCallback reader = graph.toReader();
+		for (int i = 0; i < 50; i++) {
+			String node = reader.generateBlankNode(null);
+			reader.triple(node, EX + "p", EX + "o" + i % 7);
+			reader.triple(EX + "s" + i, EX + "q", node);
+		}
+		graph.flush();
+		List<String> expected = write(graph);
+		assertEquals(100, expected.size());
+		Collections.sort(expected);
+		for (int threads : new int[] { 1, 3 }) {
+			List<String> lines = write(graph, threads);
+			Collections.sort(lines);
+			assertEquals(expected, lines);
+		}
+	}
+
+	@Test
+	public void testParallelWriteHeaderOnce() throws IOException {
+		Graph graph = graph(300);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		graph.writeTo(LineWriter.HEADED, "text/plain", out, 4);
+		List<String> lines = lines(out);
+		assertEquals("# lines", lines.get(0));
+		assertEquals(1, Collections.frequency(lines, "# lines"));
+		List<String> expected = write(graph);
+		Collections.sort(expected);
+		lines.remove(0);
+		Collections.sort(lines);
+		assertEquals(expected, lines);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoThreads() throws IOException {
+		write(graph(1), 0);
+	}
+
+}
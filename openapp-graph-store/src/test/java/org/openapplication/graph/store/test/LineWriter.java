@@ -0,0 +1,160 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.openapplication.graph.streaming.GraphWriter;
+import org.openapplication.graph.streaming.GraphWriterFactory;
+
+// Writes one statement per line, so that documents can be concatenated
+final class LineWriter implements GraphWriter {
+
+	static final GraphWriterFactory FACTORY = new GraphWriterFactory() {
+		@Override
+		public GraphWriter createWriter(OutputStream out, String mediaType)
+				throws IOException {
+			return new LineWriter(out);
+		}
+
+		@Override
+		public Collection<String> getWriteMediaTypes() {
+			return Collections.singleton("text/plain");
+		}
+	};
+
+	// Starts every document with a comment line, as Turtle starts with
+	// its prefixes
+	static final GraphWriterFactory HEADED = new GraphWriterFactory() {
+		@Override
+		public GraphWriter createWriter(OutputStream out, String mediaType)
+				throws IOException {
+			LineWriter writer = new LineWriter(out);
+			writer.out.write("# lines\n");
+			return writer;
+		}
+
+		@Override
+		public Collection<String> getWriteMediaTypes() {
+			return Collections.singleton("text/plain");
+		}
+	};
+
+	private final Writer out;
+
+	private String subject, predicate;
+
+	LineWriter(OutputStream out) throws IOException {
+		this.out = new OutputStreamWriter(out, "UTF-8");
+	}
+
+	private static String literal(String literal, String language,
+			String dataType) {
+		return "\"" + literal + "\""
+				+ (language != null ? "@" + language : "")
+				+ (dataType != null ? "^^" + dataType : "");
+	}
+
+	@Override
+	public void writeStatement(String graph, String subject,
+			String predicate, String object, String literal, String language,
+			String dataType) throws IOException {
+		out.write((graph != null ? graph + " " : "") + subject + " "
+				+ predicate + " "
+				+ (object != null ? object : literal(literal, language,
+						dataType)) + "\n");
+	}
+
+	@Override
+	public void writeStartStatement(String subject, String predicate) {
+		this.subject = subject;
+		this.predicate = predicate;
+	}
+
+	@Override
+	public void writeEndStatement() {
+		subject = null;
+	}
+
+	@Override
+	public void writeStartPredicate(String predicate) {
+		this.predicate = predicate;
+	}
+
+	@Override
+	public void writeEndPredicate() {
+		predicate = null;
+	}
+
+	@Override
+	public void writeIRI(String object) throws IOException {
+		writeStatement(null, subject, predicate, object, null, null, null);
+	}
+
+	@Override
+	public void writeLiteral(String literal, String language, String dataType)
+			throws IOException {
+		writeStatement(null, subject, predicate, null, literal, language,
+				dataType);
+	}
+
+	@Override
+	public void writeStartDefinition(String subject) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void writeEndDefinition() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void collapse() {
+	}
+
+	@Override
+	public void collapse(boolean closeGraph) {
+	}
+
+	@Override
+	public void trim(int maxStripes) {
+	}
+
+	@Override
+	public int getMaxStripes() {
+		return 0;
+	}
+
+	@Override
+	public void setMaxStripes(int count) {
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+}
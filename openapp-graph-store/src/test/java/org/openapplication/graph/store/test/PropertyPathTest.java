@@ -0,0 +1,150 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store.test;
+
+import static org.junit.Assert.*;
+import static org.openapplication.graph.store.PropertyPath.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openapplication.graph.Triple;
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+import org.openapplication.graph.store.Graph;
+import org.openapplication.graph.store.PropertyPath;
+
+public class PropertyPathTest {
+
+	private static final String EX = "http://example.com/";
+
+	private static final Value PARENT = Values.iri(EX + "parent"),
+			NAME = Values.iri(EX + "name");
+
+	private Graph graph;
+
+	private static Value node(int i) {
+		return Values.iri(EX + "n" + i);
+	}
+
+	private static Set<Value> nodes(int... ids) {
+		Set<Value> nodes = new HashSet<Value>();
+		for (int id : ids)
+			nodes.add(node(id));
+		return nodes;
+	}
+
+	private Set<Value> follow(int start, PropertyPath path) {
+		return new HashSet<Value>(toList(graph.follow(node(start), path)));
+	}
+
+	private static List<Value> toList(Iterable<Value> values) {
+		List<Value> list = new ArrayList<Value>();
+		for (Value value : values)
+			list.add(value);
+		return list;
+	}
+
+	// A chain 0 -> 1 -> ... -> 5 with a cycle back from 5 to 3, and a
+	// separate chain 10 -> 11
+	@Before
+	public void setUp() {
+		List<Triple> triples = new ArrayList<Triple>();
+		for (int i = 0; i < 5; i++)
+			triples.add(Values.triple(node(i), PARENT, node(i + 1)));
+		triples.add(Values.triple(node(5), PARENT, node(3)));
+		triples.add(Values.triple(node(10), PARENT, node(11)));
+		triples.add(Values.triple(node(1), NAME, Values.string("one")));
+		graph = new Graph();
+		graph.add(triples);
+	}
+
+	@Test
+	public void testPaths() {
+		assertEquals(nodes(1), follow(0, predicate(PARENT)));
+		assertEquals(nodes(2), follow(0,
+				sequence(predicate(PARENT), predicate(PARENT))));
+		assertEquals(nodes(0), follow(1, inverse(PARENT)));
+		assertEquals(nodes(0, 1), follow(0, zeroOrOne(predicate(PARENT))));
+		assertEquals(new HashSet<Value>(Arrays.asList(node(2),
+				Values.string("one"))), follow(1, alternative(
+				predicate(PARENT), predicate(NAME))));
+		assertTrue(graph.connects(node(0), oneOrMore(predicate(PARENT)),
+				node(5)));
+		assertFalse(graph.connects(node(0), oneOrMore(predicate(PARENT)),
+				node(11)));
+		assertTrue(graph.connects(node(7), zeroOrMore(predicate(PARENT)),
+				node(7)));
+	}
+
+	@Test
+	public void testCycles() {
+		assertEquals(nodes(1, 2, 3, 4, 5),
+				follow(0, oneOrMore(predicate(PARENT))));
+		assertEquals(nodes(3, 4, 5), follow(3, oneOrMore(predicate(PARENT))));
+		assertEquals(nodes(0, 1, 2, 3, 4, 5),
+				follow(0, zeroOrMore(predicate(PARENT))));
+		assertEquals(nodes(0, 1, 2, 3, 4, 5),
+				follow(4, oneOrMore(inverse(PARENT))));
+	}
+
+	@Test
+	public void testCaching() {
+		PropertyPath ancestors = oneOrMore(predicate(PARENT));
+		PropertyPath descendants = oneOrMore(inverse(PARENT));
+		graph.setClosureCaching(true);
+		for (int start = 0; start < 6; start++) {
+			assertEquals(follow(start, ancestors), follow(start, ancestors));
+			follow(start, descendants);
+		}
+		assertTrue(graph.getClosureCacheSize() > 0);
+		assertEquals(nodes(3, 4, 5), follow(3, ancestors));
+		assertEquals(nodes(0, 1, 2, 3, 4, 5), follow(4, descendants));
+
+		// A new statement drops the closures of its predicate
+		graph.add(Values.triple(node(5), PARENT, node(10)));
+		assertEquals(0, graph.getClosureCacheSize());
+		assertEquals(nodes(1, 2, 3, 4, 5, 10, 11), follow(0, ancestors));
+		assertEquals(nodes(0, 1, 2, 3, 4, 5), follow(10, descendants));
+	}
+
+	@Test
+	public void testCacheCapacity() {
+		graph.setClosureCaching(8);
+		PropertyPath ancestors = oneOrMore(predicate(PARENT));
+		for (int start = 0; start < 6; start++) {
+			assertEquals(follow(start, ancestors), follow(start, ancestors));
+			assertTrue(graph.getClosureCacheSize() <= 8);
+		}
+		assertTrue(graph.getClosureCacheSize() > 0);
+		assertEquals(nodes(1, 2, 3, 4, 5), follow(0, ancestors));
+
+		graph.setClosureCaching(0);
+		assertEquals(0, graph.getClosureCacheSize());
+		assertEquals(nodes(1, 2, 3, 4, 5), follow(0, ancestors));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeCapacity() {
+		graph.setClosureCaching(-1);
+	}
+
+}
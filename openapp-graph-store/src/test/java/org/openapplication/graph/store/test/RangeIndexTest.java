@@ -0,0 +1,121 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+import org.openapplication.graph.store.Graph;
+
+public class RangeIndexTest {
+
+	private static final String EX = "http://example.com/";
+
+	private static final String XSD = "http://www.w3.org/2001/XMLSchema#";
+
+	private static final Value AGE = Values.iri(EX + "age"),
+			BORN = Values.iri(EX + "born");
+
+	private Graph graph;
+
+	private static Value ex(String name) {
+		return Values.iri(EX + name);
+	}
+
+	private static Value integer(int value) {
+		return Values.literal(Integer.toString(value), XSD + "integer");
+	}
+
+	private static List<Value> list(Iterable<Value> values) {
+		List<Value> list = new ArrayList<Value>();
+		for (Value value : values)
+			list.add(value);
+		return list;
+	}
+
+	@Before
+	public void setUp() {
+		graph = new Graph();
+		graph.add(Values.triple(ex("a"), AGE, integer(34)));
+		graph.add(Values.triple(ex("b"), AGE,
+				Values.literal("28.5", XSD + "decimal")));
+		graph.add(Values.triple(ex("c"), AGE, integer(41)));
+		graph.add(Values.triple(ex("d"), AGE, Values.string("unknown")));
+		graph.add(Values.triple(ex("e"), AGE,
+				Values.literal("3.0E1", XSD + "double")));
+		graph.add(Values.triple(ex("a"), BORN,
+				Values.literal("1990-05-01T12:00:00Z", XSD + "dateTime")));
+		graph.add(Values.triple(ex("b"), BORN,
+				Values.literal("1996-01-01", XSD + "date")));
+		graph.addRangeIndex(AGE);
+		graph.addRangeIndex(BORN);
+	}
+
+	@Test
+	public void testRange() {
+		assertEquals(Arrays.asList(ex("b"), ex("e"), ex("a"), ex("c")),
+				list(graph.range(AGE, null, null)));
+		assertEquals(Arrays.asList(ex("e"), ex("a")),
+				list(graph.range(AGE, integer(30), integer(34))));
+		assertEquals(Arrays.asList(ex("a")),
+				list(graph.range(AGE, integer(30), false, integer(41), false)));
+		assertEquals(Arrays.asList(ex("c")),
+				list(graph.range(AGE, integer(35), null)));
+		assertTrue(list(graph.range(AGE, integer(50), null)).isEmpty());
+		assertEquals(Arrays.asList(ex("a")), list(graph.range(BORN, null,
+				Values.literal("1995-01-01", XSD + "date"))));
+		// Bounds of a different kind match nothing
+		assertTrue(list(graph.range(BORN, integer(0), null)).isEmpty());
+	}
+
+	@Test
+	public void testUpdates() {
+		graph.add(Values.triple(ex("f"), AGE, integer(29)));
+		graph.remove(Values.triple(ex("c"), AGE, integer(41)));
+		assertEquals(Arrays.asList(ex("b"), ex("f"), ex("e"), ex("a")),
+				list(graph.range(AGE, null, null)));
+		assertTrue(graph.hasRangeIndex(graph.getId(AGE)));
+		graph.removeRangeIndex(AGE);
+		assertFalse(graph.hasRangeIndex(graph.getId(AGE)));
+	}
+
+	@Test
+	public void testRename() {
+		long size = graph.size();
+		graph.rename(integer(34), integer(20));
+		assertEquals(size, graph.size());
+		assertEquals(Arrays.asList(ex("a"), ex("b"), ex("e"), ex("c")),
+				list(graph.range(AGE, null, null)));
+		assertTrue(list(graph.range(AGE, integer(34), integer(34)))
+				.isEmpty());
+
+		// A literal that was not indexable can become indexable
+		graph.rename(Values.string("unknown"), integer(100));
+		assertEquals(Arrays.asList(ex("d")),
+				list(graph.range(AGE, integer(50), null)));
+		graph.rename(integer(100), Values.string("unknown"));
+		assertTrue(list(graph.range(AGE, integer(50), null)).isEmpty());
+		assertEquals(size, graph.size());
+	}
+
+}
@@ -0,0 +1,298 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openapplication.graph.Triple;
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+import org.openapplication.graph.store.Graph;
+import org.openapplication.graph.store.Reasoner;
+
+public class ReasonerTest {
+
+	private static final String EX = "http://example.com/";
+
+	private static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+	private static final String RDFS = "http://www.w3.org/2000/01/rdf-schema#";
+
+	private static final String OWL = "http://www.w3.org/2002/07/owl#";
+
+	private static final Value TYPE = Values.iri(RDF + "type"),
+			DOMAIN = Values.iri(RDFS + "domain"),
+			RANGE = Values.iri(RDFS + "range"),
+			SUB_PROPERTY_OF = Values.iri(RDFS + "subPropertyOf"),
+			SUB_CLASS_OF = Values.iri(RDFS + "subClassOf"),
+			SYMMETRIC = Values.iri(OWL + "SymmetricProperty"),
+			TRANSITIVE = Values.iri(OWL + "TransitiveProperty"),
+			INVERSE_OF = Values.iri(OWL + "inverseOf"),
+			SAME_AS = Values.iri(OWL + "sameAs"),
+			EQUIVALENT_CLASS = Values.iri(OWL + "equivalentClass"),
+			EQUIVALENT_PROPERTY = Values.iri(OWL + "equivalentProperty");
+
+	private ForkJoinPool pool;
+
+	private Graph graph;
+
+	private static Value ex(String name) {
+		return Values.iri(EX + name);
+	}
+
+	private void add(Value subject, Value predicate, Value object) {
+		graph.add(Values.triple(subject, predicate, object));
+	}
+
+	private boolean contains(Value subject, Value predicate, Value object) {
+		return graph.find(subject, predicate, object).iterator().hasNext();
+	}
+
+	private long materialize(Reasoner.Profile profile) {
+		return new Reasoner(profile, pool).materialize(graph);
+	}
+
+	@Before
+	public void setUp() {
+		pool = new ForkJoinPool(2);
+		graph = new Graph();
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void testDomain() {
+		add(ex("p"), DOMAIN, ex("C"));
+		add(ex("a"), ex("p"), ex("b"));
+		assertEquals(1, materialize(Reasoner.Profile.RDFS));
+		assertTrue(contains(ex("a"), TYPE, ex("C")));
+		assertFalse(contains(ex("b"), TYPE, ex("C")));
+	}
+
+	@Test
+	public void testRange() {
+		add(ex("p"), RANGE, ex("C"));
+		add(ex("a"), ex("p"), ex("b"));
+		add(ex("a"), ex("p"), Values.string("literal"));
+		assertEquals(1, materialize(Reasoner.Profile.RDFS));
+		assertTrue(contains(ex("b"), TYPE, ex("C")));
+		assertFalse(contains(ex("a"), TYPE, ex("C")));
+	}
+
+	@Test
+	public void testSubPropertyOf() {
+		add(ex("p"), SUB_PROPERTY_OF, ex("q"));
+		add(ex("q"), SUB_PROPERTY_OF, ex("r"));
+		add(ex("a"), ex("p"), ex("b"));
+		materialize(Reasoner.Profile.RDFS);
+		// rdfs5 and rdfs7
+		assertTrue(contains(ex("p"), SUB_PROPERTY_OF, ex("r")));
+		assertTrue(contains(ex("a"), ex("q"), ex("b")));
+		assertTrue(contains(ex("a"), ex("r"), ex("b")));
+		assertFalse(contains(ex("b"), ex("r"), ex("a")));
+	}
+
+	@Test
+	public void testSubClassOf() {
+		add(ex("A"), SUB_CLASS_OF, ex("B"));
+		add(ex("B"), SUB_CLASS_OF, ex("C"));
+		add(ex("x"), TYPE, ex("A"));
+		materialize(Reasoner.Profile.RDFS);
+		// rdfs9 and rdfs11
+		assertTrue(contains(ex("A"), SUB_CLASS_OF, ex("C")));
+		assertTrue(contains(ex("x"), TYPE, ex("B")));
+		assertTrue(contains(ex("x"), TYPE, ex("C")));
+		assertFalse(contains(ex("C"), SUB_CLASS_OF, ex("A")));
+	}
+
+	@Test
+	public void testRdfsIgnoresOwl() {
+		add(ex("p"), TYPE, SYMMETRIC);
+		add(ex("a"), ex("p"), ex("b"));
+		add(ex("a"), SAME_AS, ex("c"));
+		assertEquals(0, materialize(Reasoner.Profile.RDFS));
+	}
+
+	@Test
+	public void testSymmetric() {
+		add(ex("p"), TYPE, SYMMETRIC);
+		add(ex("a"), ex("p"), ex("b"));
+		add(ex("a"), ex("p"), Values.string("literal"));
+		materialize(Reasoner.Profile.OWL_RL);
+		assertTrue(contains(ex("b"), ex("p"), ex("a")));
+		assertEquals(3, graph.size() - 1);
+	}
+
+	@Test
+	public void testTransitive() {
+		add(ex("p"), TYPE, TRANSITIVE);
+		add(ex("a"), ex("p"), ex("b"));
+		add(ex("b"), ex("p"), ex("c"));
+		add(ex("c"), ex("p"), ex("d"));
+		materialize(Reasoner.Profile.OWL_RL);
+		assertTrue(contains(ex("a"), ex("p"), ex("c")));
+		assertTrue(contains(ex("a"), ex("p"), ex("d")));
+		assertTrue(contains(ex("b"), ex("p"), ex("d")));
+		assertFalse(contains(ex("d"), ex("p"), ex("a")));
+	}
+
+	@Test
+	public void testInverseOf() {
+		add(ex("p"), INVERSE_OF, ex("q"));
+		add(ex("a"), ex("p"), ex("b"));
+		add(ex("c"), ex("q"), ex("d"));
+		materialize(Reasoner.Profile.OWL_RL);
+		// prp-inv1 and prp-inv2
+		assertTrue(contains(ex("b"), ex("q"), ex("a")));
+		assertTrue(contains(ex("d"), ex("p"), ex("c")));
+	}
+
+	@Test
+	public void testSameAs() {
+		add(ex("a"), SAME_AS, ex("b"));
+		add(ex("b"), SAME_AS, ex("c"));
+		add(ex("a"), ex("p"), ex("x"));
+		add(ex("y"), ex("p"), ex("b"));
+		materialize(Reasoner.Profile.OWL_RL);
+		// eq-sym and eq-trans
+		assertTrue(contains(ex("b"), SAME_AS, ex("a")));
+		assertTrue(contains(ex("a"), SAME_AS, ex("c")));
+		assertTrue(contains(ex("c"), SAME_AS, ex("a")));
+		// eq-rep-s and eq-rep-o
+		assertTrue(contains(ex("c"), ex("p"), ex("x")));
+		assertTrue(contains(ex("y"), ex("p"), ex("a")));
+		assertTrue(contains(ex("y"), ex("p"), ex("c")));
+	}
+
+	@Test
+	public void testEquivalentClass() {
+		add(ex("A"), EQUIVALENT_CLASS, ex("B"));
+		add(ex("x"), TYPE, ex("B"));
+		materialize(Reasoner.Profile.OWL_RL);
+		// scm-eqc1 and scm-eqc2, then rdfs9
+		assertTrue(contains(ex("A"), SUB_CLASS_OF, ex("B")));
+		assertTrue(contains(ex("B"), SUB_CLASS_OF, ex("A")));
+		assertTrue(contains(ex("x"), TYPE, ex("A")));
+	}
+
+	@Test
+	public void testEquivalentProperty() {
+		add(ex("p"), EQUIVALENT_PROPERTY, ex("q"));
+		add(ex("a"), ex("q"), ex("b"));
+		materialize(Reasoner.Profile.OWL_RL);
+		// scm-eqp1 and scm-eqp2, then rdfs7
+		assertTrue(contains(ex("p"), SUB_PROPERTY_OF, ex("q")));
+		assertTrue(contains(ex("q"), SUB_PROPERTY_OF, ex("p")));
+		assertTrue(contains(ex("a"), ex("p"), ex("b")));
+	}
+
+	@Test
+	public void testNoVocabulary() {
+		add(ex("a"), ex("p"), ex("b"));
+		long terms = graph.getTerms();
+		assertEquals(0, materialize(Reasoner.Profile.OWL_RL));
+		graph.setReasoner(new Reasoner(Reasoner.Profile.OWL_RL, pool));
+		add(ex("b"), ex("p"), ex("c"));
+		assertEquals(terms + 1, graph.getTerms());
+		assertEquals(0, graph.getId(TYPE));
+		assertEquals(0, graph.getId(SUB_CLASS_OF));
+	}
+
+	@Test
+	public void testIncremental() {
+		graph.setReasoner(new Reasoner(Reasoner.Profile.OWL_RL, pool));
+		add(ex("a"), ex("p"), ex("b"));
+		assertEquals(0, graph.getId(TYPE));
+		// The schema arrives after the data it applies to
+		add(ex("p"), DOMAIN, ex("C"));
+		assertTrue(contains(ex("a"), TYPE, ex("C")));
+		List<Triple> triples = new ArrayList<Triple>();
+		triples.add(Values.triple(ex("C"), SUB_CLASS_OF, ex("D")));
+		triples.add(Values.triple(ex("e"), ex("p"), ex("f")));
+		graph.add(triples);
+		assertTrue(contains(ex("a"), TYPE, ex("D")));
+		assertTrue(contains(ex("e"), TYPE, ex("D")));
+	}
+
+	private static String key(Triple triple) {
+		return GraphReaderTest.key(triple.getSubject()) + " "
+				+ GraphReaderTest.key(triple.getPredicate()) + " "
+				+ GraphReaderTest.key(triple.getObject());
+	}
+
+	// Random additions and removals kept up incrementally must leave the
+	// same graph as materializing the remaining statements from scratch
+	@Test
+	public void testMaintenance() {
+		Value[] predicates = { SUB_CLASS_OF, TYPE, ex("p"), ex("q"),
+				SUB_PROPERTY_OF, SAME_AS, DOMAIN };
+		for (long seed = 1; seed <= 2; seed++) {
+			Random random = new Random(seed);
+			List<Triple> triples = new ArrayList<Triple>();
+			for (int i = 0; i < 60; i++)
+				triples.add(Values.triple(ex("n" + random.nextInt(12)),
+						predicates[random.nextInt(predicates.length)],
+						ex("n" + random.nextInt(12))));
+			triples.add(Values.triple(ex("p"), TYPE, TRANSITIVE));
+			triples.add(Values.triple(ex("q"), INVERSE_OF, ex("p")));
+			graph = new Graph();
+			graph.setReasoner(new Reasoner(Reasoner.Profile.OWL_RL, pool));
+			Map<String, Triple> stated = new LinkedHashMap<String, Triple>();
+			for (int step = 0; step < 60; step++) {
+				List<Triple> batch = new ArrayList<Triple>();
+				if (step % 3 != 2 || stated.isEmpty()) {
+					for (int i = 0; i < 3; i++)
+						batch.add(triples.get(random.nextInt(triples.size())));
+					graph.add(batch);
+					for (Triple triple : batch)
+						stated.put(key(triple), triple);
+				} else {
+					List<Triple> current = new ArrayList<Triple>(
+							stated.values());
+					for (int i = 0; i < 2; i++)
+						batch.add(current.get(random.nextInt(current.size())));
+					graph.remove(batch);
+					for (Triple triple : batch)
+						stated.remove(key(triple));
+				}
+				Graph expected = new Graph();
+				expected.add(stated.values());
+				new Reasoner(Reasoner.Profile.OWL_RL, pool)
+						.materialize(expected);
+				Set<String> statements = GraphReaderTest.statements(graph
+						.find(null, null, null));
+				assertEquals("seed " + seed + ", step " + step,
+						GraphReaderTest.statements(expected.find(null, null,
+								null)), statements);
+			}
+		}
+	}
+
+}
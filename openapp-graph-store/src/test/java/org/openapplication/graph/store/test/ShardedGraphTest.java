@@ -0,0 +1,181 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openapplication.graph.Triple;
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+import org.openapplication.graph.store.Cancellation;
+import org.openapplication.graph.store.Graph;
+import org.openapplication.graph.store.ShardedGraph;
+
+public class ShardedGraphTest {
+
+	private static final String EX = "http://example.com/";
+
+	private static final Value P = Values.iri(EX + "p"),
+			Q = Values.iri(EX + "q"), O = Values.iri(EX + "o");
+
+	private ShardedGraph sharded;
+
+	private Graph graph;
+
+	private List<Triple> triples;
+
+	private static List<String> keys(Iterable<Triple> triples) {
+		List<String> keys = new ArrayList<String>();
+		for (Triple triple : triples)
+			keys.add(GraphReaderTest.key(triple.getSubject()) + " "
+					+ GraphReaderTest.key(triple.getPredicate()) + " "
+					+ GraphReaderTest.key(triple.getObject()));
+		return keys;
+	}
+
+	private static List<Value> list(Iterable<Value> values) {
+		List<Value> list = new ArrayList<Value>();
+		for (Value value : values)
+			list.add(value);
+		return list;
+	}
+
+	@Before
+	public void setUp() {
+		triples = new ArrayList<Triple>();
+		for (int i = 0; i < 40; i++) {
+			Value subject = Values.iri(EX + "s" + i);
+			triples.add(Values.triple(subject, P, O));
+			triples.add(Values.triple(subject, Q,
+					Values.iri(EX + "o" + i % 5)));
+			if (i % 3 == 0)
+				triples.add(Values.triple(subject, Q, O));
+		}
+		sharded = new ShardedGraph(4);
+		sharded.add(triples);
+		// The same terms in the same order give the same ids, and so the
+		// same index order
+		graph = new Graph();
+		graph.add(triples);
+	}
+
+	@Test
+	public void testFind() {
+		assertEquals(graph.size(), sharded.size());
+		Value[][] patterns = { { null, null, null }, { null, P, null },
+				{ null, Q, O }, { null, null, O },
+				{ Values.iri(EX + "s3"), null, null } };
+		for (Value[] pattern : patterns) {
+			assertEquals(keys(graph.find(pattern[0], pattern[1], pattern[2])),
+					keys(sharded.find(pattern[0], pattern[1], pattern[2])));
+			assertEquals(
+					keys(graph.find(pattern[0], pattern[1], pattern[2], 7, 9,
+							null)),
+					keys(sharded.find(pattern[0], pattern[1], pattern[2], 7,
+							9, null)));
+		}
+		assertEquals(list(graph.project(Q, O)), list(sharded.project(Q, O)));
+		assertEquals(keys(graph.describe(Values.iri(EX + "s9"))),
+				keys(sharded.describe(Values.iri(EX + "s9"))));
+	}
+
+	@Test
+	public void testManyBlocks() {
+		List<Triple> more = new ArrayList<Triple>();
+		for (int i = 0; i < 5000; i++)
+			more.add(Values.triple(Values.iri(EX + "m" + i), P,
+					Values.iri(EX + "o" + i % 7)));
+		sharded.add(more);
+		graph.add(more);
+		assertEquals(keys(graph.find(null, P, null)),
+				keys(sharded.find(null, P, null)));
+		assertEquals(keys(graph.find(null, null, null, 3000, 2500, null)),
+				keys(sharded.find(null, null, null, 3000, 2500, null)));
+	}
+
+	@Test
+	public void testUnknownTerms() {
+		long terms = sharded.getTerms();
+		Value unknown = Values.iri(EX + "unknown");
+		assertNull(sharded.getShard(unknown));
+		assertFalse(sharded.find(unknown, null, null).iterator().hasNext());
+		assertFalse(sharded.find(null, unknown, null).iterator().hasNext());
+		assertFalse(sharded.describe(unknown).iterator().hasNext());
+		assertFalse(sharded.values(unknown, P).iterator().hasNext());
+		sharded.remove(Collections.singleton(Values.triple(
+				unknown, P, O)));
+		assertEquals(terms, sharded.getTerms());
+		assertNotNull(sharded.getShard(Values.iri(EX + "s0")));
+	}
+
+	@Test
+	public void testRemove() {
+		List<Triple> removed = new ArrayList<Triple>();
+		for (int i = 0; i < triples.size(); i += 4)
+			removed.add(triples.get(i));
+		sharded.remove(removed);
+		graph.remove(removed);
+		assertEquals(graph.size(), sharded.size());
+		assertEquals(keys(graph.find(null, null, null)),
+				keys(sharded.find(null, null, null)));
+		// Each statement was only in the shard of its subject
+		for (Triple triple : removed)
+			assertFalse(sharded.getShard(triple.getSubject())
+					.find(triple.getSubject(), triple.getPredicate(),
+							triple.getObject()).iterator().hasNext());
+	}
+
+	@Test
+	public void testAdd() {
+		Value subject = Values.iri(EX + "new");
+		sharded.add(Values.triple(subject, P, O));
+		Graph shard = sharded.getShard(subject);
+		assertTrue(shard.find(subject, P, O).iterator().hasNext());
+		for (int i = 0; i < sharded.getShardCount(); i++)
+			if (sharded.getShard(i) != shard)
+				assertFalse(sharded.getShard(i).find(subject, null, null)
+						.iterator().hasNext());
+	}
+
+	@Test
+	public void testCancel() {
+		Cancellation cancellation = new Cancellation();
+		Iterator<Triple> iterator = sharded.find(null, P, null, 0,
+				Long.MAX_VALUE, cancellation).iterator();
+		iterator.next();
+		cancellation.cancel();
+		try {
+			while (iterator.hasNext())
+				iterator.next();
+			fail();
+		} catch (CancellationException e) {
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeLimit() {
+		sharded.find(null, P, null, 0, -1, null);
+	}
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.store.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+import org.openapplication.graph.store.Graph;
+import org.openapplication.graph.store.TextIndex;
+
+public class TextIndexTest {
+
+	private static final String EX = "http://example.com/";
+
+	private static final Value TITLE = Values.iri(EX + "title"),
+			NOTE = Values.iri(EX + "note");
+
+	private Graph graph;
+
+	private static Value ex(String name) {
+		return Values.iri(EX + name);
+	}
+
+	private static Set<Value> set(Value... values) {
+		return new HashSet<Value>(Arrays.asList(values));
+	}
+
+	private static Set<Value> set(Iterable<Value> values) {
+		Set<Value> set = new HashSet<Value>();
+		for (Value value : values)
+			set.add(value);
+		return set;
+	}
+
+	@Before
+	public void setUp() {
+		graph = new Graph();
+		graph.add(Values.triple(ex("a"), TITLE,
+				Values.string("The Quick Brown Fox")));
+		graph.add(Values.triple(ex("b"), TITLE,
+				Values.string("A quick café", "fr")));
+		graph.add(Values.triple(ex("c"), NOTE,
+				Values.string("brown bread", "en-GB")));
+		graph.add(Values.triple(ex("d"), TITLE, ex("quick")));
+	}
+
+	@Test
+	public void testSearch() {
+		graph.setTextIndexing(true);
+		assertEquals(set(ex("a"), ex("b")), set(graph.search("quick")));
+		assertEquals(set(ex("a")), set(graph.search("fox QUICK")));
+		assertEquals(set(ex("a"), ex("c")), set(graph.search("brown")));
+		assertEquals(set(), set(graph.search("quick bread")));
+		assertEquals(set(), set(graph.search("wolf")));
+		assertEquals(set(), set(graph.search("  ")));
+	}
+
+	@Test
+	public void testFolding() {
+		graph.setTextIndexing(true);
+		assertEquals(set(ex("b")), set(graph.search("CAFE")));
+		assertEquals(set(ex("b")), set(graph.search("Café")));
+	}
+
+	@Test
+	public void testPredicateAndLanguage() {
+		graph.setTextIndexing(true);
+		assertEquals(set(ex("a")), set(graph.search(TITLE, "brown", null)));
+		assertEquals(set(ex("c")), set(graph.search(NOTE, "brown", null)));
+		assertEquals(set(ex("c")), set(graph.search(null, "brown", "en")));
+		assertEquals(set(ex("c")), set(graph.search(null, "brown", "EN-gb")));
+		assertEquals(set(ex("b")), set(graph.search(TITLE, "quick", "fr")));
+		assertEquals(set(), set(graph.search(ex("unknown"), "quick", null)));
+	}
+
+	@Test
+	public void testUpdates() {
+		graph.setTextIndexing(true);
+		long tokens = graph.getTextIndex().getTokens();
+		graph.add(Values.triple(ex("e"), NOTE, Values.string("Lazy dog")));
+		assertEquals(set(ex("e")), set(graph.search("lazy")));
+		assertTrue(graph.getTextIndex().getTokens() > tokens);
+
+		graph.rename(Values.string("Lazy dog"), Values.string("Sleepy cat"));
+		assertEquals(set(), set(graph.search("lazy")));
+		assertEquals(set(ex("e")), set(graph.search("sleepy")));
+	}
+
+	@Test
+	public void testAnalyzer() {
+		graph.setTextIndexing(true);
+		graph.getTextIndex().setAnalyzer("fr", new TextIndex.Analyzer() {
+			@Override
+			public List<String> tokens(String text, String language) {
+				return Arrays.asList(text.toLowerCase().split("\\s+"));
+			}
+		});
+		graph.add(Values.triple(ex("f"), TITLE,
+				Values.string("Un éléphant", "fr-CA")));
+		assertEquals(set(ex("f")), set(graph.search(null, "éléphant", "fr")));
+		assertEquals(set(), set(graph.search(null, "elephant", "fr")));
+	}
+
+	@Test
+	public void testDisabled() {
+		graph.setTextIndexing(true);
+		graph.setTextIndexing(false);
+		assertNull(graph.getTextIndex());
+		try {
+			graph.search("quick");
+			fail();
+		} catch (IllegalStateException e) {
+		}
+	}
+
+}
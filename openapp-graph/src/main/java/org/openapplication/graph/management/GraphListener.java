@@ -0,0 +1,56 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.management;
+
+public interface GraphListener {
+
+	// A phase in progress, for listeners that record phases as they happen
+	// rather than once they are over
+	interface Phase {
+
+		void end(long count, long bytes);
+
+	}
+
+	void operation(GraphOperation operation, long results, long nanos);
+
+	void read(String mediaType, long statements, long bytes, long nanos);
+
+	void write(String mediaType, long statements, long bytes, long nanos);
+
+	void context(long terms, long nanos);
+
+	// Called on the thread that starts a phase, which ends the returned
+	// phase, if any, after reporting it; details describe themselves through
+	// toString, so that they cost nothing unless a listener needs them
+
+	default Phase startOperation(GraphOperation operation, Object detail) {
+		return null;
+	}
+
+	default Phase startRead(String mediaType, String document) {
+		return null;
+	}
+
+	default Phase startWrite(String mediaType) {
+		return null;
+	}
+
+	default Phase startContext(String document) {
+		return null;
+	}
+
+}
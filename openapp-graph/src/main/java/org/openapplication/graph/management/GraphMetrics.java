@@ -0,0 +1,263 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.management;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public final class GraphMetrics {
+
+	public static final String DOMAIN = "org.openapplication.graph";
+
+	private static final CopyOnWriteArrayList<GraphListener> listeners = new CopyOnWriteArrayList<GraphListener>();
+
+	// Null while nothing listens, so instrumented code only pays for a
+	// volatile read
+	private static volatile GraphListener listener;
+
+	private static Recorder recorder;
+
+	private GraphMetrics() {
+	}
+
+	public static GraphListener getListener() {
+		return listener;
+	}
+
+	public static void addListener(GraphListener listener) {
+		if (listener == null)
+			throw new NullPointerException();
+		listeners.add(listener);
+		update();
+	}
+
+	public static void removeListener(GraphListener listener) {
+		listeners.remove(listener);
+		update();
+	}
+
+	private static synchronized void update() {
+		final GraphListener[] array = listeners.toArray(new GraphListener[0]);
+		if (array.length == 0)
+			listener = null;
+		else if (array.length == 1)
+			listener = array[0];
+		else
+			listener = new GraphListener() {
+				@Override
+				public void operation(GraphOperation operation, long results,
+						long nanos) {
+					for (GraphListener listener : array)
+						listener.operation(operation, results, nanos);
+				}
+
+				@Override
+				public void read(String mediaType, long statements,
+						long bytes, long nanos) {
+					for (GraphListener listener : array)
+						listener.read(mediaType, statements, bytes, nanos);
+				}
+
+				@Override
+				public void write(String mediaType, long statements,
+						long bytes, long nanos) {
+					for (GraphListener listener : array)
+						listener.write(mediaType, statements, bytes, nanos);
+				}
+
+				@Override
+				public void context(long terms, long nanos) {
+					for (GraphListener listener : array)
+						listener.context(terms, nanos);
+				}
+
+				@Override
+				public Phase startOperation(GraphOperation operation,
+						Object detail) {
+					Phase[] phases = new Phase[array.length];
+					for (int i = 0; i < array.length; i++)
+						phases[i] = array[i].startOperation(operation, detail);
+					return phase(phases);
+				}
+
+				@Override
+				public Phase startRead(String mediaType, String document) {
+					Phase[] phases = new Phase[array.length];
+					for (int i = 0; i < array.length; i++)
+						phases[i] = array[i].startRead(mediaType, document);
+					return phase(phases);
+				}
+
+				@Override
+				public Phase startWrite(String mediaType) {
+					Phase[] phases = new Phase[array.length];
+					for (int i = 0; i < array.length; i++)
+						phases[i] = array[i].startWrite(mediaType);
+					return phase(phases);
+				}
+
+				@Override
+				public Phase startContext(String document) {
+					Phase[] phases = new Phase[array.length];
+					for (int i = 0; i < array.length; i++)
+						phases[i] = array[i].startContext(document);
+					return phase(phases);
+				}
+			};
+	}
+
+	private static GraphListener.Phase phase(
+			final GraphListener.Phase[] phases) {
+		int count = 0;
+		for (GraphListener.Phase phase : phases)
+			if (phase != null)
+				count++;
+		if (count == 0)
+			return null;
+		return new GraphListener.Phase() {
+			@Override
+			public void end(long count, long bytes) {
+				for (GraphListener.Phase phase : phases)
+					if (phase != null)
+						phase.end(count, bytes);
+			}
+		};
+	}
+
+	public static synchronized void enableJmx() throws JMException {
+		if (recorder != null)
+			return;
+		Recorder recorder = new Recorder(
+				ManagementFactory.getPlatformMBeanServer());
+		recorder.registerOperations();
+		GraphMetrics.recorder = recorder;
+		addListener(recorder);
+	}
+
+	public static synchronized void disableJmx() throws JMException {
+		if (recorder == null)
+			return;
+		removeListener(recorder);
+		recorder.unregisterAll();
+		recorder = null;
+	}
+
+	public static void register(String name, GraphStatisticsMXBean statistics)
+			throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(statistics,
+				graphName(name));
+	}
+
+	public static void unregister(String name) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+				graphName(name));
+	}
+
+	private static ObjectName graphName(String name) throws JMException {
+		return new ObjectName(DOMAIN + ":type=Graph,name="
+				+ ObjectName.quote(name));
+	}
+
+	private static final class Recorder implements GraphListener {
+
+		private final MBeanServer server;
+
+		private final Map<GraphOperation, OperationMetrics> operations = new EnumMap<GraphOperation, OperationMetrics>(
+				GraphOperation.class);
+
+		private final OperationMetrics contexts = new OperationMetrics();
+
+		private final ConcurrentMap<String, StreamMetrics> reads = new ConcurrentHashMap<String, StreamMetrics>(),
+				writes = new ConcurrentHashMap<String, StreamMetrics>();
+
+		Recorder(MBeanServer server) {
+			this.server = server;
+			for (GraphOperation operation : GraphOperation.values())
+				operations.put(operation, new OperationMetrics());
+		}
+
+		void registerOperations() throws JMException {
+			for (Map.Entry<GraphOperation, OperationMetrics> entry : operations
+					.entrySet())
+				server.registerMBean(entry.getValue(), new ObjectName(DOMAIN
+						+ ":type=Operation,name=" + entry.getKey()));
+			server.registerMBean(contexts, new ObjectName(DOMAIN
+					+ ":type=Operation,name=context"));
+		}
+
+		void unregisterAll() throws JMException {
+			for (ObjectName name : server.queryNames(new ObjectName(DOMAIN
+					+ ":type=Operation,*"), null))
+				server.unregisterMBean(name);
+			for (ObjectName name : server.queryNames(new ObjectName(DOMAIN
+					+ ":type=Stream,*"), null))
+				server.unregisterMBean(name);
+		}
+
+		private StreamMetrics stream(ConcurrentMap<String, StreamMetrics> map,
+				String direction, String mediaType) {
+			StreamMetrics metrics = map.get(mediaType);
+			if (metrics != null)
+				return metrics;
+			metrics = new StreamMetrics(mediaType);
+			StreamMetrics existing = map.putIfAbsent(mediaType, metrics);
+			if (existing != null)
+				return existing;
+			try {
+				server.registerMBean(metrics, new ObjectName(DOMAIN
+						+ ":type=Stream,direction=" + direction
+						+ ",mediaType=" + ObjectName.quote(mediaType)));
+			} catch (JMException e) {
+				// The metrics are still recorded, only not visible over JMX
+			}
+			return metrics;
+		}
+
+		@Override
+		public void operation(GraphOperation operation, long results,
+				long nanos) {
+			operations.get(operation).record(results, nanos);
+		}
+
+		@Override
+		public void read(String mediaType, long statements, long bytes,
+				long nanos) {
+			stream(reads, "read", mediaType).record(statements, bytes, nanos);
+		}
+
+		@Override
+		public void write(String mediaType, long statements, long bytes,
+				long nanos) {
+			stream(writes, "write", mediaType)
+					.record(statements, bytes, nanos);
+		}
+
+		@Override
+		public void context(long terms, long nanos) {
+			contexts.record(terms, nanos);
+		}
+
+	}
+
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.management;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+final class Histogram {
+
+	// One bucket per power of two, which is coarse but lock-free and fixed
+	// in size no matter how many values are recorded
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	void record(long value) {
+		if (value < 0)
+			value = 0;
+		buckets.incrementAndGet(value == 0 ? 0 : 63 - Long
+				.numberOfLeadingZeros(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current;
+		while (value > (current = max.get())
+				&& !max.compareAndSet(current, value))
+			;
+	}
+
+	long getCount() {
+		return count.get();
+	}
+
+	long getSum() {
+		return sum.get();
+	}
+
+	long getMax() {
+		return max.get();
+	}
+
+	long getMean() {
+		long count = this.count.get();
+		return count == 0 ? 0 : sum.get() / count;
+	}
+
+	long getPercentile(double percentile) {
+		long count = this.count.get();
+		if (count == 0)
+			return 0;
+		long rank = (long) Math.ceil(count * percentile), seen = 0;
+		for (int i = 0; i < 64; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank)
+				return Math.min(max.get(), i == 63 ? Long.MAX_VALUE
+						: (1L << (i + 1)) - 1);
+		}
+		return max.get();
+	}
+
+	void reset() {
+		for (int i = 0; i < 64; i++)
+			buckets.set(i, 0);
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+}
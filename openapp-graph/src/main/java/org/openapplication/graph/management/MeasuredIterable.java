@@ -0,0 +1,124 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.management;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+
+public final class MeasuredIterable<T> implements Iterable<T> {
+
+	private final Iterable<T> iterable;
+
+	private final GraphOperation operation;
+
+	private final Object detail;
+
+	private final GraphListener listener;
+
+	public MeasuredIterable(Iterable<T> iterable, GraphOperation operation,
+			GraphListener listener) {
+		this(iterable, operation, null, listener);
+	}
+
+	public MeasuredIterable(Iterable<T> iterable, GraphOperation operation,
+			Object detail, GraphListener listener) {
+		this.iterable = iterable;
+		this.operation = operation;
+		this.detail = detail;
+		this.listener = listener;
+	}
+
+	// Results are produced lazily, so an operation is measured from the start
+	// of an iteration until it runs out of results or fails, for example when
+	// cancelled; callers that stop early report it by closing the iterator
+	@Override
+	public Iterator<T> iterator() {
+		long start = System.nanoTime();
+		GraphListener.Phase phase = listener.startOperation(operation, detail);
+		return new MeasuredIterator(start, phase, iterable.iterator());
+	}
+
+	private final class MeasuredIterator implements Iterator<T>, Closeable {
+
+		private final long start;
+
+		private final GraphListener.Phase phase;
+
+		private final Iterator<T> iterator;
+
+		private long results;
+
+		private boolean done;
+
+		MeasuredIterator(long start, GraphListener.Phase phase,
+				Iterator<T> iterator) {
+			this.start = start;
+			this.phase = phase;
+			this.iterator = iterator;
+		}
+
+		private void report() {
+			if (done)
+				return;
+			done = true;
+			listener.operation(operation, results, System.nanoTime() - start);
+			if (phase != null)
+				phase.end(results, 0);
+		}
+
+		@Override
+		public boolean hasNext() {
+			boolean hasNext;
+			try {
+				hasNext = iterator.hasNext();
+			} catch (RuntimeException e) {
+				report();
+				throw e;
+			}
+			if (!hasNext)
+				report();
+			return hasNext;
+		}
+
+		@Override
+		public T next() {
+			T next;
+			try {
+				next = iterator.next();
+			} catch (RuntimeException e) {
+				report();
+				throw e;
+			}
+			results++;
+			return next;
+		}
+
+		@Override
+		public void remove() {
+			iterator.remove();
+		}
+
+		@Override
+		public void close() throws IOException {
+			report();
+			if (iterator instanceof Closeable)
+				((Closeable) iterator).close();
+		}
+
+	}
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.management;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+final class OperationMetrics implements OperationMetricsMXBean {
+
+	private final Histogram times = new Histogram();
+
+	private final AtomicLong results = new AtomicLong();
+
+	void record(long results, long nanos) {
+		this.results.addAndGet(results);
+		times.record(nanos);
+	}
+
+	@Override
+	public long getCount() {
+		return times.getCount();
+	}
+
+	@Override
+	public long getResults() {
+		return results.get();
+	}
+
+	@Override
+	public long getTotalTimeNanos() {
+		return times.getSum();
+	}
+
+	@Override
+	public long getMeanTimeNanos() {
+		return times.getMean();
+	}
+
+	@Override
+	public long getMedianTimeNanos() {
+		return times.getPercentile(0.5);
+	}
+
+	@Override
+	public long get99thPercentileTimeNanos() {
+		return times.getPercentile(0.99);
+	}
+
+	@Override
+	public long getMaxTimeNanos() {
+		return times.getMax();
+	}
+
+	@Override
+	public void reset() {
+		times.reset();
+		results.set(0);
+	}
+
+}
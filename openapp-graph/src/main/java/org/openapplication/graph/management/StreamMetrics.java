@@ -0,0 +1,96 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.management;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+final class StreamMetrics implements StreamMetricsMXBean {
+
+	private final String mediaType;
+
+	private final Histogram times = new Histogram();
+
+	private final AtomicLong statements = new AtomicLong();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	StreamMetrics(String mediaType) {
+		this.mediaType = mediaType;
+	}
+
+	void record(long statements, long bytes, long nanos) {
+		this.statements.addAndGet(statements);
+		this.bytes.addAndGet(bytes);
+		times.record(nanos);
+	}
+
+	@Override
+	public String getMediaType() {
+		return mediaType;
+	}
+
+	@Override
+	public long getCount() {
+		return times.getCount();
+	}
+
+	@Override
+	public long getStatements() {
+		return statements.get();
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	@Override
+	public long getTotalTimeNanos() {
+		return times.getSum();
+	}
+
+	// Rates are over the time spent reading or writing, not wall-clock time
+
+	@Override
+	public double getStatementsPerSecond() {
+		long nanos = times.getSum();
+		return nanos == 0 ? 0 : statements.get() * 1e9 / nanos;
+	}
+
+	@Override
+	public double getBytesPerSecond() {
+		long nanos = times.getSum();
+		return nanos == 0 ? 0 : bytes.get() * 1e9 / nanos;
+	}
+
+	@Override
+	public long getMedianTimeNanos() {
+		return times.getPercentile(0.5);
+	}
+
+	@Override
+	public long get99thPercentileTimeNanos() {
+		return times.getPercentile(0.99);
+	}
+
+	@Override
+	public void reset() {
+		times.reset();
+		statements.set(0);
+		bytes.set(0);
+	}
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.streaming;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class BatchingGraphReaderCallback implements GraphReaderCallback {
+
+	private final BatchGraphReaderCallback callback;
+
+	private final StatementBatch batch;
+
+	private final List<String> endedDefinitions = new ArrayList<String>();
+
+	public BatchingGraphReaderCallback(BatchGraphReaderCallback callback) {
+		this(callback, StatementBatch.DEFAULT_CAPACITY);
+	}
+
+	public BatchingGraphReaderCallback(BatchGraphReaderCallback callback,
+			int capacity) {
+		this.callback = callback;
+		this.batch = new StatementBatch(capacity);
+	}
+
+	@Override
+	public void triple(String subject, String predicate, String object) {
+		if (batch.add(subject, predicate, object))
+			flush();
+	}
+
+	@Override
+	public void triple(String subject, String predicate, String literal,
+			String language, String dataType) {
+		if (batch.add(subject, predicate, literal, language, dataType))
+			flush();
+	}
+
+	@Override
+	public String generateBlankNode(String node) {
+		return callback.generateBlankNode(node);
+	}
+
+	// Graph events must see all statements that were read before them
+
+	@Override
+	public void startGraph(String graph) {
+		flush();
+		callback.startGraph(graph);
+	}
+
+	@Override
+	public void endGraph(String graph) {
+		flush();
+		callback.endGraph(graph);
+	}
+
+	@Override
+	public void startDefinition(String node) {
+		callback.startDefinition(node);
+	}
+
+	@Override
+	public void endDefinition(String node) {
+		// Delivered after the batch holding the definition's statements, so
+		// that small top-level objects do not each end a batch of their own
+		endedDefinitions.add(node);
+		if (endedDefinitions.size() == batch.capacity())
+			flush();
+	}
+
+	public void flush() {
+		if (!batch.isEmpty()) {
+			callback.triples(batch);
+			batch.clear();
+		}
+		if (!endedDefinitions.isEmpty()) {
+			for (String node : endedDefinitions)
+				callback.endDefinition(node);
+			endedDefinitions.clear();
+		}
+	}
+
+}
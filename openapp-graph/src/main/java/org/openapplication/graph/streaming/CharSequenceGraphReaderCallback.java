@@ -0,0 +1,28 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.streaming;
+
+// The character sequences are only valid for the duration of the call, as
+// readers may reuse them for the next statement
+public interface CharSequenceGraphReaderCallback extends GraphReaderCallback {
+
+	void triple(CharSequence subject, CharSequence predicate,
+			CharSequence object);
+
+	void triple(CharSequence subject, CharSequence predicate,
+			CharSequence literal, CharSequence language, CharSequence dataType);
+
+}
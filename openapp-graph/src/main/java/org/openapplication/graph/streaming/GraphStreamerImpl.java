@@ -15,9 +15,13 @@
  */
 package org.openapplication.graph.streaming;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -25,8 +29,11 @@ import java.util.Map;
 
 import org.openapplication.binder.Bindable;
 import org.openapplication.binder.Binder;
+import org.openapplication.graph.management.GraphListener;
+import org.openapplication.graph.management.GraphMetrics;
 
-public final class GraphStreamerImpl implements Bindable, GraphStreamer {
+public final class GraphStreamerImpl implements Bindable, GraphStreamer,
+		GraphChannelReader {
 
 	private final Map<String, GraphReader> readers = new LinkedHashMap<String, GraphReader>();
 
@@ -55,15 +62,160 @@ public final class GraphStreamerImpl implements Bindable, GraphStreamer {
 				writers.put(mediaType, (GraphWriterFactory) instance);
 	}
 
-	@Override
-	public void read(InputStream in, String mediaType,
-			GraphReaderCallback callback) throws IOException {
+	private GraphReader getReader(String mediaType) {
 		GraphReader reader = readers.get(mediaType);
 		if (reader == null)
 			throw new IllegalArgumentException(
 					"There is no graph reader for the specified media type: "
 							+ mediaType);
-		reader.read(in, mediaType, callback);
+		return reader;
+	}
+
+	@Override
+	public void read(InputStream in, String mediaType,
+			GraphReaderCallback callback) throws IOException {
+		read(in, mediaType, null, callback);
+	}
+
+	// The document, such as a file name or IRI, only names the input for
+	// listeners
+	public void read(InputStream in, String mediaType, String document,
+			GraphReaderCallback callback) throws IOException {
+		GraphReader reader = getReader(mediaType);
+		GraphListener listener = GraphMetrics.getListener();
+		if (listener == null) {
+			reader.read(in, mediaType, callback);
+			return;
+		}
+		long start = System.nanoTime();
+		GraphListener.Phase phase = listener.startRead(mediaType, document);
+		StatementCounter counter = new StatementCounter(callback);
+		StatementCounter.CountingInputStream counting = new StatementCounter.CountingInputStream(
+				in);
+		try {
+			reader.read(counting, mediaType, counter.proxy());
+			listener.read(mediaType, counter.statements, counting.bytes,
+					System.nanoTime() - start);
+		} finally {
+			if (phase != null)
+				phase.end(counter.statements, counting.bytes);
+		}
+	}
+
+	@Override
+	public void read(ReadableByteChannel in, String mediaType,
+			GraphReaderCallback callback) throws IOException {
+		GraphReader reader = getReader(mediaType);
+		GraphListener listener = GraphMetrics.getListener();
+		if (listener == null) {
+			read(reader, in, mediaType, callback);
+			return;
+		}
+		long start = System.nanoTime();
+		GraphListener.Phase phase = listener.startRead(mediaType, null);
+		StatementCounter counter = new StatementCounter(callback);
+		StatementCounter.CountingChannel counting = new StatementCounter.CountingChannel(
+				in);
+		try {
+			read(reader, counting, mediaType, counter.proxy());
+			listener.read(mediaType, counter.statements, counting.bytes,
+					System.nanoTime() - start);
+		} finally {
+			if (phase != null)
+				phase.end(counter.statements, counting.bytes);
+		}
+	}
+
+	private static void read(GraphReader reader, ReadableByteChannel in,
+			String mediaType, GraphReaderCallback callback) throws IOException {
+		if (reader instanceof GraphChannelReader)
+			((GraphChannelReader) reader).read(in, mediaType, callback);
+		else
+			reader.read(Channels.newInputStream(in), mediaType, callback);
+	}
+
+	@Override
+	public void read(ByteBuffer in, String mediaType,
+			GraphReaderCallback callback) throws IOException {
+		GraphReader reader = getReader(mediaType);
+		GraphListener listener = GraphMetrics.getListener();
+		if (listener == null) {
+			read(reader, in, mediaType, callback);
+			return;
+		}
+		long start = System.nanoTime();
+		GraphListener.Phase phase = listener.startRead(mediaType, null);
+		long bytes = in.remaining();
+		StatementCounter counter = new StatementCounter(callback);
+		try {
+			read(reader, in, mediaType, counter.proxy());
+			listener.read(mediaType, counter.statements, bytes,
+					System.nanoTime() - start);
+		} finally {
+			if (phase != null)
+				phase.end(counter.statements, bytes);
+		}
+	}
+
+	private static void read(GraphReader reader, ByteBuffer in,
+			String mediaType, GraphReaderCallback callback) throws IOException {
+		if (reader instanceof GraphChannelReader)
+			((GraphChannelReader) reader).read(in, mediaType, callback);
+		else
+			reader.read(new ByteBufferInputStream(in), mediaType, callback);
+	}
+
+	public void transcode(InputStream in, String inMediaType,
+			OutputStream out, String outMediaType) throws IOException {
+		transcode(in, inMediaType, out, outMediaType, 0);
+	}
+
+	// Closing the writer must not close the stream of the caller
+	private static final class UnclosedOutputStream extends
+			FilterOutputStream {
+
+		UnclosedOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.flush();
+		}
+
+	}
+
+	public void transcode(InputStream in, String inMediaType,
+			OutputStream out, String outMediaType, int reorderCapacity)
+			throws IOException {
+		// Fails before anything is written for an unknown media type
+		getReader(inMediaType);
+		GraphWriter writer = createWriter(new UnclosedOutputStream(out),
+				outMediaType);
+		TranscodingCallback callback = new TranscodingCallback(writer,
+				reorderCapacity);
+		boolean transcoded = false;
+		try {
+			read(in, inMediaType, callback);
+			callback.flush();
+			transcoded = true;
+		} catch (TranscodingCallback.WriteException e) {
+			throw e.getCause();
+		} finally {
+			if (transcoded)
+				writer.close();
+			else
+				try {
+					writer.close();
+				} catch (IOException e) {
+					// The failure of the transcoding itself is reported
+				}
+		}
 	}
 
 	@Override
@@ -74,6 +226,10 @@ public final class GraphStreamerImpl implements Bindable, GraphStreamer {
 			throw new IllegalArgumentException(
 					"There is no graph writer for the specified media type: "
 							+ mediaType);
+		GraphListener listener = GraphMetrics.getListener();
+		if (listener != null)
+			return new MeasuredGraphWriter(writerFactory, out, mediaType,
+					listener);
 		return writerFactory.createWriter(out, mediaType);
 	}
 
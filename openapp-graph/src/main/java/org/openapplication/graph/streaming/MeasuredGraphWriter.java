@@ -0,0 +1,167 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.streaming;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.openapplication.graph.management.GraphListener;
+
+final class MeasuredGraphWriter implements GraphWriter {
+
+	static final class CountingOutputStream extends FilterOutputStream {
+
+		long bytes;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			bytes++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			bytes += len;
+		}
+
+	}
+
+	private final GraphWriter writer;
+
+	private final CountingOutputStream out;
+
+	private final String mediaType;
+
+	private final GraphListener listener;
+
+	private final long start = System.nanoTime();
+
+	private final GraphListener.Phase phase;
+
+	private long statements;
+
+	MeasuredGraphWriter(GraphWriterFactory factory, OutputStream out,
+			String mediaType, GraphListener listener) throws IOException {
+		phase = listener.startWrite(mediaType);
+		this.out = new CountingOutputStream(out);
+		this.writer = factory.createWriter(this.out, mediaType);
+		this.mediaType = mediaType;
+		this.listener = listener;
+	}
+
+	@Override
+	public void writeStatement(String graph, String subject, String predicate,
+			String object, String literal, String language, String dataType)
+			throws IOException {
+		statements++;
+		writer.writeStatement(graph, subject, predicate, object, literal,
+				language, dataType);
+	}
+
+	@Override
+	public void writeLiteral(String literal, String language, String dataType)
+			throws IOException {
+		statements++;
+		writer.writeLiteral(literal, language, dataType);
+	}
+
+	@Override
+	public void writeIRI(String object) throws IOException {
+		statements++;
+		writer.writeIRI(object);
+	}
+
+	// A writer is measured from its creation until it is closed
+	@Override
+	public void close() throws IOException {
+		try {
+			writer.close();
+			listener.write(mediaType, statements, out.bytes,
+					System.nanoTime() - start);
+		} finally {
+			if (phase != null)
+				phase.end(statements, out.bytes);
+		}
+	}
+
+	@Override
+	public void collapse() throws IOException {
+		writer.collapse();
+	}
+
+	@Override
+	public void collapse(boolean closeGraph) throws IOException {
+		writer.collapse(closeGraph);
+	}
+
+	@Override
+	public void trim(int maxStripes) throws IOException {
+		writer.trim(maxStripes);
+	}
+
+	@Override
+	public int getMaxStripes() {
+		return writer.getMaxStripes();
+	}
+
+	@Override
+	public void setMaxStripes(int count) {
+		writer.setMaxStripes(count);
+	}
+
+	@Override
+	public void writeStartStatement(String subject, String predicate)
+			throws IOException {
+		writer.writeStartStatement(subject, predicate);
+	}
+
+	@Override
+	public void writeEndStatement() throws IOException {
+		writer.writeEndStatement();
+	}
+
+	@Override
+	public void writeStartDefinition(String subject) throws IOException {
+		writer.writeStartDefinition(subject);
+	}
+
+	@Override
+	public void writeEndDefinition() throws IOException {
+		writer.writeEndDefinition();
+	}
+
+	@Override
+	public void writeStartPredicate(String predicate) throws IOException {
+		writer.writeStartPredicate(predicate);
+	}
+
+	@Override
+	public void writeEndPredicate() throws IOException {
+		writer.writeEndPredicate();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.streaming;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Bounded multi-producer, multi-consumer queue where each slot carries a
+// sequence number telling producers and consumers whose turn it is
+public final class RingBuffer<T> {
+
+	private final AtomicReferenceArray<T> elements;
+
+	private final AtomicLongArray sequences;
+
+	private final int mask;
+
+	private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+
+	public RingBuffer(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException();
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		elements = new AtomicReferenceArray<T>(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++)
+			sequences.set(i, i);
+		mask = size - 1;
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+
+	public boolean offer(T element) {
+		if (element == null)
+			throw new NullPointerException();
+		long position = tail.get();
+		for (;;) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					elements.set(index, element);
+					sequences.set(index, position + 1);
+					return true;
+				}
+			} else if (difference < 0)
+				return false; // Full
+			position = tail.get();
+		}
+	}
+
+	public T poll() {
+		long position = head.get();
+		for (;;) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - (position + 1);
+			if (difference == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					T element = elements.get(index);
+					elements.set(index, null);
+					sequences.set(index, position + mask + 1);
+					return element;
+				}
+			} else if (difference < 0)
+				return null; // Empty
+			position = head.get();
+		}
+	}
+
+	public void put(T element) throws InterruptedException {
+		for (int attempt = 0; !offer(element); attempt++)
+			backOff(attempt);
+	}
+
+	public T take() throws InterruptedException {
+		T element;
+		for (int attempt = 0; (element = poll()) == null; attempt++)
+			backOff(attempt);
+		return element;
+	}
+
+	private static void backOff(int attempt) throws InterruptedException {
+		if (Thread.interrupted())
+			throw new InterruptedException();
+		if (attempt < 64)
+			return; // Spin
+		else if (attempt < 128)
+			Thread.yield();
+		else
+			LockSupport.parkNanos(50000L);
+	}
+
+}
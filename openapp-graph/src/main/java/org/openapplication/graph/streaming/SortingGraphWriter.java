@@ -0,0 +1,381 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.streaming;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+
+public final class SortingGraphWriter implements GraphWriter {
+
+	public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+	// Runs merged at a time, each with an open file and a read buffer
+	private static final int FAN_IN = 16;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int GRAPH = 0, SUBJECT = 1, PREDICATE = 2,
+			OBJECT = 3, LITERAL = 4, LANGUAGE = 5, DATA_TYPE = 6;
+
+	private static final Comparator<String[]> ORDER = new Comparator<String[]>() {
+		@Override
+		public int compare(String[] a, String[] b) {
+			int result = compare(a[GRAPH], b[GRAPH]);
+			if (result == 0)
+				result = a[SUBJECT].compareTo(b[SUBJECT]);
+			if (result == 0)
+				result = a[PREDICATE].compareTo(b[PREDICATE]);
+			return result;
+		}
+
+		private int compare(String a, String b) {
+			if (a == null)
+				return b == null ? 0 : -1;
+			return b == null ? 1 : a.compareTo(b);
+		}
+	};
+
+	private final GraphWriter writer;
+
+	private final long memoryBudget;
+
+	private final File directory;
+
+	private final List<String[]> statements = new ArrayList<String[]>();
+
+	private long memoryUsed;
+
+	private final List<Run> runs = new ArrayList<Run>();
+
+	private String currentSubject, currentPredicate;
+
+	private final Deque<String[]> definitions = new ArrayDeque<String[]>();
+
+	private int nextDefinition;
+
+	public SortingGraphWriter(GraphWriter writer) {
+		this(writer, DEFAULT_MEMORY_BUDGET, null);
+	}
+
+	public SortingGraphWriter(GraphWriter writer, long memoryBudget,
+			File directory) {
+		if (memoryBudget <= 0)
+			throw new IllegalArgumentException();
+		this.writer = writer;
+		this.memoryBudget = memoryBudget;
+		this.directory = directory;
+	}
+
+	private static final class Run implements Closeable {
+
+		final File file;
+
+		final int count;
+
+		int index;
+
+		DataInputStream in;
+
+		int remaining;
+
+		String[] head;
+
+		Run(File file, int count) {
+			this.file = file;
+			this.count = count;
+		}
+
+		boolean open() throws IOException {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file), 1 << 16));
+			remaining = count;
+			return next();
+		}
+
+		boolean next() throws IOException {
+			if (remaining == 0) {
+				head = null;
+				return false;
+			}
+			remaining--;
+			head = new String[7];
+			for (int i = 0; i < head.length; i++) {
+				int length = in.readInt();
+				if (length >= 0) {
+					byte[] bytes = new byte[length];
+					in.readFully(bytes);
+					head[i] = new String(bytes, UTF_8);
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (in != null)
+				in.close();
+			file.delete();
+		}
+
+	}
+
+	private static long sizeOf(String string) {
+		return string == null ? 0 : 40 + 2L * string.length();
+	}
+
+	@Override
+	public void writeStatement(String graph, String subject, String predicate,
+			String object, String literal, String language, String dataType)
+			throws IOException {
+		if (subject == null || predicate == null)
+			throw new IllegalArgumentException(
+					"Statement without subject or predicate");
+		statements.add(new String[] { graph, subject, predicate, object,
+				literal, language, dataType });
+		memoryUsed += 48 + sizeOf(graph) + sizeOf(subject)
+				+ sizeOf(predicate) + sizeOf(object) + sizeOf(literal)
+				+ sizeOf(language) + sizeOf(dataType);
+		if (memoryUsed >= memoryBudget)
+			spill();
+	}
+
+	private void spill() throws IOException {
+		Collections.sort(statements, ORDER);
+		Run run = new Run(File.createTempFile("graph-sort", ".run",
+				directory), statements.size());
+		runs.add(run);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(run.file), 1 << 16));
+		try {
+			for (String[] statement : statements)
+				write(out, statement);
+		} finally {
+			out.close();
+		}
+		statements.clear();
+		memoryUsed = 0;
+	}
+
+	private static void write(DataOutputStream out, String[] statement)
+			throws IOException {
+		for (String string : statement)
+			if (string == null)
+				out.writeInt(-1);
+			else {
+				byte[] bytes = string.getBytes(UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+	}
+
+	private void write(String[] statement) throws IOException {
+		writer.writeStatement(statement[GRAPH], statement[SUBJECT],
+				statement[PREDICATE], statement[OBJECT], statement[LITERAL],
+				statement[LANGUAGE], statement[DATA_TYPE]);
+	}
+
+	private void merge() throws IOException {
+		if (runs.isEmpty()) {
+			Collections.sort(statements, ORDER);
+			for (String[] statement : statements)
+				write(statement);
+			statements.clear();
+			return;
+		}
+		if (!statements.isEmpty())
+			spill();
+		// Each pass merges groups of consecutive runs into one, which keeps
+		// ties in their original order
+		List<Run> level = new ArrayList<Run>(runs);
+		while (level.size() > FAN_IN) {
+			List<Run> next = new ArrayList<Run>();
+			for (int i = 0; i < level.size(); i += FAN_IN) {
+				List<Run> group = level.subList(i,
+						Math.min(level.size(), i + FAN_IN));
+				if (group.size() == 1) {
+					next.add(group.get(0));
+					continue;
+				}
+				int count = 0;
+				for (Run run : group)
+					count += run.count;
+				Run merged = new Run(File.createTempFile("graph-sort",
+						".run", directory), count);
+				runs.add(merged);
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(
+								merged.file), 1 << 16));
+				try {
+					merge(group, out);
+				} finally {
+					out.close();
+				}
+				for (Run run : group)
+					run.close();
+				next.add(merged);
+			}
+			level = next;
+		}
+		merge(level, null);
+	}
+
+	private void merge(List<Run> group, DataOutputStream out)
+			throws IOException {
+		for (int i = 0; i < group.size(); i++)
+			group.get(i).index = i;
+		// Ties go to the earlier run, so the merge is stable like the sort
+		PriorityQueue<Run> queue = new PriorityQueue<Run>(group.size(),
+				new Comparator<Run>() {
+					@Override
+					public int compare(Run a, Run b) {
+						int result = ORDER.compare(a.head, b.head);
+						return result != 0 ? result : a.index - b.index;
+					}
+				});
+		for (Run run : group)
+			if (run.open())
+				queue.add(run);
+		while (!queue.isEmpty()) {
+			Run run = queue.poll();
+			if (out != null)
+				write(out, run.head);
+			else
+				write(run.head);
+			if (run.next())
+				queue.add(run);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		boolean merged = false;
+		try {
+			merge();
+			merged = true;
+			writer.close();
+		} finally {
+			if (!merged)
+				try {
+					writer.close();
+				} catch (IOException e) {
+					// The failure of the merge is reported
+				}
+			for (Run run : runs)
+				run.close();
+			runs.clear();
+		}
+	}
+
+	// Nothing can be written before all statements have been seen, so
+	// collapsing, trimming and flushing only take effect once closed
+
+	@Override
+	public void collapse() throws IOException {
+	}
+
+	@Override
+	public void collapse(boolean closeGraph) throws IOException {
+	}
+
+	@Override
+	public void trim(int maxStripes) throws IOException {
+	}
+
+	@Override
+	public int getMaxStripes() {
+		return writer.getMaxStripes();
+	}
+
+	@Override
+	public void setMaxStripes(int count) {
+		writer.setMaxStripes(count);
+	}
+
+	@Override
+	public void flush() throws IOException {
+	}
+
+	@Override
+	public void writeStartStatement(String subject, String predicate)
+			throws IOException {
+		currentSubject = subject;
+		currentPredicate = predicate;
+	}
+
+	@Override
+	public void writeEndStatement() throws IOException {
+		currentSubject = null;
+		currentPredicate = null;
+	}
+
+	@Override
+	public void writeStartDefinition(String subject) throws IOException {
+		if (subject == null)
+			subject = "_:d" + nextDefinition++;
+		// A definition at the top level is not the object of a statement
+		if (currentSubject != null && currentPredicate != null)
+			writeIRI(subject);
+		definitions.push(new String[] { currentSubject, currentPredicate });
+		currentSubject = subject;
+		currentPredicate = null;
+	}
+
+	@Override
+	public void writeEndDefinition() throws IOException {
+		String[] definition = definitions.pop();
+		currentSubject = definition[0];
+		currentPredicate = definition[1];
+	}
+
+	@Override
+	public void writeStartPredicate(String predicate) throws IOException {
+		currentPredicate = predicate;
+	}
+
+	@Override
+	public void writeEndPredicate() throws IOException {
+		currentPredicate = null;
+	}
+
+	@Override
+	public void writeLiteral(String literal, String language, String dataType)
+			throws IOException {
+		writeStatement(null, currentSubject, currentPredicate, null, literal,
+				language, dataType);
+	}
+
+	@Override
+	public void writeIRI(String object) throws IOException {
+		writeStatement(null, currentSubject, currentPredicate, object, null,
+				null, null);
+	}
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.streaming;
+
+public final class StatementBatch {
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final String[] subjects, predicates, objects, literals,
+			languages, dataTypes;
+
+	// Rows added as encoded ids have no subject string
+	private final long[] subjectIds, predicateIds, objectIds;
+
+	private int size;
+
+	public StatementBatch() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public StatementBatch(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException();
+		subjects = new String[capacity];
+		predicates = new String[capacity];
+		objects = new String[capacity];
+		literals = new String[capacity];
+		languages = new String[capacity];
+		dataTypes = new String[capacity];
+		subjectIds = new long[capacity];
+		predicateIds = new long[capacity];
+		objectIds = new long[capacity];
+	}
+
+	public boolean add(String subject, String predicate, String object) {
+		return add(subject, predicate, object, null, null, null);
+	}
+
+	public boolean add(String subject, String predicate, String literal,
+			String language, String dataType) {
+		return add(subject, predicate, null, literal, language, dataType);
+	}
+
+	private boolean add(String subject, String predicate, String object,
+			String literal, String language, String dataType) {
+		if (size == subjects.length)
+			throw new IllegalStateException("Statement batch is full");
+		subjects[size] = subject;
+		predicates[size] = predicate;
+		objects[size] = object;
+		literals[size] = literal;
+		languages[size] = language;
+		dataTypes[size] = dataType;
+		return ++size == subjects.length;
+	}
+
+	public boolean add(long subject, long predicate, long object) {
+		if (size == subjects.length)
+			throw new IllegalStateException("Statement batch is full");
+		subjects[size] = null;
+		subjectIds[size] = subject;
+		predicateIds[size] = predicate;
+		objectIds[size] = object;
+		return ++size == subjects.length;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return subjects.length;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean isFull() {
+		return size == subjects.length;
+	}
+
+	public boolean isEncoded(int index) {
+		return subjects[index] == null;
+	}
+
+	public String[] getSubjects() {
+		return subjects;
+	}
+
+	public String[] getPredicates() {
+		return predicates;
+	}
+
+	public String[] getObjects() {
+		return objects;
+	}
+
+	public String[] getLiterals() {
+		return literals;
+	}
+
+	public String[] getLanguages() {
+		return languages;
+	}
+
+	public String[] getDataTypes() {
+		return dataTypes;
+	}
+
+	public long[] getSubjectIds() {
+		return subjectIds;
+	}
+
+	public long[] getPredicateIds() {
+		return predicateIds;
+	}
+
+	public long[] getObjectIds() {
+		return objectIds;
+	}
+
+	public void clear() {
+		// Drop references so that the strings can be collected
+		for (int i = 0; i < size; i++) {
+			subjects[i] = predicates[i] = objects[i] = null;
+			literals[i] = languages[i] = dataTypes[i] = null;
+		}
+		size = 0;
+	}
+
+	public void replay(GraphReaderCallback callback) {
+		for (int i = 0; i < size; i++)
+			if (subjects[i] == null)
+				((EncodedGraphReaderCallback) callback).triple(subjectIds[i],
+						predicateIds[i], objectIds[i]);
+			else if (objects[i] != null)
+				callback.triple(subjects[i], predicates[i], objects[i]);
+			else
+				callback.triple(subjects[i], predicates[i], literals[i],
+						languages[i], dataTypes[i]);
+	}
+
+}
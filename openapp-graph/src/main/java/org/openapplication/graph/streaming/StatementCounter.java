@@ -0,0 +1,141 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.streaming;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+final class StatementCounter implements InvocationHandler {
+
+	private final GraphReaderCallback callback;
+
+	long statements;
+
+	StatementCounter(GraphReaderCallback callback) {
+		this.callback = callback;
+	}
+
+	// The proxy implements every interface of the callback, so readers still
+	// find the encoded, CharSequence and batch variants they look for
+	GraphReaderCallback proxy() {
+		Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+		for (Class<?> type = callback.getClass(); type != null; type = type
+				.getSuperclass())
+			addInterfaces(type, interfaces);
+		return (GraphReaderCallback) Proxy.newProxyInstance(
+				GraphReaderCallback.class.getClassLoader(),
+				interfaces.toArray(new Class<?>[interfaces.size()]), this);
+	}
+
+	private static void addInterfaces(Class<?> type, Set<Class<?>> interfaces) {
+		for (Class<?> i : type.getInterfaces())
+			if (interfaces.add(i))
+				addInterfaces(i, interfaces);
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable {
+		String name = method.getName();
+		if (name.equals("triple"))
+			statements++;
+		else if (name.equals("triples"))
+			statements += ((StatementBatch) args[0]).size();
+		try {
+			return method.invoke(callback, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	static final class CountingInputStream extends FilterInputStream {
+
+		long bytes;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b >= 0)
+				bytes++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = in.read(b, off, len);
+			if (count > 0)
+				bytes += count;
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long count = in.skip(n);
+			bytes += count;
+			return count;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+	}
+
+	static final class CountingChannel implements ReadableByteChannel {
+
+		private final ReadableByteChannel channel;
+
+		long bytes;
+
+		CountingChannel(ReadableByteChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			int count = channel.read(dst);
+			if (count > 0)
+				bytes += count;
+			return count;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.streaming;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+final class TranscodingCallback implements GraphReaderCallback {
+
+	static final class WriteException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		WriteException(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+
+	}
+
+	private static final Comparator<String[]> BY_PREDICATE = new Comparator<String[]>() {
+		@Override
+		public int compare(String[] a, String[] b) {
+			return a[0].compareTo(b[0]);
+		}
+	};
+
+	private static final class Group {
+
+		final String graph, subject;
+
+		final List<String[]> statements = new ArrayList<String[]>();
+
+		Group(String graph, String subject) {
+			this.graph = graph;
+			this.subject = subject;
+		}
+
+	}
+
+	private final GraphWriter writer;
+
+	private final int reorderCapacity;
+
+	// Subject groups in order of first appearance, so that evicting the
+	// eldest group keeps the output close to the input order
+	private final Map<String, Group> groups = new LinkedHashMap<String, Group>();
+
+	private int buffered;
+
+	private final Deque<String> graphs = new ArrayDeque<String>();
+
+	private long nextBlankNode;
+
+	TranscodingCallback(GraphWriter writer, int reorderCapacity) {
+		if (reorderCapacity < 0)
+			throw new IllegalArgumentException();
+		this.writer = writer;
+		this.reorderCapacity = reorderCapacity;
+	}
+
+	private void statement(String subject, String predicate, String object,
+			String literal, String language, String dataType) {
+		String graph = graphs.peek();
+		if (reorderCapacity == 0) {
+			try {
+				writer.writeStatement(graph, subject, predicate, object,
+						literal, language, dataType);
+			} catch (IOException e) {
+				throw new WriteException(e);
+			}
+			return;
+		}
+		Group group = groups.get(subject);
+		if (group != null && !equals(group.graph, graph)) {
+			write(groups.remove(subject));
+			group = null;
+		}
+		if (group == null)
+			groups.put(subject, group = new Group(graph, subject));
+		group.statements.add(new String[] { predicate, object, literal,
+				language, dataType });
+		if (++buffered > reorderCapacity) {
+			Iterator<Group> eldest = groups.values().iterator();
+			Group evicted = eldest.next();
+			eldest.remove();
+			write(evicted);
+		}
+	}
+
+	private static boolean equals(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private void write(Group group) {
+		// Stable, so objects keep their order within each predicate
+		Collections.sort(group.statements, BY_PREDICATE);
+		try {
+			for (String[] statement : group.statements)
+				writer.writeStatement(group.graph, group.subject,
+						statement[0], statement[1], statement[2],
+						statement[3], statement[4]);
+		} catch (IOException e) {
+			throw new WriteException(e);
+		}
+		buffered -= group.statements.size();
+	}
+
+	void flush() {
+		for (Group group : groups.values())
+			write(group);
+		groups.clear();
+	}
+
+	@Override
+	public void triple(String subject, String predicate, String object) {
+		statement(subject, predicate, object, null, null, null);
+	}
+
+	@Override
+	public void triple(String subject, String predicate, String literal,
+			String language, String dataType) {
+		statement(subject, predicate, null, literal, language, dataType);
+	}
+
+	@Override
+	public String generateBlankNode(String node) {
+		return "_:b" + nextBlankNode++;
+	}
+
+	@Override
+	public void startGraph(String graph) {
+		graphs.push(graph);
+	}
+
+	@Override
+	public void endGraph(String graph) {
+		graphs.pop();
+	}
+
+	@Override
+	public void startDefinition(String node) {
+	}
+
+	@Override
+	public void endDefinition(String node) {
+	}
+
+}
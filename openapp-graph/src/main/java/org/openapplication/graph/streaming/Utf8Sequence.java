@@ -0,0 +1,101 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.streaming;
+
+import java.nio.charset.Charset;
+
+public final class Utf8Sequence implements CharSequence {
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private byte[] bytes;
+
+	private int offset, byteLength;
+
+	// Decoded characters, only used when the bytes are not all ASCII
+	private char[] chars = new char[0];
+
+	private int length;
+
+	private boolean ascii;
+
+	public Utf8Sequence set(byte[] bytes, int offset, int length) {
+		this.bytes = bytes;
+		this.offset = offset;
+		this.byteLength = length;
+		ascii = true;
+		for (int i = offset, end = offset + length; i < end; i++)
+			if (bytes[i] < 0) {
+				ascii = false;
+				break;
+			}
+		if (ascii)
+			this.length = length;
+		else
+			decode();
+		return this;
+	}
+
+	private void decode() {
+		if (chars.length < byteLength)
+			chars = new char[Math.max(byteLength, chars.length * 2)];
+		int n = 0;
+		for (int i = offset, end = offset + byteLength; i < end;) {
+			int b = bytes[i++] & 0xFF;
+			int cc;
+			if (b < 0x80)
+				cc = b;
+			else if (b < 0xE0)
+				cc = ((b & 0x1F) << 6) | (bytes[i++] & 0x3F);
+			else if (b < 0xF0) {
+				cc = ((b & 0x0F) << 12) | ((bytes[i++] & 0x3F) << 6)
+						| (bytes[i++] & 0x3F);
+			} else {
+				cc = ((b & 0x07) << 18) | ((bytes[i++] & 0x3F) << 12)
+						| ((bytes[i++] & 0x3F) << 6) | (bytes[i++] & 0x3F);
+				// Supplementary characters are stored as surrogate pairs
+				chars[n++] = Character.highSurrogate(cc);
+				cc = Character.lowSurrogate(cc);
+			}
+			chars[n++] = (char) cc;
+		}
+		length = n;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException();
+		return ascii ? (char) bytes[offset + index] : chars[index];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().subSequence(start, end);
+	}
+
+	@Override
+	public String toString() {
+		return ascii ? new String(bytes, offset, byteLength, CHARSET)
+				: new String(chars, 0, length);
+	}
+
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.management.test;
+
+import static org.junit.Assert.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import org.junit.Test;
+import org.openapplication.graph.management.GraphListener;
+import org.openapplication.graph.management.GraphMetrics;
+import org.openapplication.graph.management.GraphOperation;
+import org.openapplication.graph.management.MeasuredIterable;
+
+public class MeasuredIterableTest {
+
+	private final List<String> operations = new ArrayList<String>();
+
+	private final GraphListener listener = new GraphListener() {
+		@Override
+		public void operation(GraphOperation operation, long results,
+				long nanos) {
+			assertTrue(nanos >= 0);
+			operations.add(operation.name() + " " + results);
+		}
+
+		@Override
+		public void read(String mediaType, long statements, long bytes,
+				long nanos) {
+		}
+
+		@Override
+		public void write(String mediaType, long statements, long bytes,
+				long nanos) {
+		}
+
+		@Override
+		public void context(long terms, long nanos) {
+		}
+	};
+
+	private Iterator<String> iterator(Iterable<String> iterable) {
+		return new MeasuredIterable<String>(iterable, GraphOperation.FIND,
+				listener).iterator();
+	}
+
+	@Test
+	public void testExhausted() {
+		Iterator<String> iterator = iterator(Arrays.asList("a", "b", "c"));
+		while (iterator.hasNext())
+			iterator.next();
+		assertFalse(iterator.hasNext());
+		assertEquals(Arrays.asList("FIND 3"), operations);
+	}
+
+	@Test
+	public void testClosed() throws IOException {
+		Iterator<String> iterator = iterator(Arrays.asList("a", "b", "c"));
+		iterator.next();
+		assertTrue(operations.isEmpty());
+		((Closeable) iterator).close();
+		((Closeable) iterator).close();
+		assertEquals(Arrays.asList("FIND 1"), operations);
+	}
+
+	@Test
+	public void testCancelled() {
+		Iterator<String> iterator = iterator(new Iterable<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+					private int next;
+
+					@Override
+					public boolean hasNext() {
+						if (next == 2)
+							throw new CancellationException();
+						return true;
+					}
+
+					@Override
+					public String next() {
+						return String.valueOf(next++);
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		});
+		try {
+			while (iterator.hasNext())
+				iterator.next();
+			fail();
+		} catch (CancellationException e) {
+		}
+		assertEquals(Arrays.asList("FIND 2"), operations);
+	}
+
+	private GraphListener phases(final String name) {
+		return new GraphListener() {
+			@Override
+			public void operation(GraphOperation operation, long results,
+					long nanos) {
+			}
+
+			@Override
+			public void read(String mediaType, long statements, long bytes,
+					long nanos) {
+			}
+
+			@Override
+			public void write(String mediaType, long statements, long bytes,
+					long nanos) {
+			}
+
+			@Override
+			public void context(long terms, long nanos) {
+			}
+
+			@Override
+			public Phase startOperation(final GraphOperation operation,
+					final Object detail) {
+				operations.add(name + " start " + operation.name() + " "
+						+ detail);
+				return new Phase() {
+					@Override
+					public void end(long count, long bytes) {
+						operations.add(name + " end " + count);
+					}
+				};
+			}
+		};
+	}
+
+	@Test
+	public void testPhases() {
+		GraphListener a = phases("a"), b = phases("b");
+		GraphMetrics.addListener(a);
+		GraphMetrics.addListener(b);
+		try {
+			Iterator<String> iterator = new MeasuredIterable<String>(
+					Arrays.asList("x", "y"), GraphOperation.QUERY,
+					"SELECT", GraphMetrics.getListener()).iterator();
+			while (iterator.hasNext())
+				iterator.next();
+		} finally {
+			GraphMetrics.removeListener(a);
+			GraphMetrics.removeListener(b);
+		}
+		assertEquals(Arrays.asList("a start QUERY SELECT",
+				"b start QUERY SELECT", "a end 2", "b end 2"), operations);
+	}
+
+}
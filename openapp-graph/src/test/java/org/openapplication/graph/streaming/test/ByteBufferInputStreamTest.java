@@ -0,0 +1,60 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.streaming.test;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.openapplication.graph.streaming.ByteBufferInputStream;
+
+public class ByteBufferInputStreamTest {
+
+	@Test
+	public void testRead() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(5);
+		buffer.put(new byte[] { 1, 2, (byte) 0xFF, 4, 5 });
+		buffer.flip();
+		ByteBufferInputStream in = new ByteBufferInputStream(buffer);
+		assertEquals(5, in.available());
+		assertEquals(1, in.read());
+		byte[] bytes = new byte[8];
+		assertEquals(2, in.read(bytes, 1, 2));
+		assertEquals(2, bytes[1]);
+		assertEquals(0xFF, bytes[2] & 0xFF);
+		assertEquals(1, in.skip(1));
+		assertEquals(5, in.read());
+		assertEquals(-1, in.read());
+		assertEquals(-1, in.read(bytes, 0, 8));
+		assertEquals(0, in.read(bytes, 0, 0));
+	}
+
+	@Test
+	public void testMarkAndReset() {
+		ByteBufferInputStream in = new ByteBufferInputStream(
+				ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+		assertTrue(in.markSupported());
+		in.read();
+		in.mark(10);
+		assertEquals(2, in.read());
+		assertEquals(3, in.read());
+		in.reset();
+		assertEquals(2, in.read());
+		assertEquals(0, in.skip(-1));
+	}
+
+}
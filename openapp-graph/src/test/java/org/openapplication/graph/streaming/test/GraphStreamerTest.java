@@ -0,0 +1,291 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.streaming.test;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.openapplication.binder.Binder;
+import org.openapplication.graph.management.GraphListener;
+import org.openapplication.graph.management.GraphMetrics;
+import org.openapplication.graph.management.GraphOperation;
+import org.openapplication.graph.streaming.GraphReader;
+import org.openapplication.graph.streaming.GraphReaderCallback;
+import org.openapplication.graph.streaming.GraphStreamerImpl;
+import org.openapplication.graph.streaming.GraphWriter;
+import org.openapplication.graph.streaming.GraphWriterFactory;
+
+public class GraphStreamerTest {
+
+	private static final String TEXT = "text/plain";
+
+	// One statement per line; a line "!" is malformed
+	private static final class LineReader implements GraphReader {
+
+		@Override
+		public void read(InputStream in, String mediaType,
+				GraphReaderCallback callback) throws IOException {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					in, "UTF-8"));
+			for (String line; (line = reader.readLine()) != null;) {
+				if (line.equals("!"))
+					throw new IOException("Malformed line");
+				String[] terms = line.split(" ");
+				callback.triple(terms[0], terms[1], terms[2]);
+			}
+		}
+
+		@Override
+		public Collection<String> getReadMediaTypes() {
+			return Collections.singleton(TEXT);
+		}
+
+	}
+
+	private static final class LineWriter implements GraphWriter {
+
+		private final Writer out;
+
+		boolean closed;
+
+		LineWriter(OutputStream out) throws IOException {
+			this.out = new OutputStreamWriter(out, "UTF-8");
+		}
+
+		@Override
+		public void writeStatement(String graph, String subject,
+				String predicate, String object, String literal,
+				String language, String dataType) throws IOException {
+			out.write(subject + " " + predicate + " " + object + "\n");
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			out.close();
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void collapse() {
+		}
+
+		@Override
+		public void collapse(boolean closeGraph) {
+		}
+
+		@Override
+		public void trim(int maxStripes) {
+		}
+
+		@Override
+		public int getMaxStripes() {
+			return 0;
+		}
+
+		@Override
+		public void setMaxStripes(int count) {
+		}
+
+		@Override
+		public void writeStartStatement(String subject, String predicate) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeEndStatement() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeStartDefinition(String subject) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeEndDefinition() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeStartPredicate(String predicate) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeEndPredicate() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeLiteral(String literal, String language,
+				String dataType) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeIRI(String object) {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+	private static final class LineWriterFactory implements
+			GraphWriterFactory {
+
+		final List<LineWriter> writers = new ArrayList<LineWriter>();
+
+		@Override
+		public GraphWriter createWriter(OutputStream out, String mediaType)
+				throws IOException {
+			LineWriter writer = new LineWriter(out);
+			writers.add(writer);
+			return writer;
+		}
+
+		@Override
+		public Collection<String> getWriteMediaTypes() {
+			return Collections.singleton(TEXT);
+		}
+
+	}
+
+	private static final class Output extends ByteArrayOutputStream {
+
+		boolean closed;
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+	}
+
+	private final LineWriterFactory writers = new LineWriterFactory();
+
+	private GraphStreamerImpl streamer() {
+		final List<Object> readers = Arrays.<Object> asList(new LineReader());
+		final List<Object> writers = Arrays.<Object> asList(this.writers);
+		GraphStreamerImpl streamer = new GraphStreamerImpl();
+		streamer.bind((Binder) Proxy.newProxyInstance(
+				Binder.class.getClassLoader(), new Class<?>[] { Binder.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if (method.getName().equals("getInstances"))
+							return ((String) args[1]).endsWith("GraphReader") ? readers
+									: writers;
+						throw new UnsupportedOperationException();
+					}
+				}));
+		return streamer;
+	}
+
+	private static InputStream input(String text) throws IOException {
+		return new ByteArrayInputStream(text.getBytes("UTF-8"));
+	}
+
+	@Test
+	public void testTranscode() throws IOException {
+		Output out = new Output();
+		streamer().transcode(input("a p 1\nb p 2\na q 3\n"), TEXT, out, TEXT,
+				0);
+		assertEquals("a p 1\nb p 2\na q 3\n", out.toString("UTF-8"));
+		assertTrue(writers.writers.get(0).closed);
+		assertFalse(out.closed);
+	}
+
+	@Test
+	public void testTranscodeReordered() throws IOException {
+		Output out = new Output();
+		streamer().transcode(input("a q 1\nb p 2\na p 3\n"), TEXT, out, TEXT,
+				8);
+		assertEquals("a p 3\na q 1\nb p 2\n", out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testTranscodeFailure() throws IOException {
+		Output out = new Output();
+		try {
+			streamer().transcode(input("a p 1\n!\n"), TEXT, out, TEXT, 0);
+			fail();
+		} catch (IOException e) {
+			assertEquals("Malformed line", e.getMessage());
+		}
+		assertTrue(writers.writers.get(0).closed);
+		assertFalse(out.closed);
+		assertEquals("a p 1\n", out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testTranscodeMeasured() throws IOException {
+		final List<String> events = new ArrayList<String>();
+		GraphListener listener = new GraphListener() {
+			@Override
+			public void operation(GraphOperation operation, long results,
+					long nanos) {
+			}
+
+			@Override
+			public void read(String mediaType, long statements, long bytes,
+					long nanos) {
+				events.add("read " + statements + " " + bytes);
+			}
+
+			@Override
+			public void write(String mediaType, long statements, long bytes,
+					long nanos) {
+				events.add("write " + statements + " " + bytes);
+			}
+
+			@Override
+			public void context(long terms, long nanos) {
+			}
+		};
+		GraphMetrics.addListener(listener);
+		try {
+			streamer().transcode(input("a p 1\nb p 2\n"), TEXT, new Output(),
+					TEXT, 0);
+		} finally {
+			GraphMetrics.removeListener(listener);
+		}
+		assertEquals(Arrays.asList("read 2 12", "write 2 12"), events);
+	}
+
+}
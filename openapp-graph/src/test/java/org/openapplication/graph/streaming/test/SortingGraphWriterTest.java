@@ -0,0 +1,224 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.streaming.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openapplication.graph.streaming.GraphWriter;
+import org.openapplication.graph.streaming.SortingGraphWriter;
+
+public class SortingGraphWriterTest {
+
+	private static final class ListWriter implements GraphWriter {
+
+		final List<String> statements = new ArrayList<String>();
+
+		int failAfter = Integer.MAX_VALUE;
+
+		boolean closed;
+
+		@Override
+		public void writeStatement(String graph, String subject,
+				String predicate, String object, String literal,
+				String language, String dataType) throws IOException {
+			if (statements.size() == failAfter)
+				throw new IOException("Disk full");
+			statements.add(subject + " " + predicate + " "
+					+ (object != null ? object : "\"" + literal + "\""));
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void collapse() {
+		}
+
+		@Override
+		public void collapse(boolean closeGraph) {
+		}
+
+		@Override
+		public void trim(int maxStripes) {
+		}
+
+		@Override
+		public int getMaxStripes() {
+			return 0;
+		}
+
+		@Override
+		public void setMaxStripes(int count) {
+		}
+
+		@Override
+		public void writeStartStatement(String subject, String predicate) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeEndStatement() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeStartDefinition(String subject) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeEndDefinition() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeStartPredicate(String predicate) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeEndPredicate() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeLiteral(String literal, String language,
+				String dataType) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeIRI(String object) {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+	private final ListWriter out = new ListWriter();
+
+	private File directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = File.createTempFile("sort", "");
+		directory.delete();
+		directory.mkdir();
+	}
+
+	@After
+	public void deleteDirectory() {
+		directory.delete();
+	}
+
+	// Statements in shuffled subject order; objects number the statements
+	// of each subject and predicate in input order
+	private static List<String> write(GraphWriter writer, int subjects)
+			throws IOException {
+		List<String> expected = new ArrayList<String>();
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < subjects; i++)
+			order.add(i);
+		Collections.shuffle(order, new Random(1));
+		int[] counts = new int[subjects];
+		for (int round = 0; round < 3; round++)
+			for (int subject : order) {
+				String s = String.format("s%04d", subject);
+				writer.writeStatement(null, s, "p", "o" + counts[subject]++,
+						null, null, null);
+			}
+		for (int subject = 0; subject < subjects; subject++)
+			for (int i = 0; i < 3; i++)
+				expected.add(String.format("s%04d", subject) + " p o" + i);
+		return expected;
+	}
+
+	@Test
+	public void testInMemory() throws IOException {
+		SortingGraphWriter writer = new SortingGraphWriter(out);
+		List<String> expected = write(writer, 50);
+		assertTrue(out.statements.isEmpty());
+		writer.close();
+		assertEquals(expected, out.statements);
+		assertTrue(out.closed);
+	}
+
+	@Test
+	public void testMultiPassMerge() throws IOException {
+		// Every statement fills the budget, so there are several hundred
+		// runs and more than one merge pass
+		SortingGraphWriter writer = new SortingGraphWriter(out, 1, directory);
+		List<String> expected = write(writer, 200);
+		assertEquals(600, directory.list().length);
+		writer.close();
+		assertEquals(expected, out.statements);
+		assertEquals(0, directory.list().length);
+	}
+
+	@Test
+	public void testDefinitions() throws IOException {
+		SortingGraphWriter writer = new SortingGraphWriter(out);
+		writer.writeStartDefinition("_:a");
+		writer.writeStartPredicate("q");
+		writer.writeLiteral("x", null, null);
+		writer.writeStartPredicate("p");
+		writer.writeStartDefinition(null);
+		writer.writeStartPredicate("r");
+		writer.writeIRI("b");
+		writer.writeEndDefinition();
+		writer.writeEndDefinition();
+		writer.close();
+		assertEquals(Arrays.asList("_:a p _:d0", "_:a q \"x\"", "_:d0 r b"),
+				out.statements);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoSubject() throws IOException {
+		new SortingGraphWriter(out).writeIRI("o");
+	}
+
+	@Test
+	public void testCloseAfterFailure() throws IOException {
+		SortingGraphWriter writer = new SortingGraphWriter(out, 1, directory);
+		write(writer, 20);
+		out.failAfter = 10;
+		try {
+			writer.close();
+			fail();
+		} catch (IOException e) {
+			assertEquals("Disk full", e.getMessage());
+		}
+		assertTrue(out.closed);
+		assertEquals(0, directory.list().length);
+	}
+
+}
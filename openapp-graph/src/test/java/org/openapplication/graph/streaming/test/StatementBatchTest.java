@@ -0,0 +1,124 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.streaming.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.openapplication.graph.streaming.BatchGraphReaderCallback;
+import org.openapplication.graph.streaming.BatchingGraphReaderCallback;
+import org.openapplication.graph.streaming.StatementBatch;
+
+public class StatementBatchTest {
+
+	private static class Recorder implements BatchGraphReaderCallback {
+
+		final List<String> events = new ArrayList<String>();
+
+		@Override
+		public void triples(StatementBatch batch) {
+			events.add("batch " + batch.size());
+			batch.replay(this);
+		}
+
+		@Override
+		public void triple(String subject, String predicate, String object) {
+			events.add(subject + " " + predicate + " " + object);
+		}
+
+		@Override
+		public void triple(String subject, String predicate, String literal,
+				String language, String dataType) {
+			events.add(subject + " " + predicate + " \"" + literal + "\"@"
+					+ language + "^^" + dataType);
+		}
+
+		@Override
+		public String generateBlankNode(String node) {
+			return "_:g";
+		}
+
+		@Override
+		public void startGraph(String graph) {
+			events.add("start " + graph);
+		}
+
+		@Override
+		public void endGraph(String graph) {
+			events.add("end " + graph);
+		}
+
+		@Override
+		public void startDefinition(String node) {
+			events.add("define " + node);
+		}
+
+		@Override
+		public void endDefinition(String node) {
+			events.add("defined " + node);
+		}
+
+	}
+
+	@Test
+	public void testAddAndClear() {
+		StatementBatch batch = new StatementBatch(2);
+		assertTrue(batch.isEmpty());
+		assertFalse(batch.add("s", "p", "o"));
+		assertTrue(batch.add("s", "p", "l", "en", null));
+		assertTrue(batch.isFull());
+		assertEquals(2, batch.size());
+		assertEquals("o", batch.getObjects()[0]);
+		assertNull(batch.getObjects()[1]);
+		assertEquals("l", batch.getLiterals()[1]);
+		assertEquals("en", batch.getLanguages()[1]);
+		assertFalse(batch.isEncoded(0));
+		batch.clear();
+		assertTrue(batch.isEmpty());
+		assertNull(batch.getSubjects()[0]);
+		batch.add(1, 2, 3);
+		assertTrue(batch.isEncoded(0));
+		assertEquals(3, batch.getObjectIds()[0]);
+	}
+
+	@Test
+	public void testBatching() {
+		Recorder recorder = new Recorder();
+		BatchingGraphReaderCallback batching = new BatchingGraphReaderCallback(
+				recorder, 2);
+		batching.startDefinition("a");
+		batching.triple("a", "p", "o1");
+		batching.endDefinition("a");
+		batching.startDefinition("b");
+		batching.triple("b", "p", "v", null, "t");
+		batching.triple("b", "p", "o2");
+		batching.endDefinition("b");
+		batching.startGraph("g");
+		batching.triple("c", "p", "o3");
+		batching.endGraph("g");
+		batching.flush();
+		assertEquals(Arrays.asList("define a", "define b", "batch 2",
+				"a p o1", "b p \"v\"@null^^t", "defined a", "batch 1",
+				"b p o2", "defined b", "start g", "batch 1", "c p o3",
+				"end g"), recorder.events);
+		assertEquals("_:g", batching.generateBlankNode(null));
+	}
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.streaming.test;
+
+import static org.junit.Assert.*;
+
+import java.io.UnsupportedEncodingException;
+
+import org.junit.Test;
+import org.openapplication.graph.streaming.Utf8Sequence;
+
+public class Utf8SequenceTest {
+
+	private static Utf8Sequence view(Utf8Sequence sequence, String string)
+			throws UnsupportedEncodingException {
+		byte[] encoded = string.getBytes("UTF-8");
+		// The view must respect the offset into a larger array
+		byte[] bytes = new byte[encoded.length + 4];
+		System.arraycopy(encoded, 0, bytes, 2, encoded.length);
+		return sequence.set(bytes, 2, encoded.length);
+	}
+
+	@Test
+	public void testAscii() throws UnsupportedEncodingException {
+		Utf8Sequence sequence = view(new Utf8Sequence(), "http://ex/a");
+		assertEquals(11, sequence.length());
+		assertEquals('h', sequence.charAt(0));
+		assertEquals('a', sequence.charAt(10));
+		assertEquals("http://ex/a", sequence.toString());
+		assertEquals("ex", sequence.subSequence(7, 9).toString());
+	}
+
+	@Test
+	public void testMultiByte() throws UnsupportedEncodingException {
+		String string = "räksmörgås € 😀";
+		Utf8Sequence sequence = view(new Utf8Sequence(), string);
+		assertEquals(string.length(), sequence.length());
+		for (int i = 0; i < string.length(); i++)
+			assertEquals(string.charAt(i), sequence.charAt(i));
+		assertEquals(string, sequence.toString());
+	}
+
+	@Test
+	public void testReuse() throws UnsupportedEncodingException {
+		Utf8Sequence sequence = new Utf8Sequence();
+		view(sequence, "åäö long enough to grow the buffer");
+		assertEquals("ab", view(sequence, "ab").toString());
+		assertEquals("å", view(sequence, "å").toString());
+		assertEquals(1, sequence.length());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testOutOfBounds() throws UnsupportedEncodingException {
+		view(new Utf8Sequence(), "abc").charAt(3);
+	}
+
+}
@@ -28,6 +28,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import org.openapplication.graph.management.GraphListener;
+import org.openapplication.graph.management.GraphMetrics;
+import org.openapplication.graph.streaming.BatchGraphReaderCallback;
+import org.openapplication.graph.streaming.BatchingGraphReaderCallback;
 import org.openapplication.graph.streaming.GraphReaderCallback;
 import org.openapplication.graph.streaming.GraphWriter;
 import org.openapplication.json.JSON;
@@ -40,16 +44,43 @@ public class JSONLD implements GraphWriter {
 
 	public static void parse(InputStream in, GraphReaderCallback callback)
 			throws JSONException, IOException {
-		JSON.parse(in, new JSONProcessor(new JSONLDProcessor(callback)));
+		BatchingGraphReaderCallback batching = toBatching(callback);
+		try {
+			JSON.parse(in, new JSONProcessor(new JSONLDProcessor(
+					batching != null ? batching : callback)));
+		} finally {
+			if (batching != null)
+				batching.flush();
+		}
 	}
 
 	public static void parse(String in, GraphReaderCallback callback)
 			throws JSONException {
-		JSON.parse(in, new JSONProcessor(new JSONLDProcessor(callback)));
+		BatchingGraphReaderCallback batching = toBatching(callback);
+		try {
+			JSON.parse(in, new JSONProcessor(new JSONLDProcessor(
+					batching != null ? batching : callback)));
+		} finally {
+			if (batching != null)
+				batching.flush();
+		}
 	}
 
 	public static void parse(Object element, GraphReaderCallback callback) {
-		new JSONLDProcessor(callback).process(element);
+		BatchingGraphReaderCallback batching = toBatching(callback);
+		try {
+			new JSONLDProcessor(batching != null ? batching : callback)
+					.process(element);
+		} finally {
+			if (batching != null)
+				batching.flush();
+		}
+	}
+
+	private static BatchingGraphReaderCallback toBatching(
+			GraphReaderCallback callback) {
+		return callback instanceof BatchGraphReaderCallback ? new BatchingGraphReaderCallback(
+				(BatchGraphReaderCallback) callback) : null;
 	}
 
 	private static class JSONLDProcessor {
@@ -82,9 +113,23 @@ public class JSONLD implements GraphWriter {
 				Map<String, Object> map = (Map<String, Object>) element;
 				Object value;
 				String dataType, language, id = null;
-				if (map.containsKey("@context"))
-					activeContext = processContext(map.get("@context"),
-							activeContext);
+				if (map.containsKey("@context")) {
+					GraphListener listener = GraphMetrics.getListener();
+					long start = listener != null ? System.nanoTime() : 0;
+					Object context = map.get("@context");
+					// Only a referenced context names a document
+					GraphListener.Phase phase = listener != null ? listener
+							.startContext(context instanceof String ? (String) context
+									: null) : null;
+					activeContext = processContext(context, activeContext);
+					if (listener != null)
+						listener.context(activeContext == null ? 0
+								: activeContext.size(), System.nanoTime()
+								- start);
+					if (phase != null)
+						phase.end(activeContext == null ? 0 : activeContext
+								.size(), 0);
+				}
 				if ((value = map.get("@value")) != null) {
 					if (value instanceof Number) {
 						dataType = (String) map.get("@type");
@@ -660,12 +705,19 @@ public class JSONLD implements GraphWriter {
 
 	@Override
 	public void writeStartPredicate(String predicate) throws IOException {
+		writeEndPredicate();
 		json.writeFieldName(predicate);
 		json.writeStartArray();
+		stack.push(predicate);
+		currentPredicate = predicate;
 	}
 
 	@Override
 	public void writeEndPredicate() throws IOException {
+		if (currentPredicate == null)
+			return;
+		stack.pop();
+		currentPredicate = null;
 		json.writeEndArray();
 	}
 
@@ -701,6 +753,18 @@ public class JSONLD implements GraphWriter {
 
 	@Override
 	public void writeEndStatement() throws IOException {
+		writeEndPredicate();
+		if (currentSubject == null)
+			return;
+		json.writeEndObject();
+		stack.pop();
+		if (stack.isEmpty()) {
+			currentSubject = null;
+		} else {
+			currentPredicate = stack.pop();
+			currentSubject = stack.peek();
+			stack.push(currentPredicate);
+		}
 	}
 
 }
@@ -0,0 +1,570 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.sparql;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+
+abstract class Expression {
+
+	static final String XSD = "http://www.w3.org/2001/XMLSchema#";
+
+	static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+	static final Value TRUE = Values.literal("true", XSD + "boolean");
+
+	static final Value FALSE = Values.literal("false", XSD + "boolean");
+
+	interface Bindings {
+
+		Value get(int variable);
+
+	}
+
+	// Returns null where SPARQL would raise an evaluation error
+	abstract Value evaluate(Bindings bindings);
+
+	void addVariables(Set<Integer> variables) {
+	}
+
+	static Value valueOf(boolean value) {
+		return value ? TRUE : FALSE;
+	}
+
+	static Boolean isTrue(Value value) {
+		if (!isLiteral(value))
+			return null;
+		String type = value.getType();
+		if (type == null || (XSD + "string").equals(type))
+			return value.getString().length() != 0;
+		if ((XSD + "boolean").equals(type))
+			return "true".equals(value.getString())
+					|| "1".equals(value.getString());
+		BigDecimal number = toNumber(value);
+		return number == null ? null : number.signum() != 0;
+	}
+
+	static boolean isLiteral(Value value) {
+		return value != null && !value.isIri() && value.getId() == null
+				&& value.getString() != null;
+	}
+
+	static boolean isBlank(Value value) {
+		return value != null && value.getId() != null;
+	}
+
+	static boolean isSimple(Value value) {
+		return isLiteral(value)
+				&& value.getLanguage() == null
+				&& (value.getType() == null || (XSD + "string").equals(value
+						.getType()));
+	}
+
+	static boolean isInteger(String type) {
+		return type != null
+				&& type.startsWith(XSD)
+				&& (type.endsWith("integer") || type.endsWith("#int")
+						|| type.endsWith("#long") || type.endsWith("#short")
+						|| type.endsWith("#byte") || type.startsWith(XSD
+						+ "unsigned"));
+	}
+
+	static boolean isNumeric(Value value) {
+		if (!isLiteral(value))
+			return false;
+		String type = value.getType();
+		return isInteger(type) || (XSD + "decimal").equals(type)
+				|| (XSD + "double").equals(type)
+				|| (XSD + "float").equals(type);
+	}
+
+	static BigDecimal toNumber(Value value) {
+		if (!isNumeric(value))
+			return null;
+		try {
+			return new BigDecimal(value.getString().trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	// A total order for ORDER BY: unbound, blank nodes, IRIs, literals
+	// Writes a constant the way the parser reads it back
+	static String toString(Value value) {
+		if (value.isIri())
+			return "<" + value.toIri() + ">";
+		StringBuilder builder = new StringBuilder("\"");
+		String string = value.getString();
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			switch (c) {
+			case '\n':
+				builder.append("\\n");
+				break;
+			case '\r':
+				builder.append("\\r");
+				break;
+			case '"':
+			case '\\':
+				builder.append('\\').append(c);
+				break;
+			default:
+				builder.append(c);
+			}
+		}
+		builder.append('"');
+		if (value.getLanguage() != null)
+			builder.append('@').append(value.getLanguage());
+		else if (value.getType() != null)
+			builder.append("^^<").append(value.getType()).append('>');
+		return builder.toString();
+	}
+
+	static int compare(Value a, Value b) {
+		int ranks = rank(a) - rank(b);
+		if (ranks != 0)
+			return ranks;
+		if (a == null)
+			return 0;
+		if (isBlank(a))
+			return a.getId().compareTo(b.getId());
+		if (a.isIri())
+			return a.toIri().compareTo(b.toIri());
+		BigDecimal x = toNumber(a), y = toNumber(b);
+		if (x != null && y != null)
+			return x.compareTo(y);
+		if (x != null || y != null)
+			return x != null ? -1 : 1;
+		int strings = a.getString().compareTo(b.getString());
+		if (strings != 0)
+			return strings;
+		return String.valueOf(a.getLanguage() + a.getType()).compareTo(
+				String.valueOf(b.getLanguage() + b.getType()));
+	}
+
+	private static int rank(Value value) {
+		if (value == null)
+			return 0;
+		if (isBlank(value))
+			return 1;
+		if (value.isIri())
+			return 2;
+		return 3;
+	}
+
+	static final class Variable extends Expression {
+
+		final int variable;
+
+		final String name;
+
+		Variable(int variable, String name) {
+			this.variable = variable;
+			this.name = name;
+		}
+
+		@Override
+		Value evaluate(Bindings bindings) {
+			return bindings.get(variable);
+		}
+
+		@Override
+		void addVariables(Set<Integer> variables) {
+			variables.add(variable);
+		}
+
+		@Override
+		public String toString() {
+			return "?" + name;
+		}
+
+	}
+
+	static final class Constant extends Expression {
+
+		final Value value;
+
+		Constant(Value value) {
+			this.value = value;
+		}
+
+		@Override
+		Value evaluate(Bindings bindings) {
+			return value;
+		}
+
+		@Override
+		public String toString() {
+			return Expression.toString(value);
+		}
+
+	}
+
+	static final class Logical extends Expression {
+
+		final boolean and;
+
+		final Expression left, right;
+
+		Logical(boolean and, Expression left, Expression right) {
+			this.and = and;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Value evaluate(Bindings bindings) {
+			Boolean a = isTrue(left.evaluate(bindings));
+			if (a != null && a != and)
+				return valueOf(a);
+			Boolean b = isTrue(right.evaluate(bindings));
+			if (b != null && b != and)
+				return valueOf(b);
+			if (a == null || b == null)
+				return null;
+			return valueOf(and);
+		}
+
+		@Override
+		void addVariables(Set<Integer> variables) {
+			left.addVariables(variables);
+			right.addVariables(variables);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + left + (and ? " && " : " || ") + right + ")";
+		}
+
+	}
+
+	static final class Not extends Expression {
+
+		final Expression operand;
+
+		Not(Expression operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		Value evaluate(Bindings bindings) {
+			Boolean value = isTrue(operand.evaluate(bindings));
+			return value == null ? null : valueOf(!value);
+		}
+
+		@Override
+		void addVariables(Set<Integer> variables) {
+			operand.addVariables(variables);
+		}
+
+		@Override
+		public String toString() {
+			return "!" + operand;
+		}
+
+	}
+
+	static final class Comparison extends Expression {
+
+		final String operator;
+
+		final Expression left, right;
+
+		Comparison(String operator, Expression left, Expression right) {
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Value evaluate(Bindings bindings) {
+			Value a = left.evaluate(bindings), b = right.evaluate(bindings);
+			if (a == null || b == null)
+				return null;
+			Integer order = order(a, b);
+			if (operator.equals("="))
+				return valueOf(order != null ? order == 0 : a.equals(b));
+			if (operator.equals("!="))
+				return valueOf(order != null ? order != 0 : !a.equals(b));
+			if (order == null)
+				return null;
+			if (operator.equals("<"))
+				return valueOf(order < 0);
+			if (operator.equals(">"))
+				return valueOf(order > 0);
+			if (operator.equals("<="))
+				return valueOf(order <= 0);
+			return valueOf(order >= 0);
+		}
+
+		private static Integer order(Value a, Value b) {
+			BigDecimal x = toNumber(a), y = toNumber(b);
+			if (x != null && y != null)
+				return x.compareTo(y);
+			if ((isSimple(a) && isSimple(b))
+					|| (isLiteral(a) && isLiteral(b)
+							&& a.getType() != null && a.getType().equals(
+							b.getType())))
+				return a.getString().compareTo(b.getString());
+			return null;
+		}
+
+		@Override
+		void addVariables(Set<Integer> variables) {
+			left.addVariables(variables);
+			right.addVariables(variables);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + left + " " + operator + " " + right + ")";
+		}
+
+	}
+
+	static final class Arithmetic extends Expression {
+
+		final char operator;
+
+		final Expression left, right;
+
+		Arithmetic(char operator, Expression left, Expression right) {
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Value evaluate(Bindings bindings) {
+			Value a = left.evaluate(bindings), b = right.evaluate(bindings);
+			BigDecimal x = toNumber(a), y = toNumber(b);
+			if (x == null || y == null)
+				return null;
+			boolean integer = isInteger(a.getType()) && isInteger(b.getType());
+			BigDecimal result;
+			switch (operator) {
+			case '+':
+				result = x.add(y);
+				break;
+			case '-':
+				result = x.subtract(y);
+				break;
+			case '*':
+				result = x.multiply(y);
+				break;
+			default:
+				if (y.signum() == 0)
+					return null;
+				result = x.divide(y, 18, BigDecimal.ROUND_HALF_EVEN)
+						.stripTrailingZeros();
+				integer = false;
+			}
+			if (integer)
+				return Values.literal(result.toBigInteger().toString(), XSD
+						+ "integer");
+			return Values.literal(result.toPlainString(), XSD + "decimal");
+		}
+
+		@Override
+		void addVariables(Set<Integer> variables) {
+			left.addVariables(variables);
+			right.addVariables(variables);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + left + " " + operator + " " + right + ")";
+		}
+
+	}
+
+	static final class Call extends Expression {
+
+		final String function;
+
+		final List<Expression> arguments;
+
+		private final java.util.regex.Pattern pattern;
+
+		Call(String function, List<Expression> arguments)
+				throws SparqlException {
+			this.function = function.toUpperCase(Locale.ROOT);
+			this.arguments = arguments;
+			int arity = arity(this.function);
+			if (arity < 0)
+				throw new SparqlException("Unsupported function " + function);
+			if (arguments.size() != arity
+					&& !(this.function.equals("REGEX") && arguments
+							.size() == 3))
+				throw new SparqlException(function + " expects " + arity
+						+ " arguments");
+			if (this.function.equals("BOUND")
+					&& !(arguments.get(0) instanceof Variable))
+				throw new SparqlException("BOUND expects a variable");
+			pattern = this.function.equals("REGEX") ? constantPattern() : null;
+		}
+
+		private static int arity(String function) {
+			if (function.equals("STR") || function.equals("LANG")
+					|| function.equals("DATATYPE")
+					|| function.equals("BOUND") || function.equals("ISIRI")
+					|| function.equals("ISURI")
+					|| function.equals("ISBLANK")
+					|| function.equals("ISLITERAL")
+					|| function.equals("ISNUMERIC")
+					|| function.equals("STRLEN")
+					|| function.equals("LCASE") || function.equals("UCASE"))
+				return 1;
+			if (function.equals("REGEX") || function.equals("CONTAINS")
+					|| function.equals("STRSTARTS")
+					|| function.equals("STRENDS")
+					|| function.equals("LANGMATCHES")
+					|| function.equals("SAMETERM"))
+				return 2;
+			return -1;
+		}
+
+		private java.util.regex.Pattern constantPattern()
+				throws SparqlException {
+			for (Expression argument : arguments.subList(1, arguments.size()))
+				if (!(argument instanceof Constant))
+					return null;
+			Value flags = arguments.size() == 3 ? ((Constant) arguments
+					.get(2)).value : null;
+			java.util.regex.Pattern pattern = compile(
+					((Constant) arguments.get(1)).value, flags);
+			if (pattern == null)
+				throw new SparqlException("Invalid regular expression "
+						+ arguments.get(1));
+			return pattern;
+		}
+
+		private static java.util.regex.Pattern compile(Value regex,
+				Value flags) {
+			if (!isLiteral(regex) || (flags != null && !isLiteral(flags)))
+				return null;
+			int options = 0;
+			if (flags != null)
+				for (char flag : flags.getString().toCharArray())
+					if (flag == 'i')
+						options |= java.util.regex.Pattern.CASE_INSENSITIVE
+								| java.util.regex.Pattern.UNICODE_CASE;
+					else if (flag == 's')
+						options |= java.util.regex.Pattern.DOTALL;
+					else if (flag == 'm')
+						options |= java.util.regex.Pattern.MULTILINE;
+					else if (flag == 'x')
+						options |= java.util.regex.Pattern.COMMENTS;
+					else
+						return null;
+			try {
+				return java.util.regex.Pattern.compile(regex.getString(),
+						options);
+			} catch (RuntimeException e) {
+				return null;
+			}
+		}
+
+		@Override
+		Value evaluate(Bindings bindings) {
+			Value value = arguments.get(0).evaluate(bindings);
+			if (function.equals("BOUND"))
+				return valueOf(value != null);
+			if (value == null)
+				return null;
+			if (function.equals("ISIRI") || function.equals("ISURI"))
+				return valueOf(value.isIri());
+			if (function.equals("ISBLANK"))
+				return valueOf(isBlank(value));
+			if (function.equals("ISLITERAL"))
+				return valueOf(isLiteral(value));
+			if (function.equals("ISNUMERIC"))
+				return valueOf(toNumber(value) != null);
+			if (function.equals("STR"))
+				return value.isIri() ? Values.string(value.toIri())
+						: isLiteral(value) ? Values
+								.string(value.getString()) : null;
+			if (function.equals("SAMETERM"))
+				return valueOf(value.equals(arguments.get(1).evaluate(
+						bindings)));
+			if (!isLiteral(value))
+				return null;
+			String string = value.getString();
+			if (function.equals("LANG"))
+				return Values.string(value.getLanguage() == null ? ""
+						: value.getLanguage());
+			if (function.equals("DATATYPE"))
+				return Values.iri(value.getLanguage() != null ? RDF
+						+ "langString" : value.getType() != null ? value
+						.getType() : XSD + "string");
+			if (function.equals("STRLEN"))
+				return Values.literal(
+						Integer.toString(string.codePointCount(0,
+								string.length())), XSD + "integer");
+			if (function.equals("LCASE"))
+				return Values.string(string.toLowerCase(Locale.ROOT),
+						value.getLanguage());
+			if (function.equals("UCASE"))
+				return Values.string(string.toUpperCase(Locale.ROOT),
+						value.getLanguage());
+			Value other = arguments.get(1).evaluate(bindings);
+			if (function.equals("REGEX")) {
+				java.util.regex.Pattern pattern = this.pattern;
+				if (pattern == null)
+					pattern = compile(other, arguments.size() == 3 ? arguments
+							.get(2).evaluate(bindings) : null);
+				return pattern == null ? null : valueOf(pattern.matcher(
+						string).find());
+			}
+			if (!isLiteral(other))
+				return null;
+			if (function.equals("LANGMATCHES")) {
+				String range = other.getString();
+				if (range.equals("*"))
+					return valueOf(string.length() != 0);
+				return valueOf(string.equalsIgnoreCase(range)
+						|| string.toLowerCase(Locale.ROOT).startsWith(
+								range.toLowerCase(Locale.ROOT) + "-"));
+			}
+			if (function.equals("CONTAINS"))
+				return valueOf(string.contains(other.getString()));
+			if (function.equals("STRSTARTS"))
+				return valueOf(string.startsWith(other.getString()));
+			return valueOf(string.endsWith(other.getString()));
+		}
+
+		@Override
+		void addVariables(Set<Integer> variables) {
+			for (Expression argument : arguments)
+				argument.addVariables(variables);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder(function).append('(');
+			for (int i = 0; i < arguments.size(); i++)
+				builder.append(i == 0 ? "" : ", ").append(arguments.get(i));
+			return builder.append(')').toString();
+		}
+
+	}
+
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.sparql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+final class Group {
+
+	final List<Pattern> patterns = new ArrayList<Pattern>();
+
+	final List<Expression> filters = new ArrayList<Expression>();
+
+	final List<Group> optionals = new ArrayList<Group>();
+
+	void addVariables(Set<Integer> variables) {
+		for (Pattern pattern : patterns)
+			pattern.addVariables(variables);
+		for (Group optional : optionals)
+			optional.addVariables(variables);
+	}
+
+}
@@ -0,0 +1,538 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.sparql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openapplication.graph.Value;
+import org.openapplication.graph.store.Cancellation;
+import org.openapplication.graph.store.Graph;
+import org.openapplication.graph.store.TripleCursor;
+
+// Physical plan nodes; rows hold dictionary ids with 0 for unbound variables
+abstract class Operator {
+
+	interface Cursor {
+
+		boolean next();
+
+		long[] row();
+
+	}
+
+	static final class Context {
+
+		final Graph graph;
+
+		final Cancellation cancellation;
+
+		final String[] names;
+
+		Context(Graph graph, Cancellation cancellation, String[] names) {
+			this.graph = graph;
+			this.cancellation = cancellation;
+			this.names = names;
+		}
+
+		String name(int variable) {
+			String name = names[variable];
+			return name.startsWith("_:") ? name : "?" + name;
+		}
+
+	}
+
+	static final Cursor EMPTY = new Cursor() {
+
+		@Override
+		public boolean next() {
+			return false;
+		}
+
+		@Override
+		public long[] row() {
+			throw new IllegalStateException();
+		}
+
+	};
+
+	final Context context;
+
+	double cardinality, cost;
+
+	// The variable rows arrive ordered by, or -1
+	int sortedBy = -1;
+
+	Operator(Context context) {
+		this.context = context;
+	}
+
+	abstract Cursor open(long[] input);
+
+	abstract void explain(StringBuilder builder, String indent);
+
+	void explain(StringBuilder builder, String indent, String description,
+			Operator... children) {
+		builder.append(indent).append(description)
+				.append(String.format(" (rows=%.0f, cost=%.0f)", cardinality,
+						cost)).append('\n');
+		for (Operator child : children)
+			child.explain(builder, indent + "  ");
+	}
+
+	static final class Unit extends Operator {
+
+		Unit(Context context) {
+			super(context);
+			cardinality = 1;
+		}
+
+		@Override
+		Cursor open(final long[] input) {
+			return new Cursor() {
+
+				boolean done;
+
+				@Override
+				public boolean next() {
+					if (done)
+						return false;
+					return done = true;
+				}
+
+				@Override
+				public long[] row() {
+					return input;
+				}
+
+			};
+		}
+
+		@Override
+		void explain(StringBuilder builder, String indent) {
+			explain(builder, indent, "Unit");
+		}
+
+	}
+
+	// Bounds on the object of a pattern, from filters on its variable
+	static final class Range {
+
+		Value min, max;
+
+		boolean minInclusive, maxInclusive;
+
+		@Override
+		public String toString() {
+			return (min == null ? "(*" : (minInclusive ? "[" : "(")
+					+ min.getString())
+					+ ", "
+					+ (max == null ? "*)" : max.getString()
+							+ (maxInclusive ? "]" : ")"));
+		}
+
+	}
+
+	static final class Scan extends Operator {
+
+		final Pattern pattern;
+
+		// Dictionary ids of the fixed values; -1 if one is not in the graph
+		final long[] ids = new long[3];
+
+		// Set when the predicate has a range index to read the object from
+		Range range;
+
+		Scan(Context context, Pattern pattern) {
+			super(context);
+			this.pattern = pattern;
+			for (int i = 0; i < 3; i++)
+				if (pattern.variables[i] < 0) {
+					ids[i] = context.graph.getId(pattern.values[i]);
+					if (ids[i] == 0)
+						ids[i] = -1;
+				}
+		}
+
+		boolean isEmpty() {
+			return ids[0] < 0 || ids[1] < 0 || ids[2] < 0;
+		}
+
+		@Override
+		Cursor open(final long[] input) {
+			if (isEmpty())
+				return EMPTY;
+			final long[] bound = new long[3];
+			for (int i = 0; i < 3; i++)
+				bound[i] = pattern.variables[i] < 0 ? ids[i]
+						: input[pattern.variables[i]];
+			final TripleCursor triples = range != null && bound[0] == 0
+					&& bound[2] == 0 ? context.graph.scanRange(bound[1],
+					range.min, range.minInclusive, range.max,
+					range.maxInclusive, context.cancellation) : context.graph
+					.scan(bound[0], bound[1], bound[2], context.cancellation);
+			return new Cursor() {
+
+				long[] row;
+
+				@Override
+				public boolean next() {
+					next: while (triples.next()) {
+						row = input.clone();
+						long[] triple = { triples.getSubject(),
+								triples.getPredicate(), triples.getObject() };
+						for (int i = 0; i < 3; i++) {
+							int variable = pattern.variables[i];
+							if (variable < 0)
+								continue;
+							if (row[variable] == 0)
+								row[variable] = triple[i];
+							else if (row[variable] != triple[i])
+								continue next;
+						}
+						return true;
+					}
+					return false;
+				}
+
+				@Override
+				public long[] row() {
+					return row;
+				}
+
+			};
+		}
+
+		@Override
+		void explain(StringBuilder builder, String indent) {
+			StringBuilder description = new StringBuilder(
+					range != null ? "RangeScan" : "Scan");
+			for (int i = 0; i < 3; i++) {
+				description.append(' ');
+				if (pattern.variables[i] >= 0)
+					description.append(context.name(pattern.variables[i]));
+				else if (pattern.values[i].isIri())
+					description.append('<')
+							.append(pattern.values[i].toIri()).append('>');
+				else
+					description.append('"')
+							.append(pattern.values[i].getString())
+							.append('"');
+			}
+			if (range != null)
+				description.append(' ').append(range);
+			explain(builder, indent, description.toString());
+		}
+
+	}
+
+	// Re-opens the right side with each left row bound, probing the indexes
+	static final class IndexJoin extends Operator {
+
+		final Operator left, right;
+
+		IndexJoin(Operator left, Operator right) {
+			super(left.context);
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Cursor open(long[] input) {
+			final Cursor outer = left.open(input);
+			return new Cursor() {
+
+				Cursor inner;
+
+				@Override
+				public boolean next() {
+					while (inner == null || !inner.next()) {
+						if (!outer.next())
+							return false;
+						inner = right.open(outer.row());
+					}
+					return true;
+				}
+
+				@Override
+				public long[] row() {
+					return inner.row();
+				}
+
+			};
+		}
+
+		@Override
+		void explain(StringBuilder builder, String indent) {
+			explain(builder, indent, "IndexJoin", left, right);
+		}
+
+	}
+
+	// Intersects two inputs ordered by the same variable; the right side
+	// binds nothing else and holds each value once
+	static final class MergeJoin extends Operator {
+
+		final Operator left, right;
+
+		final int variable;
+
+		MergeJoin(Operator left, Operator right, int variable) {
+			super(left.context);
+			this.left = left;
+			this.right = right;
+			this.variable = variable;
+			sortedBy = variable;
+		}
+
+		@Override
+		Cursor open(long[] input) {
+			final Cursor a = left.open(input), b = right.open(input);
+			return new Cursor() {
+
+				boolean hasLeft, hasRight;
+
+				@Override
+				public boolean next() {
+					while (true) {
+						if (!hasLeft && !(hasLeft = a.next()))
+							return false;
+						if (!hasRight && !(hasRight = b.next()))
+							return false;
+						long x = a.row()[variable], y = b.row()[variable];
+						if (x < y)
+							hasLeft = false;
+						else if (x > y)
+							hasRight = false;
+						else {
+							hasLeft = false;
+							return true;
+						}
+					}
+				}
+
+				@Override
+				public long[] row() {
+					return a.row();
+				}
+
+			};
+		}
+
+		@Override
+		void explain(StringBuilder builder, String indent) {
+			explain(builder, indent, "MergeJoin " + context.name(variable),
+					left, right);
+		}
+
+	}
+
+	// Builds a table from the right side once and probes it per left row
+	static final class HashJoin extends Operator {
+
+		final Operator left, right;
+
+		final int[] variables;
+
+		HashJoin(Operator left, Operator right, int[] variables) {
+			super(left.context);
+			this.left = left;
+			this.right = right;
+			this.variables = variables;
+		}
+
+		private List<Long> key(long[] row) {
+			List<Long> key = new ArrayList<Long>(variables.length);
+			for (int variable : variables)
+				key.add(row[variable]);
+			return key;
+		}
+
+		@Override
+		Cursor open(long[] input) {
+			final Map<List<Long>, List<long[]>> table = new HashMap<List<Long>, List<long[]>>();
+			for (Cursor build = right.open(input); build.next();) {
+				List<Long> key = key(build.row());
+				List<long[]> rows = table.get(key);
+				if (rows == null)
+					table.put(key, rows = new ArrayList<long[]>(1));
+				rows.add(build.row());
+			}
+			final Cursor probe = left.open(input);
+			return new Cursor() {
+
+				List<long[]> matches = new ArrayList<long[]>();
+
+				int index;
+
+				long[] row;
+
+				@Override
+				public boolean next() {
+					while (true) {
+						while (index < matches.size()) {
+							row = merge(probe.row(), matches.get(index++));
+							if (row != null)
+								return true;
+						}
+						if (!probe.next())
+							return false;
+						List<long[]> rows = table.get(key(probe.row()));
+						matches = rows != null ? rows : new ArrayList<long[]>(
+								0);
+						index = 0;
+					}
+				}
+
+				@Override
+				public long[] row() {
+					return row;
+				}
+
+			};
+		}
+
+		private static long[] merge(long[] left, long[] right) {
+			long[] row = left.clone();
+			for (int i = 0; i < row.length; i++)
+				if (row[i] == 0)
+					row[i] = right[i];
+				else if (right[i] != 0 && right[i] != row[i])
+					return null;
+			return row;
+		}
+
+		@Override
+		void explain(StringBuilder builder, String indent) {
+			StringBuilder description = new StringBuilder("HashJoin");
+			for (int variable : variables)
+				description.append(' ').append(context.name(variable));
+			explain(builder, indent, description.toString(), left, right);
+		}
+
+	}
+
+	static final class Filter extends Operator {
+
+		final Operator child;
+
+		final Expression expression;
+
+		Filter(Operator child, Expression expression) {
+			super(child.context);
+			this.child = child;
+			this.expression = expression;
+			sortedBy = child.sortedBy;
+		}
+
+		@Override
+		Cursor open(long[] input) {
+			final Cursor rows = child.open(input);
+			return new Cursor() {
+
+				@Override
+				public boolean next() {
+					while (rows.next())
+						if (Boolean.TRUE.equals(Expression.isTrue(expression
+								.evaluate(bindings(context, rows.row())))))
+							return true;
+					return false;
+				}
+
+				@Override
+				public long[] row() {
+					return rows.row();
+				}
+
+			};
+		}
+
+		@Override
+		void explain(StringBuilder builder, String indent) {
+			explain(builder, indent, "Filter " + expression, child);
+		}
+
+	}
+
+	// A left outer join that re-opens the optional side per left row
+	static final class Optional extends Operator {
+
+		final Operator left, right;
+
+		Optional(Operator left, Operator right) {
+			super(left.context);
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Cursor open(long[] input) {
+			final Cursor outer = left.open(input);
+			return new Cursor() {
+
+				Cursor inner;
+
+				long[] row;
+
+				@Override
+				public boolean next() {
+					if (inner != null && inner.next()) {
+						row = inner.row();
+						return true;
+					}
+					if (!outer.next())
+						return false;
+					inner = right.open(outer.row());
+					if (inner.next())
+						row = inner.row();
+					else {
+						row = outer.row();
+						inner = null;
+					}
+					return true;
+				}
+
+				@Override
+				public long[] row() {
+					return row;
+				}
+
+			};
+		}
+
+		@Override
+		void explain(StringBuilder builder, String indent) {
+			explain(builder, indent, "Optional", left, right);
+		}
+
+	}
+
+	static Expression.Bindings bindings(final Context context,
+			final long[] row) {
+		return new Expression.Bindings() {
+
+			@Override
+			public Value get(int variable) {
+				return row[variable] == 0 ? null : context.graph
+						.getValue(row[variable]);
+			}
+
+		};
+	}
+
+}
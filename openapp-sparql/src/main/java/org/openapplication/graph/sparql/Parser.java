@@ -0,0 +1,613 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.sparql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+
+final class Parser {
+
+	private enum Kind {
+		IRI, NAME, PREFIXED, VARIABLE, BLANK, STRING, LANGUAGE, INTEGER,
+		DECIMAL, DOUBLE, SYMBOL, END
+	}
+
+	private final String input;
+
+	private int position;
+
+	private Kind kind;
+
+	private String text;
+
+	private int start;
+
+	private final Map<String, String> prefixes = new HashMap<String, String>();
+
+	private String base;
+
+	private int anonymous;
+
+	// Variable names by index; blank nodes get names starting with "_:"
+	final Map<String, Integer> variables = new LinkedHashMap<String, Integer>();
+
+	final List<Integer> projection = new ArrayList<Integer>();
+
+	boolean distinct;
+
+	Group where;
+
+	final List<Expression> order = new ArrayList<Expression>();
+
+	final List<Boolean> descending = new ArrayList<Boolean>();
+
+	long offset, limit = -1;
+
+	Parser(String input) {
+		this.input = input;
+	}
+
+	void parse() throws SparqlException {
+		advance();
+		while (true)
+			if (keyword("PREFIX")) {
+				if (kind != Kind.PREFIXED || !text.endsWith(":"))
+					throw error("prefix name");
+				String prefix = text.substring(0, text.length() - 1);
+				advance();
+				prefixes.put(prefix, iri());
+			} else if (keyword("BASE"))
+				base = iri();
+			else
+				break;
+		if (!keyword("SELECT"))
+			throw error("SELECT");
+		distinct = keyword("DISTINCT") || keyword("REDUCED");
+		boolean all = symbol("*");
+		if (!all)
+			do {
+				if (kind != Kind.VARIABLE)
+					throw error("variable");
+				projection.add(variable(text));
+				advance();
+			} while (kind == Kind.VARIABLE);
+		keyword("WHERE");
+		where = group();
+		if (all)
+			for (Map.Entry<String, Integer> variable : variables.entrySet())
+				if (!variable.getKey().startsWith("_:"))
+					projection.add(variable.getValue());
+		if (keyword("ORDER")) {
+			if (!keyword("BY"))
+				throw error("BY");
+			do {
+				boolean descending = false;
+				if (keyword("ASC") || (descending = keyword("DESC"))) {
+					expect("(");
+					order.add(expression());
+					expect(")");
+				} else if (kind == Kind.VARIABLE) {
+					order.add(new Expression.Variable(variable(text), text));
+					advance();
+				} else if (symbol("(")) {
+					order.add(expression());
+					expect(")");
+				} else
+					order.add(call());
+				this.descending.add(descending);
+			} while (kind != Kind.END && !isModifier());
+		}
+		while (kind != Kind.END)
+			if (keyword("LIMIT"))
+				limit = integer();
+			else if (keyword("OFFSET"))
+				offset = integer();
+			else
+				throw error("end of query");
+	}
+
+	private boolean isModifier() {
+		return kind == Kind.NAME
+				&& (text.equalsIgnoreCase("LIMIT") || text
+						.equalsIgnoreCase("OFFSET"));
+	}
+
+	private Group group() throws SparqlException {
+		expect("{");
+		Group group = new Group();
+		while (!symbol("}")) {
+			if (keyword("FILTER"))
+				group.filters.add(constraint());
+			else if (keyword("OPTIONAL"))
+				group.optionals.add(group());
+			else if (keyword("UNION") || keyword("MINUS")
+					|| keyword("GRAPH") || keyword("SERVICE")
+					|| keyword("BIND") || keyword("VALUES")
+					|| (kind == Kind.SYMBOL && text.equals("{")))
+				throw new SparqlException("Unsupported construct at "
+						+ start + ": only basic graph patterns, FILTER and"
+						+ " OPTIONAL are supported");
+			else
+				triples(group);
+			symbol(".");
+		}
+		return group;
+	}
+
+	private void triples(Group group) throws SparqlException {
+		Object subject = term(group);
+		if (!(kind == Kind.SYMBOL && (text.equals(".") || text.equals("}"))))
+			triples(group, subject, "}");
+	}
+
+	private void add(Group group, Object subject, Object predicate,
+			Object object) {
+		Pattern pattern = new Pattern();
+		Object[] terms = { subject, predicate, object };
+		for (int i = 0; i < 3; i++)
+			if (terms[i] instanceof Integer)
+				pattern.variables[i] = (Integer) terms[i];
+			else
+				pattern.values[i] = (Value) terms[i];
+		group.patterns.add(pattern);
+	}
+
+	// Returns a variable index or a constant Value
+	private Object term(Group group) throws SparqlException {
+		switch (kind) {
+		case VARIABLE:
+			Integer variable = variable(text);
+			advance();
+			return variable;
+		case BLANK:
+			variable = variable("_:" + text);
+			advance();
+			return variable;
+		case SYMBOL:
+			if (text.equals("[")) {
+				advance();
+				variable = variable("_:[]" + anonymous++);
+				if (!symbol("]")) {
+					triples(group, variable, "]");
+					expect("]");
+				}
+				return variable;
+			}
+			if (text.equals("(") || text.equals("-") || text.equals("+"))
+				return literal();
+			throw error("term");
+		default:
+			if (kind == Kind.IRI || kind == Kind.PREFIXED)
+				return Values.iri(iri());
+			return literal();
+		}
+	}
+
+	private void triples(Group group, Object subject, String end)
+			throws SparqlException {
+		do {
+			Object predicate;
+			if (kind == Kind.NAME && text.equals("a")) {
+				advance();
+				predicate = Values.iri(Expression.RDF + "type");
+			} else
+				predicate = term(group);
+			do
+				add(group, subject, predicate, term(group));
+			while (symbol(","));
+		} while (symbol(";")
+				&& !(kind == Kind.SYMBOL && (text.equals(".") || text
+						.equals(end))));
+	}
+
+	private Value literal() throws SparqlException {
+		String sign = "";
+		if (kind == Kind.SYMBOL && (text.equals("-") || text.equals("+"))) {
+			sign = text.equals("-") ? "-" : "";
+			advance();
+		}
+		String value = text;
+		switch (kind) {
+		case INTEGER:
+			advance();
+			return Values.literal(sign + value, Expression.XSD + "integer");
+		case DECIMAL:
+			advance();
+			return Values.literal(sign + value, Expression.XSD + "decimal");
+		case DOUBLE:
+			advance();
+			return Values.literal(sign + value, Expression.XSD + "double");
+		case NAME:
+			if (sign.length() == 0
+					&& (value.equals("true") || value.equals("false"))) {
+				advance();
+				return Values.literal(value, Expression.XSD + "boolean");
+			}
+			break;
+		case STRING:
+			if (sign.length() != 0)
+				break;
+			advance();
+			if (kind == Kind.LANGUAGE) {
+				String language = text;
+				advance();
+				return Values.string(value, language);
+			}
+			if (symbol("^^"))
+				return Values.literal(value, iri());
+			return Values.string(value);
+		default:
+		}
+		throw error("literal");
+	}
+
+	private String iri() throws SparqlException {
+		String iri;
+		if (kind == Kind.IRI)
+			iri = base != null && !text.contains(":") ? base + text : text;
+		else if (kind == Kind.PREFIXED) {
+			int colon = text.indexOf(':');
+			String namespace = prefixes.get(text.substring(0, colon));
+			if (namespace == null)
+				throw new SparqlException("Undeclared prefix in " + text);
+			iri = namespace + text.substring(colon + 1);
+		} else
+			throw error("IRI");
+		advance();
+		return iri;
+	}
+
+	private Expression constraint() throws SparqlException {
+		if (symbol("(")) {
+			Expression expression = expression();
+			expect(")");
+			return expression;
+		}
+		return call();
+	}
+
+	private Expression call() throws SparqlException {
+		if (kind != Kind.NAME)
+			throw error("function call");
+		String function = text;
+		advance();
+		expect("(");
+		List<Expression> arguments = new ArrayList<Expression>();
+		if (!symbol(")")) {
+			do
+				arguments.add(expression());
+			while (symbol(","));
+			expect(")");
+		}
+		return new Expression.Call(function, arguments);
+	}
+
+	private Expression expression() throws SparqlException {
+		Expression expression = conjunction();
+		while (symbol("||"))
+			expression = new Expression.Logical(false, expression,
+					conjunction());
+		return expression;
+	}
+
+	private Expression conjunction() throws SparqlException {
+		Expression expression = relational();
+		while (symbol("&&"))
+			expression = new Expression.Logical(true, expression,
+					relational());
+		return expression;
+	}
+
+	private Expression relational() throws SparqlException {
+		Expression expression = additive();
+		if (kind == Kind.SYMBOL
+				&& (text.equals("=") || text.equals("!=")
+						|| text.equals("<") || text.equals(">")
+						|| text.equals("<=") || text.equals(">="))) {
+			String operator = text;
+			advance();
+			expression = new Expression.Comparison(operator, expression,
+					additive());
+		}
+		return expression;
+	}
+
+	private Expression additive() throws SparqlException {
+		Expression expression = multiplicative();
+		while (kind == Kind.SYMBOL && (text.equals("+") || text.equals("-"))) {
+			char operator = text.charAt(0);
+			advance();
+			expression = new Expression.Arithmetic(operator, expression,
+					multiplicative());
+		}
+		return expression;
+	}
+
+	private Expression multiplicative() throws SparqlException {
+		Expression expression = unary();
+		while (kind == Kind.SYMBOL && (text.equals("*") || text.equals("/"))) {
+			char operator = text.charAt(0);
+			advance();
+			expression = new Expression.Arithmetic(operator, expression,
+					unary());
+		}
+		return expression;
+	}
+
+	private Expression unary() throws SparqlException {
+		if (symbol("!"))
+			return new Expression.Not(unary());
+		if (symbol("+"))
+			return unary();
+		if (symbol("-"))
+			return new Expression.Arithmetic('-', new Expression.Constant(
+					Values.literal("0", Expression.XSD + "integer")), unary());
+		if (symbol("(")) {
+			Expression expression = expression();
+			expect(")");
+			return expression;
+		}
+		switch (kind) {
+		case VARIABLE:
+			Expression variable = new Expression.Variable(variable(text),
+					text);
+			advance();
+			return variable;
+		case IRI:
+		case PREFIXED:
+			return new Expression.Constant(Values.iri(iri()));
+		case NAME:
+			if (!text.equals("true") && !text.equals("false"))
+				return call();
+			return new Expression.Constant(literal());
+		default:
+			return new Expression.Constant(literal());
+		}
+	}
+
+	private int variable(String name) {
+		Integer variable = variables.get(name);
+		if (variable == null)
+			variables.put(name, variable = variables.size());
+		return variable;
+	}
+
+	private long integer() throws SparqlException {
+		if (kind != Kind.INTEGER)
+			throw error("integer");
+		long value = Long.parseLong(text);
+		advance();
+		return value;
+	}
+
+	private boolean keyword(String keyword) throws SparqlException {
+		if (kind != Kind.NAME || !text.equalsIgnoreCase(keyword))
+			return false;
+		advance();
+		return true;
+	}
+
+	private boolean symbol(String symbol) throws SparqlException {
+		if (kind != Kind.SYMBOL || !text.equals(symbol))
+			return false;
+		advance();
+		return true;
+	}
+
+	private void expect(String symbol) throws SparqlException {
+		if (!symbol(symbol))
+			throw error("'" + symbol + "'");
+	}
+
+	private SparqlException error(String expected) {
+		return new SparqlException("Expected " + expected + " at " + start
+				+ " but found "
+				+ (kind == Kind.END ? "end of query" : "'" + text + "'"));
+	}
+
+	private void advance() throws SparqlException {
+		while (position < input.length()) {
+			char c = input.charAt(position);
+			if (c == '#')
+				while (position < input.length()
+						&& input.charAt(position) != '\n')
+					position++;
+			else if (Character.isWhitespace(c))
+				position++;
+			else
+				break;
+		}
+		start = position;
+		if (position == input.length()) {
+			kind = Kind.END;
+			text = "";
+			return;
+		}
+		char c = input.charAt(position);
+		if (c == '<') {
+			int end = position + 1;
+			while (end < input.length() && input.charAt(end) > ' '
+					&& "<>\"{}|^`\\".indexOf(input.charAt(end)) < 0)
+				end++;
+			if (end < input.length() && input.charAt(end) == '>') {
+				token(Kind.IRI, input.substring(position + 1, end), end + 1);
+				return;
+			}
+		}
+		if ((c == '?' || c == '$') && position + 1 < input.length()
+				&& isNameChar(input.charAt(position + 1))) {
+			token(Kind.VARIABLE, name(position + 1), position);
+			return;
+		}
+		if (c == '_' && input.startsWith("_:", position)) {
+			token(Kind.BLANK, name(position + 2), position);
+			return;
+		}
+		if (c == '"' || c == '\'') {
+			string(c);
+			return;
+		}
+		if (c == '@' && position + 1 < input.length()
+				&& Character.isLetter(input.charAt(position + 1))) {
+			token(Kind.LANGUAGE, name(position + 1), position);
+			return;
+		}
+		if (Character.isDigit(c)
+				|| (c == '.' && position + 1 < input.length() && Character
+						.isDigit(input.charAt(position + 1)))) {
+			number();
+			return;
+		}
+		if (Character.isLetter(c) || c == ':') {
+			String name = c == ':' ? "" : name(position);
+			if (position < input.length() && input.charAt(position) == ':') {
+				position++;
+				String local = position < input.length()
+						&& isNameChar(input.charAt(position)) ? name(position)
+						: "";
+				token(Kind.PREFIXED, name + ":" + local, position);
+			} else
+				token(Kind.NAME, name, position);
+			return;
+		}
+		for (String symbol : new String[] { "&&", "||", "!=", "<=", ">=",
+				"^^" })
+			if (input.startsWith(symbol, position)) {
+				token(Kind.SYMBOL, symbol, position + 2);
+				return;
+			}
+		if ("{}()[].;,*=<>!+-/".indexOf(c) < 0)
+			throw new SparqlException("Unexpected character '" + c + "' at "
+					+ position);
+		token(Kind.SYMBOL, String.valueOf(c), position + 1);
+	}
+
+	private void token(Kind kind, String text, int end) {
+		this.kind = kind;
+		this.text = text;
+		position = end;
+	}
+
+	private static boolean isNameChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '-';
+	}
+
+	// Reads a name from the given index, leaving position after it
+	private String name(int from) {
+		int end = from;
+		while (end < input.length()
+				&& (isNameChar(input.charAt(end)) || (input.charAt(end) == '.'
+						&& end + 1 < input.length() && isNameChar(input
+							.charAt(end + 1)))))
+			end++;
+		position = end;
+		return input.substring(from, end);
+	}
+
+	private void number() {
+		int end = position;
+		Kind kind = Kind.INTEGER;
+		while (end < input.length() && Character.isDigit(input.charAt(end)))
+			end++;
+		if (end + 1 < input.length() && input.charAt(end) == '.'
+				&& Character.isDigit(input.charAt(end + 1))) {
+			kind = Kind.DECIMAL;
+			end++;
+			while (end < input.length()
+					&& Character.isDigit(input.charAt(end)))
+				end++;
+		}
+		if (end < input.length()
+				&& (input.charAt(end) == 'e' || input.charAt(end) == 'E')) {
+			kind = Kind.DOUBLE;
+			end++;
+			if (end < input.length()
+					&& (input.charAt(end) == '+' || input.charAt(end) == '-'))
+				end++;
+			while (end < input.length()
+					&& Character.isDigit(input.charAt(end)))
+				end++;
+		}
+		token(kind, input.substring(position, end), end);
+	}
+
+	private void string(char quote) throws SparqlException {
+		String delimiter = input.startsWith("" + quote + quote + quote,
+				position) ? "" + quote + quote + quote : "" + quote;
+		int index = position + delimiter.length();
+		StringBuilder builder = new StringBuilder();
+		while (true) {
+			if (index >= input.length())
+				throw new SparqlException("Unterminated string at " + start);
+			if (input.startsWith(delimiter, index))
+				break;
+			char c = input.charAt(index++);
+			if (c != '\\') {
+				if (delimiter.length() == 1 && (c == '\n' || c == '\r'))
+					throw new SparqlException("Line break in string at "
+							+ start);
+				builder.append(c);
+				continue;
+			}
+			if (index >= input.length())
+				throw new SparqlException("Unterminated string at " + start);
+			c = input.charAt(index++);
+			switch (c) {
+			case 't':
+				builder.append('\t');
+				break;
+			case 'n':
+				builder.append('\n');
+				break;
+			case 'r':
+				builder.append('\r');
+				break;
+			case 'b':
+				builder.append('\b');
+				break;
+			case 'f':
+				builder.append('\f');
+				break;
+			case 'u':
+			case 'U':
+				int digits = c == 'u' ? 4 : 8;
+				try {
+					builder.appendCodePoint(Integer.parseInt(
+							input.substring(index, index + digits), 16));
+				} catch (RuntimeException e) {
+					throw new SparqlException("Invalid escape at " + index);
+				}
+				index += digits;
+				break;
+			case '"':
+			case '\'':
+			case '\\':
+				builder.append(c);
+				break;
+			default:
+				throw new SparqlException("Invalid escape at " + index);
+			}
+		}
+		token(Kind.STRING, builder.toString(), index + delimiter.length());
+	}
+
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.sparql;
+
+import java.util.Set;
+
+import org.openapplication.graph.Value;
+
+final class Pattern {
+
+	// A variable index for each position, or -1 where the value is fixed
+	final int[] variables = { -1, -1, -1 };
+
+	final Value[] values = new Value[3];
+
+	void addVariables(Set<Integer> variables) {
+		for (int variable : this.variables)
+			if (variable >= 0)
+				variables.add(variable);
+	}
+
+	boolean isConnected(Set<Integer> variables) {
+		for (int variable : this.variables)
+			if (variable >= 0 && variables.contains(variable))
+				return true;
+		return false;
+	}
+
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.sparql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openapplication.graph.Value;
+import org.openapplication.graph.store.Graph;
+
+// Orders patterns greedily by estimated result size and picks the cheapest
+// join for each step. Estimates come from per-predicate statement counts:
+// a bound subject leaves about one subject's share of those statements and
+// a bound object is assumed to keep the square root of them.
+final class Planner {
+
+	private static final double SELECTIVITY = 0.5;
+
+	private static final double RANGE_SELECTIVITY = 0.3;
+
+	private final Operator.Context context;
+
+	private final double statements, terms, probe;
+
+	Planner(Operator.Context context) {
+		this.context = context;
+		Graph graph = context.graph;
+		statements = graph.size();
+		terms = Math.max(1, graph.getTerms());
+		probe = Math.log(statements + 2) / Math.log(2);
+	}
+
+	Operator plan(Group group, Set<Integer> bound) {
+		Map<Integer, Operator.Range> ranges = new HashMap<Integer, Operator.Range>();
+		for (Expression expression : group.filters)
+			bounds(expression, ranges);
+		Set<Integer> known = new HashSet<Integer>(bound);
+		List<Pattern> remaining = new ArrayList<Pattern>(group.patterns);
+		List<Expression> filters = new ArrayList<Expression>(group.filters);
+		Operator plan = null;
+		while (!remaining.isEmpty()) {
+			Operator.Scan next = null;
+			double best = Double.POSITIVE_INFINITY;
+			boolean connected = false;
+			for (Pattern pattern : remaining) {
+				boolean joins = plan == null || pattern.isConnected(known);
+				if (connected && !joins)
+					continue;
+				Operator.Scan scan = new Operator.Scan(context, pattern);
+				range(scan, ranges);
+				double estimate = estimate(scan, known);
+				if ((joins && !connected) || estimate < best) {
+					next = scan;
+					best = estimate;
+					connected = joins;
+				}
+			}
+			remaining.remove(next.pattern);
+			plan = plan == null ? scan(next, known) : join(plan, next,
+					bound, known);
+			next.pattern.addVariables(known);
+			plan = filter(plan, filters, known);
+		}
+		if (plan == null)
+			plan = filter(new Operator.Unit(context), filters, known);
+		for (Group optional : group.optionals) {
+			Operator right = plan(optional, known);
+			Operator joined = new Operator.Optional(plan, right);
+			joined.cardinality = plan.cardinality
+					* Math.max(1, right.cardinality);
+			joined.cost = plan.cost + plan.cardinality * right.cost;
+			plan = joined;
+			optional.addVariables(known);
+		}
+		for (Expression expression : filters)
+			plan = filter(plan, expression);
+		return plan;
+	}
+
+	// Collects comparisons of variables with numbers or times, taking the
+	// first bound found on each side; the filters stay in the plan
+	private static void bounds(Expression expression,
+			Map<Integer, Operator.Range> ranges) {
+		if (expression instanceof Expression.Logical
+				&& ((Expression.Logical) expression).and) {
+			bounds(((Expression.Logical) expression).left, ranges);
+			bounds(((Expression.Logical) expression).right, ranges);
+			return;
+		}
+		if (!(expression instanceof Expression.Comparison))
+			return;
+		Expression.Comparison comparison = (Expression.Comparison) expression;
+		String operator = comparison.operator;
+		Expression left = comparison.left, right = comparison.right;
+		if (left instanceof Expression.Constant
+				&& right instanceof Expression.Variable) {
+			left = comparison.right;
+			right = comparison.left;
+			operator = operator.replace('<', '_').replace('>', '<')
+					.replace('_', '>');
+		}
+		if (!(left instanceof Expression.Variable)
+				|| !(right instanceof Expression.Constant)
+				|| operator.equals("!="))
+			return;
+		Value value = ((Expression.Constant) right).value;
+		if (!Expression.isNumeric(value) && !isTemporal(value))
+			return;
+		int variable = ((Expression.Variable) left).variable;
+		Operator.Range range = ranges.get(variable);
+		if (range == null)
+			ranges.put(variable, range = new Operator.Range());
+		if (operator.indexOf('>') >= 0 || operator.equals("=")) {
+			if (range.min == null) {
+				range.min = value;
+				range.minInclusive = !operator.equals(">");
+			}
+		}
+		if (operator.indexOf('<') >= 0 || operator.equals("=")) {
+			if (range.max == null) {
+				range.max = value;
+				range.maxInclusive = !operator.equals("<");
+			}
+		}
+	}
+
+	private static boolean isTemporal(Value value) {
+		String type = Expression.isLiteral(value) ? value.getType() : null;
+		return (Expression.XSD + "dateTime").equals(type)
+				|| (Expression.XSD + "date").equals(type)
+				|| (Expression.XSD + "dateTimeStamp").equals(type);
+	}
+
+	private void range(Operator.Scan scan,
+			Map<Integer, Operator.Range> ranges) {
+		Pattern pattern = scan.pattern;
+		int object = pattern.variables[2];
+		if (object >= 0 && pattern.variables[1] < 0 && !scan.isEmpty()
+				&& object != pattern.variables[0] && ranges.containsKey(object)
+				&& context.graph.hasRangeIndex(scan.ids[1])) {
+			Operator.Range range = ranges.get(object);
+			// Bounds of different kinds cannot both hold
+			if (range.min == null || range.max == null
+					|| Expression.isNumeric(range.min) == Expression
+							.isNumeric(range.max))
+				scan.range = range;
+		}
+	}
+
+	// Applies the filters whose variables are all bound by now
+	private Operator filter(Operator plan, List<Expression> filters,
+			Set<Integer> known) {
+		for (Iterator<Expression> i = filters.iterator(); i.hasNext();) {
+			Expression expression = i.next();
+			Set<Integer> variables = new HashSet<Integer>();
+			expression.addVariables(variables);
+			if (known.containsAll(variables)) {
+				plan = filter(plan, expression);
+				i.remove();
+			}
+		}
+		return plan;
+	}
+
+	private Operator filter(Operator plan, Expression expression) {
+		Operator filter = new Operator.Filter(plan, expression);
+		filter.cardinality = plan.cardinality * SELECTIVITY;
+		filter.cost = plan.cost + plan.cardinality;
+		return filter;
+	}
+
+	private Operator scan(Operator.Scan scan, Set<Integer> known) {
+		scan.cardinality = estimate(scan, known);
+		scan.cost = probe + scan.cardinality;
+		scan.sortedBy = sortedBy(scan.pattern, known);
+		return scan;
+	}
+
+	private Operator join(Operator left, Operator.Scan right,
+			Set<Integer> bound, Set<Integer> known) {
+		double perRow = estimate(right, known);
+		double alone = estimate(right, bound);
+		double indexCost = left.cost + left.cardinality * (probe + perRow);
+		double hashCost = left.cost + left.cardinality + probe + alone;
+		int variable = sortedBy(right.pattern, bound);
+		Operator join;
+		if (variable >= 0 && variable == left.sortedBy
+				&& left.cost + probe + alone <= indexCost) {
+			scan(right, bound);
+			join = new Operator.MergeJoin(left, right, variable);
+			join.cost = left.cost + right.cost;
+		} else if (hashCost < indexCost) {
+			scan(right, bound);
+			List<Integer> shared = new ArrayList<Integer>();
+			for (int v : right.pattern.variables)
+				if (v >= 0 && known.contains(v) && !bound.contains(v)
+						&& !shared.contains(v))
+					shared.add(v);
+			int[] variables = new int[shared.size()];
+			for (int i = 0; i < variables.length; i++)
+				variables[i] = shared.get(i);
+			join = new Operator.HashJoin(left, right, variables);
+			join.cost = hashCost;
+		} else {
+			scan(right, known);
+			right.cost = probe + perRow;
+			join = new Operator.IndexJoin(left, right);
+			join.cost = indexCost;
+		}
+		join.cardinality = left.cardinality * perRow;
+		return join;
+	}
+
+	// A pattern with only its subject open lists subjects in id order
+	private static int sortedBy(Pattern pattern, Set<Integer> known) {
+		int subject = pattern.variables[0];
+		if (subject < 0 || known.contains(subject))
+			return -1;
+		for (int i = 1; i < 3; i++)
+			if (pattern.variables[i] >= 0
+					&& !known.contains(pattern.variables[i]))
+				return -1;
+		return subject;
+	}
+
+	private boolean isKnown(Pattern pattern, int position, Set<Integer> known) {
+		int variable = pattern.variables[position];
+		return variable < 0 || known.contains(variable);
+	}
+
+	double estimate(Operator.Scan scan, Set<Integer> known) {
+		if (scan.isEmpty())
+			return 0;
+		Pattern pattern = scan.pattern;
+		double estimate;
+		if (pattern.variables[1] < 0)
+			estimate = context.graph.cardinality(scan.ids[1]);
+		else if (known.contains(pattern.variables[1]))
+			estimate = statements / Math.sqrt(terms);
+		else
+			estimate = statements;
+		boolean subject = isKnown(pattern, 0, known);
+		boolean object = isKnown(pattern, 2, known);
+		if (subject && object)
+			return Math.min(estimate / terms, 1);
+		if (subject)
+			return Math.max(1, estimate / Math.min(Math.max(estimate, 1),
+					terms));
+		if (object)
+			return Math.sqrt(estimate);
+		if (scan.range != null && scan.range.min != null
+				&& scan.range.max != null)
+			return estimate * RANGE_SELECTIVITY * RANGE_SELECTIVITY;
+		if (scan.range != null)
+			return estimate * RANGE_SELECTIVITY;
+		return estimate;
+	}
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.sparql;
+
+import java.util.AbstractList;
+import java.util.List;
+
+import org.openapplication.graph.Value;
+import org.openapplication.graph.store.Graph;
+
+public final class Solution {
+
+	private final Graph graph;
+
+	private final List<String> variables;
+
+	private final int[] projection;
+
+	private final long[] row;
+
+	Solution(Graph graph, List<String> variables, int[] projection,
+			long[] row) {
+		this.graph = graph;
+		this.variables = variables;
+		this.projection = projection;
+		this.row = row;
+	}
+
+	public List<String> getVariables() {
+		return variables;
+	}
+
+	public List<Value> getValues() {
+		return new AbstractList<Value>() {
+
+			@Override
+			public Value get(int index) {
+				long id = row[projection[index]];
+				return id == 0 ? null : graph.getValue(id);
+			}
+
+			@Override
+			public int size() {
+				return projection.length;
+			}
+
+		};
+	}
+
+	// Returns null for an unbound variable
+	public Value get(String variable) {
+		if (variable.startsWith("?") || variable.startsWith("$"))
+			variable = variable.substring(1);
+		int index = variables.indexOf(variable);
+		if (index < 0)
+			throw new IllegalArgumentException("Not selected: " + variable);
+		return getValues().get(index);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("{");
+		List<Value> values = getValues();
+		for (int i = 0; i < projection.length; i++) {
+			Value value = values.get(i);
+			builder.append(i == 0 ? "" : ", ").append('?')
+					.append(variables.get(i)).append('=');
+			if (value == null)
+				builder.append("UNDEF");
+			else if (value.isIri())
+				builder.append('<').append(value.toIri()).append('>');
+			else if (value.getId() != null)
+				builder.append("_:").append(value.getId());
+			else
+				builder.append('"').append(value.getString()).append('"');
+		}
+		return builder.append('}').toString();
+	}
+
+}
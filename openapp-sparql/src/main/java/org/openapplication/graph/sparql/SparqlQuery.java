@@ -0,0 +1,349 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.sparql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.openapplication.graph.Value;
+import org.openapplication.graph.management.GraphListener;
+import org.openapplication.graph.management.GraphMetrics;
+import org.openapplication.graph.management.GraphOperation;
+import org.openapplication.graph.management.MeasuredIterable;
+import org.openapplication.graph.store.Cancellation;
+import org.openapplication.graph.store.Graph;
+
+// A SELECT query over basic graph patterns with FILTER, OPTIONAL,
+// DISTINCT, ORDER BY, LIMIT and OFFSET. Each evaluation plans against the
+// current index statistics of the graph and streams its solutions.
+public final class SparqlQuery {
+
+	private final String text;
+
+	private final String[] names;
+
+	private final List<String> variables;
+
+	private final int[] projection;
+
+	private final boolean distinct;
+
+	private final Group where;
+
+	private final Expression[] order;
+
+	private final boolean[] descending;
+
+	private final long offset, limit;
+
+	// How each variable is written back; blank nodes keep their labels,
+	// and anonymous ones get labels that no other blank node uses
+	private final String[] labels;
+
+	private SparqlQuery(String text, Parser parser) {
+		this.text = text;
+		names = new String[parser.variables.size()];
+		for (Map.Entry<String, Integer> variable : parser.variables
+				.entrySet())
+			names[variable.getValue()] = variable.getKey();
+		projection = new int[parser.projection.size()];
+		String[] selected = new String[projection.length];
+		for (int i = 0; i < projection.length; i++)
+			selected[i] = names[projection[i] = parser.projection.get(i)];
+		variables = Collections.unmodifiableList(Arrays.asList(selected));
+		distinct = parser.distinct;
+		where = parser.where;
+		order = parser.order.toArray(new Expression[parser.order.size()]);
+		descending = new boolean[order.length];
+		for (int i = 0; i < order.length; i++)
+			descending[i] = parser.descending.get(i);
+		offset = parser.offset;
+		limit = parser.limit;
+		labels = new String[names.length];
+		int anonymous = 0;
+		for (int i = 0; i < names.length; i++)
+			if (!names[i].startsWith("_:"))
+				labels[i] = "?" + names[i];
+			else if (!names[i].startsWith("_:[]"))
+				labels[i] = names[i];
+			else {
+				while (parser.variables.containsKey("_:b" + anonymous))
+					anonymous++;
+				labels[i] = "_:b" + anonymous++;
+			}
+	}
+
+	public static SparqlQuery parse(String query) throws SparqlException {
+		Parser parser = new Parser(query);
+		parser.parse();
+		return new SparqlQuery(query, parser);
+	}
+
+	public List<String> getVariables() {
+		return variables;
+	}
+
+	public Iterable<Solution> select(Graph graph) {
+		return select(graph, null);
+	}
+
+	public Iterable<Solution> select(final Graph graph,
+			final Cancellation cancellation) {
+		Iterable<Solution> solutions = new Iterable<Solution>() {
+
+			@Override
+			public Iterator<Solution> iterator() {
+				Operator.Context context = new Operator.Context(graph,
+						cancellation, names);
+				Operator plan = new Planner(context).plan(where,
+						Collections.<Integer> emptySet());
+				return solutions(context, plan.open(new long[names.length]));
+			}
+
+		};
+		GraphListener listener = GraphMetrics.getListener();
+		return listener == null ? solutions : new MeasuredIterable<Solution>(
+				solutions, GraphOperation.QUERY, text, listener);
+	}
+
+	public String explain(Graph graph) {
+		Operator.Context context = new Operator.Context(graph, null, names);
+		Operator plan = new Planner(context).plan(where,
+				Collections.<Integer> emptySet());
+		StringBuilder builder = new StringBuilder();
+		if (limit >= 0 || offset > 0)
+			builder.append("Slice offset=").append(offset).append(" limit=")
+					.append(limit).append('\n');
+		if (distinct)
+			builder.append("Distinct\n");
+		if (order.length != 0) {
+			builder.append("Sort");
+			for (int i = 0; i < order.length; i++)
+				builder.append(descending[i] ? " DESC(" : " ASC(")
+						.append(order[i]).append(')');
+			if (top() >= 0)
+				builder.append(" top=").append(top());
+			builder.append('\n');
+		}
+		plan.explain(builder, "");
+		return builder.toString();
+	}
+
+	private Iterator<Solution> solutions(final Operator.Context context,
+			Operator.Cursor rows) {
+		if (order.length != 0)
+			rows = sort(context, rows);
+		final Operator.Cursor cursor = rows;
+		return new Iterator<Solution>() {
+
+			private final Set<List<Long>> seen = distinct ? new HashSet<List<Long>>()
+					: null;
+
+			private long skipped, returned;
+
+			private Solution next;
+
+			@Override
+			public boolean hasNext() {
+				while (next == null) {
+					if (limit >= 0 && returned >= limit)
+						return false;
+					if (!cursor.next())
+						return false;
+					long[] row = cursor.row();
+					if (seen != null) {
+						List<Long> key = new ArrayList<Long>(projection.length);
+						for (int variable : projection)
+							key.add(row[variable]);
+						if (!seen.add(key))
+							continue;
+					}
+					if (skipped < offset) {
+						skipped++;
+						continue;
+					}
+					returned++;
+					next = new Solution(context.graph, variables, projection,
+							row);
+				}
+				return true;
+			}
+
+			@Override
+			public Solution next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				Solution solution = next;
+				next = null;
+				return solution;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+		};
+	}
+
+	// With a limit and no DISTINCT, only the first offset + limit rows of
+	// the order are needed, which a bounded heap keeps; -1 otherwise
+	private long top() {
+		if (limit < 0 || distinct || offset + limit < 0
+				|| offset + limit >= Integer.MAX_VALUE)
+			return -1;
+		return offset + limit;
+	}
+
+	private static final class Sorted {
+
+		final long[] row;
+
+		final Value[] key;
+
+		final long sequence;
+
+		Sorted(long[] row, Value[] key, long sequence) {
+			this.row = row;
+			this.key = key;
+			this.sequence = sequence;
+		}
+
+	}
+
+	private Operator.Cursor sort(Operator.Context context,
+			Operator.Cursor rows) {
+		// Equal keys keep the order in which the rows came
+		Comparator<Sorted> comparator = new Comparator<Sorted>() {
+
+			@Override
+			public int compare(Sorted a, Sorted b) {
+				for (int i = 0; i < order.length; i++) {
+					int comparison = Expression.compare(a.key[i], b.key[i]);
+					if (comparison != 0)
+						return descending[i] ? -comparison : comparison;
+				}
+				return a.sequence < b.sequence ? -1
+						: a.sequence > b.sequence ? 1 : 0;
+			}
+
+		};
+		long top = top();
+		Collection<Sorted> kept;
+		if (top >= 0) {
+			PriorityQueue<Sorted> heap = new PriorityQueue<Sorted>(
+					(int) Math.min(top + 1, 1024),
+					Collections.reverseOrder(comparator));
+			kept = heap;
+			for (long sequence = 0; top > 0 && rows.next(); sequence++) {
+				Sorted row = sorted(context, rows.row(), sequence);
+				if (heap.size() < top)
+					heap.add(row);
+				else if (comparator.compare(row, heap.peek()) < 0) {
+					heap.poll();
+					heap.add(row);
+				}
+			}
+		} else {
+			kept = new ArrayList<Sorted>();
+			for (long sequence = 0; rows.next(); sequence++)
+				kept.add(sorted(context, rows.row(), sequence));
+		}
+		final Sorted[] sorted = kept.toArray(new Sorted[kept.size()]);
+		Arrays.sort(sorted, comparator);
+		return new Operator.Cursor() {
+
+			private int index = -1;
+
+			@Override
+			public boolean next() {
+				return ++index < sorted.length;
+			}
+
+			@Override
+			public long[] row() {
+				return sorted[index].row;
+			}
+
+		};
+	}
+
+	private Sorted sorted(Operator.Context context, long[] row,
+			long sequence) {
+		Expression.Bindings bindings = Operator.bindings(context, row);
+		Value[] key = new Value[order.length];
+		for (int i = 0; i < order.length; i++)
+			key[i] = order[i].evaluate(bindings);
+		return new Sorted(row, key, sequence);
+	}
+
+	private void append(StringBuilder builder, Group group) {
+		builder.append("{ ");
+		for (Pattern pattern : group.patterns) {
+			for (int i = 0; i < 3; i++) {
+				int variable = pattern.variables[i];
+				builder.append(variable >= 0 ? labels[variable]
+						: Expression.toString(pattern.values[i]));
+				builder.append(' ');
+			}
+			builder.append(". ");
+		}
+		for (Expression filter : group.filters)
+			builder.append("FILTER (").append(filter).append(") ");
+		for (Group optional : group.optionals) {
+			builder.append("OPTIONAL ");
+			append(builder, optional);
+			builder.append(' ');
+		}
+		builder.append('}');
+	}
+
+	// Writes the query in a form that parses to the same query
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("SELECT ");
+		if (distinct)
+			builder.append("DISTINCT ");
+		if (projection.length == 0)
+			builder.append("* ");
+		for (int variable : projection)
+			builder.append(labels[variable]).append(' ');
+		builder.append("WHERE ");
+		append(builder, where);
+		if (order.length != 0) {
+			builder.append(" ORDER BY");
+			for (int i = 0; i < order.length; i++)
+				builder.append(descending[i] ? " DESC(" : " ASC(")
+						.append(order[i]).append(')');
+		}
+		if (offset > 0)
+			builder.append(" OFFSET ").append(offset);
+		if (limit >= 0)
+			builder.append(" LIMIT ").append(limit);
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.sparql.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openapplication.graph.Triple;
+import org.openapplication.graph.Value;
+import org.openapplication.graph.Values;
+import org.openapplication.graph.sparql.Solution;
+import org.openapplication.graph.sparql.SparqlException;
+import org.openapplication.graph.sparql.SparqlQuery;
+import org.openapplication.graph.store.Graph;
+
+public class SparqlQueryTest {
+
+	private static final String EX = "http://example.com/";
+
+	private static final String XSD = "http://www.w3.org/2001/XMLSchema#";
+
+	private static final String PREFIX = "PREFIX : <" + EX + "> ";
+
+	private Graph graph;
+
+	private static Value iri(String name) {
+		return Values.iri(EX + name);
+	}
+
+	private static void person(List<Triple> triples, String id, String name,
+			int age, String... knows) {
+		triples.add(Values.triple(iri(id), iri("name"), Values.string(name)));
+		triples.add(Values.triple(iri(id), iri("age"),
+				Values.literal(Integer.toString(age), XSD + "integer")));
+		for (String other : knows)
+			triples.add(Values.triple(iri(id), iri("knows"), iri(other)));
+	}
+
+	private static String text(Value value) {
+		if (value == null)
+			return null;
+		return value.isIri() ? value.toIri().substring(EX.length()) : value
+				.getString();
+	}
+
+	// Each solution as its selected values, joined by spaces
+	private List<String> select(String query) throws SparqlException {
+		List<String> rows = new ArrayList<String>();
+		for (Solution solution : SparqlQuery.parse(PREFIX + query).select(
+				graph)) {
+			StringBuilder row = new StringBuilder();
+			for (Value value : solution.getValues())
+				row.append(row.length() == 0 ? "" : " ").append(text(value));
+			rows.add(row.toString());
+		}
+		return rows;
+	}
+
+	private Set<String> selectSet(String query) throws SparqlException {
+		return new HashSet<String>(select(query));
+	}
+
+	private static Set<String> set(String... rows) {
+		return new HashSet<String>(Arrays.asList(rows));
+	}
+
+	@Before
+	public void setUp() {
+		List<Triple> triples = new ArrayList<Triple>();
+		person(triples, "alice", "Alice", 34, "bob", "carol");
+		person(triples, "bob", "Bob", 28, "carol");
+		person(triples, "carol", "Carol", 41);
+		person(triples, "dave", "Dave", 28);
+		triples.add(Values.triple(iri("alice"), iri("email"),
+				Values.string("alice@example.com")));
+		triples.add(Values.triple(iri("carol"), iri("email"),
+				Values.string("carol@example.com")));
+		graph = new Graph();
+		graph.add(triples);
+	}
+
+	@Test
+	public void testRoundTrip() throws SparqlException {
+		String[] queries = {
+				"SELECT ?n WHERE { ?p :name ?n }",
+				"SELECT DISTINCT ?a ?b WHERE { ?a :knows ?b . "
+						+ "?b :knows [ :name ?n ] }",
+				"SELECT * { _:x :name ?n ; :age ?age "
+						+ "FILTER (?age >= 30 && regex(?n, \"^A\")) }",
+				"SELECT ?n ?e WHERE { ?p :name ?n OPTIONAL { ?p :email ?e "
+						+ "FILTER (!bound(?e) || ?e != \"x\\\"y\\\\z\\n\"@en) } }",
+				"SELECT ?p WHERE { ?p :age ?age } "
+						+ "ORDER BY DESC(?age) ?p OFFSET 1 LIMIT 2",
+				"SELECT ?p WHERE { ?p a :Person ; :age -3.5 FILTER "
+						+ "(?age * 2 - 1 < \"5\"^^<" + XSD + "integer>) }" };
+		for (String query : queries) {
+			SparqlQuery parsed = SparqlQuery.parse(PREFIX + query);
+			SparqlQuery reparsed = SparqlQuery.parse(parsed.toString());
+			assertEquals(parsed.toString(), reparsed.toString());
+			assertEquals(parsed.getVariables(), reparsed.getVariables());
+			assertEquals(select(query).size(), size(reparsed));
+		}
+	}
+
+	private int size(SparqlQuery query) {
+		int size = 0;
+		for (@SuppressWarnings("unused")
+		Solution solution : query.select(graph))
+			size++;
+		return size;
+	}
+
+	@Test
+	public void testJoin() throws SparqlException {
+		assertEquals(set("Alice Bob", "Alice Carol", "Bob Carol"),
+				selectSet("SELECT ?a ?b WHERE { ?x :knows ?y . "
+						+ "?x :name ?a . ?y :name ?b }"));
+		assertEquals(set("Alice"),
+				selectSet("SELECT ?a WHERE { ?x :knows ?y . ?y :knows ?z . "
+						+ "?x :name ?a }"));
+	}
+
+	@Test
+	public void testOptional() throws SparqlException {
+		assertEquals(
+				set("Alice alice@example.com", "Bob null",
+						"Carol carol@example.com", "Dave null"),
+				selectSet("SELECT ?n ?e WHERE { ?p :name ?n "
+						+ "OPTIONAL { ?p :email ?e } }"));
+		assertEquals(set("Bob", "Dave"),
+				selectSet("SELECT ?n WHERE { ?p :name ?n "
+						+ "OPTIONAL { ?p :email ?e } FILTER (!bound(?e)) }"));
+	}
+
+	@Test
+	public void testFilter() throws SparqlException {
+		assertEquals(set("Alice", "Carol"),
+				selectSet("SELECT ?n WHERE { ?p :name ?n ; :age ?age "
+						+ "FILTER (?age > 30) }"));
+		assertEquals(set("Bob", "Dave"),
+				selectSet("SELECT ?n WHERE { ?p :name ?n ; :age ?age "
+						+ "FILTER (?age = 28 && ?n != \"Eve\") }"));
+		assertEquals(set(), selectSet("SELECT ?n WHERE { ?p :name ?n "
+				+ "FILTER (?n = \"Eve\") }"));
+	}
+
+	@Test
+	public void testOrderBy() throws SparqlException {
+		assertEquals(Arrays.asList("Carol", "Alice", "Bob", "Dave"),
+				select("SELECT ?n WHERE { ?p :name ?n ; :age ?age } "
+						+ "ORDER BY DESC(?age) ?n"));
+		assertEquals(Arrays.asList("Bob", "Dave", "Alice", "Carol"),
+				select("SELECT ?n WHERE { ?p :name ?n ; :age ?age } "
+						+ "ORDER BY ?age ?n"));
+	}
+
+	@Test
+	public void testOrderByLimit() throws SparqlException {
+		String query = "SELECT ?n WHERE { ?p :name ?n ; :age ?age } "
+				+ "ORDER BY ?age";
+		List<String> all = select(query);
+		for (int offset = 0; offset <= 4; offset++)
+			for (int limit = 0; limit <= 5; limit++)
+				assertEquals(
+						all.subList(Math.min(offset, 4),
+								Math.min(offset + limit, 4)),
+						select(query + " OFFSET " + offset + " LIMIT " + limit));
+		assertTrue(SparqlQuery.parse(PREFIX + query + " LIMIT 2")
+				.explain(graph).contains("top=2"));
+		assertFalse(SparqlQuery.parse(PREFIX + query + " LIMIT 2")
+				.toString().contains("top"));
+		assertFalse(SparqlQuery.parse(PREFIX + "SELECT DISTINCT ?age WHERE "
+				+ "{ ?p :age ?age } ORDER BY ?age LIMIT 2").explain(graph)
+				.contains("top="));
+		assertEquals(Arrays.asList("28", "34"),
+				select("SELECT DISTINCT ?age WHERE { ?p :age ?age } "
+						+ "ORDER BY ?age LIMIT 2"));
+	}
+
+	@Test(expected = SparqlException.class)
+	public void testUnsupported() throws SparqlException {
+		SparqlQuery.parse("SELECT ?s WHERE { { ?s ?p ?o } UNION "
+				+ "{ ?o ?p ?s } }");
+	}
+
+}
@@ -18,6 +18,8 @@ package org.openapplication.graph.turtle;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
 
 import org.openapplication.graph.streaming.GraphWriter;
@@ -26,10 +28,20 @@ public class Turtle implements GraphWriter {
 
 	private static final Charset CHARSET = Charset.forName("UTF-8");
 
+	private static final int BUFFER_SIZE = 8192;
+
 	private static final byte[] PREFIX = "@prefix".getBytes(CHARSET);
 
 	private static final byte[] SENTENCE_END = " .\n".getBytes(CHARSET);
 
+	private static final byte[] PREDICATE_SEPARATOR = " ;\n\t"
+			.getBytes(CHARSET);
+
+	private static final byte[] OBJECT_SEPARATOR = " ,\n\t\t"
+			.getBytes(CHARSET);
+
+	private static final byte[] DATA_TYPE = "^^".getBytes(CHARSET);
+
 	private static final byte[] ESCAPE_SEQ_NUMERIC_FOUR = " \\u"
 			.getBytes(CHARSET);
 
@@ -40,9 +52,9 @@ public class Turtle implements GraphWriter {
 
 	private static final int COLON = ':';
 
-	private static final int SEMI_COLON = ';';
+	private static final int AT = '@';
 
-	private static final int COMMA = ',';
+	private static final int BACKSLASH = '\\';
 
 	private static final int LESS_THAN = '<';
 
@@ -60,44 +72,119 @@ public class Turtle implements GraphWriter {
 
 	private final Map<String, String> namespaces;
 
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	private int position;
+
+	private int maxStripes = 2;
+
+	// Subject and predicate of the open statement, used for grouping
+	private String currentSubject, currentPredicate;
+
+	// Whether a predicate has been written at the current level
+	private boolean statementOpen;
+
+	// Whether an object has been written for the current predicate
+	private boolean objectWritten;
+
+	// Whether the open statement has an anonymous node as its subject and
+	// no predicate yet
+	private boolean anonymousSubject;
+
+	private final Deque<Object[]> definitions = new ArrayDeque<Object[]>();
+
 	public Turtle(OutputStream out, Map<String, String> namespaces)
 			throws IOException {
 		this.out = out;
 		this.namespaces = namespaces;
 		for (Map.Entry<String, String> namespace : namespaces.entrySet()) {
-			out.write(PREFIX);
-			out.write(SPACE);
+			write(PREFIX);
+			write(SPACE);
 			escapeIRI(namespace.getKey());
-			out.write(COLON);
-			out.write(SPACE);
+			write(COLON);
+			write(SPACE);
 			escapeIRI(namespace.getValue());
-			out.write(SENTENCE_END);
+			write(SENTENCE_END);
 		}
-		out.write(NEW_LINE);
+		write(NEW_LINE);
 	}
 
 	@Override
 	public void writeStatement(String graph, String subject, String predicate,
 			String object, String literal, String language, String dataType)
 			throws IOException {
+		if (object == null && literal == null)
+			throw new IllegalArgumentException("Statement without object");
 		if (graph != null)
 			return;
-		escapeIRI(subject);
-		out.write(SPACE);
-		escapeIRI(predicate);
-		out.write(SPACE);
-		if (object != null) {
-			escapeIRI(object);
-			out.write(SENTENCE_END);
-		} else if (literal != null) {
-			out.write(QUOT);
-			out.write(literal.getBytes(CHARSET)); // TODO
-			out.write(QUOT);
-			out.write(SENTENCE_END);
-			if (language != null) {
-			} else if (dataType != null) {
-			} else {
+		startStatement(subject, predicate);
+		if (object != null)
+			writeIRI(object);
+		else
+			writeLiteral(literal, language, dataType);
+		if (maxStripes < 1)
+			collapse();
+	}
+
+	private void startStatement(String subject, String predicate)
+			throws IOException {
+		if (!definitions.isEmpty())
+			collapse();
+		if (statementOpen && maxStripes > 0 && subject.equals(currentSubject)) {
+			if (maxStripes < 2 || !predicate.equals(currentPredicate)) {
+				write(PREDICATE_SEPARATOR);
+				writeResource(predicate);
+				write(SPACE);
+				currentPredicate = predicate;
+				objectWritten = false;
 			}
+		} else {
+			collapse();
+			writeResource(subject);
+			write(SPACE);
+			writeResource(predicate);
+			write(SPACE);
+			currentSubject = subject;
+			currentPredicate = predicate;
+			statementOpen = true;
+		}
+	}
+
+	private void writeObjectSeparator() throws IOException {
+		if (objectWritten)
+			write(OBJECT_SEPARATOR);
+		objectWritten = true;
+	}
+
+	private void writeResource(String value) throws IOException {
+		if (value.startsWith("_:"))
+			writeRaw(value);
+		else
+			escapeIRI(value);
+	}
+
+	private void write(int b) throws IOException {
+		if (position == BUFFER_SIZE)
+			flushBuffer();
+		buffer[position++] = (byte) b;
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		if (bytes.length > BUFFER_SIZE - position) {
+			flushBuffer();
+			if (bytes.length > BUFFER_SIZE) {
+				out.write(bytes);
+				return;
+			}
+		}
+		System.arraycopy(bytes, 0, buffer, position, bytes.length);
+		position += bytes.length;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (position > 0) {
+			out.write(buffer, 0, position);
+			position = 0;
 		}
 	}
 
@@ -118,7 +205,7 @@ public class Turtle implements GraphWriter {
 	private int charSequenceIndex, charSequenceLength;
 
 	private void escapeIRI(CharSequence value) throws IOException {
-		out.write(LESS_THAN);
+		write(LESS_THAN);
 		charSequence = value;
 		charSequenceLength = charSequence.length();
 		for (charSequenceIndex = 0; charSequenceIndex < charSequenceLength; charSequenceIndex++) {
@@ -145,13 +232,13 @@ public class Turtle implements GraphWriter {
 						escapeSeqNumeric((char) cc);
 					else
 						// IRI escaping is not required
-						out.write(cc);
+						write(cc);
 				}
 			else
 				// IRI escaping is not required
 				writeUTF8Seq(cc);
 		}
-		out.write(GREATER_THAN);
+		write(GREATER_THAN);
 	}
 
 	private void escapeLocal(CharSequence value) throws IOException {
@@ -159,26 +246,56 @@ public class Turtle implements GraphWriter {
 	}
 
 	private void escapeString(CharSequence value) throws IOException {
+		write(QUOT);
+		charSequence = value;
+		charSequenceLength = charSequence.length();
+		for (charSequenceIndex = 0; charSequenceIndex < charSequenceLength; charSequenceIndex++) {
+			// Get the next character, which for surrogate pairs is two chars
+			int cc = nextCodePoint();
 
+			// String escape
+			switch (cc) {
+			case '"':
+			case '\\':
+				write(BACKSLASH);
+				write(cc);
+				break;
+			case '\n':
+				write(BACKSLASH);
+				write('n');
+				break;
+			case '\r':
+				write(BACKSLASH);
+				write('r');
+				break;
+			case '\t':
+				write(BACKSLASH);
+				write('t');
+				break;
+			default:
+				writeUTF8Seq(cc);
+			}
+		}
+		write(QUOT);
 	}
 
 	private void escapeSeqNumeric(char c) throws IOException {
-		out.write(ESCAPE_SEQ_NUMERIC_FOUR);
-		out.write(toHexChar((c & 0xF000) >>> 12));
-		out.write(toHexChar((c & 0xF00) >>> 8));
-		out.write(toHexChar((c & 0xF0) >>> 4));
-		out.write(toHexChar(c & 0xF));
+		write(ESCAPE_SEQ_NUMERIC_FOUR);
+		write(toHexChar((c & 0xF000) >>> 12));
+		write(toHexChar((c & 0xF00) >>> 8));
+		write(toHexChar((c & 0xF0) >>> 4));
+		write(toHexChar(c & 0xF));
 	}
 
 	// private void writeEscapeSeqNumeric(int cc) throws IOException {
-	// out.write(ESCAPE_SEQ_NUMERIC_EIGHT);
+	// write(ESCAPE_SEQ_NUMERIC_EIGHT);
 	// // First two hex digits are always zero and have already been written
-	// out.write(toHexChar((cc & 0xF00000) >>> 20));
-	// out.write(toHexChar((cc & 0xF0000) >>> 16));
-	// out.write(toHexChar((cc & 0xF000) >>> 12));
-	// out.write(toHexChar((cc & 0xF00) >>> 8));
-	// out.write(toHexChar((cc & 0xF0) >>> 4));
-	// out.write(toHexChar(cc & 0xF));
+	// write(toHexChar((cc & 0xF00000) >>> 20));
+	// write(toHexChar((cc & 0xF0000) >>> 16));
+	// write(toHexChar((cc & 0xF000) >>> 12));
+	// write(toHexChar((cc & 0xF00) >>> 8));
+	// write(toHexChar((cc & 0xF0) >>> 4));
+	// write(toHexChar(cc & 0xF));
 	// }
 
 	private int nextCodePoint() {
@@ -207,20 +324,23 @@ public class Turtle implements GraphWriter {
 	}
 
 	private void writeUTF8Seq(int cc) throws IOException {
+		// Make room for the longest sequence so bytes go straight to buffer
+		if (position > BUFFER_SIZE - 4)
+			flushBuffer();
 		if (cc <= 0x7F) {
-			out.write(cc);
+			buffer[position++] = (byte) cc;
 		} else if (cc <= 0x7FF) {
-			out.write(0xC0 | (cc >>> 6));
-			out.write(0x80 | (cc & 0x3F));
+			buffer[position++] = (byte) (0xC0 | (cc >>> 6));
+			buffer[position++] = (byte) (0x80 | (cc & 0x3F));
 		} else if (cc <= 0xFFFF) {
-			out.write(0xE0 | (cc >>> 12));
-			out.write(0x80 | ((cc >>> 6) & 0x3F));
-			out.write(0x80 | (cc & 0x3F));
+			buffer[position++] = (byte) (0xE0 | (cc >>> 12));
+			buffer[position++] = (byte) (0x80 | ((cc >>> 6) & 0x3F));
+			buffer[position++] = (byte) (0x80 | (cc & 0x3F));
 		} else { // if (cc <= 0x1FFFFF) {
-			out.write(0xF0 | (cc >>> 18));
-			out.write(0x80 | ((cc >>> 12) & 0x3F));
-			out.write(0x80 | ((cc >>> 6) & 0x3F));
-			out.write(0x80 | (cc & 0x3F));
+			buffer[position++] = (byte) (0xF0 | (cc >>> 18));
+			buffer[position++] = (byte) (0x80 | ((cc >>> 12) & 0x3F));
+			buffer[position++] = (byte) (0x80 | ((cc >>> 6) & 0x3F));
+			buffer[position++] = (byte) (0x80 | (cc & 0x3F));
 		}
 	}
 
@@ -230,96 +350,137 @@ public class Turtle implements GraphWriter {
 
 	@Override
 	public void collapse() throws IOException {
-		// TODO Auto-generated method stub
-
+		while (!definitions.isEmpty())
+			writeEndDefinition();
+		if (statementOpen)
+			write(SENTENCE_END);
+		currentSubject = null;
+		currentPredicate = null;
+		statementOpen = false;
+		objectWritten = false;
+		anonymousSubject = false;
 	}
 
 	@Override
 	public void collapse(boolean closeGraph) throws IOException {
-		// TODO Auto-generated method stub
-
+		collapse();
 	}
 
 	@Override
 	public void trim(int maxStripes) throws IOException {
-		// TODO Auto-generated method stub
-
+		if (maxStripes < 1)
+			collapse();
+		else if (maxStripes < 2 && definitions.isEmpty())
+			// Keep the subject open but start a new predicate group
+			currentPredicate = null;
 	}
 
 	@Override
 	public int getMaxStripes() {
-		// TODO Auto-generated method stub
-		return 0;
+		return maxStripes;
 	}
 
 	@Override
 	public void setMaxStripes(int count) {
-		// TODO Auto-generated method stub
-
+		if (count < 0)
+			throw new IllegalArgumentException();
+		maxStripes = count;
 	}
 
 	@Override
 	public void flush() throws IOException {
-		// TODO Auto-generated method stub
-
+		flushBuffer();
+		out.flush();
 	}
 
 	@Override
 	public void close() throws IOException {
+		collapse();
+		flushBuffer();
 		out.close();
 	}
 
 	@Override
 	public void writeStartDefinition(String subject) throws IOException {
-		out.write(LEFT_BRACKET);
-		out.write(SPACE);
+		writeObjectSeparator();
+		write(LEFT_BRACKET);
+		write(SPACE);
+		definitions.push(new Object[] { currentSubject, currentPredicate,
+				statementOpen });
+		currentSubject = subject;
+		currentPredicate = null;
+		statementOpen = false;
+		objectWritten = false;
 	}
 
 	@Override
 	public void writeEndDefinition() throws IOException {
-		out.write(RIGHT_BRACKET);
-		out.write(SEMI_COLON);
-		out.write(SPACE);
+		if (definitions.isEmpty())
+			throw new IllegalStateException();
+		write(SPACE);
+		write(RIGHT_BRACKET);
+		Object[] definition = definitions.pop();
+		currentSubject = (String) definition[0];
+		currentPredicate = (String) definition[1];
+		statementOpen = (Boolean) definition[2];
+		objectWritten = true;
+		// A node opened outside any statement is the subject of one, which
+		// still has to be ended
+		if (!statementOpen && definitions.isEmpty()) {
+			statementOpen = true;
+			anonymousSubject = true;
+		}
 	}
 
 	@Override
 	public void writeStartPredicate(String predicate) throws IOException {
-		escapeIRI(predicate);
-		out.write(SPACE);
+		if (anonymousSubject)
+			write(SPACE);
+		else if (statementOpen)
+			write(PREDICATE_SEPARATOR);
+		anonymousSubject = false;
+		writeResource(predicate);
+		write(SPACE);
+		currentPredicate = predicate;
+		statementOpen = true;
+		objectWritten = false;
 	}
 
 	@Override
 	public void writeEndPredicate() throws IOException {
-		out.write(SEMI_COLON);
-		out.write(SPACE);
+		currentPredicate = null;
+		objectWritten = false;
 	}
 
 	@Override
 	public void writeLiteral(String literal, String language, String dataType)
 			throws IOException {
-		out.write(QUOT);
-		out.write(literal.getBytes(CHARSET)); // TODO
-		out.write(QUOT);
-		out.write(COMMA);
-		out.write(SPACE);
+		writeObjectSeparator();
+		escapeString(literal);
+		if (language != null) {
+			write(AT);
+			writeRaw(language);
+		} else if (dataType != null) {
+			write(DATA_TYPE);
+			escapeIRI(dataType);
+		}
 	}
 
 	@Override
 	public void writeIRI(String object) throws IOException {
-		escapeIRI(object);
-		out.write(COMMA);
-		out.write(SPACE);
+		writeObjectSeparator();
+		writeResource(object);
 	}
 
 	@Override
 	public void writeStartStatement(String subject, String predicate)
 			throws IOException {
-		writeStatement(null, subject, predicate, null, null, null, null);
+		startStatement(subject, predicate);
 	}
 
 	@Override
 	public void writeEndStatement() throws IOException {
-		out.write(SENTENCE_END);
+		collapse();
 	}
 
 }
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.graph.turtle.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.openapplication.graph.turtle.Turtle;
+
+public class TurtleTest {
+
+	private static final String EX = "http://example.com/";
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	private Turtle newWriter() throws IOException {
+		return new Turtle(out, Collections.<String, String> emptyMap());
+	}
+
+	private String output() throws IOException {
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+	@Test
+	public void testGrouping() throws IOException {
+		Turtle turtle = newWriter();
+		turtle.writeStatement(null, EX + "s", EX + "p", EX + "a", null, null,
+				null);
+		turtle.writeStatement(null, EX + "s", EX + "p", EX + "b", null, null,
+				null);
+		turtle.writeStatement(null, EX + "s", EX + "q", null, "x", "en",
+				null);
+		turtle.writeStatement(null, EX + "t", EX + "p", null, "1", null, EX
+				+ "int");
+		turtle.close();
+		assertEquals("\n<http://example.com/s> <http://example.com/p> "
+				+ "<http://example.com/a> ,\n\t\t<http://example.com/b> ;\n"
+				+ "\t<http://example.com/q> \"x\"@en .\n"
+				+ "<http://example.com/t> <http://example.com/p> "
+				+ "\"1\"^^<http://example.com/int> .\n", output());
+	}
+
+	@Test
+	public void testNoGrouping() throws IOException {
+		Turtle turtle = newWriter();
+		turtle.setMaxStripes(0);
+		turtle.writeStatement(null, EX + "s", EX + "p", EX + "a", null, null,
+				null);
+		turtle.writeStatement(null, EX + "s", EX + "p", EX + "b", null, null,
+				null);
+		turtle.close();
+		assertEquals("\n<http://example.com/s> <http://example.com/p> "
+				+ "<http://example.com/a> .\n<http://example.com/s> "
+				+ "<http://example.com/p> <http://example.com/b> .\n",
+				output());
+	}
+
+	@Test
+	public void testEscaping() throws IOException {
+		Turtle turtle = newWriter();
+		turtle.writeStatement(null, EX + "s", EX + "p", null,
+				"a \"b\"\n\u00e5", null, null);
+		turtle.close();
+		assertEquals("\n<http://example.com/s> <http://example.com/p> "
+				+ "\"a \\\"b\\\"\\n\u00e5\" .\n", output());
+	}
+
+	@Test
+	public void testLargeOutputIsBuffered() throws IOException {
+		Turtle turtle = newWriter();
+		for (int i = 0; i < 10000; i++)
+			turtle.writeStatement(null, EX + "s" + i, EX + "p", null, "v" + i,
+					null, null);
+		turtle.close();
+		String[] lines = output().split("\n");
+		assertEquals(10001, lines.length);
+		assertEquals("<http://example.com/s9999> <http://example.com/p> "
+				+ "\"v9999\" .", lines[10000]);
+	}
+
+	@Test
+	public void testNestedDefinition() throws IOException {
+		Turtle turtle = newWriter();
+		turtle.writeStartStatement(EX + "s", EX + "p");
+		turtle.writeStartDefinition("_:b");
+		turtle.writeStartPredicate(EX + "q");
+		turtle.writeIRI(EX + "o");
+		turtle.writeEndPredicate();
+		turtle.writeEndDefinition();
+		turtle.writeEndStatement();
+		turtle.close();
+		assertEquals("\n<http://example.com/s> <http://example.com/p> "
+				+ "[ <http://example.com/q> <http://example.com/o> ] .\n",
+				output());
+	}
+
+	@Test
+	public void testTopLevelDefinitionIsTerminated() throws IOException {
+		Turtle turtle = newWriter();
+		turtle.writeStartDefinition("_:b");
+		turtle.writeStartPredicate(EX + "q");
+		turtle.writeIRI(EX + "o");
+		turtle.writeEndPredicate();
+		turtle.writeEndDefinition();
+		turtle.writeStatement(null, EX + "s", EX + "p", EX + "o", null, null,
+				null);
+		turtle.close();
+		assertEquals("\n[ <http://example.com/q> <http://example.com/o> ] .\n"
+				+ "<http://example.com/s> <http://example.com/p> "
+				+ "<http://example.com/o> .\n", output());
+	}
+
+	@Test
+	public void testTopLevelDefinitionAsSubject() throws IOException {
+		Turtle turtle = newWriter();
+		turtle.writeStartDefinition("_:b");
+		turtle.writeStartPredicate(EX + "q");
+		turtle.writeIRI(EX + "o");
+		turtle.writeEndPredicate();
+		turtle.writeEndDefinition();
+		turtle.writeStartPredicate(EX + "r");
+		turtle.writeIRI(EX + "o");
+		turtle.close();
+		assertEquals("\n[ <http://example.com/q> <http://example.com/o> ] "
+				+ "<http://example.com/r> <http://example.com/o> .\n",
+				output());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testStatementWithoutObject() throws IOException {
+		newWriter().writeStatement(null, EX + "s", EX + "p", null, null, null,
+				null);
+	}
+
+}